@@ -0,0 +1,336 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.benchmarks;
+
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.sarima.SarimaModel;
+import ec.tstoolkit.sarima.SarimaModelBuilder;
+import ec.tstoolkit2.ssf.implementations.arima.SsfArima;
+import ec.tstoolkit2.ssf.implementations.dfm.CumulMeasurement;
+import ec.tstoolkit2.ssf.implementations.dfm.LevelMeasurement;
+import ec.tstoolkit2.ssf.implementations.dfm.MeasurementDescriptor;
+import ec.tstoolkit2.ssf.implementations.dfm.SsfDfm;
+import ec.tstoolkit2.ssf.implementations.structural.BasicStructuralModel;
+import ec.tstoolkit2.ssf.implementations.structural.Component;
+import ec.tstoolkit2.ssf.implementations.structural.ComponentUse;
+import ec.tstoolkit2.ssf.implementations.structural.ModelSpecification;
+import ec.tstoolkit2.ssf.implementations.structural.SeasonalModel;
+import ec.tstoolkit2.ssf.implementations.structural.SsfBsm;
+import ec.tstoolkit2.ssf.implementations.structural.SsfBsm2;
+import ec.tstoolkit2.ssf.implementations.structural.SsfSutse;
+import ec.tstoolkit2.ssf.implementations.structural.SutseModel;
+import ec.tstoolkit2.ssf.implementations.var.VarDescriptor;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsf;
+import ec.tstoolkit2.ssf.multivariate.SsfMatrix;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.Random;
+
+/**
+ * Models and data shared by the benchmarks. The data are generated with a
+ * fixed seed, so that successive runs work on exactly the same series.
+ *
+ * @author Jean Palate
+ */
+public final class BenchmarkModels {
+
+    public static final long SEED = 20150101L;
+
+    public static final String AIRLINE = "airline", SEASONAL = "seasonal",
+            BSM = "bsm", BSM2 = "bsm2", STATIONARY = "stationary",
+            SUTSE = "sutse", DFM = "dfm";
+
+    private BenchmarkModels() {
+    }
+
+    /**
+     * Airline model (0 1 1)(0 1 1)12
+     *
+     * @return
+     */
+    public static SarimaModel airline() {
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        return builder.createAirlineModel(12, -.6, -.8);
+    }
+
+    /**
+     * High-order seasonal model (3 1 1)(1 1 1)12
+     *
+     * @return
+     */
+    public static SarimaModel seasonal() {
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        SarimaModel model = builder.createArimaModel(12, 3, 1, 1, 1, 1, 1);
+        model.setPhi(1, -.3);
+        model.setPhi(2, .1);
+        model.setPhi(3, -.2);
+        model.setTheta(1, -.6);
+        model.setBPhi(1, -.4);
+        model.setBTheta(1, -.8);
+        return model;
+    }
+
+    /**
+     * Stationary model (3 0 1)(1 0 1)12, used by the Chandrasekhar recursions
+     *
+     * @return
+     */
+    public static SarimaModel stationary() {
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        SarimaModel model = builder.createArimaModel(12, 3, 0, 1, 1, 0, 1);
+        model.setPhi(1, -.3);
+        model.setPhi(2, .1);
+        model.setPhi(3, -.2);
+        model.setTheta(1, -.6);
+        model.setBPhi(1, -.4);
+        model.setBTheta(1, -.8);
+        return model;
+    }
+
+    public static BasicStructuralModel bsm() {
+        ModelSpecification spec = new ModelSpecification();
+        spec.useLevel(ComponentUse.Free);
+        spec.useSlope(ComponentUse.Free);
+        spec.useCycle(ComponentUse.Free);
+        spec.useNoise(ComponentUse.Free);
+        spec.setSeasonalModel(SeasonalModel.Trigonometric);
+        BasicStructuralModel model = new BasicStructuralModel(spec, 12);
+        model.setCycle(.9, 8);
+        model.setVariance(Component.Level, .1);
+        model.setVariance(Component.Slope, .2);
+        model.setVariance(Component.Cycle, .5);
+        model.setVariance(Component.Seasonal, 2);
+        model.setVariance(Component.Noise, 1);
+        return model;
+    }
+
+    public static SutseModel sutse() {
+        ModelSpecification spec = new ModelSpecification();
+        spec.useLevel(ComponentUse.Free);
+        spec.useSlope(ComponentUse.Free);
+        spec.useCycle(ComponentUse.Free);
+        spec.useNoise(ComponentUse.Free);
+        spec.setSeasonalModel(SeasonalModel.Dummy);
+
+        BasicStructuralModel m1 = new BasicStructuralModel(spec, 12);
+        m1.setCycle(.9, 8);
+        m1.setVariance(Component.Level, .1);
+        m1.setVariance(Component.Slope, .2);
+        m1.setVariance(Component.Cycle, .5);
+        m1.setVariance(Component.Seasonal, 2);
+        m1.setVariance(Component.Noise, 1);
+
+        BasicStructuralModel m2 = new BasicStructuralModel(spec, 12);
+        m2.setCycle(.5, 6);
+        m2.setVariance(Component.Level, .15);
+        m2.setVariance(Component.Slope, .25);
+        m2.setVariance(Component.Cycle, .75);
+        m2.setVariance(Component.Seasonal, 2.5);
+        m2.setVariance(Component.Noise, 1.5);
+
+        spec.useCycle(ComponentUse.Unused);
+        BasicStructuralModel m3 = new BasicStructuralModel(spec, 12);
+        m3.setVariance(Component.Level, .15);
+        m3.setVariance(Component.Slope, .25);
+        m3.setVariance(Component.Seasonal, 2.5);
+        m3.setVariance(Component.Noise, 1.5);
+
+        SutseModel model = new SutseModel(new BasicStructuralModel[]{m1, m2, m3});
+        Matrix corr = Matrix.square(3);
+        corr.diagonal().set(1);
+        corr.set(0, 1, .8);
+        corr.set(1, 0, .8);
+        corr.set(0, 2, .5);
+        corr.set(2, 0, .5);
+        corr.set(1, 2, .4);
+        corr.set(2, 1, .4);
+        model.setCorrelations(Component.Noise, corr);
+        Matrix ccorr = Matrix.square(2);
+        ccorr.diagonal().set(1);
+        ccorr.set(0, 1, .8);
+        ccorr.set(1, 0, .8);
+        model.setCorrelations(Component.Cycle, ccorr);
+        return model;
+    }
+
+    /**
+     * Dynamic factor model with 3 factors (VAR(1)) and nvars indicators. The
+     * first half of the indicators are levels, the second half monthly
+     * cumulations of the factors.
+     *
+     * @param nvars
+     * @return
+     */
+    public static SsfDfm dfm(int nvars) {
+        VarDescriptor vdesc = new VarDescriptor(3, 1);
+        vdesc.setDefault();
+        MeasurementDescriptor[] mdesc = new MeasurementDescriptor[nvars];
+        for (int i = 0; i < nvars / 2; ++i) {
+            mdesc[i] = new MeasurementDescriptor(LevelMeasurement.ML, new double[3], 1);
+            mdesc[i].seDefaultCoefficients();
+        }
+        for (int i = nvars / 2; i < nvars; ++i) {
+            mdesc[i] = new MeasurementDescriptor(CumulMeasurement.MC12, new double[3], 1);
+            mdesc[i].seDefaultCoefficients();
+        }
+        return SsfDfm.from(vdesc, mdesc);
+    }
+
+    /**
+     * Univariate state space form corresponding to the given name
+     *
+     * @param name
+     * @return
+     */
+    public static ISsf univariate(String name) {
+        switch (name) {
+            case AIRLINE:
+                return SsfArima.create(airline());
+            case SEASONAL:
+                return SsfArima.create(seasonal());
+            case STATIONARY:
+                return SsfArima.create(stationary());
+            case BSM:
+                return SsfBsm.create(bsm());
+            case BSM2:
+                return SsfBsm2.create(bsm());
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * Multivariate state space form corresponding to the given name
+     *
+     * @param name
+     * @return
+     */
+    public static IMultivariateSsf multivariate(String name) {
+        switch (name) {
+            case SUTSE:
+                return SsfSutse.of(sutse());
+            case DFM:
+                return dfm(20);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * Generates an airline-like series: y(t) is the double (regular and
+     * seasonal) integration of a MA process. The stationary flag skips the
+     * integration.
+     *
+     * @param n Length of the series
+     * @param stationary
+     * @param seed
+     * @return
+     */
+    public static double[] generate(int n, boolean stationary, long seed) {
+        Random rnd = new Random(seed);
+        double[] e = new double[n];
+        for (int i = 0; i < n; ++i) {
+            e[i] = rnd.nextGaussian();
+        }
+        double[] w = new double[n];
+        for (int i = 0; i < n; ++i) {
+            double cur = e[i];
+            if (i >= 1) {
+                cur -= .6 * e[i - 1];
+            }
+            if (i >= 12) {
+                cur -= .8 * e[i - 12];
+            }
+            if (i >= 13) {
+                cur += .48 * e[i - 13];
+            }
+            w[i] = cur;
+        }
+        if (stationary) {
+            return w;
+        }
+        // (1-B)(1-B^12) y = w
+        double[] y = new double[n];
+        for (int i = 0; i < n; ++i) {
+            double cur = w[i];
+            if (i >= 1) {
+                cur += y[i - 1];
+            }
+            if (i >= 12) {
+                cur += y[i - 12];
+            }
+            if (i >= 13) {
+                cur -= y[i - 13];
+            }
+            y[i] = cur;
+        }
+        return y;
+    }
+
+    /**
+     * Randomly puts missing values in the data
+     *
+     * @param data
+     * @param fraction Fraction of missing values (in [0, 1[)
+     * @param seed
+     */
+    public static void addMissings(double[] data, double fraction, long seed) {
+        if (fraction <= 0) {
+            return;
+        }
+        Random rnd = new Random(seed);
+        int nm = (int) (data.length * fraction);
+        for (int i = 0; i < nm; ++i) {
+            data[rnd.nextInt(data.length)] = Double.NaN;
+        }
+    }
+
+    public static SsfData univariateData(String name, int n, double missing) {
+        double[] y = generate(n, STATIONARY.equals(name), SEED);
+        addMissings(y, missing, SEED + 1);
+        return new SsfData(y);
+    }
+
+    /**
+     * Checks, in the set-up of a benchmark, that a benchmarked computation
+     * gives the likelihood of a reference computation
+     *
+     * @param name The name of the benchmarked computation
+     * @param ll Its likelihood
+     * @param ref The reference likelihood
+     * @throws IllegalStateException if the likelihoods are different
+     */
+    public static void checkLikelihood(String name, ILikelihood ll, ILikelihood ref) {
+        if (ll == null || ref == null) {
+            throw new IllegalStateException(name + ": no likelihood");
+        }
+        double l = ll.getLogLikelihood(), lref = ref.getLogLikelihood();
+        if (!Double.isFinite(l) || Math.abs(l - lref) > 1e-6 * Math.max(1, Math.abs(lref))) {
+            throw new IllegalStateException(name + ": wrong likelihood (" + l + " instead of " + lref + ")");
+        }
+    }
+
+    public static SsfMatrix multivariateData(String name, int n) {
+        int nvars = multivariate(name).getMeasurements().getMaxCount();
+        Matrix m = new Matrix(n, nvars);
+        for (int i = 0; i < nvars; ++i) {
+            m.column(i).copyFrom(generate(n, DFM.equals(name), SEED + i), 0);
+        }
+        return new SsfMatrix(m);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.benchmarks;
+
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.array.ArrayFilter;
+import ec.tstoolkit2.ssf.ckms.FastFilter;
+import ec.tstoolkit2.ssf.implementations.arima.SsfArima;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
+import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filters without diffuse initialization, on a stationary arima model:
+ * Chandrasekhar (CKMS) recursions (the only case handled by the CKMS
+ * initializer), ordinary Kalman filter and square root array filter.
+ *
+ * @author Jean Palate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class FastFilterBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int length;
+
+    private SsfArima ssf;
+    private SsfData data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ssf = SsfArima.create(BenchmarkModels.stationary());
+        data = BenchmarkModels.univariateData(BenchmarkModels.STATIONARY, length, 0);
+        ILikelihood ref = ordinaryFilter();
+        BenchmarkModels.checkLikelihood("ckmsFilter", ckmsFilter(), ref);
+        BenchmarkModels.checkLikelihood("arrayFilter", arrayFilter(), ref);
+    }
+
+    @Benchmark
+    public ILikelihood ckmsFilter() {
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        FastFilter<SsfArima> filter = new FastFilter<>(SsfArima.fastInitializer(ssf));
+        filter.process(ssf, data, pe);
+        return pe.likelihood();
+    }
+
+    @Benchmark
+    public ILikelihood ordinaryFilter() {
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        OrdinaryFilter filter = new OrdinaryFilter();
+        filter.process(ssf, data, pe);
+        return pe.likelihood();
+    }
+
+    @Benchmark
+    public ILikelihood arrayFilter() {
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        ArrayFilter filter = new ArrayFilter();
+        filter.process(ssf, data, pe);
+        return pe.likelihood();
+    }
+}
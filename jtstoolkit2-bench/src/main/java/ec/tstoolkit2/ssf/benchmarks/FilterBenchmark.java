@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.benchmarks;
+
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.dk.DiffusePredictionErrorDecomposition;
+import ec.tstoolkit2.ssf.dk.DkToolkit;
+import ec.tstoolkit2.ssf.dk.DurbinKoopmanInitializer;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw filtering of univariate (diffuse) models: ordinary Kalman filter with
+ * the diffuse initialization of Durbin-Koopman or its square root form. The
+ * filters without diffuse initialization are benchmarked on a stationary
+ * model (see FastFilterBenchmark).
+ *
+ * @author Jean Palate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class FilterBenchmark {
+
+    @Param({BenchmarkModels.AIRLINE, BenchmarkModels.SEASONAL, BenchmarkModels.BSM, BenchmarkModels.BSM2})
+    public String model;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int length;
+
+    @Param({"0"})
+    public double missing;
+
+    private ISsf ssf;
+    private SsfData data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ssf = BenchmarkModels.univariate(model);
+        data = BenchmarkModels.univariateData(model, length, missing);
+        ILikelihood ref = DkToolkit.likelihoodComputer(false, false).compute(ssf, data);
+        BenchmarkModels.checkLikelihood("diffuseOrdinaryFilter", diffuseOrdinaryFilter(), ref);
+        BenchmarkModels.checkLikelihood("diffuseSquareRootFilter", diffuseSquareRootFilter(), ref);
+    }
+
+    @Benchmark
+    public ILikelihood diffuseOrdinaryFilter() {
+        DiffusePredictionErrorDecomposition pe = new DiffusePredictionErrorDecomposition(false);
+        OrdinaryFilter filter = new OrdinaryFilter(new DurbinKoopmanInitializer(pe));
+        filter.process(ssf, data, pe);
+        return pe.likelihood();
+    }
+
+    @Benchmark
+    public ILikelihood diffuseSquareRootFilter() {
+        DiffusePredictionErrorDecomposition pe = new DiffusePredictionErrorDecomposition(false);
+        OrdinaryFilter filter = new OrdinaryFilter(new DiffuseSquareRootInitializer(pe));
+        filter.process(ssf, data, pe);
+        return pe.likelihood();
+    }
+}
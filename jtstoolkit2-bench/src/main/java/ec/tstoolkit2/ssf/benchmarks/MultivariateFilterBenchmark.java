@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.benchmarks;
+
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.akf.AkfDiffuseLikelihood;
+import ec.tstoolkit2.ssf.akf.AugmentedPredictionErrorsDecomposition;
+import ec.tstoolkit2.ssf.akf.MultivariateAugmentedFilterInitializer;
+import ec.tstoolkit2.ssf.dk.DkToolkit;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsf;
+import ec.tstoolkit2.ssf.multivariate.M2uAdapter;
+import ec.tstoolkit2.ssf.multivariate.MultivariateOrdinaryFilter;
+import ec.tstoolkit2.ssf.multivariate.PredictionErrorsDecomposition;
+import ec.tstoolkit2.ssf.multivariate.SsfMatrix;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Multivariate models (SUTSE, dynamic factor model): multivariate filter
+ * against the univariate treatment of the multivariate series
+ *
+ * @author Jean Palate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MultivariateFilterBenchmark {
+
+    @Param({BenchmarkModels.SUTSE, BenchmarkModels.DFM})
+    public String model;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int length;
+
+    private IMultivariateSsf ssf;
+    private SsfMatrix data;
+    private ISsf ussf;
+    private ISsfData udata;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ssf = BenchmarkModels.multivariate(model);
+        data = BenchmarkModels.multivariateData(model, length);
+        ussf = M2uAdapter.of(ssf);
+        udata = M2uAdapter.of(data);
+    }
+
+    @Benchmark
+    public ILikelihood multivariateOrdinaryFilter() {
+        PredictionErrorsDecomposition decomp = new PredictionErrorsDecomposition(false);
+        if (ssf.getDynamics().isDiffuse()) {
+            AugmentedPredictionErrorsDecomposition idecomp = new AugmentedPredictionErrorsDecomposition();
+            MultivariateOrdinaryFilter filter = new MultivariateOrdinaryFilter(new MultivariateAugmentedFilterInitializer(idecomp));
+            filter.process(ssf, data, decomp);
+            AkfDiffuseLikelihood ll = idecomp.likelihood();
+            ll.add(decomp.likelihood());
+            return ll;
+        } else {
+            MultivariateOrdinaryFilter filter = new MultivariateOrdinaryFilter();
+            filter.process(ssf, data, decomp);
+            return decomp.likelihood();
+        }
+    }
+
+    @Benchmark
+    public ILikelihood univariateTreatment() {
+        return DkToolkit.likelihoodComputer().compute(ussf, udata);
+    }
+}
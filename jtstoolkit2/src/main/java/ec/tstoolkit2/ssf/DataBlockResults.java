@@ -19,7 +19,9 @@
 package ec.tstoolkit2.ssf;
 
 import ec.tstoolkit.data.DataBlock;
-import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.IVectorsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -27,13 +29,23 @@ import ec.tstoolkit.data.DataBlockStorage;
  */
 public class DataBlockResults {
 
-    DataBlockStorage data;
+    private final IResultsStorage storage;
+    IVectorsStorage data;
     int start;
 
     /**
      *
      */
     public DataBlockResults() {
+        this(ResultsStorage.DEFAULT);
+    }
+
+    /**
+     *
+     * @param storage
+     */
+    public DataBlockResults(final IResultsStorage storage) {
+        this.storage = storage;
     }
 
     /**
@@ -61,7 +73,7 @@ public class DataBlockResults {
     public void prepare(final int dim, final int start, final int end) {
         clear();
         this.start=start;
-        data = new DataBlockStorage(dim, end - start);
+        data = storage.vectors(dim, end - start);
     }
     
     /**
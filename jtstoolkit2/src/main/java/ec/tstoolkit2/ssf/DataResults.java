@@ -21,7 +21,9 @@ package ec.tstoolkit2.ssf;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DataBlockStorage;
 import ec.tstoolkit.data.IReadDataBlock;
-import ec.tstoolkit.data.ReadDataBlock;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.IScalarsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -29,7 +31,8 @@ import ec.tstoolkit.data.ReadDataBlock;
  */
 public class DataResults implements IReadDataBlock{
 
-    double[] data;
+    private final IResultsStorage storage;
+    IScalarsStorage data;
     int start;
     int nused;
 
@@ -37,6 +40,15 @@ public class DataResults implements IReadDataBlock{
      *
      */
     public DataResults() {
+        this(ResultsStorage.DEFAULT);
+    }
+
+    /**
+     *
+     * @param storage
+     */
+    public DataResults(final IResultsStorage storage) {
+        this.storage = storage;
     }
 
     /**
@@ -49,13 +61,13 @@ public class DataResults implements IReadDataBlock{
 
     public void prepare(final int start, final int end) {
         this.start = start;
-        data = new double[end - start];
-        for (int i=0; i<data.length; ++i)
-            data[i]=Double.NaN;
+        data = storage.scalars(end - start);
+        for (int i=0; i<end - start; ++i)
+            data.set(i, Double.NaN);
     }
     
     public DataBlock all(){
-        return new DataBlock(data,0 , nused, 1);
+        return data.extract(0, nused);
     }
 
     /**
@@ -68,7 +80,7 @@ public class DataResults implements IReadDataBlock{
         if (data == null || t < start) {
             return Double.NaN;
         } else {
-            return data[t - start];
+            return data.get(t - start);
         }
     }
 
@@ -78,7 +90,7 @@ public class DataResults implements IReadDataBlock{
             return;
         }
         checkSize(st+1);
-        data[st] = x;
+        data.set(st, x);
     }
 
     /**
@@ -101,23 +113,25 @@ public class DataResults implements IReadDataBlock{
     private void checkSize(int size) {
         if (nused<size)
             nused=size;            
-        int cursize = data == null ? 0 : data.length;
+        int cursize = data == null ? 0 : data.getCapacity();
         if (size > cursize) {
             int nsize = Math.max(DataBlockStorage.calcSize(size), cursize << 1);
-            double[] tmp = new double[nsize];
-            if (cursize > 0) {
-                System.arraycopy(data, 0, tmp, 0, cursize);
+            if (data == null) {
+                data = storage.scalars(nsize);
+            } else {
+                data.resize(nsize);
             }
             for (int i = cursize; i < nsize; ++i) {
-                tmp[i] = Double.NaN;
+                data.set(i, Double.NaN);
             }
-            data = tmp;
         }
     }
 
     @Override
     public void copyTo(double[] buffer, int start) {
-        System.arraycopy(data, 0, buffer, start, nused);
+        for (int i = 0; i < nused; ++i) {
+            buffer[start + i] = data.get(i);
+        }
     }
 
     @Override
@@ -127,14 +141,14 @@ public class DataResults implements IReadDataBlock{
 
     @Override
     public IReadDataBlock rextract(int t0, int length) {
-        return new ReadDataBlock(data, t0, length);
+        return data.extract(t0, length);
     }
     
     public void rescale(double factor){
         if (factor == 1)
             return;
         for (int i=0; i<nused; ++i){
-            data[i]*=factor;
+            data.set(i, data.get(i) * factor);
         }
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Complete image of a filter at a given position: the state (a, P and the
+ * diffuse part Pi or the constraints B), the cumulators of the likelihood
+ * and, for the augmented filter, the Q matrix of De Jong. Snapshots can be
+ * written in a compact binary format, so that a filter can be re-started in
+ * another process without re-processing the previous observations.
+ *
+ * The binary layout is: magic number, version, kind of state, state info,
+ * position, dimension, a, lower triangle of P, lower triangle of Pi
+ * (diffuse states) or B (augmented states), likelihood cumulators and,
+ * optionally, the augmentation (Q). All the numbers are written in big-endian
+ * order (DataOutput). The elements specific to the kind of the state are
+ * written by the state itself (see State.writeSnapshotElements) and read by
+ * the IStateReader of its kind, which must be provided to the read methods
+ * (DiffuseState.SNAPSHOT_READER, AugmentedState.SNAPSHOT_READER...). The sizes
+ * of the binary image are checked before any allocation.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class FilterSnapshot {
+
+    public static final int MAGIC = 0x53534653, VERSION = 1;
+
+    /**
+     * Kinds of the states
+     */
+    public static final byte ORDINARY = 0, DIFFUSE = 1, AUGMENTED = 2;
+
+    /**
+     * Maximum number of doubles of a snapshot read from a stream
+     */
+    public static final long MAX_SIZE = 1 << 24;
+
+    /**
+     * Reads the states of a given kind
+     */
+    public static interface IStateReader {
+
+        byte getKind();
+
+        /**
+         * Creates a new state and reads the elements specific to its kind
+         *
+         * @param dim The dimension of the state
+         * @param input
+         * @param maxSize The maximum number of doubles that can be read
+         * @return
+         * @throws IOException
+         */
+        State read(int dim, DataInput input, long maxSize) throws IOException;
+    }
+
+    private final int pos;
+    private final State state;
+    // likelihood
+    private double ssq, ldet, lddet;
+    private int nobs, nd;
+    // augmentation
+    private Matrix Q;
+    private int qn;
+    private double qldet;
+
+    /**
+     * Creates a snapshot of a given state. The state is copied
+     *
+     * @param pos The position of the next observation
+     * @param state The state at that position
+     */
+    public FilterSnapshot(final int pos, final State state) {
+        this(pos, state, true);
+    }
+
+    private FilterSnapshot(final int pos, final State state, boolean copy) {
+        this.pos = pos;
+        this.state = copy ? state.duplicate() : state;
+    }
+
+    /**
+     * Position of the next observation
+     *
+     * @return
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    /**
+     * The state of the snapshot (State, DiffuseState or AugmentedState). It
+     * should not be modified
+     *
+     * @return
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Checks that the state still contains a diffuse part (non-zero Pi or
+     * active constraints)
+     *
+     * @return
+     */
+    public boolean isDiffuse() {
+        return state.isDiffuse();
+    }
+
+    /**
+     * Sets the cumulators of the likelihood
+     *
+     * @param ssq Sum of the squared (standardized) prediction errors
+     * @param ldet Log-determinant of the variances of the prediction errors
+     * @param lddet Log-determinant of the diffuse part
+     * @param nobs Number of observations (diffuse elements included)
+     * @param nd Number of diffuse elements
+     */
+    public void setLikelihood(double ssq, double ldet, double lddet, int nobs, int nd) {
+        this.ssq = ssq;
+        this.ldet = ldet;
+        this.lddet = lddet;
+        this.nobs = nobs;
+        this.nd = nd;
+    }
+
+    public double getSsqErr() {
+        return ssq;
+    }
+
+    public double getLogDeterminant() {
+        return ldet;
+    }
+
+    public double getDiffuseCorrection() {
+        return lddet;
+    }
+
+    public int getObsCount() {
+        return nobs;
+    }
+
+    public int getDiffuseCount() {
+        return nd;
+    }
+
+    /**
+     * Sets the augmentation of the augmented filter
+     *
+     * @param q The (Cholesky factor of the) Q matrix. It is copied
+     * @param n The number of observations used in Q
+     * @param ldet The log-determinant of their variances
+     */
+    public void setAugmentation(Matrix q, int n, double ldet) {
+        Q = q == null ? null : q.clone();
+        qn = n;
+        qldet = ldet;
+    }
+
+    public boolean hasAugmentation() {
+        return Q != null;
+    }
+
+    /**
+     *
+     * @return The Q matrix (null if there is no augmentation)
+     */
+    public Matrix getAugmentation() {
+        return Q;
+    }
+
+    public int getAugmentationObsCount() {
+        return qn;
+    }
+
+    public double getAugmentationLogDeterminant() {
+        return qldet;
+    }
+
+    /**
+     * Writes the snapshot in its binary format
+     *
+     * @param output
+     * @throws IOException
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(state.getSnapshotKind());
+        output.writeByte(state.getInfo().ordinal());
+        output.writeInt(pos);
+        int dim = state.getDim();
+        output.writeInt(dim);
+        writeBlock(output, state.a());
+        writeLower(output, state.unpackedP());
+        state.writeSnapshotElements(output);
+        output.writeDouble(ssq);
+        output.writeDouble(ldet);
+        output.writeDouble(lddet);
+        output.writeInt(nobs);
+        output.writeInt(nd);
+        output.writeBoolean(Q != null);
+        if (Q != null) {
+            output.writeInt(qn);
+            output.writeDouble(qldet);
+            output.writeInt(Q.getRowsCount());
+            output.writeInt(Q.getColumnsCount());
+            for (int i = 0; i < Q.getRowsCount(); ++i) {
+                writeBlock(output, Q.row(i));
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot written by the write method
+     *
+     * @param input
+     * @param readers The readers of the kinds of states other than the
+     * ordinary states
+     * @return
+     * @throws IOException
+     */
+    public static FilterSnapshot read(DataInput input, IStateReader... readers) throws IOException {
+        return read(input, MAX_SIZE, readers);
+    }
+
+    private static FilterSnapshot read(DataInput input, long maxSize, IStateReader... readers) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Invalid filter snapshot");
+        }
+        int version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported filter snapshot version: " + version);
+        }
+        byte kind = input.readByte();
+        IStateReader reader = null;
+        if (kind != ORDINARY) {
+            for (IStateReader cur : readers) {
+                if (cur.getKind() == kind) {
+                    reader = cur;
+                    break;
+                }
+            }
+            if (reader == null) {
+                throw new IOException("Unsupported kind of state in the filter snapshot: " + kind);
+            }
+        }
+        int ninfo = input.readByte();
+        StateInfo[] infos = StateInfo.values();
+        if (ninfo < 0 || ninfo >= infos.length) {
+            throw new IOException("Invalid filter snapshot");
+        }
+        int pos = input.readInt();
+        int dim = input.readInt();
+        // a and the lower triangle of P
+        long size = dim + (long) dim * (dim + 1) / 2;
+        if (dim < 0 || size > maxSize) {
+            throw new IOException("Invalid filter snapshot");
+        }
+        DataBlock a = new DataBlock(dim);
+        readBlock(input, a);
+        Matrix P = Matrix.square(dim);
+        readLower(input, P);
+        State state = reader == null ? new State(dim) : reader.read(dim, input, maxSize - size);
+        state.a().copy(a);
+        state.P().copy(P);
+        state.setInfo(infos[ninfo]);
+        FilterSnapshot snapshot = new FilterSnapshot(pos, state, false);
+        snapshot.ssq = input.readDouble();
+        snapshot.ldet = input.readDouble();
+        snapshot.lddet = input.readDouble();
+        snapshot.nobs = input.readInt();
+        snapshot.nd = input.readInt();
+        if (input.readBoolean()) {
+            snapshot.qn = input.readInt();
+            snapshot.qldet = input.readDouble();
+            int nr = input.readInt(), nc = input.readInt();
+            if (nr < 0 || nc < 0 || (long) nr * nc > maxSize) {
+                throw new IOException("Invalid filter snapshot");
+            }
+            Matrix q = new Matrix(nr, nc);
+            for (int i = 0; i < nr; ++i) {
+                readBlock(input, q.row(i));
+            }
+            snapshot.Q = q;
+        }
+        return snapshot;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            write(output);
+        } catch (IOException ex) {
+            // should not happen with in-memory streams
+            throw new SsfException("Invalid filter snapshot", ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot from its binary image
+     *
+     * @param bytes
+     * @param readers The readers of the kinds of states other than the
+     * ordinary states
+     * @return
+     * @throws IOException
+     */
+    public static FilterSnapshot fromByteArray(byte[] bytes, IStateReader... readers) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(input, bytes.length / Double.BYTES, readers);
+        }
+    }
+
+    public static void writeBlock(DataOutput output, DataBlock x) throws IOException {
+        for (int i = 0; i < x.getLength(); ++i) {
+            output.writeDouble(x.get(i));
+        }
+    }
+
+    public static void readBlock(DataInput input, DataBlock x) throws IOException {
+        for (int i = 0; i < x.getLength(); ++i) {
+            x.set(i, input.readDouble());
+        }
+    }
+
+    /**
+     * Writes the lower triangle (diagonal included) of a symmetric matrix,
+     * column by column
+     */
+    public static void writeLower(DataOutput output, Matrix m) throws IOException {
+        int n = m.getRowsCount();
+        for (int j = 0; j < n; ++j) {
+            for (int i = j; i < n; ++i) {
+                output.writeDouble(m.get(i, j));
+            }
+        }
+    }
+
+    /**
+     * Reads a matrix written by writeLower
+     */
+    public static void readLower(DataInput input, Matrix m) throws IOException {
+        int n = m.getRowsCount();
+        for (int j = 0; j < n; ++j) {
+            m.set(j, j, input.readDouble());
+            for (int i = j + 1; i < n; ++i) {
+                double x = input.readDouble();
+                m.set(i, j, x);
+                m.set(j, i, x);
+            }
+        }
+    }
+}
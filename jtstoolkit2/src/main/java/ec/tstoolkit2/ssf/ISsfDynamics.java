@@ -204,9 +204,15 @@ public interface ISsfDynamics {
     default boolean forecast(int pos, State state){
         if (state.getInfo() == StateInfo.Concurrent){
             TX(pos, state.a());
-            SubMatrix P= state.P().subMatrix();
-            TVT(pos,P);
-            addV(pos, P);
+            if (state.isPacked()) {
+                PackedSymmetricMatrix P = state.packedP();
+                TVT(pos, P);
+                addV(pos, P);
+            } else {
+                SubMatrix P = state.P().subMatrix();
+                TVT(pos, P);
+                addV(pos, P);
+            }
             state.setInfo(StateInfo.Forecast);
             return true;
         }else{
@@ -225,6 +231,21 @@ public interface ISsfDynamics {
         TM(pos, vm.transpose());
     }
 
+    /**
+     * Computes T V T' for a packed symmetric matrix. Only the lower triangle
+     * should be computed. The default implementation applies TVT on a
+     * complete copy of the matrix, made in its workspace (see
+     * PackedSymmetricMatrix.unpack)
+     *
+     * @param pos The position of the model
+     * @param vm
+     */
+    default void TVT(int pos, PackedSymmetricMatrix vm) {
+        SubMatrix m = vm.unpack();
+        TVT(pos, m);
+        vm.pack(m);
+    }
+
 //</editor-fold>    
     
 //<editor-fold defaultstate="collapsed" desc="backward operations">
@@ -258,6 +279,21 @@ public interface ISsfDynamics {
      * @param p
      */
     void addV(int pos, SubMatrix p);
+
+    /**
+     * Adds the variance of the innovations to a packed symmetric matrix. The
+     * default implementation goes through a complete matrix (the workspace of
+     * p)
+     *
+     * @param pos
+     * @param p
+     */
+    default void addV(int pos, PackedSymmetricMatrix p) {
+        SubMatrix v = p.workspace().subMatrix();
+        v.set(0);
+        addV(pos, v);
+        p.add(v);
+    }
 //</editor-fold>
     
 
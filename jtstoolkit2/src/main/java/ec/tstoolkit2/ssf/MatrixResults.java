@@ -20,8 +20,10 @@ package ec.tstoolkit2.ssf;
 
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.maths.matrices.Matrix;
-import ec.tstoolkit.maths.matrices.MatrixStorage;
 import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.storage.IMatrixStorage;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -29,13 +31,27 @@ import ec.tstoolkit.maths.matrices.SubMatrix;
  */
 public class MatrixResults {
 
-    MatrixStorage data_;
+    private final IResultsStorage storage_;
+    private final boolean symmetric_;
+    IMatrixStorage data_;
     int start_;
 
     /**
      *
      */
     public MatrixResults() {
+        this(ResultsStorage.DEFAULT, false);
+    }
+
+    /**
+     *
+     * @param storage
+     * @param symmetric True if the results are symmetric matrices (typically
+     * covariance matrices), which may be stored in a compact way.
+     */
+    public MatrixResults(final IResultsStorage storage, final boolean symmetric) {
+        storage_ = storage;
+        symmetric_ = symmetric;
     }
 
     /**
@@ -58,7 +74,7 @@ public class MatrixResults {
      * @return
      */
     public int getDim() {
-        return data_.getMatrixColumnsCount();
+        return data_.getColumnsCount();
     }
 
     /**
@@ -70,7 +86,8 @@ public class MatrixResults {
     public void prepare(final int dim, final int start, final int end) {
         clear();
         start_=start;
-        data_ = new MatrixStorage(dim, end - start);
+        data_ = symmetric_ ? storage_.symmetricMatrices(dim, end - start)
+                : storage_.matrices(dim, dim, end - start);
     }
 
     /**
@@ -83,7 +100,7 @@ public class MatrixResults {
     public void prepare(final int nrows, final int ncols, final int start, final int end) {
         clear();
         start_=start;
-        data_ = new MatrixStorage(nrows, ncols, end - start);
+        data_ = storage_.matrices(nrows, ncols, end - start);
     }
     /**
      *
@@ -116,7 +133,7 @@ public class MatrixResults {
         if (capacity<=st){
             data_.resize(capacity<<1);
         }
-        data_.save(st, P);
+        data_.save(st, P.subMatrix());
     }
 
     public void save(final int t, final SubMatrix P) {
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Symmetric matrix of which only the lower triangle is stored, column by
+ * column (packed storage). The part of the column j below the diagonal
+ * (rows j to dim-1) is contiguous, as well as the trailing square blocks.
+ * The operations defined in this class only compute the lower triangle.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class PackedSymmetricMatrix {
+
+    private final int dim;
+    private final double[] data;
+    private Matrix tmp;
+
+    public PackedSymmetricMatrix(final int dim) {
+        this.dim = dim;
+        this.data = new double[dim * (dim + 1) / 2];
+    }
+
+    /**
+     * Creates a packed matrix from the lower triangle of a square matrix
+     *
+     * @param m
+     * @return
+     */
+    public static PackedSymmetricMatrix of(SubMatrix m) {
+        PackedSymmetricMatrix p = new PackedSymmetricMatrix(m.getRowsCount());
+        p.copyFrom(m);
+        return p;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * The packed data (lower triangle, by columns)
+     *
+     * @return
+     */
+    public double[] getStorage() {
+        return data;
+    }
+
+    /**
+     * Position of the element (i, j) in the storage. i must be greater or
+     * equal to j
+     *
+     * @param i
+     * @param j
+     * @return
+     */
+    public int index(int i, int j) {
+        return j * dim - j * (j - 1) / 2 + i - j;
+    }
+
+    public double get(int i, int j) {
+        return i >= j ? data[index(i, j)] : data[index(j, i)];
+    }
+
+    public void set(int i, int j, double x) {
+        if (i >= j) {
+            data[index(i, j)] = x;
+        } else {
+            data[index(j, i)] = x;
+        }
+    }
+
+    public void add(int i, int j, double x) {
+        if (i >= j) {
+            data[index(i, j)] += x;
+        } else {
+            data[index(j, i)] += x;
+        }
+    }
+
+    /**
+     * Part of the column j below the diagonal (rows j to dim-1). The block
+     * shares its data with this object
+     *
+     * @param j
+     * @return
+     */
+    public DataBlock column(int j) {
+        int start = index(j, j);
+        return new DataBlock(data, start, start + dim - j, 1);
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(data, 0);
+    }
+
+    public void copy(PackedSymmetricMatrix p) {
+        System.arraycopy(p.data, 0, data, 0, data.length);
+    }
+
+    /**
+     * Copies the lower triangle of a square matrix
+     *
+     * @param m
+     */
+    public void copyFrom(SubMatrix m) {
+        for (int j = 0, k = 0; j < dim; ++j) {
+            for (int i = j; i < dim; ++i) {
+                data[k++] = m.get(i, j);
+            }
+        }
+    }
+
+    /**
+     * Copies this matrix (both triangles) in a square matrix
+     *
+     * @param m
+     */
+    public void copyTo(SubMatrix m) {
+        for (int j = 0, k = 0; j < dim; ++j) {
+            m.set(j, j, data[k++]);
+            for (int i = j + 1; i < dim; ++i) {
+                double x = data[k++];
+                m.set(i, j, x);
+                m.set(j, i, x);
+            }
+        }
+    }
+
+    /**
+     * Adds the lower triangle of a square matrix
+     *
+     * @param m
+     */
+    public void add(SubMatrix m) {
+        for (int j = 0, k = 0; j < dim; ++j) {
+            for (int i = j; i < dim; ++i) {
+                data[k++] += m.get(i, j);
+            }
+        }
+    }
+
+    public Matrix toMatrix() {
+        Matrix m = Matrix.square(dim);
+        copyTo(m.subMatrix());
+        return m;
+    }
+
+    /**
+     * Copies this matrix in an internal square matrix, which is re-used
+     * between successive calls. It is used to apply to this object the
+     * operations that are only defined on complete matrices (see pack)
+     *
+     * @return
+     */
+    public SubMatrix unpack() {
+        SubMatrix m = workspace().subMatrix();
+        copyTo(m);
+        return m;
+    }
+
+    /**
+     * Internal square matrix (dim x dim), created once and re-used by unpack.
+     * It can be used as a temporary buffer by the packed operations of the
+     * models, to avoid allocations. Its content is undefined
+     *
+     * @return
+     */
+    public Matrix workspace() {
+        if (tmp == null) {
+            tmp = Matrix.square(dim);
+        }
+        return tmp;
+    }
+
+    /**
+     * Copies back the lower triangle of a matrix retrieved by unpack
+     *
+     * @param m
+     */
+    public void pack(SubMatrix m) {
+        copyFrom(m);
+    }
+
+    /**
+     * Computes y = this * x. The zero elements of x are skipped
+     *
+     * @param x
+     * @param y
+     */
+    public void product(DataBlock x, DataBlock y) {
+        y.set(0);
+        for (int j = 0; j < dim; ++j) {
+            double xj = x.get(j);
+            if (xj == 0) {
+                continue;
+            }
+            // row j (left of the diagonal) and column j (below the diagonal)
+            for (int i = 0; i < j; ++i) {
+                y.add(i, xj * data[index(j, i)]);
+            }
+            for (int i = j, k = index(j, j); i < dim; ++i, ++k) {
+                y.add(i, xj * data[k]);
+            }
+        }
+    }
+
+    /**
+     * Computes x' * this * x
+     *
+     * @param x
+     * @return
+     */
+    public double quadraticForm(DataBlock x) {
+        double s = 0;
+        for (int j = 0, k = 0; j < dim; ++j) {
+            double xj = x.get(j);
+            if (xj == 0) {
+                k += dim - j;
+                continue;
+            }
+            s += xj * xj * data[k++];
+            double t = 0;
+            for (int i = j + 1; i < dim; ++i) {
+                t += data[k++] * x.get(i);
+            }
+            s += 2 * xj * t;
+        }
+        return s;
+    }
+
+    /**
+     * Computes this = this + a * x * x' (lower triangle only). The zero
+     * elements of x are skipped
+     *
+     * @param a
+     * @param x
+     */
+    public void addXaXt(double a, DataBlock x) {
+        for (int j = 0; j < dim; ++j) {
+            double xj = x.get(j);
+            if (xj == 0) {
+                continue;
+            }
+            double axj = a * xj;
+            for (int i = j, k = index(j, j); i < dim; ++i, ++k) {
+                data[k] += axj * x.get(i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toMatrix().toString();
+    }
+}
@@ -32,7 +32,7 @@ import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 public class ResidualsCumulator {
 
     Determinant m_det = new Determinant();
-    double m_ssqerr;
+    double m_ssqerr, m_ldet0;
     int m_n;
 
     /**
@@ -94,21 +94,49 @@ public class ResidualsCumulator {
         ++m_n;
     }
 
+    /**
+     * Adds the aggregated contribution of several observations
+     *
+     * @param ssq The sum of the squared standardized errors
+     * @param ldet The log-determinant of their covariance matrix
+     * @param n The number of observations
+     */
+    public void add(final double ssq, final double ldet, final int n) {
+        m_ssqerr += ssq;
+        m_ldet0 += ldet;
+        m_n += n;
+    }
+
     /**
      *
      */
     public void clear() {
         m_ssqerr = 0;
+        m_ldet0 = 0;
         m_det.clear();
         m_n = 0;
     }
 
+    /**
+     * Re-starts the cumulator from previously computed values
+     *
+     * @param ssqerr
+     * @param ldet
+     * @param n
+     */
+    public void restore(final double ssqerr, final double ldet, final int n) {
+        m_det.clear();
+        m_ssqerr = ssqerr;
+        m_ldet0 = ldet;
+        m_n = n;
+    }
+
     /**
      *
      * @return
      */
     public double getLogDeterminant() {
-        return m_det.getLogDeterminant();
+        return m_ldet0 + m_det.getLogDeterminant();
     }
 
     /**
@@ -132,6 +160,6 @@ public class ResidualsCumulator {
      * @param ll
      */
     public void evaluate(final Likelihood ll) {
-        ll.set(m_ssqerr, m_det.getLogDeterminant(), m_n);
+        ll.set(m_ssqerr, getLogDeterminant(), m_n);
     }
 }
@@ -19,6 +19,8 @@ package ec.tstoolkit2.ssf;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.design.Development;
 import ec.tstoolkit.maths.matrices.Matrix;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Represents a gaussian vector, with its mean and covariance matrix.
@@ -53,7 +55,13 @@ public class State {
      * P is the covariance of the state vector. Its interpretation depends on
      * the considered step
      */
-    private final Matrix P;
+    private Matrix P;
+
+    /**
+     * Packed covariance (lower triangle only), used instead of P in the
+     * packed states
+     */
+    private final PackedSymmetricMatrix Pp;
 
 
     /**
@@ -64,29 +72,108 @@ public class State {
     public State(final int dim) {
         a = new DataBlock(dim);
         P = Matrix.square(dim);
+        Pp = null;
         info = StateInfo.Undefined;
     }
 
     public State(final DataBlock a, final Matrix P, final StateInfo info) {
         this.a = a;
         this.P = P;
+        this.Pp = null;
         this.info = info;
     }
+
+    /**
+     * Creates a state with a packed covariance matrix
+     *
+     * @param a
+     * @param P
+     * @param info
+     */
+    public State(final DataBlock a, final PackedSymmetricMatrix P, final StateInfo info) {
+        this.a = a;
+        this.Pp = P;
+        this.info = info;
+    }
+
+    /**
+     * Creates a state whose covariance is stored in packed form. The
+     * operations on such a state (see ISsfDynamics.forecast) only compute the
+     * lower triangle of the covariance
+     *
+     * @param dim
+     * @return
+     */
+    public static State packed(final int dim) {
+        return new State(new DataBlock(dim), new PackedSymmetricMatrix(dim), StateInfo.Undefined);
+    }
+
     /**
      *
      * @param state
      */
     public void copy(final State state) {
         a.copy(state.a);
-        P.copy(state.P);
+        if (Pp != null) {
+            if (state.Pp != null) {
+                Pp.copy(state.Pp);
+            } else {
+                Pp.copyFrom(state.P.subMatrix());
+            }
+        } else if (state.Pp != null) {
+            state.Pp.copyTo(P.subMatrix());
+        } else {
+            P.copy(state.P);
+        }
         setInfo(state.getInfo());
     }
     
+    /**
+     * Copy of the state, including the elements specific to its kind. The
+     * copy of a packed state is not packed
+     *
+     * @return
+     */
+    public State duplicate() {
+        State nstate = new State(getDim());
+        nstate.copy(this);
+        return nstate;
+    }
+
+    /**
+     * Checks that the state still contains a diffuse part
+     *
+     * @return
+     */
+    public boolean isDiffuse() {
+        return false;
+    }
+
+    /**
+     * Kind of the state in the binary image of the filter snapshots
+     *
+     * @return
+     */
+    protected byte getSnapshotKind() {
+        return FilterSnapshot.ORDINARY;
+    }
+
+    /**
+     * Writes the elements specific to the kind of the state in the binary
+     * image of a filter snapshot (after a and P). They are read by the
+     * corresponding FilterSnapshot.IStateReader
+     *
+     * @param output
+     * @throws IOException
+     */
+    protected void writeSnapshotElements(DataOutput output) throws IOException {
+    }
+
     @Override
     public String toString(){
         StringBuilder builder=new StringBuilder();
         builder.append("mean:\r\n").append(a).append("\r\n");
-        builder.append("covariance:\r\n").append(P);
+        builder.append("covariance:\r\n").append(unpackedP());
         return builder.toString();
    }
 
@@ -117,9 +204,43 @@ public class State {
 
     /**
      * @return the P
+     * @throws IllegalStateException for a packed state (packedP or unpackedP
+     * should be used instead)
      */
     public final Matrix P() {
+        if (Pp != null) {
+            throw new IllegalStateException("Packed state: use packedP or unpackedP");
+        }
         return P;
     }
+
+    /**
+     * Complete covariance matrix, for reading only. For a packed state, it is
+     * a copy of the packed covariance, refreshed at each call (in a matrix
+     * created once), so that its modifications are lost. It is used when the
+     * covariances are stored in the results
+     *
+     * @return
+     */
+    public final Matrix unpackedP() {
+        if (Pp != null) {
+            if (P == null) {
+                P = Matrix.square(Pp.getDim());
+            }
+            Pp.copyTo(P.subMatrix());
+        }
+        return P;
+    }
+
+    public final boolean isPacked() {
+        return Pp != null;
+    }
+
+    /**
+     * @return the packed covariance (null if the state is not packed)
+     */
+    public final PackedSymmetricMatrix packedP() {
+        return Pp;
+    }
     
 }
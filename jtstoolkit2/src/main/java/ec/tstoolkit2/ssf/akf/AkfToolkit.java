@@ -18,6 +18,8 @@
  */
 package ec.tstoolkit2.ssf.akf;
 
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit2.ssf.dk.IBaseDiffuseFilteringResults;
 import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
@@ -35,12 +37,39 @@ public class AkfToolkit {
     private AkfToolkit(){}
 
     public static ILikelihoodComputer likelihoodComputer(boolean collapsing) {
-        return collapsing ? new LLComputer2() : new LLComputer1();
+        return collapsing ? new LLComputer2(0) : new LLComputer1(0);
+    }
+
+    /**
+     * Likelihood computer that freezes the covariance of the state vector
+     * once the filter has converged (see AugmentedFilter.setSteadyStateEpsilon
+     * and OrdinaryFilter.setSteadyStateEpsilon)
+     *
+     * @param collapsing
+     * @param eps Tolerance used to detect the convergence of the filter
+     * @return
+     */
+    public static ILikelihoodComputer likelihoodComputer(boolean collapsing, double eps) {
+        return collapsing ? new LLComputer2(eps) : new LLComputer1(eps);
     }
 
     public static DefaultAugmentedFilteringResults filter(ISsf ssf, ISsfData data, boolean all) {
+        return filter(ssf, data, all, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Filtering with results kept in a given storage
+     *
+     * @param ssf
+     * @param data
+     * @param all
+     * @param storage The storage of the results (for instance an
+     * OffHeapStorage)
+     * @return
+     */
+    public static DefaultAugmentedFilteringResults filter(ISsf ssf, ISsfData data, boolean all, IResultsStorage storage) {
         DefaultAugmentedFilteringResults frslts = all
-                ? DefaultAugmentedFilteringResults.full() : DefaultAugmentedFilteringResults.light();
+                ? DefaultAugmentedFilteringResults.full(storage) : DefaultAugmentedFilteringResults.light(storage);
         frslts.prepare(ssf, 0, data.getLength());
         AugmentedFilterInitializer initializer = new AugmentedFilterInitializer(frslts);
         OrdinaryFilter filter = new OrdinaryFilter(initializer);
@@ -65,9 +94,16 @@ public class AkfToolkit {
     }
     private static class LLComputer1 implements ILikelihoodComputer {
 
+        private final double eps;
+
+        LLComputer1(double eps) {
+            this.eps = eps;
+        }
+
         @Override
         public ILikelihood compute(ISsf ssf, ISsfData data) {
             AugmentedFilter akf = new AugmentedFilter();
+            akf.setSteadyStateEpsilon(eps);
             AugmentedPredictionErrorDecomposition pe = new AugmentedPredictionErrorDecomposition(false);
             pe.prepare(ssf, data.getLength());
             if (!akf.process(ssf, data, pe)) {
@@ -80,12 +116,19 @@ public class AkfToolkit {
 
     private static class LLComputer2 implements ILikelihoodComputer {
 
+        private final double eps;
+
+        LLComputer2(double eps) {
+            this.eps = eps;
+        }
+
         @Override
         public ILikelihood compute(ISsf ssf, ISsfData data) {
             AugmentedPredictionErrorDecomposition pe = new AugmentedPredictionErrorDecomposition(false);
             pe.prepare(ssf, data.getLength());
             AugmentedFilterInitializer initializer = new AugmentedFilterInitializer(pe);
             OrdinaryFilter filter = new OrdinaryFilter(initializer);
+            filter.setSteadyStateEpsilon(eps);
             filter.process(ssf, data, pe);
             return pe.likelihood();
         }
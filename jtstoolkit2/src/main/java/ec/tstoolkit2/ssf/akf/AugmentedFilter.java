@@ -23,6 +23,7 @@ import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
@@ -45,6 +46,14 @@ public class AugmentedFilter {
     private boolean missing;
     private final boolean collapsing;
     private int collapsingPos = -1;
+    // steady state
+    private double steadyEps;
+    private boolean monitor, steady;
+    private int steadypos = -1;
+    private DataBlock Mprev;
+    private double fprev;
+    // a(t|t), B(t|t) and frozen P(t|t) in the steady state
+    private AugmentedState cstate;
 
     /**
      *
@@ -57,28 +66,66 @@ public class AugmentedFilter {
         this.collapsing = collapsing;
     }
 
+    /**
+     * Sets the tolerance used to detect the convergence of P (only for time
+     * invariant models). Once the gain and the variance of the prediction
+     * error are stable, P is frozen; the state vector and the diffuse
+     * constraints (B) are still updated. Missing values re-activate the
+     * complete recursions. The monitoring is disabled when eps is 0 (default)
+     *
+     * @param eps
+     */
+    public void setSteadyStateEpsilon(double eps) {
+        steadyEps = eps;
+    }
+
+    public double getSteadyStateEpsilon() {
+        return steadyEps;
+    }
+
+    /**
+     * Position of the last switch to the steady state recursions
+     *
+     * @return -1 if the filter didn't reach a steady state
+     */
+    public int getSteadyStatePosition() {
+        return steadypos;
+    }
+
     /**
      * Computes a(t+1|t), P(t+1|t) from a(t|t), P(t|t)
      */
     private void pred() {
         if (state.getInfo() != StateInfo.Forecast) {
             state.setInfo(StateInfo.Forecast);
-            SubMatrix P = state.P().subMatrix();
             DataBlock a = state.a();
             dynamics.TX(pos, a);
             dynamics.TM(pos, state.B());
-            dynamics.TVT(pos, P);
-            dynamics.addV(pos, P);
+            if (!steady) {
+                SubMatrix P = state.P().subMatrix();
+                dynamics.TVT(pos, P);
+                dynamics.addV(pos, P);
+            }
         }
     }
 
     protected boolean error() {
         missing = data.isMissing(pos);
         if (missing) {
+            if (steady) {
+                steady = false;
+                fprev = Double.NaN;
+            }
             pe.E().set(0);
             pe.M().set(0);
             // pe_ = null;
             return false;
+        } else if (steady) {
+            // M and f are unchanged
+            pe.set(data.get(pos) - measurement.ZX(pos, state.a()));
+            measurement.ZM(pos, state.B(), pe.E());
+            pe.E().chs();
+            return true;
         } else {
             // pe_ = new PredictionError(ssf_.getStateDim(), 1);
             // K = PZ'/f
@@ -119,7 +166,9 @@ public class AugmentedFilter {
         do {
             acol.addAY(pe.E().get(acols.getPosition()) / v, pe.M());
         } while (acols.next());
-        update(state.P(), v, pe.M());
+        if (!steady) {
+            update(state.P(), v, pe.M());
+        }
     }
 
     /**
@@ -147,9 +196,38 @@ public class AugmentedFilter {
             return false;
         }
         pe = new AugmentedPredictionError(dynamics.getStateDim(), dynamics.getNonStationaryDim());
+        initializeSteadyState();
         return true;
     }
 
+    private void initializeSteadyState() {
+        steady = false;
+        steadypos = -1;
+        monitor = steadyEps > 0 && dynamics.isTimeInvariant() && measurement.isTimeInvariant();
+        if (monitor) {
+            Mprev = new DataBlock(dynamics.getStateDim());
+            fprev = Double.NaN;
+        }
+    }
+
+    private void checkSteadyState() {
+        DataBlock M = pe.M();
+        double f = pe.getVariance();
+        if (Math.abs(f - fprev) <= steadyEps * f
+                && M.distance(Mprev) <= steadyEps * M.nrm2()) {
+            steady = true;
+            steadypos = pos + 1;
+            // P is kept at P(t|t-1); the concurrent states are saved with the
+            // frozen P(t|t) = P(t|t-1) - M*M'/f
+            Matrix Pc = state.P().clone();
+            SymmetricMatrix.addXaXt(Pc, -1 / f, M);
+            cstate = new AugmentedState(state, Pc, StateInfo.Concurrent);
+        } else {
+            Mprev.copy(M);
+            fprev = f;
+        }
+    }
+
     /**
      *
      * @param ssf
@@ -168,6 +246,93 @@ public class AugmentedFilter {
             return false;
         }
         pred();
+        iterate(rslts);
+        return true;
+    }
+
+    /**
+     * Continues the filtering on new observations. The data should contain
+     * the observations already processed, followed by the new ones; only the
+     * new ones (from getPosition() to the end of the data) are handled. The
+     * filter must have been initialized by a previous call to process or to
+     * restore.
+     *
+     * @param data
+     * @param rslts
+     * @return
+     */
+    public boolean resume(final ISsfData data, final IAugmentedFilteringResults rslts) {
+        if (state == null || dynamics == null) {
+            return false;
+        }
+        this.data = data;
+        end = data.getLength();
+        iterate(rslts);
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a given state. The next call to resume will
+     * process the observations starting from pos.
+     *
+     * @param ssf The model
+     * @param pos The position of the next observation
+     * @param fstate The state a(pos|pos-1), P(pos|pos-1), B(pos|pos-1)
+     * @return
+     */
+    public boolean restore(final ISsf ssf, final int pos, final AugmentedState fstate) {
+        measurement = ssf.getMeasurement();
+        dynamics = ssf.getDynamics();
+        int dim = dynamics.getStateDim(), nd = dynamics.getNonStationaryDim();
+        if (fstate.getDim() != dim || fstate.getInfo() != StateInfo.Forecast
+                || fstate.getConstraintsCount() != nd) {
+            return false;
+        }
+        state = new AugmentedState(dim, nd);
+        state.copy(fstate);
+        state.restoreB(fstate.B());
+        pe = new AugmentedPredictionError(dim, nd);
+        this.pos = pos;
+        this.end = pos;
+        initializeSteadyState();
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a snapshot. The cumulators of the likelihood
+     * and the augmentation must be restored separately in the results (see
+     * AugmentedPredictionErrorDecomposition.restore)
+     *
+     * @param ssf The model
+     * @param snapshot
+     * @return
+     */
+    public boolean restore(final ISsf ssf, final FilterSnapshot snapshot) {
+        if (!(snapshot.getState() instanceof AugmentedState)) {
+            return false;
+        }
+        return restore(ssf, snapshot.getPosition(), (AugmentedState) snapshot.getState());
+    }
+
+    /**
+     * Creates a snapshot of the current state of the filter
+     *
+     * @return
+     */
+    public FilterSnapshot snapshot() {
+        return state == null ? null : new FilterSnapshot(pos, state);
+    }
+
+    /**
+     * Position of the next observation that will be processed
+     *
+     * @return
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    private void iterate(final IAugmentedFilteringResults rslts) {
         while (pos < end) {
             if (rslts != null) {
                 rslts.save(pos, state);
@@ -184,12 +349,14 @@ public class AugmentedFilter {
                 this.state.setInfo(StateInfo.Concurrent);
             }
             if (rslts != null) {
-                rslts.save(pos, state);
+                rslts.save(pos, steady ? cstate : state);
             }
             pred();
+            if (monitor && !steady && !missing) {
+                checkSteadyState();
+            }
             ++pos;
         }
-        return true;
     }
 
     // P -= c*r
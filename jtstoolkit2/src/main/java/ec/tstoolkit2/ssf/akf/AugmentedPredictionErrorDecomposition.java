@@ -17,6 +17,7 @@
 package ec.tstoolkit2.ssf.akf;
 
 import ec.tstoolkit.design.Development;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.StateInfo;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
@@ -97,6 +98,27 @@ public class AugmentedPredictionErrorDecomposition extends PredictionErrorDecomp
         return Q;
     }
 
+    @Override
+    public void saveTo(FilterSnapshot snapshot) {
+        super.saveTo(snapshot);
+        snapshot.setAugmentation(Q.Q(), Q.getObsCount(), Q.getLogDeterminant());
+    }
+
+    /**
+     * Re-starts the cumulators of the likelihood and the augmentation from a
+     * snapshot. The decomposition must have been prepared for the model
+     *
+     * @param snapshot
+     */
+    @Override
+    public void restore(FilterSnapshot snapshot) {
+        super.restore(snapshot);
+        if (snapshot.hasAugmentation()) {
+            Q.restore(snapshot.getAugmentation(), snapshot.getAugmentationObsCount(),
+                    snapshot.getAugmentationLogDeterminant());
+        }
+    }
+
     @Override
     public AkfDiffuseLikelihood likelihood() {
         AkfDiffuseLikelihood ll = Q.likelihood();
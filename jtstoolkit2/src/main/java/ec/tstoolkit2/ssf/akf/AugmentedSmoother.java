@@ -27,6 +27,8 @@ import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 import ec.tstoolkit2.ssf.univariate.ISmoothingResults;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
@@ -50,11 +52,14 @@ public class AugmentedSmoother {
     private Matrix N, Rd, U, V, RNA, S;
     private Matrix Psi;
     private DataBlock delta;
-    private boolean missing, hasinfo, calcvar = true;
+    // cross-covariances
+    private Matrix K, D, G;
+    private boolean missing, hasinfo, calcvar = true, calccross;
     private int pos;
+    private IResultsStorage storage = ResultsStorage.DEFAULT;
 
     public boolean process(final ISsf ssf, final ISsfData data, ISmoothingResults sresults) {
-        IAugmentedFilteringResults fresults = AkfToolkit.filter(ssf, data, true);
+        IAugmentedFilteringResults fresults = AkfToolkit.filter(ssf, data, true, storage);
         return process(ssf, data.getLength(), fresults, sresults);
     }
 
@@ -119,8 +124,16 @@ public class AugmentedSmoother {
 
     private void iterate() {
         loadInfo();
+        boolean cross = calcvar && calccross && hasinfo;
+        if (cross) {
+            prepareCrossCovariance();
+        }
         iterateR();
         calcU();
+        if (cross) {
+            // D = P*L'*Nr + U*G'
+            D.add(U.times(G.transpose()));
+        }
         updateA();
         if (calcvar) {
             // P = P-PNP
@@ -128,6 +141,80 @@ public class AugmentedSmoother {
             calcV();
             updateP();
         }
+        if (cross) {
+            srslts.saveCrossCovariance(pos, crossCovariance());
+        }
+    }
+
+    /**
+     * Computes the terms of the lag-one cross-covariance that depend on N(t)
+     * and on Rd(t). Should be called before their update.
+     * A perturbation x of the state in t+1 modifies r(t) by Nr*x and the
+     * smoothed diffuse effects by G'*x, with:
+     * Nr = N + (N*B(t+1) + Rd)*A^-1*Rd'
+     * G = (N*B(t+1) + Rd*A^-1*K)*A^-1
+     * where K = B'*N*B at the collapsing position
+     */
+    private void prepareCrossCovariance() {
+        // B(t+1) = T*(B + M*E/f)
+        Matrix B1 = new Matrix(state.B());
+        if (!missing && f != 0) {
+            DataBlockIterator bcols = B1.columns();
+            DataBlock bcol = bcols.getData();
+            do {
+                bcol.addAY(E.get(bcols.getPosition()) / f, C);
+            } while (bcols.next());
+        }
+        dynamics.TM(pos, B1.subMatrix());
+        // Y = Rd*A^-1
+        Matrix Y = Rd.clone();
+        xAi(Y);
+        Matrix NB = N.times(B1);
+        Matrix NBR = NB.clone();
+        NBR.add(Rd);
+        Matrix Nr = N.clone();
+        Nr.add(NBR.times(Y.transpose()));
+        G = NB;
+        G.add(Y.times(K));
+        xAi(G);
+        // D = P*L'*Nr = P*(Nr'*L)'
+        Matrix X = Nr.transpose();
+        if (!missing && f != 0) {
+            XL(X.rows());
+        } else {
+            DataBlockIterator rows = X.rows();
+            DataBlock row = rows.getData();
+            do {
+                dynamics.XT(pos, row);
+            } while (rows.next());
+        }
+        D = Matrix.square(X.getRowsCount());
+        D.subMatrix().product(state.P().subMatrix(), X.subMatrix().transpose());
+    }
+
+    /**
+     * Lag-one cross-covariance of the smoothed states
+     * cov(a(t), a(t+1)) = V(t)*T'(t) - D*Q(t)
+     *
+     * @return
+     */
+    private SubMatrix crossCovariance() {
+        Matrix cov = state.P().clone();
+        dynamics.TM(pos, cov.subMatrix().transpose());
+        Matrix Q = Matrix.square(cov.getRowsCount());
+        dynamics.V(pos, Q.subMatrix());
+        cov.sub(D.times(Q));
+        return cov.subMatrix();
+    }
+
+    /**
+     * X = X*A^-1, with A = S*S'
+     *
+     * @param X
+     */
+    private void xAi(Matrix X) {
+        LowerTriangularMatrix.rsolve(S, X.subMatrix().transpose());
+        LowerTriangularMatrix.lsolve(S, X.subMatrix());
     }
 
     // 
@@ -284,9 +371,47 @@ public class AugmentedSmoother {
         return calcvar;
     }
 
+    /**
+     * Computes the lag-one cross-covariances of the smoothed states
+     * (cov(a(t), a(t+1))) in the backward pass, including the period before
+     * the collapsing. They are saved in the smoothing results (see
+     * ISmoothingResults.saveCrossCovariance). Requires the computation of the
+     * variances
+     *
+     * @param b
+     */
+    public void setCalcCrossCovariances(boolean b) {
+        calccross = b;
+    }
+
+    public boolean isCalcCrossCovariances() {
+        return calccross;
+    }
+
+    /**
+     * Sets the storage of the filtering results used by process(ssf, data)
+     * (ResultsStorage.DEFAULT by default). Large problems can use an off-heap
+     * storage (see OffHeapStorage)
+     * The storage must keep the complete covariance matrices (not
+     * ResultsStorage.VARIANCES)
+     *
+     * @param storage
+     */
+    public void setStorage(IResultsStorage storage) {
+        if (!storage.isCompleteSymmetricMatrices()) {
+            throw new IllegalArgumentException("The smoother needs the complete covariance matrices of the filter");
+        }
+        this.storage = storage;
+    }
+
+    public IResultsStorage getStorage() {
+        return storage;
+    }
+
     private void ordinarySmoothing(ISsf ssf, final int endpos) {
         OrdinarySmoother smoother = new OrdinarySmoother();
         smoother.setCalcVariances(calcvar);
+        smoother.setCalcCrossCovariances(calccross);
         smoother.process(ssf, frslts.getCollapsingPosition(), endpos, frslts, srslts);
         // updates R, N
         R.copy(smoother.getFinalR());
@@ -325,6 +450,9 @@ public class AugmentedSmoother {
             LowerTriangularMatrix.lsolve(S, Psi.subMatrix());
             // a'^-1*B = C <-> B' = C'a
             LowerTriangularMatrix.lsolve(S, Psi.subMatrix().transpose());
+            if (calccross) {
+                K = SymmetricMatrix.quadraticForm(N, new Matrix(B));
+            }
         }
     }
 
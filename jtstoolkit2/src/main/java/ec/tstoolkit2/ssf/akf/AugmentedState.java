@@ -19,9 +19,13 @@ package ec.tstoolkit2.ssf.akf;
 import ec.tstoolkit.design.Development;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Represents x* = x + A d, 
@@ -45,6 +49,31 @@ public class AugmentedState extends State{
         return state;
     }
     
+    /**
+     * Reads the augmented states of the filter snapshots
+     */
+    public static final FilterSnapshot.IStateReader SNAPSHOT_READER = new FilterSnapshot.IStateReader() {
+        @Override
+        public byte getKind() {
+            return FilterSnapshot.AUGMENTED;
+        }
+
+        @Override
+        public State read(int dim, DataInput input, long maxSize) throws IOException {
+            int nc = input.readInt(), nb = input.readInt();
+            if (nb < 0 || nb > nc || nc > dim || (long) dim * nb > maxSize) {
+                throw new IOException("Invalid filter snapshot");
+            }
+            AugmentedState state = new AugmentedState(dim, nc);
+            Matrix B = new Matrix(dim, nb);
+            for (int j = 0; j < nb; ++j) {
+                FilterSnapshot.readBlock(input, B.column(j));
+            }
+            state.restoreB(B.subMatrix());
+            return state;
+        }
+    };
+
     /**
      * B contains the states of the constraints. Its interpretation depends on the considered step
      */
@@ -62,6 +91,20 @@ public class AugmentedState extends State{
         B=new Matrix(dim, ndiffuse);
     }
 
+    /**
+     * State that shares the vector a and the constraints B of a given state,
+     * with another covariance matrix
+     *
+     * @param state
+     * @param P
+     * @param info
+     */
+    AugmentedState(final AugmentedState state, final Matrix P, final StateInfo info) {
+        super(state.a(), P, info);
+        B=state.B;
+        ndropped=state.ndropped;
+    }
+
     public final SubMatrix B(){
         return B.subMatrix(0, -1, ndropped, -1);
     }
@@ -80,11 +123,43 @@ public class AugmentedState extends State{
         ndropped=B.getColumnsCount();
     }
     
+    @Override
     public final boolean isDiffuse(){
         return ndropped < B.getColumnsCount();
     }
     
+    /**
+     * Total number of constraints (dropped constraints included)
+     * @return 
+     */
+    public int getConstraintsCount(){
+        return B.getColumnsCount();
+    }
+
     public int getDiffuseDim(){
         return B.getColumnsCount()-ndropped;
     }
+
+    @Override
+    public AugmentedState duplicate() {
+        AugmentedState nstate = new AugmentedState(getDim(), B.getColumnsCount());
+        nstate.copy(this);
+        nstate.restoreB(B());
+        return nstate;
+    }
+
+    @Override
+    protected byte getSnapshotKind() {
+        return FilterSnapshot.AUGMENTED;
+    }
+
+    @Override
+    protected void writeSnapshotElements(DataOutput output) throws IOException {
+        SubMatrix b = B();
+        output.writeInt(B.getColumnsCount());
+        output.writeInt(b.getColumnsCount());
+        for (int j = 0; j < b.getColumnsCount(); ++j) {
+            FilterSnapshot.writeBlock(output, b.column(j));
+        }
+    }
 }
@@ -24,6 +24,8 @@ import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit2.ssf.DataBlockResults;
 import ec.tstoolkit2.ssf.MatrixResults;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -36,18 +38,32 @@ public class DefaultAugmentedFilteringResults extends DefaultFilteringResults im
     private int collapsed;
     private final QAugmentation Q = new QAugmentation();
 
-    private DefaultAugmentedFilteringResults(boolean var) {
-        super(var);
-        B = new MatrixResults();
-        E = new DataBlockResults();
+    private DefaultAugmentedFilteringResults(boolean var, IResultsStorage storage) {
+        super(var, storage);
+        B = new MatrixResults(storage, false);
+        E = new DataBlockResults(storage);
     }
 
     public static DefaultAugmentedFilteringResults full() {
-        return new DefaultAugmentedFilteringResults(true);
+        return new DefaultAugmentedFilteringResults(true, ResultsStorage.DEFAULT);
     }
 
     public static DefaultAugmentedFilteringResults light() {
-        return new DefaultAugmentedFilteringResults(false);
+        return new DefaultAugmentedFilteringResults(false, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Results stored in a given back-end (see ResultsStorage)
+     *
+     * @param storage
+     * @return
+     */
+    public static DefaultAugmentedFilteringResults full(IResultsStorage storage) {
+        return new DefaultAugmentedFilteringResults(true, storage);
+    }
+
+    public static DefaultAugmentedFilteringResults light(IResultsStorage storage) {
+        return new DefaultAugmentedFilteringResults(false, storage);
     }
 
     @Override
@@ -30,6 +30,7 @@ import ec.tstoolkit2.ssf.StateInfo;
 import ec.tstoolkit2.ssf.multivariate.IMultivariateSsf;
 import ec.tstoolkit2.ssf.multivariate.IMultivariateSsfData;
 import ec.tstoolkit2.ssf.multivariate.ISsfMeasurements;
+import ec.tstoolkit2.ssf.multivariate.PredictionErrorsWorkspace;
 
 /**
  *
@@ -39,6 +40,7 @@ public class MultivariateAugmentedFilter {
 
     private AugmentedState state;
     private AugmentedPredictionErrors perrors;
+    private PredictionErrorsWorkspace<AugmentedPredictionErrors> workspace;
     private ISsfMeasurements measurements;
     private ISsfDynamics dynamics;
     private IMultivariateSsfData data;
@@ -89,8 +91,7 @@ public class MultivariateAugmentedFilter {
 
     private void addH(Matrix P) {
         int nm = measurements.getCount(pos);
-        Matrix H = Matrix.square(nm);
-        measurements.H(pos, H.subMatrix());
+        SubMatrix H = workspace.H(measurements, pos);
         for (int i = 0, r = 0; i < nm; ++i) {
             if (!data.isMissing(pos, i)) {
                 for (int j = 0, c = 0; j < i; ++j) {
@@ -136,7 +137,7 @@ public class MultivariateAugmentedFilter {
             perrors = null;
             return false;
         } else {
-            perrors = new AugmentedPredictionErrors(dynamics.getStateDim(), nobs, dynamics.getNonStationaryDim());
+            perrors = workspace.get(nobs);
             Matrix L = perrors.getCholeskyFactor();
             // K = PZ'(ZPZ'+H)^-1/2
             // computes (ZP)' in K'. 
@@ -239,6 +240,9 @@ public class MultivariateAugmentedFilter {
     private boolean initFilter() {
         pos = 0;
         end = data.getCount();
+        int dim = dynamics.getStateDim(), nd = dynamics.getNonStationaryDim();
+        workspace = new PredictionErrorsWorkspace<>(dim, measurements.getMaxCount(),
+                n -> new AugmentedPredictionErrors(dim, n, nd));
         return true;
     }
 
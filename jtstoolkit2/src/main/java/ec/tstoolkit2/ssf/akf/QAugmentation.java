@@ -34,6 +34,7 @@ public class QAugmentation {
     // s' * S^-1 = b * a' * S^-1 = b * a^-1 
     private Matrix Q;
     private int n, nd;
+    private double ldet0;
     private Determinant det = new Determinant();
 
     public void prepare(final int nd, final int nvars) {
@@ -44,9 +45,41 @@ public class QAugmentation {
 
     public void clear() {
         n = 0;
+        ldet0 = 0;
         Q = null;
         det.clear();
     }
+
+    /**
+     * Re-starts the augmentation from previously computed values
+     *
+     * @param q The Q matrix. It is copied
+     * @param n The number of observations used in q
+     * @param ldet The log-determinant of their variances
+     */
+    public void restore(final Matrix q, final int n, final double ldet) {
+        det.clear();
+        Q = q.clone();
+        nd = Q.getRowsCount() - 1;
+        this.n = n;
+        ldet0 = ldet;
+    }
+
+    /**
+     *
+     * @return The Q matrix (null if the augmentation is not prepared)
+     */
+    public Matrix Q() {
+        return Q;
+    }
+
+    public int getObsCount() {
+        return n;
+    }
+
+    public double getLogDeterminant() {
+        return ldet0 + det.getLogDeterminant();
+    }
     
     public int getDegreesofFreedom(){
         return n-nd;
@@ -88,7 +121,7 @@ public class QAugmentation {
         cc *= cc;
         LogSign dsl = a().diagonal().sumLog();
         double dcorr = 2 * dsl.value;
-        ll.set(cc, det.getLogDeterminant(), dcorr, n, nd);
+        ll.set(cc, getLogDeterminant(), dcorr, n, nd);
         return ll;
     }
 
@@ -24,6 +24,7 @@ import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
 import ec.tstoolkit2.ssf.univariate.IFilteringResults;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
@@ -41,6 +42,7 @@ public class ArrayFilter {
     private PredictionError pe_;
     private ISsfMeasurement m_;
     private ISsfDynamics dyn_;
+    private final CompiledSsf.Cache compiled = new CompiledSsf.Cache();
     private ISsfData data_;
     private int pos_, end_, dim_, nres_;
     private Matrix A;
@@ -90,8 +92,9 @@ public class ArrayFilter {
      * @return
      */
     public boolean process(final ISsf ssf, final ISsfData data, final IFilteringResults rslts) {
-        m_ = ssf.getMeasurement();
-        dyn_ = ssf.getDynamics();
+        ISsf cssf = compiled.of(ssf);
+        m_ = cssf.getMeasurement();
+        dyn_ = cssf.getDynamics();
         data_ = data;
         if (!initFilter()) {
             return false;
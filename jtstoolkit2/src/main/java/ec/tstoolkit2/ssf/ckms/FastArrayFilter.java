@@ -18,162 +18,292 @@ package ec.tstoolkit2.ssf.ckms;
 
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.design.Development;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+import ec.tstoolkit2.ssf.univariate.SsfDataWindow;
 
 /**
- * 
- * @param <F>
+ * Square root (array) form of the Chandrasekhar recursions, for time
+ * invariant models. The pre-array
+ *
+ * [r(t) Z*L(t)]
+ * [k(t) T*L(t)]
+ *
+ * is transformed into [r(t+1) 0; k(t+1) L(t+1)] by J-orthogonal rotations
+ * (circular for the positive signs of P(t+1)-P(t), hyperbolic for the
+ * negative ones). The cost of an iteration is O(dim*rank) instead of
+ * O(dim^2).
+ *
+ * The diffuse part of the model is handled by the given initializer (DK or
+ * square root). The Chandrasekhar recursions can't go through missing
+ * values: the stretches of missing values are processed by the ordinary
+ * filter (full update of the covariance) and the array state is
+ * re-initialized after each of them. To that end, P(t) is accumulated from
+ * the factors L*S*L' on the stretches of observations that are followed by
+ * a missing value (O(dim^2*rank) by iteration); the last stretch only uses
+ * the array recursions. The filter only provides the prediction errors and
+ * their variances (not the states), which is enough for the likelihood.
+ *
+ * The objects of the filter (array state, workspace of its initialization,
+ * ordinary filter) are re-used by the successive calls to process for models
+ * of the same dimension.
+ *
+ * The augmented (AKF) diffuse initialization is not supported yet: the AKF
+ * filter doesn't provide an OrdinaryFilter.Initializer.
+ *
  * @author Jean Palate
  */
-//@Development(status = Development.Status.Alpha)
-//public class FastArrayFilter<F extends ISsf> {
-//
-//    /*
-//     * private void checksteady() { m_steady = false; for (int i = 0; i < m_dim;
-//     * ++i) if (Math.abs(m_matrix.L[i]) > m_epsilon) return; m_steady = true; }
-//     */
-//    private int m_pos, m_end, m_dim, m_ndiffuse;
-//
-//    private boolean m_steady;
-//
-//    private final UMatrix m_matrix = new UMatrix();
-//
-//    private FastArrayState m_state;
-//
-//    private IFastArrayInitializer<F> m_initializer;
-//
-//    private F m_ssf;
-//
-//    private ISsfData m_data;
-//
-//    /**
-//     * 
-//     */
-//    public FastArrayFilter()
-//    {
-//    }
-//
-//    /**
-//     * 
-//     * @return
-//     */
-//    public IFastArrayInitializer<F> getInitializer()
-//    {
-//	return m_initializer;
-//    }
-//
-//    /**
-//     * 
-//     * @return
-//     */
-//    public F getSsf()
-//    {
-//	return m_ssf;
-//    }
-//
-//    /**
-//     * 
-//     * @return
-//     */
-//    public FastArrayState getState()
-//    {
-//	return m_state;
-//    }
-//
-//    @SuppressWarnings("unchecked")
-//    private boolean initialize(final IFastArrayFilteringResults rslts) {
-//	m_state = new FastArrayState(m_dim, m_data.hasData());
-//	if (m_initializer != null)
-//	    m_ndiffuse = m_initializer
-//		    .initialize(m_ssf, m_data, m_state, rslts);
-//	else {
-//	    IFastArrayInitializer<ISsf> initializer = new FastInitializer();
-//	    m_ndiffuse = initializer.initialize(m_ssf, m_data, m_state, rslts);
-//	}
-//	if (m_ndiffuse < 0)
-//	    return false;
-//
-//	m_matrix.K = m_state.K.getData();
-//	m_matrix.L = m_state.L.getData();
-//	m_pos = m_ndiffuse;
-//	m_matrix.R = m_state.r;
-//
-//	return true;
-//    }
-//
-//    private void preArray() {
-//	// if (m_pos != m_ndiffuse)
-//	// {
-//	DataBlock l = new DataBlock(m_matrix.L);
-//	m_matrix.Z = m_ssf.ZX(m_pos, l);
-//	m_ssf.TX(m_pos, l);
-//	// }
-//    }
-//
-//    /**
-//     *
-//     * @param data
-//     * @param rslts
-//     * @return
-//     */
-//    public boolean process(final ISsfData data,
-//	    final IFastArrayFilteringResults rslts) {
-//	if (m_ssf == null)
-//	    return false;
-//	m_data = data;
-//	m_dim = m_ssf.getStateDim();
-//	m_pos = 0;
-//	m_end = m_data.getCount();
-//	if (!initialize(rslts))
-//	    return false;
-//	if (rslts != null)
-//	    rslts.prepare(m_ssf, data);
-//	if (m_pos < m_end)
-//	    do {
-//		updateE();
-//		if (rslts != null)
-//		    rslts.save(m_pos, m_state);
-//		updateA();
-//		//
-//		if (!m_steady) {
-//		    preArray();
-//		    if (!m_matrix.triangularize())
-//			return false;
-//		    // checksteady();
-//		}
-//	    } while (++m_pos < m_end);
-//	if (rslts != null)
-//	    rslts.close();
-//
-//	return true;
-//    }
-//
-//    /**
-//     * 
-//     * @param value
-//     */
-//    public void setInitializer(final IFastArrayInitializer<F> value)
-//    {
-//	m_initializer = value;
-//    }
-//
-//    /**
-//     * 
-//     * @param value
-//     */
-//    public void setSsf(final F value)
-//    {
-//	m_ssf = value;
-//    }
-//
-//    private void updateA() {
-//	m_ssf.TX(m_pos, m_state.A);
-//	double es = m_state.e / m_state.r;
-//	m_state.A.addAY(es, m_state.K);
-//    }
-//
-//    private void updateE() {
-//	double y = m_data.get(m_pos);
-//	m_state.e = y - m_ssf.ZX(m_pos, m_state.A);
-//	m_state.r = m_matrix.R;
-//    }
-//}
+@Development(status = Development.Status.Alpha)
+public class FastArrayFilter {
+
+    private final OrdinaryFilter.Initializer initializer;
+    private double eps = 1e-12;
+    private int steadypos;
+    private boolean allocationFree;
+
+    private ISsfMeasurement measurement;
+    private ISsfDynamics dynamics;
+    private FastArrayState state;
+    private State fstate;
+    private PredictionError pe;
+    private OrdinaryFilter filter;
+
+    /**
+     * Filter for stationary models
+     */
+    public FastArrayFilter() {
+        initializer = null;
+    }
+
+    /**
+     *
+     * @param initializer Initializer of the diffuse part (or null for
+     * stationary models)
+     */
+    public FastArrayFilter(OrdinaryFilter.Initializer initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     * See OrdinaryFilter.setAllocationFree. Used for the missing values
+     *
+     * @param allocationFree
+     */
+    public void setAllocationFree(boolean allocationFree) {
+        this.allocationFree = allocationFree;
+        filter = null;
+    }
+
+    public boolean isAllocationFree() {
+        return allocationFree;
+    }
+
+    /**
+     * Relative tolerance used to detect the steady state (1e-12 by default):
+     * the recursions stop when the norms of the columns of L are smaller than
+     * eps*sqrt(f)
+     *
+     * @param eps
+     */
+    public void setEpsilon(double eps) {
+        this.eps = eps;
+    }
+
+    public double getEpsilon() {
+        return eps;
+    }
+
+    /**
+     *
+     * @return The position where the steady state has been reached in the
+     * last stretch of observations (-1 if it was not reached)
+     */
+    public int getSteadyStatePosition() {
+        return steadypos;
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @param rslts
+     * @return False if the model is not time invariant or if the recursions
+     * failed. In that case, the results are incomplete and should be cleared
+     */
+    public boolean process(final ISsf ssf, final ISsfData data, final IFilteringResults rslts) {
+        if (!ssf.isTimeInvariant()) {
+            return false;
+        }
+        steadypos = -1;
+        measurement = ssf.getMeasurement();
+        dynamics = ssf.getDynamics();
+        int dim = dynamics.getStateDim();
+        int end = data.getLength();
+        // last observation
+        int last = end;
+        while (last > 0 && data.isMissing(last - 1)) {
+            --last;
+        }
+        if (state == null || state.getDim() != dim) {
+            state = new FastArrayState(dim);
+            fstate = new State(dim);
+            pe = new PredictionError(dim);
+        }
+        int pos;
+        if (initializer != null) {
+            pos = initializer.initialize(fstate, ssf, data);
+            if (pos < 0) {
+                return false;
+            }
+            if (fstate.getInfo() == StateInfo.Concurrent) {
+                dynamics.forecast(pos, fstate);
+            }
+        } else if (dynamics.isDiffuse()) {
+            return false;
+        } else {
+            pos = 0;
+            fstate.a().set(0);
+            fstate.P().set(0);
+            dynamics.a0(fstate.a(), StateInfo.Forecast);
+            dynamics.Pf0(fstate.P().subMatrix(), StateInfo.Forecast);
+            fstate.setInfo(StateInfo.Forecast);
+        }
+        while (pos < last) {
+            if (data.isMissing(pos)) {
+                // ordinary filter on the stretch of missing values
+                int next = pos + 1;
+                while (data.isMissing(next)) {
+                    ++next;
+                }
+                if (filter == null) {
+                    filter = new OrdinaryFilter();
+                    filter.setAllocationFree(allocationFree);
+                }
+                if (!filter.restore(ssf, pos, fstate)
+                        || !filter.resume(new SsfDataWindow(data, 0, next), rslts)) {
+                    return false;
+                }
+                fstate.copy(filter.getState());
+                pos = next;
+            }
+            // array recursions on the stretch of observations
+            int stop = pos + 1;
+            while (stop < last && !data.isMissing(stop)) {
+                ++stop;
+            }
+            // P is needed at the next missing value
+            boolean track = stop < last;
+            steadypos = -1;
+            if (!state.init(ssf, pos, fstate)) {
+                return false;
+            }
+            for (; pos < stop; ++pos) {
+                error(data.get(pos));
+                if (rslts != null) {
+                    rslts.save(pos, pe);
+                }
+                update();
+                if (steadypos < 0) {
+                    if (track) {
+                        // P(pos+1) = P(pos) + L*S*L'
+                        state.addIncrement(fstate.P());
+                    }
+                    if (!next(pos)) {
+                        return false;
+                    }
+                }
+            }
+            if (track) {
+                fstate.a().copy(state.a);
+                fstate.setInfo(StateInfo.Forecast);
+            }
+        }
+        if (rslts != null) {
+            pe.setMissing();
+            for (; pos < end; ++pos) {
+                rslts.save(pos, pe);
+            }
+        }
+        return true;
+    }
+
+    private void error(double y) {
+        double r = state.r;
+        pe.set(y - measurement.ZX(0, state.a));
+        pe.setVariance(r * r);
+    }
+
+    private void update() {
+        // a = Ta + K e/f = Ta + k e/r
+        dynamics.TX(0, state.a);
+        state.a.addAY(pe.get() / state.r, state.k);
+    }
+
+    /**
+     * Array iteration
+     *
+     * @param pos
+     * @return
+     */
+    private boolean next(int pos) {
+        DataBlock k = state.k;
+        double r = state.r;
+        boolean steady = true;
+        for (int j = 0; j < state.rank; ++j) {
+            DataBlock l = state.L[j];
+            double zl = measurement.ZX(0, l);
+            dynamics.TX(0, l);
+            if (zl != 0) {
+                double c, s, rho;
+                if (state.signs[j] > 0) {
+                    rho = Math.sqrt(r * r + zl * zl);
+                    c = r / rho;
+                    s = zl / rho;
+                    // k' = c*k + s*l, l' = -s*k + c*l
+                    rotate(k, l, c, s, -s);
+                } else {
+                    double r2 = (r - zl) * (r + zl);
+                    if (r2 <= 0) {
+                        return false;
+                    }
+                    rho = Math.sqrt(r2);
+                    c = r / rho;
+                    s = zl / rho;
+                    // k' = c*k - s*l, l' = -s*k + c*l
+                    rotate(k, l, c, -s, -s);
+                }
+                r = rho;
+            }
+            if (steady && l.nrm2() >= eps * r) {
+                steady = false;
+            }
+        }
+        state.r = r;
+        if (steady) {
+            steadypos = pos;
+        }
+        return true;
+    }
+
+    /**
+     * k' = c*k + s1*l, l' = s2*k + c*l
+     */
+    private static void rotate(DataBlock k, DataBlock l, double c, double s1, double s2) {
+        double[] kd = k.getData(), ld = l.getData();
+        int n = k.getLength();
+        int k0 = k.getStartPosition(), kinc = k.getIncrement();
+        int l0 = l.getStartPosition(), linc = l.getIncrement();
+        for (int i = 0, ik = k0, il = l0; i < n; ++i, ik += kinc, il += linc) {
+            double ki = kd[ik], li = ld[il];
+            kd[ik] = c * ki + s1 * li;
+            ld[il] = s2 * ki + c * li;
+        }
+    }
+}
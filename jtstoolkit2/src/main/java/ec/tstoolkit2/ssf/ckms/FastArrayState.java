@@ -16,103 +16,248 @@
 */
 package ec.tstoolkit2.ssf.ckms;
 
-import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
 
 /**
- * 
+ * State of the square root (array) form of the Chandrasekhar recursions.
+ * P(t+1)-P(t) = L*S*L', where S is a diagonal matrix of signs (+1/-1). The
+ * gain is normalized: k = T*P*Z'/r, r = sqrt(Z*P*Z'+h)
+ *
  * @author Jean Palate
  */
-//@Development(status = Development.Status.Alpha)
-//public class FastArrayState extends BaseArrayState {
-//
-//    /**
-//     *
-//     */
-//    public DataBlock L;
-//
-//    /**
-//     * 
-//     * @param state
-//     */
-//    public FastArrayState(final FastArrayState state)
-//    {
-//	super(state);
-//	L = state.L.deepClone();
-//    }
-//
-//    /**
-//     * 
-//     * @param n
-//     * @param hasdata
-//     */
-//    public FastArrayState(final int n, final boolean hasdata)
-//    {
-//	super(n, hasdata);
-//	L = new DataBlock(n);
-//    }
-//
-//    /**
-//     * 
-//     * @param ssf
-//     * @param state
-//     * @param pos
-//     */
-//    public FastArrayState(final ISsf ssf, final State state, final int pos)
-//    {
-//	super(ssf.getStateDim(), true);
-//	int dim = ssf.getStateDim();
-//	L = new DataBlock(dim);
-//	A.copy(state.A);
-//	double var = ssf.ZVZ(pos, state.P.subMatrix());
-//	r = Math.sqrt(var);
-//	// K0 = TPZ' / var
-//	ssf.ZM(pos, state.P.subMatrix(), K);
-//	ssf.TX(pos, K);
-//
-//	// L0: computes next iteration. TVT'-KK'*var + Q -V = - L(var)^-1 L'
-//	Matrix V = state.P, TVT = V.clone();
-//	ssf.TVT(pos, TVT.subMatrix());
-//	Matrix Q = new Matrix(dim, dim);
-//	ssf.fullQ(pos, Q.subMatrix());
-//	V.sub(Q);
-//	V.sub(TVT);
-//	K.mul(1 / r);
-//	for (int i = 0; i < dim; ++i) {
-//	    double kv = K.get(i);
-//	    if (kv != 0) {
-//		V.add(i, i, kv * K.get(i));
-//
-//		for (int j = 0; j < i; ++j) {
-//		    V.add(i, j, kv * K.get(j));
-//		    V.add(j, i, kv * K.get(j));
-//		}
-//	    }
-//	}
-//
-//	int imax = 0;
-//	double lmax = V.get(0, 0);
-//	for (int i = 1; i < dim; ++i) {
-//	    double lcur = V.get(i, i);
-//	    if (lcur > lmax) {
-//		imax = i;
-//		lmax = lcur;
-//	    }
-//	}
-//	if (lmax <= 0)
-//	    throw new SsfException(SsfException.FASTFILTER);
-//	L.copy(V.column(imax));
-//	L.mul(Math.sqrt(1 / lmax));
-//    }
-//
-//    /**
-//     * 
-//     * @param state
-//     */
-//    public void copy(final FastArrayState state)
-//    {
-//	super.copy(state);
-//	L = state.L.deepClone();
-//    }
-//}
+@Development(status = Development.Status.Alpha)
+public class FastArrayState {
+
+    /**
+     * Relative tolerance used to determine the rank of P(t+1)-P(t)
+     */
+    public static final double EPS = 1e-13;
+
+    public final DataBlock a, k;
+    public double r;
+    final DataBlock[] L;
+    final double[] signs;
+    int rank;
+
+    // workspace of the factorization
+    private final DataBlock K;
+    private final Matrix D, U;
+    private final SubMatrix Dv;
+    private final double[] lambda;
+
+    /**
+     * Creates an empty state, which can be (re-)initialized by the init
+     * method for any time invariant model of the given dimension
+     *
+     * @param dim The dimension of the state vector
+     */
+    public FastArrayState(final int dim) {
+        a = new DataBlock(dim);
+        k = new DataBlock(dim);
+        L = new DataBlock[dim];
+        for (int i = 0; i < dim; ++i) {
+            L[i] = new DataBlock(dim);
+        }
+        signs = new double[dim];
+        K = new DataBlock(dim);
+        D = Matrix.square(dim);
+        Dv = D.subMatrix();
+        U = Matrix.square(dim);
+        lambda = new double[dim];
+    }
+
+    public int getDim() {
+        return a.getLength();
+    }
+
+    /**
+     * Rank of P(t+1)-P(t)
+     *
+     * @return
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * Stationary initialization (a0, Pf0)
+     *
+     * @param ssf
+     * @return The initial state or null if the model is diffuse
+     */
+    public static FastArrayState of(final ISsf ssf) {
+        ISsfDynamics dynamics = ssf.getDynamics();
+        if (dynamics.isDiffuse()) {
+            return null;
+        }
+        int dim = dynamics.getStateDim();
+        State state = new State(dim);
+        dynamics.a0(state.a(), StateInfo.Forecast);
+        dynamics.Pf0(state.P().subMatrix(), StateInfo.Forecast);
+        return of(ssf, 0, state);
+    }
+
+    /**
+     * Creates the array state corresponding to a given (forecast) state (see
+     * init)
+     *
+     * @param ssf
+     * @param pos
+     * @param state a(pos|pos-1), P(pos|pos-1)
+     * @return The new state or null if the variance of the prediction error
+     * is not positive
+     */
+    public static FastArrayState of(final ISsf ssf, final int pos, final State state) {
+        FastArrayState fstate = new FastArrayState(ssf.getStateDim());
+        return fstate.init(ssf, pos, state) ? fstate : null;
+    }
+
+    /**
+     * Initializes this array state with a given (forecast) state. The model
+     * must be time invariant and its dimension must be the dimension of this
+     * object. The difference P(t+1)-P(t) is factorized by means of its eigen
+     * decomposition. The workspace of the factorization (D, U, eigen values)
+     * is created with the state and re-used by the successive
+     * initializations; the operations of the model (ZM, TVT, addV) may still
+     * create their own temporaries.
+     *
+     * @param ssf
+     * @param pos
+     * @param state a(pos|pos-1), P(pos|pos-1)
+     * @return False if the variance of the prediction error is not positive
+     */
+    public boolean init(final ISsf ssf, final int pos, final State state) {
+        ISsfDynamics dynamics = ssf.getDynamics();
+        ISsfMeasurement measurement = ssf.getMeasurement();
+        int dim = getDim();
+        Matrix P = state.P();
+        // K = TPZ', f = ZPZ'+h
+        K.set(0);
+        measurement.ZM(pos, P.subMatrix(), K);
+        double f = measurement.ZX(pos, K);
+        if (measurement.hasErrors()) {
+            f += measurement.errorVariance(pos);
+        }
+        if (f <= 0) {
+            return false;
+        }
+        dynamics.TX(pos, K);
+        // D = TPT'+V-KK'/f-P
+        for (int i = 0; i < dim; ++i) {
+            for (int j = 0; j < dim; ++j) {
+                D.set(i, j, P.get(i, j));
+            }
+        }
+        dynamics.TVT(pos, Dv);
+        dynamics.addV(pos, Dv);
+        for (int i = 0; i < dim; ++i) {
+            double ki = K.get(i) / f;
+            for (int j = 0; j < dim; ++j) {
+                D.set(i, j, D.get(i, j) - ki * K.get(j) - P.get(i, j));
+            }
+        }
+        jacobi(D, U, lambda);
+        double lmax = 0;
+        for (int i = 0; i < dim; ++i) {
+            lmax = Math.max(lmax, Math.abs(lambda[i]));
+        }
+        double eps = EPS * Math.max(lmax, f);
+        a.copy(state.a());
+        r = Math.sqrt(f);
+        k.setAY(1 / r, K);
+        rank = 0;
+        for (int i = 0; i < dim; ++i) {
+            if (Math.abs(lambda[i]) > eps) {
+                double q = Math.sqrt(Math.abs(lambda[i]));
+                DataBlock l = L[rank];
+                for (int j = 0; j < dim; ++j) {
+                    l.set(j, q * U.get(j, i));
+                }
+                signs[rank++] = lambda[i] > 0 ? 1 : -1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the current increment of the covariance, P(t+1)-P(t) = L*S*L', to
+     * a given matrix. It is used to follow P(t) when it is needed by a later
+     * re-initialization (missing values)
+     *
+     * @param P P(t) on entry, P(t+1) on exit
+     */
+    public void addIncrement(final Matrix P) {
+        for (int j = 0; j < rank; ++j) {
+            P.addXaXt(signs[j], L[j]);
+        }
+    }
+
+    /**
+     * Eigen decomposition of a symmetric matrix (cyclic Jacobi method). The
+     * matrix is destroyed
+     *
+     * @param A
+     * @param V The eigen vectors, by columns (output)
+     * @param lambda The eigen values (output)
+     */
+    private static void jacobi(Matrix A, Matrix V, double[] lambda) {
+        int n = A.getRowsCount();
+        V.set(0);
+        V.diagonal().set(1);
+        for (int sweep = 0; sweep < 100; ++sweep) {
+            double off = 0, tot = 0;
+            for (int i = 0; i < n; ++i) {
+                for (int j = 0; j < n; ++j) {
+                    double a = A.get(i, j) * A.get(i, j);
+                    tot += a;
+                    if (i != j) {
+                        off += a;
+                    }
+                }
+            }
+            if (off <= 1e-30 * tot) {
+                break;
+            }
+            for (int p = 0; p < n - 1; ++p) {
+                for (int q = p + 1; q < n; ++q) {
+                    double apq = A.get(p, q);
+                    if (apq == 0) {
+                        continue;
+                    }
+                    double theta = (A.get(q, q) - A.get(p, p)) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1), s = t * c;
+                    for (int k = 0; k < n; ++k) {
+                        double akp = A.get(k, p), akq = A.get(k, q);
+                        A.set(k, p, c * akp - s * akq);
+                        A.set(k, q, s * akp + c * akq);
+                    }
+                    for (int k = 0; k < n; ++k) {
+                        double apk = A.get(p, k), aqk = A.get(q, k);
+                        A.set(p, k, c * apk - s * aqk);
+                        A.set(q, k, s * apk + c * aqk);
+                    }
+                    for (int k = 0; k < n; ++k) {
+                        double vkp = V.get(k, p), vkq = V.get(k, q);
+                        V.set(k, p, c * vkp - s * vkq);
+                        V.set(k, q, s * vkp + c * vkq);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            lambda[i] = A.get(i, i);
+        }
+    }
+}
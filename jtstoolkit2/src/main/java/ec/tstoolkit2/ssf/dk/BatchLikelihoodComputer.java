@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.SsfException;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the diffuse likelihoods of many independent (model, data) pairs in
+ * parallel. The pairs are split in chunks, which are distributed among at most
+ * one task per thread of the executor; each task owns a worker that re-uses
+ * the same filter and the same prediction error decomposition for all its
+ * chunks. The results are returned in the order of the inputs.
+ * <br>
+ * A model that appears in several pairs is used by several threads: its
+ * dynamics and its measurement must not modify any internal state when they
+ * are used (the implementations of ec.tstoolkit2.ssf.implementations meet that
+ * condition).
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class BatchLikelihoodComputer {
+
+    /**
+     * Likelihood of a (model, data) pair, with the time spent in its
+     * computation
+     */
+    public static class Result {
+
+        private final ILikelihood likelihood;
+        private final long duration;
+        private final Throwable error;
+
+        Result(ILikelihood likelihood, long duration, Throwable error) {
+            this.likelihood = likelihood;
+            this.duration = duration;
+            this.error = error;
+        }
+
+        /**
+         *
+         * @return The likelihood or null if the computation failed
+         */
+        public ILikelihood getLikelihood() {
+            return likelihood;
+        }
+
+        /**
+         *
+         * @return The duration of the computation, in nanoseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         *
+         * @return The exception thrown during the computation (or null)
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return likelihood != null;
+        }
+    }
+
+    private ExecutorService executor;
+    private boolean sqr = true, allocationFree = true;
+    private double eps;
+    private int chunkSize;
+
+    /**
+     * Creates a batch computer that uses the common fork-join pool
+     */
+    public BatchLikelihoodComputer() {
+    }
+
+    /**
+     *
+     * @param executor The executor used to process the chunks. May be a
+     * ForkJoinPool
+     */
+    public BatchLikelihoodComputer(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Square root initialization of the diffuse part (default) or usual
+     * Durbin-Koopman initialization
+     *
+     * @param sqr
+     */
+    public void setSquareRoot(boolean sqr) {
+        this.sqr = sqr;
+    }
+
+    public boolean isSquareRoot() {
+        return sqr;
+    }
+
+    /**
+     * See OrdinaryFilter.setAllocationFree (true by default)
+     *
+     * @param allocationFree
+     */
+    public void setAllocationFree(boolean allocationFree) {
+        this.allocationFree = allocationFree;
+    }
+
+    public boolean isAllocationFree() {
+        return allocationFree;
+    }
+
+    /**
+     * See OrdinaryFilter.setSteadyStateEpsilon (0 by default)
+     *
+     * @param eps
+     */
+    public void setSteadyStateEpsilon(double eps) {
+        this.eps = eps;
+    }
+
+    public double getSteadyStateEpsilon() {
+        return eps;
+    }
+
+    /**
+     * Number of pairs in a chunk. When it is 0 (default), the chunks are
+     * defined so that each thread of the executor gets about 4 of them.
+     *
+     * @param chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Computes the likelihood of the same model for different series. The
+     * model is shared by the threads (see the class documentation)
+     *
+     * @param ssf
+     * @param data
+     * @return
+     */
+    public List<Result> compute(ISsf ssf, List<? extends ISsfData> data) {
+        ISsf[] models = new ISsf[data.size()];
+        Arrays.fill(models, ssf);
+        return compute(Arrays.asList(models), data);
+    }
+
+    /**
+     * Computes the likelihoods of the given pairs
+     *
+     * @param models
+     * @param data
+     * @return The results, in the order of the inputs
+     */
+    public List<Result> compute(List<? extends ISsf> models, List<? extends ISsfData> data) {
+        int n = models.size();
+        if (data.size() != n) {
+            throw new IllegalArgumentException("Models and data should have the same size");
+        }
+        Result[] rslts = new Result[n];
+        if (n == 0) {
+            return Arrays.asList(rslts);
+        }
+        ExecutorService exec = getExecutor();
+        int nthreads = exec instanceof ForkJoinPool
+                ? ((ForkJoinPool) exec).getParallelism() : Runtime.getRuntime().availableProcessors();
+        int csize = chunkSize;
+        if (csize <= 0) {
+            csize = 1 + (n - 1) / (4 * nthreads);
+        }
+        int nchunks = 1 + (n - 1) / csize;
+        Chunks chunks = new Chunks(models, data, rslts, csize);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < Math.min(nthreads, nchunks); ++i) {
+            futures.add(exec.submit(chunks));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SsfException("Batch computation interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new SsfException("Batch computation failed", ex);
+        }
+        return Arrays.asList(rslts);
+    }
+
+    /**
+     * Each task takes the next unprocessed chunk until all the chunks have
+     * been handled, with a single worker
+     */
+    private class Chunks implements Callable<Void> {
+
+        private final List<? extends ISsf> models;
+        private final List<? extends ISsfData> data;
+        private final Result[] rslts;
+        private final int csize;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Chunks(List<? extends ISsf> models, List<? extends ISsfData> data, Result[] rslts, int csize) {
+            this.models = models;
+            this.data = data;
+            this.rslts = rslts;
+            this.csize = csize;
+        }
+
+        @Override
+        public Void call() {
+            Worker worker = new Worker();
+            int start;
+            while ((start = next.getAndIncrement() * csize) < rslts.length) {
+                int end = Math.min(rslts.length, start + csize);
+                for (int i = start; i < end; ++i) {
+                    rslts[i] = worker.compute(models.get(i), data.get(i));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Re-usable objects of a task
+     */
+    private class Worker {
+
+        private final LikelihoodWorker worker = new LikelihoodWorker(sqr, allocationFree, eps, false);
+
+        Result compute(ISsf ssf, ISsfData data) {
+            long t0 = System.nanoTime();
+            try {
+                ILikelihood ll = worker.compute(ssf, data);
+                return new Result(ll, System.nanoTime() - t0, null);
+            } catch (RuntimeException err) {
+                return new Result(null, System.nanoTime() - t0, err);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.univariate.CheckpointedFilteringResults;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+
+/**
+ * Checkpointed results of the diffuse filter. The (short) diffuse part is
+ * completely stored; the checkpoints start at the end of the diffuse
+ * initialization (see CheckpointedFilteringResults)
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class CheckpointedDiffuseFilteringResults extends CheckpointedFilteringResults implements IDiffuseFilteringResults {
+
+    private final DefaultDiffuseFilteringResults diffuse = DefaultDiffuseFilteringResults.full();
+
+    /**
+     *
+     * @param interval See CheckpointedFilteringResults
+     */
+    public CheckpointedDiffuseFilteringResults(final int interval) {
+        super(interval);
+    }
+
+    @Override
+    public void prepare(final ISsf ssf, final ISsfData data, final int start, final int end) {
+        super.prepare(ssf, data, start, end);
+        int nd = ssf.getDynamics().getNonStationaryDim();
+        diffuse.prepare(ssf, start, start + Math.max(1, nd));
+        // no checkpoint before the end of the diffuse part
+        startCheckpoints(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void save(final int t, final DiffusePredictionError pe) {
+        super.save(t, pe);
+        diffuse.save(t, pe);
+    }
+
+    @Override
+    public void save(final int t, final DiffuseState state) {
+        diffuse.save(t, state);
+    }
+
+    @Override
+    public void close(final int pos) {
+        diffuse.close(pos);
+        startCheckpoints(pos);
+    }
+
+    @Override
+    public int getEndDiffusePosition() {
+        return diffuse.getEndDiffusePosition();
+    }
+
+    @Override
+    public double diffuseNorm2(final int pos) {
+        return diffuse.diffuseNorm2(pos);
+    }
+
+    @Override
+    public DataBlock Mi(final int pos) {
+        return diffuse.Mi(pos);
+    }
+
+    @Override
+    public SubMatrix Pi(final int pos) {
+        return diffuse.Pi(pos);
+    }
+
+    @Override
+    public DataBlock a(final int pos) {
+        return pos < getCheckpointsStart() ? diffuse.a(pos) : super.a(pos);
+    }
+
+    @Override
+    public DataBlock M(final int pos) {
+        return pos < getCheckpointsStart() ? diffuse.M(pos) : super.M(pos);
+    }
+
+    @Override
+    public SubMatrix P(final int pos) {
+        return pos < getCheckpointsStart() ? diffuse.P(pos) : super.P(pos);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        diffuse.clear();
+    }
+}
@@ -25,6 +25,8 @@ import ec.tstoolkit2.ssf.DataBlockResults;
 import ec.tstoolkit2.ssf.DataResults;
 import ec.tstoolkit2.ssf.MatrixResults;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -37,19 +39,33 @@ public class DefaultDiffuseFilteringResults extends DefaultFilteringResults impl
     private final DataResults fi;
     private int enddiffuse;
 
-    private DefaultDiffuseFilteringResults(boolean var) {
-        super(var);
-        Ci = new DataBlockResults();
-        fi=new DataResults();
-        Pi = var ? new MatrixResults() : null;
+    private DefaultDiffuseFilteringResults(boolean var, IResultsStorage storage) {
+        super(var, storage);
+        Ci = new DataBlockResults(storage);
+        fi=new DataResults(storage);
+        Pi = var ? new MatrixResults(storage, true) : null;
     }
 
     public static DefaultDiffuseFilteringResults full() {
-        return new DefaultDiffuseFilteringResults(true);
+        return new DefaultDiffuseFilteringResults(true, ResultsStorage.DEFAULT);
     }
 
     public static DefaultDiffuseFilteringResults light() {
-        return new DefaultDiffuseFilteringResults(false);
+        return new DefaultDiffuseFilteringResults(false, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Results stored in a given back-end (see ResultsStorage)
+     *
+     * @param storage
+     * @return
+     */
+    public static DefaultDiffuseFilteringResults full(IResultsStorage storage) {
+        return new DefaultDiffuseFilteringResults(true, storage);
+    }
+
+    public static DefaultDiffuseFilteringResults light(IResultsStorage storage) {
+        return new DefaultDiffuseFilteringResults(false, storage);
     }
     
     @Override
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.ResultsRange;
+import ec.tstoolkit2.ssf.dk.sqrt.DefaultDiffuseSquareRootFilteringResults;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the t-statistics of additive outliers (AO), level shifts (LS) and
+ * transitory changes (TC) at every position of a series, using the auxiliary
+ * residuals of one disturbance smoother pass (de Jong and Penzer).
+ *
+ * An outlier starting at t is a regression effect w(t) with w(s+1)=rho*w(s)
+ * (rho = 0 for AO, 1 for LS, the rate of the TC). Its score x'S^-1y and its
+ * information x'S^-1x are obtained by backward recursions on the smoothation
+ * u(t), its variance D(t) and the auxiliary quantities T'N(t)T*C(t), which are
+ * computed once. The scan of a type of outliers is thus O(n*dim), whatever
+ * the number of candidates.
+ *
+ * The outliers added to the model (see add) are handled as regression
+ * variables: the scores and the information of the candidates are corrected
+ * for their effects, without re-filtering the series. Only the positions
+ * after the diffuse part of the filter are scanned.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class DiffuseOutlierScanner {
+
+    public static enum Type {
+
+        AO, LS, TC
+    }
+
+    /**
+     * Outlier (or regression variable) included in the model
+     */
+    private static class Variable {
+
+        final Type type;
+        final int pos;
+        // filtered values, smoothations
+        final double[] e, u;
+
+        Variable(Type type, int pos, double[] e, double[] u) {
+            this.type = type;
+            this.pos = pos;
+            this.e = e;
+            this.u = u;
+        }
+    }
+
+    private final ISsfMeasurement measurement;
+    private final ISsfDynamics dynamics;
+    private final ISsf ssf;
+    private final DefaultDiffuseSquareRootFilteringResults frslts;
+    private final int n, nd, dim;
+    private double tcrate = .7;
+    // smoothations of the series, their variances, T'NT*C
+    private final double[] u, D;
+    private final Matrix G;
+    // cross-products
+    private final double yy;
+    private final int nobs;
+    private final List<Variable> vars = new ArrayList<>();
+    private Matrix L;
+    private DataBlock Ly;
+    private double ssq;
+
+    /**
+     * Filters the series and computes the auxiliary residuals
+     *
+     * @param ssf
+     * @param data
+     */
+    public DiffuseOutlierScanner(ISsf ssf, ISsfData data) {
+        this.ssf = CompiledSsf.of(ssf);
+        measurement = this.ssf.getMeasurement();
+        dynamics = this.ssf.getDynamics();
+        frslts = DkToolkit.sqrtFilter(ssf, data, true);
+        n = data.getLength();
+        nd = frslts.getEndDiffusePosition();
+        dim = dynamics.getStateDim();
+        u = new double[n];
+        D = new double[n];
+        G = new Matrix(n, dim);
+        Arrays.fill(u, Double.NaN);
+        Arrays.fill(D, Double.NaN);
+        smooth();
+        double s = 0;
+        int m = 0;
+        for (int t = 0; t < n; ++t) {
+            if (isUsed(t)) {
+                double e = frslts.error(t);
+                s += e * e / frslts.errorVariance(t);
+                ++m;
+            }
+        }
+        yy = s;
+        nobs = m;
+        ssq = s;
+    }
+
+    /**
+     * Rate of the transitory changes (0.7 by default)
+     *
+     * @param rate
+     */
+    public void setTcRate(double rate) {
+        if (rate <= 0 || rate >= 1) {
+            throw new IllegalArgumentException("The rate should be in ]0, 1[");
+        }
+        tcrate = rate;
+    }
+
+    public double getTcRate() {
+        return tcrate;
+    }
+
+    /**
+     * Number of observations used in the estimation of sigma (the diffuse
+     * observations are excluded)
+     *
+     * @return
+     */
+    public int getObsCount() {
+        return nobs;
+    }
+
+    /**
+     * Standard deviation of the residuals, corrected for the outliers of the
+     * model. The degrees of freedom are the number of observations minus the
+     * number of outliers
+     *
+     * @return
+     */
+    public double getSigma() {
+        return Math.sqrt(ssq / (nobs - vars.size()));
+    }
+
+    /**
+     * Position of the first observation that can be tested
+     *
+     * @return
+     */
+    public int getStartPosition() {
+        return nd;
+    }
+
+    /**
+     * Adds an outlier to the model. Only the new outlier is filtered (using
+     * the stored gains of the series)
+     *
+     * @param type
+     * @param pos
+     * @return False if the outlier is already in the model, if its position
+     * is invalid (see getStartPosition) or if it is collinear with the current
+     * regression variables
+     */
+    public boolean add(Type type, int pos) {
+        if (pos < nd || pos >= n || indexOf(type, pos) >= 0) {
+            return false;
+        }
+        DataBlock x = new DataBlock(n);
+        double rho = rho(type);
+        double cur = 1;
+        for (int t = pos; t < n && cur != 0; ++t) {
+            x.set(t, cur);
+            cur *= rho;
+        }
+        FastDiffuseFilter filter = new FastDiffuseFilter(ssf, frslts, new ResultsRange(0, n));
+        if (!filter.filter(x)) {
+            return false;
+        }
+        double[] e = new double[n];
+        for (int t = 0; t < n; ++t) {
+            e[t] = x.get(t);
+        }
+        vars.add(new Variable(type, pos, e, smoothations(e)));
+        if (!update()) {
+            vars.remove(vars.size() - 1);
+            update();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes an outlier from the model
+     *
+     * @param type
+     * @param pos
+     * @return False if the outlier was not in the model
+     */
+    public boolean remove(Type type, int pos) {
+        int idx = indexOf(type, pos);
+        if (idx < 0) {
+            return false;
+        }
+        vars.remove(idx);
+        update();
+        return true;
+    }
+
+    public int getOutliersCount() {
+        return vars.size();
+    }
+
+    public Type getOutlierType(int idx) {
+        return vars.get(idx).type;
+    }
+
+    public int getOutlierPosition(int idx) {
+        return vars.get(idx).pos;
+    }
+
+    /**
+     * Computes the t-statistics of the given type of outliers at every
+     * position, taking into account the outliers of the model
+     *
+     * @param type
+     * @return The t-statistics. NaN for the positions that can't be tested
+     * (diffuse part, missing values for AO, outliers already in the model)
+     */
+    public double[] tstats(Type type) {
+        double[] stats = new double[n];
+        Arrays.fill(stats, Double.NaN);
+        int k = vars.size();
+        double rho = rho(type);
+        double sig = getSigma();
+        DataBlock nv = new DataBlock(dim);
+        DataBlock g = new DataBlock(k);
+        double[] sx = new double[k];
+        double m = 0, s = 0;
+        for (int t = n - 1; t >= nd; --t) {
+            double f = frslts.errorVariance(t);
+            boolean missing = Double.isNaN(u[t]);
+            nv.mul(rho);
+            dynamics.XT(t, nv);
+            if (missing) {
+                m *= rho * rho;
+                s *= rho;
+                for (int j = 0; j < k; ++j) {
+                    sx[j] *= rho;
+                }
+            } else {
+                DataBlock M = frslts.M(t);
+                // C = M/f
+                double qc = nv.dot(M) / f;
+                m = D[t] - 2 * qc + rho * rho * m;
+                nv.sub(G.row(t));
+                double yc = nv.dot(M) / f;
+                measurement.XpZd(t, nv, 1 / f - yc);
+                s = u[t] + rho * s;
+                for (int j = 0; j < k; ++j) {
+                    sx[j] = vars.get(j).u[t] + rho * sx[j];
+                }
+            }
+            if (missing && rho == 0) {
+                continue;
+            }
+            double score = s, info = m;
+            if (k > 0) {
+                if (indexOf(type, t) >= 0) {
+                    continue;
+                }
+                g.copyFrom(sx, 0);
+                LowerTriangularMatrix.rsolve(L, g);
+                score -= g.dot(Ly);
+                info -= g.ssq();
+            }
+            if (info > 0) {
+                stats[t] = score / (Math.sqrt(info) * sig);
+            }
+        }
+        return stats;
+    }
+
+    private double rho(Type type) {
+        switch (type) {
+            case LS:
+                return 1;
+            case TC:
+                return tcrate;
+            default:
+                return 0;
+        }
+    }
+
+    private int indexOf(Type type, int pos) {
+        for (int i = 0; i < vars.size(); ++i) {
+            Variable var = vars.get(i);
+            if (var.type == type && var.pos == pos) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Observation used in the likelihood (not missing, not diffuse)
+     *
+     * @param t
+     * @return
+     */
+    private boolean isUsed(int t) {
+        if (!Double.isFinite(frslts.error(t))) {
+            return false;
+        }
+        return t >= nd || frslts.diffuseNorm2(t) == 0;
+    }
+
+    /**
+     * Computes the Cholesky factor of X'S^-1X and the corrected sum of
+     * squares
+     *
+     * @return
+     */
+    private boolean update() {
+        int k = vars.size();
+        if (k == 0) {
+            L = null;
+            Ly = null;
+            ssq = yy;
+            return true;
+        }
+        if (k >= nobs) {
+            return false;
+        }
+        Matrix xx = new Matrix(k, k);
+        DataBlock xy = new DataBlock(k);
+        for (int t = 0; t < n; ++t) {
+            if (!isUsed(t)) {
+                continue;
+            }
+            double f = frslts.errorVariance(t);
+            double ey = frslts.error(t) / f;
+            for (int i = 0; i < k; ++i) {
+                double ei = vars.get(i).e[t];
+                if (ei == 0) {
+                    continue;
+                }
+                xy.add(i, ei * ey);
+                for (int j = 0; j <= i; ++j) {
+                    xx.set(i, j, xx.get(i, j) + ei * vars.get(j).e[t] / f);
+                }
+            }
+        }
+        for (int i = 0; i < k; ++i) {
+            for (int j = 0; j < i; ++j) {
+                xx.set(j, i, xx.get(i, j));
+            }
+        }
+        try {
+            SymmetricMatrix.lcholesky(xx);
+            LowerTriangularMatrix.rsolve(xx, xy);
+        } catch (RuntimeException err) {
+            return false;
+        }
+        double rssq = yy - xy.ssq();
+        if (!Double.isFinite(rssq) || rssq <= 0) {
+            return false;
+        }
+        L = xx;
+        Ly = xy;
+        ssq = rssq;
+        return true;
+    }
+
+    /**
+     * Backward pass of the disturbance smoother on the series
+     */
+    private void smooth() {
+        DataBlock r = new DataBlock(dim), g = new DataBlock(dim), C = new DataBlock(dim);
+        Matrix N = Matrix.square(dim);
+        for (int t = n - 1; t >= nd; --t) {
+            dynamics.XT(t, r);
+            tvt(t, N);
+            double e = frslts.error(t), f = frslts.errorVariance(t);
+            if (!Double.isFinite(e) || f == 0) {
+                continue;
+            }
+            C.copy(frslts.M(t));
+            C.mul(1 / f);
+            double c = e / f - r.dot(C);
+            measurement.XpZd(t, r, c);
+            u[t] = c;
+            // N(t-1) = Z'Z/f + L'N(t)L
+            g.product(C, N.columns());
+            double v = 1 / f + g.dot(C);
+            D[t] = v;
+            G.row(t).copy(g);
+            measurement.VpZdZ(t, N.subMatrix(), v);
+            subZ(t, N.rows(), g);
+            subZ(t, N.columns(), g);
+            SymmetricMatrix.reinforceSymmetry(N);
+        }
+    }
+
+    /**
+     * Smoothations of a filtered regression variable (0 for the missing
+     * values)
+     *
+     * @param e
+     * @return
+     */
+    private double[] smoothations(double[] e) {
+        double[] ux = new double[n];
+        DataBlock r = new DataBlock(dim);
+        for (int t = n - 1; t >= nd; --t) {
+            dynamics.XT(t, r);
+            if (Double.isNaN(u[t])) {
+                continue;
+            }
+            double f = frslts.errorVariance(t);
+            double c = e[t] / f - r.dot(frslts.M(t)) / f;
+            measurement.XpZd(t, r, c);
+            ux[t] = c;
+        }
+        return ux;
+    }
+
+    private void tvt(int pos, Matrix N) {
+        DataBlockIterator columns = N.columns();
+        DataBlock col = columns.getData();
+        do {
+            dynamics.XT(pos, col);
+        } while (columns.next());
+        DataBlockIterator rows = N.rows();
+        DataBlock row = rows.getData();
+        do {
+            dynamics.XT(pos, row);
+        } while (rows.next());
+    }
+
+    private void subZ(int pos, DataBlockIterator rows, DataBlock b) {
+        DataBlock row = rows.getData();
+        do {
+            double cur = b.get(rows.getPosition());
+            if (cur != 0) {
+                measurement.XpZd(pos, row, -cur);
+            }
+        } while (rows.next());
+    }
+}
@@ -19,6 +19,7 @@ package ec.tstoolkit2.ssf.dk;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.eco.Determinant;
 import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.akf.AugmentedState;
 import ec.tstoolkit2.ssf.dk.sqrt.IDiffuseSquareRootFilteringResults;
 import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
@@ -31,6 +32,7 @@ public class DiffusePredictionErrorDecomposition extends PredictionErrorDecompos
 
     private final Determinant ddet = new Determinant();
     private int nd, enddiffuse;
+    private double lddet0;
 
     public DiffusePredictionErrorDecomposition(boolean res) {
         super(res);
@@ -40,7 +42,7 @@ public class DiffusePredictionErrorDecomposition extends PredictionErrorDecompos
     public ILikelihood likelihood() {
         DkDiffuseLikelihood ll = new DkDiffuseLikelihood();
         int nobs = nd + cumulator.getObsCount();
-        ll.set(cumulator.getSsqErr(), cumulator.getLogDeterminant(), ddet.getLogDeterminant(), nobs, nd);
+        ll.set(cumulator.getSsqErr(), cumulator.getLogDeterminant(), lddet0 + ddet.getLogDeterminant(), nobs, nd);
         if (bres) {
 //            if (n < res.getLength()) {
 //                double[] tmp = new double[n];
@@ -62,10 +64,25 @@ public class DiffusePredictionErrorDecomposition extends PredictionErrorDecompos
     public void clear() {
         super.clear();
         ddet.clear();
+        lddet0 = 0;
         nd = 0;
         enddiffuse = 0;
     }
 
+    @Override
+    public void saveTo(FilterSnapshot snapshot) {
+        snapshot.setLikelihood(cumulator.getSsqErr(), cumulator.getLogDeterminant(),
+                lddet0 + ddet.getLogDeterminant(), nd + cumulator.getObsCount(), nd);
+    }
+
+    @Override
+    public void restore(FilterSnapshot snapshot) {
+        super.restore(snapshot);
+        ddet.clear();
+        lddet0 = snapshot.getDiffuseCorrection();
+        nd = snapshot.getDiffuseCount();
+    }
+
     @Override
     public void save(int t, DiffusePredictionError pe) {
         if (pe == null || pe.isMissing()) {
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+
+/**
+ * Filters a series and a set of regression variables in one pass and
+ * computes the cross-products needed by the GLS estimation of the regression
+ * coefficients: X'S^-1X, X'S^-1y and y'S^-1y, where S is the covariance
+ * matrix of the series (diffuse initialization).
+ *
+ * The series is processed by the usual diffuse filter. Its gains are not
+ * stored: they are buffered for a block of periods and then applied to the
+ * regression variables, tile of columns by tile of columns, so that the
+ * states of a tile and the gains of a block stay in cache. The cross-products
+ * are updated at the end of each block. The diffuse prediction errors (with a
+ * non-zero diffuse variance) don't contribute to the cross-products, as in
+ * the diffuse likelihood.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class DiffuseRegressionFilter {
+
+    private boolean sqr = true;
+    private int tileSize = 8, blockLength = 64;
+    // results
+    private Matrix xtx;
+    private DataBlock xty;
+    private double yty;
+    private ILikelihood ll;
+
+    /**
+     * Square root initialization of the diffuse part (default) or usual
+     * Durbin-Koopman initialization
+     *
+     * @param sqr
+     */
+    public void setSquareRoot(boolean sqr) {
+        this.sqr = sqr;
+    }
+
+    public boolean isSquareRoot() {
+        return sqr;
+    }
+
+    /**
+     * Number of regression variables processed together (8 by default)
+     *
+     * @param tileSize
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Invalid tile size");
+        }
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Number of periods buffered before the regression variables are
+     * updated (64 by default)
+     *
+     * @param blockLength
+     */
+    public void setBlockLength(int blockLength) {
+        if (blockLength < 1) {
+            throw new IllegalArgumentException("Invalid block length");
+        }
+        this.blockLength = blockLength;
+    }
+
+    public int getBlockLength() {
+        return blockLength;
+    }
+
+    /**
+     *
+     * @param ssf The model
+     * @param y The series
+     * @param x The regression variables (one column by variable, one row by
+     * period). Can be null. The regression variables are not modified
+     * @return False if the filter failed
+     */
+    public boolean process(ISsf ssf, ISsfData y, SubMatrix x) {
+        xtx = null;
+        xty = null;
+        yty = 0;
+        ll = null;
+        int nx = x == null ? 0 : x.getColumnsCount();
+        if (x != null && x.getRowsCount() != y.getLength()) {
+            return false;
+        }
+        Engine engine = new Engine(CompiledSsf.of(ssf), x, nx);
+        OrdinaryFilter.Initializer initializer = sqr ? new DiffuseSquareRootInitializer(engine)
+                : new DurbinKoopmanInitializer(engine);
+        OrdinaryFilter filter = new OrdinaryFilter(initializer);
+        if (!filter.process(ssf, y, engine)) {
+            return false;
+        }
+        engine.flush();
+        xtx = engine.xtx();
+        xty = new DataBlock(engine.xy);
+        yty = engine.yy;
+        ll = engine.likelihood();
+        return true;
+    }
+
+    /**
+     * X'S^-1X
+     *
+     * @return
+     */
+    public Matrix getXtX() {
+        return xtx;
+    }
+
+    /**
+     * X'S^-1y
+     *
+     * @return
+     */
+    public DataBlock getXty() {
+        return xty;
+    }
+
+    /**
+     * y'S^-1y (sum of the squared standardized prediction errors of the
+     * series)
+     *
+     * @return
+     */
+    public double getYtY() {
+        return yty;
+    }
+
+    /**
+     * Diffuse likelihood of the series (without regression effects)
+     *
+     * @return
+     */
+    public ILikelihood getLikelihood() {
+        return ll;
+    }
+
+    /**
+     * Receives the prediction errors of the series and updates the
+     * regression variables by blocks
+     */
+    private class Engine extends DiffusePredictionErrorDecomposition {
+
+        private final ISsfMeasurement measurement;
+        private final ISsfDynamics dynamics;
+        private final SubMatrix x;
+        private final int dim, nx;
+        // states of the regression variables (by columns)
+        private final DataBlock[] a;
+        // buffered gains, divisors, weights, errors
+        private final int[] pos;
+        private final DataBlock[] K;
+        private final double[] w, c, ey, ex;
+        private int nb;
+        // cross-products (upper triangle of X'X by rows)
+        private final double[] xx, xy;
+        private double yy;
+
+        Engine(ISsf ssf, SubMatrix x, int nx) {
+            super(false);
+            this.x = x;
+            this.nx = nx;
+            measurement = ssf.getMeasurement();
+            dynamics = ssf.getDynamics();
+            dim = dynamics.getStateDim();
+            double[] states = new double[dim * nx];
+            a = new DataBlock[nx];
+            for (int j = 0; j < nx; ++j) {
+                a[j] = new DataBlock(states, j * dim, (j + 1) * dim, 1);
+            }
+            pos = new int[blockLength];
+            double[] gains = new double[dim * blockLength];
+            K = new DataBlock[blockLength];
+            for (int s = 0; s < blockLength; ++s) {
+                K[s] = new DataBlock(gains, s * dim, (s + 1) * dim, 1);
+            }
+            w = new double[blockLength];
+            c = new double[blockLength];
+            ey = new double[blockLength];
+            ex = new double[blockLength * nx];
+            xx = new double[nx * nx];
+            xy = new double[nx];
+        }
+
+        @Override
+        public void save(int t, PredictionError pe) {
+            super.save(t, pe);
+            if (pe == null || pe.isMissing()) {
+                push(t, null, 0, 0, 0);
+            } else {
+                double f = pe.getVariance();
+                push(t, pe.M(), f, 1 / f, pe.get());
+            }
+        }
+
+        @Override
+        public void save(int t, DiffusePredictionError pe) {
+            super.save(t, pe);
+            if (pe == null || pe.isMissing()) {
+                push(t, null, 0, 0, 0);
+            } else if (pe.isDiffuse()) {
+                push(t, pe.Mi(), pe.getDiffuseNorm2(), 0, 0);
+            } else {
+                double f = pe.getVariance();
+                push(t, pe.M(), f, 1 / f, pe.get());
+            }
+        }
+
+        /**
+         * Buffers a period
+         *
+         * @param t The position
+         * @param M The gain (not divided by the variance). Null for missing
+         * values
+         * @param v The variance used in the update of the states
+         * @param weight The weight of the period in the cross-products
+         * @param e The prediction error of the series
+         */
+        private void push(int t, DataBlock M, double v, double weight, double e) {
+            pos[nb] = t;
+            if (M == null) {
+                w[nb] = 0;
+            } else {
+                w[nb] = v;
+                K[nb].copy(M);
+            }
+            c[nb] = weight;
+            ey[nb] = e;
+            yy += weight * e * e;
+            if (++nb == blockLength) {
+                flush();
+            }
+        }
+
+        /**
+         * Applies the buffered periods to the regression variables and
+         * updates the cross-products
+         */
+        void flush() {
+            if (nb == 0) {
+                return;
+            }
+            for (int j0 = 0; j0 < nx; j0 += tileSize) {
+                int j1 = Math.min(nx, j0 + tileSize);
+                for (int s = 0; s < nb; ++s) {
+                    int t = pos[s];
+                    double v = w[s];
+                    int e0 = s * nx;
+                    for (int j = j0; j < j1; ++j) {
+                        DataBlock cur = a[j];
+                        if (v != 0) {
+                            double e = x.get(t, j) - measurement.ZX(t, cur);
+                            cur.addAY(e / v, K[s]);
+                            ex[e0 + j] = e;
+                        } else {
+                            ex[e0 + j] = 0;
+                        }
+                        dynamics.TX(t, cur);
+                    }
+                }
+            }
+            for (int s = 0; s < nb; ++s) {
+                double cs = c[s];
+                if (cs == 0) {
+                    continue;
+                }
+                int e0 = s * nx;
+                double es = ey[s] * cs;
+                for (int i = 0; i < nx; ++i) {
+                    double ei = ex[e0 + i];
+                    if (ei == 0) {
+                        continue;
+                    }
+                    xy[i] += ei * es;
+                    ei *= cs;
+                    for (int j = i, l = i * nx + i; j < nx; ++j, ++l) {
+                        xx[l] += ei * ex[e0 + j];
+                    }
+                }
+            }
+            nb = 0;
+        }
+
+        Matrix xtx() {
+            Matrix m = new Matrix(nx, nx);
+            for (int i = 0; i < nx; ++i) {
+                for (int j = i; j < nx; ++j) {
+                    double v = xx[i * nx + j];
+                    m.set(i, j, v);
+                    m.set(j, i, v);
+                }
+            }
+            return m;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+
+/**
+ * Score of the diffuse likelihood (with concentrated scale factor) computed
+ * by means of the disturbance smoother (Koopman and Shephard, 1992; Durbin
+ * and Koopman, 2012, 7.3.3). For a parameter that only affects the variances,
+ * dl = 1/2 sum(tr[(r(t)r(t)'/s2 - N(t)) dV(t)]) + 1/2 sum((u(t)^2/s2 - D(t))
+ * dH(t)) + 1/2 tr[(r(-1)r(-1)'/s2 - N(-1)) dPf0]. The score of the other
+ * parameters is set to NaN.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class DiffuseScoreComputer {
+
+    private ISsfDynamics dynamics;
+    private ISsfMeasurement measurement;
+    private IBaseDiffuseFilteringResults frslts;
+    private ISsfDerivatives derivatives;
+
+    private DataBlock R, C, Ci, tmp;
+    private Matrix N, W, A;
+    private double e, f, fi, u, d, hsum, s2;
+    private boolean missing;
+    private int pos, nobs;
+    private double[] score;
+
+    public boolean process(ISsf ssf, ISsfData data, ISsfDerivatives derivatives) {
+        IBaseDiffuseFilteringResults fresults = DkToolkit.sqrtFilter(ssf, data, false);
+        return process(ssf, data.getLength(), fresults, derivatives);
+    }
+
+    public boolean process(ISsf ssf, final int endpos, IBaseDiffuseFilteringResults results, ISsfDerivatives derivatives) {
+        this.derivatives = derivatives;
+        frslts = results;
+        dynamics = ssf.getDynamics();
+        measurement = ssf.getMeasurement();
+        if (!initialize(ssf, endpos)) {
+            return false;
+        }
+        int nd = frslts.getEndDiffusePosition();
+        pos = endpos;
+        while (--pos >= 0) {
+            // r(pos), N(pos) correspond to the innovations of the transition pos -> pos+1
+            addV();
+            loadInfo(pos < nd);
+            if (pos >= nd || fi == 0) {
+                iterateRegular();
+            } else {
+                iterateDiffuse();
+            }
+        }
+        addPf0();
+        if (derivatives.isTimeInvariant()) {
+            addTimeInvariantTerms();
+        }
+        return true;
+    }
+
+    private boolean initialize(ISsf ssf, int endpos) {
+        int dim = ssf.getStateDim();
+        s2 = DkToolkit.var(endpos, frslts);
+        if (!Double.isFinite(s2) || s2 <= 0) {
+            return false;
+        }
+        nobs = 0;
+        int nd = frslts.getEndDiffusePosition();
+        for (int i = 0; i < endpos; ++i) {
+            if (Double.isFinite(frslts.error(i)) && (i >= nd || frslts.diffuseNorm2(i) == 0)) {
+                ++nobs;
+            }
+        }
+        R = new DataBlock(dim);
+        C = new DataBlock(dim);
+        Ci = new DataBlock(dim);
+        tmp = new DataBlock(dim);
+        N = Matrix.square(dim);
+        W = Matrix.square(dim);
+        A = derivatives.isTimeInvariant() ? Matrix.square(dim) : null;
+        hsum = 0;
+        score = new double[derivatives.getDim()];
+        for (int i = 0; i < score.length; ++i) {
+            if (!derivatives.isVarianceParameter(i)) {
+                score[i] = Double.NaN;
+            }
+        }
+        return true;
+    }
+
+    private void loadInfo(boolean diffuse) {
+        e = frslts.error(pos);
+        f = frslts.errorVariance(pos);
+        fi = diffuse ? frslts.diffuseNorm2(pos) : 0;
+        C.copy(frslts.M(pos));
+        if (fi != 0) {
+            Ci.copy(frslts.Mi(pos));
+            Ci.mul(1 / fi);
+            C.addAY(-f, Ci);
+            C.mul(1 / fi);
+        } else {
+            C.mul(1 / f);
+        }
+        missing = !Double.isFinite(e) || f == 0;
+    }
+
+    /**
+     * r(t-1) = Z'u(t) + T'r(t), u(t) = e(t)/f(t) - K(t)'r(t), N(t-1) =
+     * Z'Z/f(t) + L(t)'N(t)L(t)
+     */
+    private void iterateRegular() {
+        dynamics.XT(pos, R);
+        tvt(N);
+        if (!missing) {
+            u = e / f - R.dot(C);
+            tmp.product(C, N.columns());
+            d = 1 / f + tmp.dot(C);
+            measurement.XpZd(pos, R, u);
+            update(tmp, d);
+            addH();
+        }
+    }
+
+    /**
+     * Diffuse step (non null diffuse norm): r0(t-1) = L0(t)'r0(t), u0(t) =
+     * -K0(t)'r0(t), N0(t-1) = L0(t)'N0(t)L0(t)
+     */
+    private void iterateDiffuse() {
+        dynamics.XT(pos, R);
+        tvt(N);
+        if (!missing) {
+            u = -R.dot(Ci);
+            tmp.product(Ci, N.columns());
+            d = tmp.dot(Ci);
+            measurement.XpZd(pos, R, u);
+            update(tmp, d);
+            addH();
+        }
+    }
+
+    private void update(DataBlock q, double v) {
+        measurement.VpZdZ(pos, N.subMatrix(), v);
+        subZ(N.rows(), q);
+        subZ(N.columns(), q);
+        SymmetricMatrix.reinforceSymmetry(N);
+    }
+
+    private void addV() {
+        if (A != null) {
+            int dim = R.getLength();
+            for (int i = 0; i < dim; ++i) {
+                double ri = R.get(i) / s2;
+                for (int j = 0; j < dim; ++j) {
+                    A.set(i, j, A.get(i, j) + ri * R.get(j) - N.get(i, j));
+                }
+            }
+        } else {
+            for (int k = 0; k < score.length; ++k) {
+                if (derivatives.isVarianceParameter(k)) {
+                    W.clear();
+                    derivatives.dV(pos, k, W.subMatrix());
+                    score[k] += .5 * trace(W);
+                }
+            }
+        }
+    }
+
+    private void addH() {
+        if (!measurement.hasErrors()) {
+            return;
+        }
+        double q = u * u / s2 - d;
+        if (A != null) {
+            hsum += q;
+        } else {
+            for (int k = 0; k < score.length; ++k) {
+                if (derivatives.isVarianceParameter(k)) {
+                    score[k] += .5 * q * derivatives.dH(pos, k);
+                }
+            }
+        }
+    }
+
+    private void addPf0() {
+        for (int k = 0; k < score.length; ++k) {
+            if (derivatives.isVarianceParameter(k)) {
+                W.clear();
+                derivatives.dPf0(k, W.subMatrix());
+                score[k] += .5 * trace(W);
+            }
+        }
+    }
+
+    private void addTimeInvariantTerms() {
+        int dim = R.getLength();
+        for (int k = 0; k < score.length; ++k) {
+            if (derivatives.isVarianceParameter(k)) {
+                W.clear();
+                derivatives.dV(0, k, W.subMatrix());
+                double s = 0;
+                for (int i = 0; i < dim; ++i) {
+                    for (int j = 0; j < dim; ++j) {
+                        s += A.get(i, j) * W.get(j, i);
+                    }
+                }
+                score[k] += .5 * (s + hsum * derivatives.dH(0, k));
+            }
+        }
+    }
+
+    /**
+     * Computes tr[(RR'/s2 - N) W] = R'WR/s2 - tr(NW)
+     *
+     * @param W
+     * @return
+     */
+    private double trace(Matrix W) {
+        int dim = R.getLength();
+        double s = 0;
+        for (int i = 0; i < dim; ++i) {
+            double ri = R.get(i) / s2;
+            for (int j = 0; j < dim; ++j) {
+                s += (ri * R.get(j) - N.get(i, j)) * W.get(j, i);
+            }
+        }
+        return s;
+    }
+
+    private void tvt(Matrix N) {
+        DataBlockIterator columns = N.columns();
+        DataBlock col = columns.getData();
+        do {
+            dynamics.XT(pos, col);
+        } while (columns.next());
+        DataBlockIterator rows = N.rows();
+        DataBlock row = rows.getData();
+        do {
+            dynamics.XT(pos, row);
+        } while (rows.next());
+    }
+
+    private void subZ(DataBlockIterator rows, DataBlock b) {
+        DataBlock row = rows.getData();
+        do {
+            double cur = b.get(rows.getPosition());
+            if (cur != 0) {
+                measurement.XpZd(pos, row, -cur);
+            }
+        } while (rows.next());
+    }
+
+    /**
+     * Derivatives of the log-likelihood (NaN for the parameters that are not
+     * variance parameters)
+     *
+     * @return
+     */
+    public double[] getScore() {
+        return score;
+    }
+
+    /**
+     *
+     * @return The (max likelihood) estimate of the scale factor
+     */
+    public double getScalingFactor() {
+        return s2;
+    }
+
+    /**
+     *
+     * @return The number of non diffuse observations
+     */
+    public int getObsCount() {
+        return nobs;
+    }
+}
@@ -20,43 +20,43 @@ import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DataBlockStorage;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.data.ReadDataBlock;
-import ec.tstoolkit.dstats.Normal;
 import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit.random.IRandomNumberGenerator;
-import ec.tstoolkit.random.XorshiftRNG;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.ResultsRange;
+import ec.tstoolkit2.ssf.SsfException;
 import ec.tstoolkit2.ssf.StateInfo;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
 import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
+ * Simulation smoother of Durbin-Koopman. The multi-draws methods run the draws
+ * on several threads, which all use the same model: the dynamics and the
+ * measurement of the model must not modify any internal state (scratch
+ * buffers...) when they are used. The implementations of
+ * ec.tstoolkit2.ssf.implementations meet that condition.
  *
  * @author Jean Palate
  */
 public class DiffuseSimulationSmoother {
 
-    private static final Normal N = new Normal();
-    private static final IRandomNumberGenerator RNG = XorshiftRNG.fromSystemNanoTime();
-
-    private static void fillRandoms(DataBlock u) {
-        synchronized (N) {
-            for (int i = 0; i < u.getLength(); ++i) {
-                u.set(i, N.random(RNG));
-            }
-        }
-    }
-
-    private static double random() {
-        synchronized (N) {
-            return N.random(RNG);
-        }
-    }
-
     private static final double EPS = 1e-8;
+    // family of the random streams used by the indexed simulations
+    // (newSimulation(long)). The other simulations use the family 0,
+    // following a counter
+    private static final int INDEXED_STREAMS = 1;
 
     private Matrix LA;
     private final ISsf ssf;
@@ -65,9 +65,26 @@ public class DiffuseSimulationSmoother {
     private final ISsfMeasurement measurement;
     private final Smoothing smoothing;
     private final double var;
+    private final long seed;
+    private final AtomicLong nsimul = new AtomicLong();
+    private ExecutorService executor;
 
     public DiffuseSimulationSmoother(ISsf ssf, ISsfData data) {
+        this(ssf, data, System.nanoTime());
+    }
+
+    /**
+     * Creates a simulation smoother whose simulations are reproducible: the
+     * k-th call to newSimulation() uses the k-th random stream of the seed
+     * (see NormalRandoms.stream)
+     *
+     * @param ssf
+     * @param data
+     * @param seed
+     */
+    public DiffuseSimulationSmoother(ISsf ssf, ISsfData data, long seed) {
         this.ssf = ssf;
+        this.seed = seed;
         dynamics = ssf.getDynamics();
         measurement = ssf.getMeasurement();
         this.data = data;
@@ -80,8 +97,143 @@ public class DiffuseSimulationSmoother {
         return smoothing;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * New simulation, using the next random stream of the smoother. This
+     * method can be called concurrently
+     *
+     * @return
+     */
     public Simulation newSimulation() {
-        return new Simulation();
+        return new Simulation(0, nsimul.getAndIncrement());
+    }
+
+    /**
+     * New simulation, using the given random numbers
+     *
+     * @param rng The generator. It should not be shared by several threads
+     * @return
+     */
+    public Simulation newSimulation(IRandomNumberGenerator rng) {
+        return new Simulation(NormalRandoms.of(rng));
+    }
+
+    /**
+     * New simulation, using the index-th random stream of the seed of the
+     * smoother. The result doesn't depend on the calls that have been made
+     * before, so that the simulations can be distributed among threads in any
+     * order. The indexed streams are distinct from the streams used by
+     * newSimulation() and by the multi-draws methods.
+     *
+     * @param index
+     * @return
+     */
+    public Simulation newSimulation(long index) {
+        return new Simulation(INDEXED_STREAMS, index);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Executor used by the multi-draws methods (common fork-join pool by
+     * default)
+     *
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Generates states.length draws in parallel. The simulated states of the
+     * k-th draw are written in states[k], which must be a (stateDim x n)
+     * storage. All the draws share the reference smoothing. They use
+     * consecutive random streams of the smoother, so that the results don't
+     * depend on the number of threads. The model must be thread-safe (see
+     * the class documentation).
+     *
+     * @param states The storages receiving the simulated states
+     */
+    public void simulateStates(final DataBlockStorage[] states) {
+        final long first = nsimul.getAndAdd(states.length);
+        run(states.length, (int start, int end) -> {
+            for (int i = start; i < end; ++i) {
+                new Simulation(0, first + i).fillSimulatedStates(states[i]);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Generates ndraws draws in parallel and reduces them on the fly. Each
+     * chunk of draws is accumulated in its own accumulator (provided by the
+     * supplier); the partial accumulators are merged at the end, in the order
+     * of the draws. The draws are not kept in memory. The draws use
+     * consecutive random streams of the smoother, so that the result doesn't
+     * depend on the number of threads (for accumulators that only keep a
+     * sample of the draws, see Simulation.getSamplingKey). The model must be
+     * thread-safe (see the class documentation).
+     *
+     * @param <A> The type of the accumulator
+     * @param ndraws The number of draws
+     * @param supplier Creates empty accumulators
+     * @return The accumulator of all the draws
+     */
+    public <A extends ISimulationAccumulator<A>> A simulate(int ndraws, final Supplier<A> supplier) {
+        final long first = nsimul.getAndAdd(ndraws);
+        List<A> partials = run(ndraws, (int start, int end) -> {
+            A acc = supplier.get();
+            for (int i = start; i < end; ++i) {
+                acc.add(new Simulation(0, first + i));
+            }
+            return acc;
+        });
+        if (partials.isEmpty()) {
+            return supplier.get();
+        }
+        A all = partials.get(0);
+        for (int i = 1; i < partials.size(); ++i) {
+            all.merge(partials.get(i));
+        }
+        return all;
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask<T> {
+
+        T compute(int start, int end);
+    }
+
+    private <T> List<T> run(int ndraws, ChunkTask<T> task) {
+        List<T> rslts = new ArrayList<>();
+        if (ndraws <= 0) {
+            return rslts;
+        }
+        ExecutorService exec = getExecutor();
+        int nthreads = exec instanceof ForkJoinPool
+                ? ((ForkJoinPool) exec).getParallelism() : Runtime.getRuntime().availableProcessors();
+        int csize = 1 + (ndraws - 1) / (4 * nthreads);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int start = 0; start < ndraws; start += csize) {
+            final int cstart = start, cend = Math.min(ndraws, start + csize);
+            futures.add(exec.submit((Callable<T>) () -> task.compute(cstart, cend)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                rslts.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SsfException("Simulation interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new SsfException("Simulation failed", ex);
+        }
+        return rslts;
     }
 
     private double lh(int pos) {
@@ -100,22 +252,22 @@ public class DiffuseSimulationSmoother {
 
     }
 
-    private void generateTransitionRandoms(int pos, DataBlock u) {
-        fillRandoms(u);
+    private void generateTransitionRandoms(NormalRandoms rnd, int pos, DataBlock u) {
+        rnd.fill(u);
     }
 
-    private void generateMeasurementRandoms(DataBlock e) {
-        fillRandoms(e);
+    private void generateMeasurementRandoms(NormalRandoms rnd, DataBlock e) {
+        rnd.fill(e);
         e.mul(lh(0));
     }
 
-    private double generateMeasurementRandom(int pos) {
-        double e = random();
+    private double generateMeasurementRandom(NormalRandoms rnd, int pos) {
+        double e = rnd.next();
         return e * lh(pos);
     }
 
-    private void generateInitialState(DataBlock a) {
-        fillRandoms(a);
+    private void generateInitialState(NormalRandoms rnd, DataBlock a) {
+        rnd.fill(a);
         LowerTriangularMatrix.rmul(LA, a);
     }
 
@@ -297,6 +449,8 @@ public class DiffuseSimulationSmoother {
         Smoothing() {
             super(DkToolkit.sqrtFilter(ssf, data, false));
             smooth();
+            // the reference states are shared by all the simulations
+            getSmoothedStates();
         }
 
         @Override
@@ -309,13 +463,30 @@ public class DiffuseSimulationSmoother {
     public class Simulation extends BaseSimulation {
 
         public Simulation() {
+            this(0, nsimul.getAndIncrement());
+        }
+
+        /**
+         * Simulation using the index-th random stream of a family
+         */
+        Simulation(int family, long index) {
+            this(NormalRandoms.stream(seed, family, index), NormalRandoms.uniform(seed, family, index));
+        }
+
+        Simulation(NormalRandoms rnd) {
+            this(rnd, Double.NaN);
+        }
+
+        private Simulation(NormalRandoms rnd, double key) {
             super(smoothing.frslts);
+            this.rnd = rnd;
+            this.key = key;
             boolean err = measurement.hasErrors();
             states = new DataBlockStorage(dim, n);
             transitionInnovations = new DataBlockStorage(resdim, n);
             if (err) {
                 measurementErrors = new double[n];
-                generateMeasurementRandoms(new DataBlock(measurementErrors));
+                generateMeasurementRandoms(rnd, new DataBlock(measurementErrors));
             } else {
                 measurementErrors = null;
             }
@@ -325,6 +496,8 @@ public class DiffuseSimulationSmoother {
             smooth();
         }
 
+        private final NormalRandoms rnd;
+        private double key;
         final DataBlockStorage states;
         private DataBlockStorage simulatedStates, simulatedInnovations;
         final DataBlockStorage transitionInnovations;
@@ -332,10 +505,27 @@ public class DiffuseSimulationSmoother {
         private double[] ferrors;
         private final double[] simulatedData;
 
+        /**
+         * Random key of the draw, uniform in [0, 1). For the simulations that
+         * use the streams of the smoother, it only depends on the seed and on
+         * the stream of the draw, so that it can be used to sample the draws
+         * independently of their distribution among threads (see
+         * SimulatedStatesQuantiles). For the simulations that use a given
+         * generator, it is taken from that generator at the first call
+         *
+         * @return
+         */
+        public double getSamplingKey() {
+            if (Double.isNaN(key)) {
+                key = rnd.getGenerator().nextDouble();
+            }
+            return key;
+        }
+
         private void generateData() {
             double std = Math.sqrt(var);
             DataBlock a0f = new DataBlock(dim);
-            generateInitialState(a0f);
+            generateInitialState(rnd, a0f);
             a0f.mul(std);
             DataBlock a = new DataBlock(dim);
             dynamics.a0(a, StateInfo.Forecast);
@@ -349,7 +539,7 @@ public class DiffuseSimulationSmoother {
             // a(2|1) = T a(1|0) + S * q(1)...
             DataBlock q = new DataBlock(resdim);
             for (int i = 1; i < simulatedData.length; ++i) {
-                generateTransitionRandoms(i - 1, q);
+                generateTransitionRandoms(rnd, i - 1, q);
                 q.mul(std);
                 transitionInnovations.save(i - 1, q);
                 dynamics.TX(i, a);
@@ -389,13 +579,19 @@ public class DiffuseSimulationSmoother {
         }
         
         public DataBlockStorage getSimulatedStates(){
-            if (simulatedStates == null)
-                computeSimulatedStates();
+            if (simulatedStates == null) {
+                simulatedStates = new DataBlockStorage(dim, n);
+                fillSimulatedStates(simulatedStates);
+            }
             return simulatedStates;
         }
 
-        private void computeSimulatedStates() {
-            simulatedStates=new DataBlockStorage(dim, n);
+        /**
+         * Writes the simulated states in a storage provided by the caller
+         *
+         * @param target A (stateDim x n) storage
+         */
+        public void fillSimulatedStates(DataBlockStorage target) {
             DataBlockStorage sm = smoothing.getSmoothedStates();
             DataBlockStorage ssm = getSmoothedStates();
             DataBlock a=new DataBlock(dim);
@@ -403,7 +599,7 @@ public class DiffuseSimulationSmoother {
                 a.copy(sm.block(i));
                 a.sub(ssm.block(i));
                 a.add(states.block(i));
-                simulatedStates.save(i, a);
+                target.save(i, a);
             }
         }
 
@@ -417,7 +613,7 @@ public class DiffuseSimulationSmoother {
             simulatedInnovations=new DataBlockStorage(resdim, n);
             DataBlockStorage sm = smoothing.getSmoothedInnovations();
             DataBlockStorage ssm = getSmoothedInnovations();
-            DataBlock u=new DataBlock(dim);
+            DataBlock u=new DataBlock(resdim);
             for (int i=0; i<n; ++i){
                 u.copy(sm.block(i));
                 u.sub(ssm.block(i));
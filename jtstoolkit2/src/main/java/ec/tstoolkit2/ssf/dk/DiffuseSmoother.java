@@ -6,10 +6,14 @@
 package ec.tstoolkit2.ssf.dk;
 
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 import ec.tstoolkit2.ssf.univariate.ISmoothingResults;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
@@ -23,9 +27,14 @@ public class DiffuseSmoother extends BaseDiffuseSmoother{
 
     private DiffuseState state;
     private IDiffuseFilteringResults frslts;
+    private int checkpointInterval;
+    private boolean calccross;
+    private IResultsStorage storage = ResultsStorage.DEFAULT;
 
     public boolean process(final ISsf ssf, final ISsfData data, ISmoothingResults sresults) {
-        IDiffuseFilteringResults fresults = DkToolkit.filter(ssf, data, true);
+        IDiffuseFilteringResults fresults = checkpointInterval == 0
+                ? DkToolkit.filter(ssf, data, true, storage)
+                : DkToolkit.checkpointedFilter(ssf, data, checkpointInterval);
         return process(ssf, data.getLength(), fresults, sresults);
     }
 
@@ -94,6 +103,68 @@ public class DiffuseSmoother extends BaseDiffuseSmoother{
     }
 
 
+    @Override
+    protected void iterate() {
+        if (!calcvar || !calccross || !hasinfo) {
+            super.iterate();
+        } else {
+            Matrix D = crossTerm();
+            super.iterate();
+            srslts.saveCrossCovariance(pos, crossCovariance(D));
+        }
+    }
+
+    /**
+     * Computes P(t)*A0 + Pi(t)*A1, with A0 = E(r0(t-1)*r0'(t)) and A1 =
+     * E(r1(t-1)*r0'(t)). Should be called before the update of N.
+     * r0(t-1) = L0'(t)*r0(t)
+     * r1(t-1) = Z'(t)*v(t)/fi(t) + L0'(t)*r1(t) + L1'(t)*r0(t)
+     * with L1 = -T*C*Z in the diffuse case (L1 = 0 otherwise)
+     *
+     * @return
+     */
+    private Matrix crossTerm() {
+        boolean diffuse = !missing && fi != 0, regular = !missing && fi == 0 && f != 0;
+        DataBlock c = diffuse ? Ci : C;
+        // X0 = N0*L0, X1 = N1'*L0 + N0*L1
+        Matrix X0 = N0.clone(), X1 = N1.transpose();
+        DataBlockIterator rows0 = X0.rows(), rows1 = X1.rows();
+        DataBlock row0 = rows0.getData(), row1 = rows1.getData();
+        do {
+            dynamics.XT(pos, row0);
+            dynamics.XT(pos, row1);
+            if (diffuse) {
+                double q = row0.dot(C);
+                measurement.XpZd(pos, row1, -row1.dot(Ci) - q);
+            }
+            if (diffuse || regular) {
+                measurement.XpZd(pos, row0, -row0.dot(c));
+            }
+        } while (rows0.next() && rows1.next());
+        int dim = X0.getRowsCount();
+        Matrix D = Matrix.square(dim), D1 = Matrix.square(dim);
+        D.subMatrix().product(state.P().subMatrix(), X0.subMatrix().transpose());
+        D1.subMatrix().product(state.Pi().subMatrix(), X1.subMatrix().transpose());
+        D.add(D1);
+        return D;
+    }
+
+    /**
+     * Lag-one cross-covariance of the smoothed states
+     * cov(a(t), a(t+1)) = V(t)*T'(t) - D*Q(t)
+     *
+     * @param D See crossTerm
+     * @return
+     */
+    private SubMatrix crossCovariance(Matrix D) {
+        Matrix cov = state.P().clone();
+        dynamics.TM(pos, cov.subMatrix().transpose());
+        Matrix Q = Matrix.square(cov.getRowsCount());
+        dynamics.V(pos, Q.subMatrix());
+        cov.sub(D.times(Q));
+        return cov.subMatrix();
+    }
+
     @Override
     protected void updateA() {
         DataBlock a = state.a();
@@ -131,6 +202,7 @@ public class DiffuseSmoother extends BaseDiffuseSmoother{
     private void ordinarySmoothing(ISsf ssf, final int endpos) {
         OrdinarySmoother smoother = new OrdinarySmoother();
         smoother.setCalcVariances(calcvar);
+        smoother.setCalcCrossCovariances(calccross);
         smoother.process(ssf, frslts.getEndDiffusePosition(), endpos, frslts, srslts);
         // updates R, N
         Rf.copy(smoother.getFinalR());
@@ -139,8 +211,63 @@ public class DiffuseSmoother extends BaseDiffuseSmoother{
         }
     }
 
-        public IDiffuseFilteringResults getFilteringResults() {
+    /**
+     * Computes the lag-one cross-covariances of the smoothed states
+     * (cov(a(t), a(t+1))) in the backward pass, including the diffuse part.
+     * They are saved in the smoothing results (see
+     * ISmoothingResults.saveCrossCovariance). Requires the computation of the
+     * variances
+     *
+     * @param b
+     */
+    public void setCalcCrossCovariances(boolean b) {
+        calccross = b;
+    }
+
+    public boolean isCalcCrossCovariances() {
+        return calccross;
+    }
+
+    public IDiffuseFilteringResults getFilteringResults() {
         return frslts;
-      }
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results used by process(ssf, data). When it is 0 (default), all the
+     * filtering results are stored. Otherwise, only the states at the
+     * checkpoints are stored and the other ones are re-computed during the
+     * backward pass (see CheckpointedFilteringResults.AUTO for the optimal
+     * memory footprint)
+     *
+     * @param interval
+     */
+    public void setCheckpointInterval(int interval) {
+        checkpointInterval = interval;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the storage of the filtering results used by process(ssf, data)
+     * when they are not checkpointed (ResultsStorage.DEFAULT by default).
+     * Large problems can use an off-heap storage (see OffHeapStorage)
+     * The storage must keep the complete covariance matrices (not
+     * ResultsStorage.VARIANCES)
+     *
+     * @param storage
+     */
+    public void setStorage(IResultsStorage storage) {
+        if (!storage.isCompleteSymmetricMatrices()) {
+            throw new IllegalArgumentException("The smoother needs the complete covariance matrices of the filter");
+        }
+        this.storage = storage;
+    }
+
+    public IResultsStorage getStorage() {
+        return storage;
+    }
 
 }
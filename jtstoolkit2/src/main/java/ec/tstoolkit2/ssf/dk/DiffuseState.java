@@ -18,9 +18,13 @@ package ec.tstoolkit2.ssf.dk;
 
 import ec.tstoolkit.design.Development;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Represents x* = x + d, 
@@ -42,6 +46,26 @@ public class DiffuseState extends State{
         state.setInfo(info);
         return state;
     }
+    /**
+     * Reads the diffuse states of the filter snapshots
+     */
+    public static final FilterSnapshot.IStateReader SNAPSHOT_READER = new FilterSnapshot.IStateReader() {
+        @Override
+        public byte getKind() {
+            return FilterSnapshot.DIFFUSE;
+        }
+
+        @Override
+        public State read(int dim, DataInput input, long maxSize) throws IOException {
+            if ((long) dim * (dim + 1) / 2 > maxSize) {
+                throw new IOException("Invalid filter snapshot");
+            }
+            DiffuseState state = new DiffuseState(dim);
+            FilterSnapshot.readLower(input, state.Pi);
+            return state;
+        }
+    };
+
     /**
      * Pi is the covariance matrix of the diffuse part 
      */
@@ -64,8 +88,27 @@ public class DiffuseState extends State{
         return Pi;
     }
 
+    @Override
     public boolean isDiffuse(){
-        return Pi.isZero();
+        return !Pi.isZero();
+    }
+
+    @Override
+    public DiffuseState duplicate() {
+        DiffuseState nstate = new DiffuseState(getDim());
+        nstate.copy(this);
+        nstate.Pi.copy(Pi);
+        return nstate;
+    }
+
+    @Override
+    protected byte getSnapshotKind() {
+        return FilterSnapshot.DIFFUSE;
+    }
+
+    @Override
+    protected void writeSnapshotElements(DataOutput output) throws IOException {
+        FilterSnapshot.writeLower(output, Pi);
     }
    
 }
@@ -17,11 +17,14 @@
 package ec.tstoolkit2.ssf.dk;
 
 import ec.tstoolkit.data.DataBlockStorage;
-import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.maths.realfunctions.IParametricMapping;
+import ec.tstoolkit2.ssf.ckms.FastArrayFilter;
 import ec.tstoolkit2.ssf.dk.sqrt.DefaultDiffuseSquareRootFilteringResults;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
 import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootSmoother;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
 import ec.tstoolkit2.ssf.univariate.ILikelihoodComputer;
 import ec.tstoolkit2.ssf.univariate.ISsf;
@@ -46,7 +49,23 @@ public class DkToolkit {
     }
     
     public static ILikelihoodComputer likelihoodComputer(boolean sqr, boolean res) {
-        return sqr ? new LLComputer2(res) : new LLComputer1(res);
+        return sqr ? new LLComputer2(res, 0) : new LLComputer1(res, 0);
+    }
+
+    /**
+     * Likelihood computer that switches to the steady state recursions after
+     * the diffuse part (see OrdinaryFilter.setSteadyStateEpsilon). When eps is
+     * 0, the likelihood of time invariant models is computed by means of the
+     * Chandrasekhar recursions (see FastArrayFilter), which fall back to the
+     * ordinary filter when they can't be used
+     *
+     * @param sqr
+     * @param res
+     * @param eps Tolerance used to detect the convergence of the filter
+     * @return
+     */
+    public static ILikelihoodComputer likelihoodComputer(boolean sqr, boolean res, double eps) {
+        return sqr ? new LLComputer2(res, eps) : new LLComputer1(res, eps);
     }
     
     public static <S extends ISsf> SsfFunction<S> likelihoodFunction(S ssf, ISsfData data, IParametricMapping<S> mapping) {
@@ -54,8 +73,22 @@ public class DkToolkit {
     }
     
     public static DefaultDiffuseFilteringResults filter(ISsf ssf, ISsfData data, boolean all) {
+        return filter(ssf, data, all, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Filtering with results kept in a given storage
+     *
+     * @param ssf
+     * @param data
+     * @param all
+     * @param storage The storage of the results (for instance an
+     * OffHeapStorage)
+     * @return
+     */
+    public static DefaultDiffuseFilteringResults filter(ISsf ssf, ISsfData data, boolean all, IResultsStorage storage) {
         DefaultDiffuseFilteringResults frslts = all
-                ? DefaultDiffuseFilteringResults.full() : DefaultDiffuseFilteringResults.light();
+                ? DefaultDiffuseFilteringResults.full(storage) : DefaultDiffuseFilteringResults.light(storage);
         frslts.prepare(ssf, 0, data.getLength());
         DurbinKoopmanInitializer initializer = new DurbinKoopmanInitializer(frslts);
         OrdinaryFilter filter = new OrdinaryFilter(initializer);
@@ -63,6 +96,24 @@ public class DkToolkit {
         return frslts;
     }
     
+    /**
+     * Diffuse filtering with checkpointed results (see
+     * CheckpointedFilteringResults)
+     *
+     * @param ssf
+     * @param data
+     * @param interval The number of periods between two checkpoints
+     * @return
+     */
+    public static CheckpointedDiffuseFilteringResults checkpointedFilter(ISsf ssf, ISsfData data, int interval) {
+        CheckpointedDiffuseFilteringResults frslts = new CheckpointedDiffuseFilteringResults(interval);
+        frslts.prepare(ssf, data, 0, data.getLength());
+        DurbinKoopmanInitializer initializer = new DurbinKoopmanInitializer(frslts);
+        OrdinaryFilter filter = new OrdinaryFilter(initializer);
+        filter.process(ssf, data, frslts);
+        return frslts;
+    }
+
     public static DefaultDiffuseSquareRootFilteringResults sqrtFilter(ISsf ssf, ISsfData data, boolean all) {
         DefaultDiffuseSquareRootFilteringResults frslts = all
                 ? DefaultDiffuseSquareRootFilteringResults.full() : DefaultDiffuseSquareRootFilteringResults.light();
@@ -74,8 +125,23 @@ public class DkToolkit {
     }
     
     public static DefaultSmoothingResults smooth(ISsf ssf, ISsfData data, boolean all) {
+        return smooth(ssf, data, all, 0);
+    }
+
+    /**
+     * Smoothing with bounded memory (see DiffuseSmoother.setCheckpointInterval)
+     *
+     * @param ssf
+     * @param data
+     * @param all
+     * @param interval The number of periods between two checkpoints of the
+     * filtering results (0 if all the filtering results are stored)
+     * @return
+     */
+    public static DefaultSmoothingResults smooth(ISsf ssf, ISsfData data, boolean all, int interval) {
         DiffuseSmoother smoother = new DiffuseSmoother();
         smoother.setCalcVariances(all);
+        smoother.setCheckpointInterval(interval);
         DefaultSmoothingResults sresults = all ? DefaultSmoothingResults.full()
                 : DefaultSmoothingResults.light();
         sresults.prepare(ssf, 0, data.getLength());
@@ -113,9 +179,11 @@ public class DkToolkit {
     private static class LLComputer1 implements ILikelihoodComputer {
         
         private final boolean res;
+        private final double eps;
         
-        LLComputer1(boolean res) {
+        LLComputer1(boolean res, double eps) {
             this.res = res;
+            this.eps = eps;
         }
         
         @Override
@@ -126,7 +194,11 @@ public class DkToolkit {
                 pe.prepare(ssf, data.getLength());
             }
             DurbinKoopmanInitializer initializer = new DurbinKoopmanInitializer(pe);
+            if (eps == 0 && fastFilter(new FastArrayFilter(initializer), ssf, data, pe)) {
+                return pe.likelihood();
+            }
             OrdinaryFilter filter = new OrdinaryFilter(initializer);
+            filter.setSteadyStateEpsilon(eps);
             filter.process(ssf, data, pe);
             return pe.likelihood();
         }
@@ -136,9 +208,11 @@ public class DkToolkit {
     private static class LLComputer2 implements ILikelihoodComputer {
         
         private final boolean res;
+        private final double eps;
         
-        LLComputer2(boolean res) {
+        LLComputer2(boolean res, double eps) {
             this.res = res;
+            this.eps = eps;
         }
         
         @Override
@@ -149,12 +223,43 @@ public class DkToolkit {
                 pe.prepare(ssf, data.getLength());
             }
             DiffuseSquareRootInitializer initializer = new DiffuseSquareRootInitializer(pe);
+            if (eps == 0 && fastFilter(new FastArrayFilter(initializer), ssf, data, pe)) {
+                return pe.likelihood();
+            }
             OrdinaryFilter filter = new OrdinaryFilter(initializer);
+            filter.setSteadyStateEpsilon(eps);
             filter.process(ssf, data, pe);
             return pe.likelihood();
         }
     }
     
+    /**
+     * Chandrasekhar recursions (after the diffuse part) for time invariant
+     * models. If they can't be used, the prediction error decomposition is
+     * reset
+     *
+     * @param filter The filter (with the initializer of the diffuse part)
+     * @param ssf
+     * @param data
+     * @param pe
+     * @return True if the decomposition has been computed
+     */
+    static boolean fastFilter(FastArrayFilter filter, ISsf ssf, ISsfData data,
+            DiffusePredictionErrorDecomposition pe) {
+        if (!ssf.isTimeInvariant()) {
+            return false;
+        }
+        if (filter.process(ssf, data, pe)) {
+            return true;
+        }
+        if (pe.hasResiduals()) {
+            pe.prepare(ssf, data.getLength());
+        } else {
+            pe.clear();
+        }
+        return false;
+    }
+
     public static double var(int n, IBaseDiffuseFilteringResults frslts) {
         int m = 0;
         double ssq = 0;
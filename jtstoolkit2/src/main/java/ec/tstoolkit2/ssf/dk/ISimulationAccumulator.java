@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.design.Development;
+
+/**
+ * Reduces the draws of a simulation smoother. An accumulator is used by one
+ * thread at a time; partial accumulators of different threads are combined
+ * by merge.
+ *
+ * @author Jean Palate
+ * @param <A> The actual type of the accumulator
+ */
+@Development(status = Development.Status.Alpha)
+public interface ISimulationAccumulator<A extends ISimulationAccumulator<A>> {
+
+    /**
+     * Adds a new draw
+     *
+     * @param simulation
+     */
+    void add(DiffuseSimulationSmoother.Simulation simulation);
+
+    /**
+     * Adds the draws accumulated in another object. The other accumulator
+     * should not be used afterwards.
+     *
+     * @param other
+     */
+    void merge(A other);
+
+    /**
+     *
+     * @return The number of draws
+     */
+    int getCount();
+}
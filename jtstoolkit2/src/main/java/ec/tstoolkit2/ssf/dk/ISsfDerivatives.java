@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Derivatives of the system matrices of a state space model with respect to
+ * its parameters. Only the parameters that don't modify the transition matrix
+ * (T) and the loadings (Z) are handled analytically; they are identified by
+ * isVarianceParameter.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public interface ISsfDerivatives {
+
+    /**
+     *
+     * @return The number of parameters
+     */
+    int getDim();
+
+    /**
+     * The derivatives don't depend on the position
+     *
+     * @return
+     */
+    boolean isTimeInvariant();
+
+    /**
+     * Checks that a parameter only affects V, H and Pf0
+     *
+     * @param idx The index of the parameter
+     * @return
+     */
+    boolean isVarianceParameter(int idx);
+
+    /**
+     * Derivative of the variance of the innovations
+     *
+     * @param pos The position
+     * @param idx The index of the parameter
+     * @param dv The derivative (zero on entry)
+     */
+    void dV(int pos, int idx, SubMatrix dv);
+
+    /**
+     * Derivative of the variance of the measurement error
+     *
+     * @param pos The position
+     * @param idx The index of the parameter
+     * @return
+     */
+    double dH(int pos, int idx);
+
+    /**
+     * Derivative of the initial (stationary) variance
+     *
+     * @param idx The index of the parameter
+     * @param dp The derivative (zero on entry)
+     */
+    void dPf0(int idx, SubMatrix dp);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.realfunctions.IParametricMapping;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+
+/**
+ * Mapping that also provides the derivatives of the system matrices. It
+ * enables the computation of the score of the likelihood by means of the
+ * disturbance smoother (see DiffuseScoreComputer)
+ *
+ * @author Jean Palate
+ * @param <S>
+ */
+@Development(status = Development.Status.Alpha)
+public interface ISsfDerivativesMapping<S extends ISsf> extends IParametricMapping<S> {
+
+    /**
+     * Derivatives of the system matrices at a given point
+     *
+     * @param p The parameters
+     * @return
+     */
+    ISsfDerivatives derivatives(IReadDataBlock p);
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.FilterSnapshot;
+import ec.tstoolkit2.ssf.ResidualsCumulator;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+import java.util.Arrays;
+
+/**
+ * Resumable diffuse filter. The filter is initialized on the history of the
+ * series (which must be long enough to complete the diffuse initialization);
+ * new observations can then be appended, one at a time or by blocks, and the
+ * likelihood, the filtered states and the one-step-ahead forecasts are
+ * updated in O(number of new observations). The filter can be checkpointed
+ * and restored, for instance to process successive vintages of the same
+ * series.
+ *
+ * The filter works on univariate models. Multivariate models are handled by
+ * MultivariateIncrementalFilter (through their univariate form).
+ * Time invariant models are compiled once (see CompiledSsf), when the
+ * incremental filter is created.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class IncrementalFilter {
+
+    /**
+     * Immutable image of the filter at a given position
+     */
+    public static final class Checkpoint {
+
+        private final int pos;
+        private final State state;
+        private final double ssq, ldet, lddet;
+        private final int nobs, nd;
+
+        private Checkpoint(int pos, State state, double ssq, double ldet, double lddet, int nobs, int nd) {
+            this.pos = pos;
+            this.state = state;
+            this.ssq = ssq;
+            this.ldet = ldet;
+            this.lddet = lddet;
+            this.nobs = nobs;
+            this.nd = nd;
+        }
+
+        /**
+         *
+         * @return The number of observations processed at the checkpoint
+         */
+        public int getPosition() {
+            return pos;
+        }
+    }
+
+    private final ISsf ssf;
+    private final OrdinaryFilter filter;
+    private final Data data = new Data();
+    private final Cumulator cumulator = new Cumulator();
+    private IFilteringResults results, fresults;
+    private boolean initialized;
+
+    /**
+     *
+     * @param ssf The model
+     */
+    public IncrementalFilter(ISsf ssf) {
+        this.ssf = CompiledSsf.of(ssf);
+        filter = new OrdinaryFilter();
+        filter.setAllocationFree(true);
+        fresults = cumulator;
+    }
+
+    /**
+     * Results that will receive the information (states, prediction errors)
+     * of all the processed observations (history included). They should be
+     * set before the initialization.
+     *
+     * @param results
+     */
+    public void setResults(IFilteringResults results) {
+        this.results = results;
+        fresults = results == null ? cumulator : new Forward(cumulator, results);
+    }
+
+    /**
+     * Filters the history of the series. The diffuse initialization must be
+     * completed inside the history.
+     *
+     * @param history
+     * @return
+     */
+    public boolean initialize(ISsfData history) {
+        int n = history.getLength();
+        data.clear();
+        for (int i = 0; i < n; ++i) {
+            data.add(history.isMissing(i) ? Double.NaN : history.get(i));
+        }
+        DiffusePredictionErrorDecomposition pe = new DiffusePredictionErrorDecomposition(false);
+        IDiffuseFilteringResults drslts = pe;
+        IFilteringResults frslts = pe;
+        if (results instanceof IDiffuseFilteringResults) {
+            drslts = new CompositeDiffuseFilteringResults(pe, (IDiffuseFilteringResults) results);
+            frslts = drslts;
+        } else if (results != null) {
+            // the diffuse part is not stored in the results
+            frslts = new Forward(pe, results);
+        }
+        OrdinaryFilter init = new OrdinaryFilter(new DurbinKoopmanInitializer(drslts));
+        initialized = false;
+        if (!init.process(ssf, data, frslts)) {
+            return false;
+        }
+        DkDiffuseLikelihood ll = (DkDiffuseLikelihood) pe.likelihood();
+        if (ll.getD() < ssf.getDynamics().getNonStationaryDim()) {
+            // incomplete diffuse initialization
+            return false;
+        }
+        cumulator.restore(ll.getSsqErr(), ll.getLogDeterminant(), ll.getDiffuseCorrection(),
+                ll.getN(), ll.getD());
+        initialized = filter.restore(ssf, n, init.getState());
+        return initialized;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Appends a new observation
+     *
+     * @param y The observation (NaN for a missing value)
+     * @return False if the observation can't be processed. It is then
+     * discarded (see resume)
+     */
+    public boolean add(double y) {
+        if (!initialized) {
+            return false;
+        }
+        int size = data.size;
+        data.add(y);
+        return resume(size);
+    }
+
+    /**
+     * Appends a block of new observations
+     *
+     * @param y The observations (NaN for missing values)
+     * @return False if the observations can't be processed. They are then
+     * discarded (see resume)
+     */
+    public boolean add(IReadDataBlock y) {
+        if (!initialized) {
+            return false;
+        }
+        int size = data.size;
+        for (int i = 0; i < y.getLength(); ++i) {
+            data.add(y.get(i));
+        }
+        return resume(size);
+    }
+
+    /**
+     * Filters the new observations. On failure, they are removed from the
+     * series. If the filter failed after having processed some of them, it is
+     * no longer initialized: it must be restored at a checkpoint or
+     * re-initialized
+     *
+     * @param size The number of observations before the new ones
+     * @return
+     */
+    private boolean resume(int size) {
+        boolean ok = false;
+        try {
+            ok = filter.resume(data, fresults);
+            return ok;
+        } finally {
+            if (!ok) {
+                data.size = size;
+                if (filter.getPosition() != size) {
+                    initialized = false;
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return The number of processed observations
+     */
+    public int getPosition() {
+        return filter.getPosition();
+    }
+
+    /**
+     *
+     * @return The current state, a(t|t-1), P(t|t-1) (t = getPosition())
+     */
+    public State getState() {
+        return filter.getState();
+    }
+
+    /**
+     * One-step-ahead forecast of the next observation
+     *
+     * @return
+     */
+    public double forecast() {
+        return ssf.getMeasurement().ZX(getPosition(), getState().a());
+    }
+
+    /**
+     * Variance of the one-step-ahead forecast error (unscaled)
+     *
+     * @return
+     */
+    public double forecastVariance() {
+        ISsfMeasurement m = ssf.getMeasurement();
+        int pos = getPosition();
+        double v = m.ZVZ(pos, getState().unpackedP().subMatrix());
+        if (m.hasErrors()) {
+            v += m.errorVariance(pos);
+        }
+        return v;
+    }
+
+    /**
+     * Diffuse likelihood of all the processed observations
+     *
+     * @return
+     */
+    public ILikelihood likelihood() {
+        DkDiffuseLikelihood ll = new DkDiffuseLikelihood();
+        cumulator.fill(ll);
+        return ll;
+    }
+
+    /**
+     * Creates a checkpoint of the current position
+     *
+     * @return
+     */
+    public Checkpoint checkpoint() {
+        State cur = getState();
+        State state = new State(cur.getDim());
+        state.copy(cur);
+        return new Checkpoint(getPosition(), state, cumulator.getSsqErr(), cumulator.getLogDeterminant(),
+                cumulator.lddet, cumulator.getObsCount(), cumulator.nd);
+    }
+
+    /**
+     * Restores the filter at a given checkpoint. The observations processed
+     * after the checkpoint are discarded.
+     *
+     * @param checkpoint
+     * @return
+     */
+    public boolean restore(Checkpoint checkpoint) {
+        if (checkpoint.pos > data.size) {
+            return false;
+        }
+        data.size = checkpoint.pos;
+        cumulator.restore(checkpoint.ssq, checkpoint.ldet, checkpoint.lddet, checkpoint.nobs, checkpoint.nd);
+        initialized = filter.restore(ssf, checkpoint.pos, checkpoint.state);
+        return initialized;
+    }
+
+    /**
+     * Creates a snapshot of the current position, which can be persisted (see
+     * FilterSnapshot.write) and used to re-start the filtering in another
+     * process
+     *
+     * @return
+     */
+    public FilterSnapshot snapshot() {
+        if (!initialized) {
+            return null;
+        }
+        FilterSnapshot snapshot = new FilterSnapshot(getPosition(), getState());
+        snapshot.setLikelihood(cumulator.getSsqErr(), cumulator.getLogDeterminant(), cumulator.lddet,
+                cumulator.getObsCount(), cumulator.nd);
+        return snapshot;
+    }
+
+    /**
+     * Initializes the filter with a snapshot, without re-processing the
+     * history. The observations before the snapshot are not available: they
+     * are considered as missing in the results.
+     *
+     * @param snapshot
+     * @return
+     */
+    public boolean initialize(FilterSnapshot snapshot) {
+        data.clear();
+        for (int i = 0; i < snapshot.getPosition(); ++i) {
+            data.add(Double.NaN);
+        }
+        cumulator.restore(snapshot.getSsqErr(), snapshot.getLogDeterminant(), snapshot.getDiffuseCorrection(),
+                snapshot.getObsCount(), snapshot.getDiffuseCount());
+        initialized = filter.restore(ssf, snapshot);
+        return initialized;
+    }
+
+    /**
+     * Growable series
+     */
+    private static class Data implements ISsfData {
+
+        private double[] y = new double[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(double val) {
+            if (size == y.length) {
+                y = Arrays.copyOf(y, y.length << 1);
+            }
+            y[size++] = val;
+        }
+
+        @Override
+        public double get(int pos) {
+            return y[pos];
+        }
+
+        @Override
+        public boolean isMissing(int pos) {
+            return !Double.isFinite(y[pos]);
+        }
+
+        @Override
+        public boolean hasData() {
+            return true;
+        }
+
+        @Override
+        public int getLength() {
+            return size;
+        }
+    }
+
+    /**
+     * Cumulates the elements of the likelihood of the new observations. The
+     * diffuse part of the likelihood is fixed at the initialization
+     */
+    private static class Cumulator extends ResidualsCumulator implements IFilteringResults {
+
+        double lddet;
+        int nd;
+
+        void restore(double ssq, double ldet, double lddet, int nobs, int nd) {
+            restore(ssq, ldet, nobs);
+            this.lddet = lddet;
+            this.nd = nd;
+        }
+
+        void fill(DkDiffuseLikelihood ll) {
+            ll.set(getSsqErr(), getLogDeterminant(), lddet, getObsCount(), nd);
+        }
+
+        @Override
+        public void save(int t, PredictionError pe) {
+            if (pe == null || pe.isMissing()) {
+                return;
+            }
+            add(pe.get(), pe.getVariance());
+        }
+
+        @Override
+        public void save(int t, State state) {
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            lddet = 0;
+            nd = 0;
+        }
+    }
+
+    /**
+     * Sends the information to two results
+     */
+    private static class Forward implements IFilteringResults {
+
+        private final IFilteringResults first, second;
+
+        Forward(IFilteringResults first, IFilteringResults second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void save(int t, PredictionError pe) {
+            first.save(t, pe);
+            second.save(t, pe);
+        }
+
+        @Override
+        public void save(int t, State state) {
+            first.save(t, state);
+            second.save(t, state);
+        }
+
+        @Override
+        public void clear() {
+            first.clear();
+            second.clear();
+        }
+    }
+}
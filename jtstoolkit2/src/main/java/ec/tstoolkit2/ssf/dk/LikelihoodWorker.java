@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.ckms.FastArrayFilter;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+
+/**
+ * Re-usable objects for the computation of diffuse likelihoods: filter,
+ * prediction error decomposition and, if need be, the buffer of the
+ * residuals. A worker should be used by one thread at a time. When the
+ * residuals are computed, they are stored in the buffer of the worker, which
+ * is overwritten by the next computation.
+ *
+ * @author Jean Palate
+ */
+class LikelihoodWorker {
+
+    private final DiffusePredictionErrorDecomposition pe;
+    private final OrdinaryFilter filter;
+    private final FastArrayFilter ffilter;
+
+    LikelihoodWorker(boolean sqr, boolean allocationFree, double eps, boolean res) {
+        pe = res ? new PooledDecomposition() : new DiffusePredictionErrorDecomposition(false);
+        OrdinaryFilter.Initializer initializer = sqr ? new DiffuseSquareRootInitializer(pe)
+                : new DurbinKoopmanInitializer(pe);
+        filter = new OrdinaryFilter(initializer);
+        filter.setAllocationFree(allocationFree);
+        filter.setSteadyStateEpsilon(eps);
+        // Chandrasekhar recursions, unless the steady state of the ordinary
+        // filter has been explicitly requested
+        if (eps == 0) {
+            ffilter = new FastArrayFilter(initializer);
+            ffilter.setAllocationFree(allocationFree);
+        } else {
+            ffilter = null;
+        }
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @return The likelihood or null if the filter failed
+     */
+    ILikelihood compute(ISsf ssf, ISsfData data) {
+        if (pe.hasResiduals()) {
+            pe.prepare(ssf, data.getLength());
+        } else {
+            pe.clear();
+        }
+        if (ffilter != null && DkToolkit.fastFilter(ffilter, ssf, data, pe)) {
+            return pe.likelihood();
+        }
+        return filter.process(ssf, data, pe) ? pe.likelihood() : null;
+    }
+
+    private static class PooledDecomposition extends DiffusePredictionErrorDecomposition {
+
+        private DataBlock buffer;
+
+        PooledDecomposition() {
+            super(true);
+        }
+
+        @Override
+        public void prepare(final ISsf ssf, final int n) {
+            clear();
+            if (buffer == null || buffer.getLength() != n) {
+                buffer = DataBlock.create(n);
+            }
+            buffer.set(Double.NaN);
+            res = buffer;
+        }
+    }
+}
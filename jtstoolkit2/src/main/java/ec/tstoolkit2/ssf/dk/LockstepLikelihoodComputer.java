@@ -0,0 +1,471 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+import ec.tstoolkit2.ssf.univariate.SsfDataWindow;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the diffuse likelihoods of many series in lockstep. The time
+ * invariant models with the same state dimension are processed by blocks of
+ * K series (lanes): after the diffuse initialization, which is done series
+ * by series, the ordinary recursions of the K filters are computed together.
+ * The states, the covariance matrices and the system matrices are stored
+ * by lanes (struct of arrays: the K values of an element are contiguous), so
+ * that the innermost loops of TX, ZX and of the update of P run over the
+ * lanes. The missing values are handled by masks.
+ *
+ * The models of a block don't need to be identical: the sparsity patterns of
+ * T, Z and V are the union of the patterns of the models. The likelihoods are
+ * the same as the ones of DkToolkit.likelihoodComputer; the models that are
+ * not time invariant are processed by the usual filter.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class LockstepLikelihoodComputer {
+
+    private boolean sqr = true;
+    private int lanes = 16;
+
+    /**
+     * Square root initialization of the diffuse part (default) or usual
+     * Durbin-Koopman initialization
+     *
+     * @param sqr
+     */
+    public void setSquareRoot(boolean sqr) {
+        this.sqr = sqr;
+    }
+
+    public boolean isSquareRoot() {
+        return sqr;
+    }
+
+    /**
+     * Number of series processed together (16 by default)
+     *
+     * @param lanes
+     */
+    public void setLanesCount(int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("At least one lane is required");
+        }
+        this.lanes = lanes;
+    }
+
+    public int getLanesCount() {
+        return lanes;
+    }
+
+    /**
+     * Computes the likelihood of the same model for different series
+     *
+     * @param ssf
+     * @param data
+     * @return
+     */
+    public List<ILikelihood> compute(ISsf ssf, List<? extends ISsfData> data) {
+        ISsf[] models = new ISsf[data.size()];
+        Arrays.fill(models, ssf);
+        return compute(Arrays.asList(models), data);
+    }
+
+    /**
+     * Computes the likelihoods of the given pairs
+     *
+     * @param models
+     * @param data
+     * @return The likelihoods, in the order of the inputs (null when the
+     * filter failed)
+     */
+    public List<ILikelihood> compute(List<? extends ISsf> models, List<? extends ISsfData> data) {
+        int n = models.size();
+        if (data.size() != n) {
+            throw new IllegalArgumentException("Models and data should have the same size");
+        }
+        ILikelihood[] rslts = new ILikelihood[n];
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        LikelihoodWorker worker = null;
+        for (int i = 0; i < n; ++i) {
+            ISsf ssf = models.get(i);
+            if (ssf.isTimeInvariant()) {
+                groups.computeIfAbsent(ssf.getStateDim(), d -> new ArrayList<>()).add(i);
+            } else {
+                if (worker == null) {
+                    worker = new LikelihoodWorker(sqr, false, 0, false);
+                }
+                rslts[i] = worker.compute(ssf, data.get(i));
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            List<Integer> items = group.getValue();
+            for (int start = 0; start < items.size(); start += lanes) {
+                List<Integer> cur = items.subList(start, Math.min(items.size(), start + lanes));
+                new Block(group.getKey(), models, data, cur).run(rslts);
+            }
+        }
+        return Arrays.asList(rslts);
+    }
+
+    /**
+     * K filters processed in lockstep
+     */
+    private class Block {
+
+        private final int n;
+        private int K;
+        private int[] lanes;
+        private ISsfData[] data;
+        private DiffusePredictionErrorDecomposition[] pe;
+        private int start, end;
+        // states (a: i*K+k, P: (c*n+r)*K+k)
+        private double[] a, P, W, C, tmp;
+        // system matrices (sparse patterns)
+        private int[] trows, tcols, zidx, vrows, vcols;
+        private double[] T, Z, V, H;
+        // step
+        private double[] y, e, f, w;
+        private boolean[] obs;
+
+        Block(int n, List<? extends ISsf> models, List<? extends ISsfData> alldata, List<Integer> items) {
+            this.n = n;
+            initialize(models, alldata, items);
+        }
+
+        /**
+         * Diffuse initialization, series by series. The filters that start
+         * before the others are moved forward by the usual filter
+         */
+        private void initialize(List<? extends ISsf> models, List<? extends ISsfData> alldata, List<Integer> items) {
+            int m = items.size();
+            State[] states = new State[m];
+            int[] pos = new int[m];
+            DiffusePredictionErrorDecomposition[] allpe = new DiffusePredictionErrorDecomposition[m];
+            int nok = 0;
+            start = 0;
+            for (int k = 0; k < m; ++k) {
+                int i = items.get(k);
+                ISsf ssf = models.get(i);
+                ISsfData cdata = alldata.get(i);
+                allpe[k] = new DiffusePredictionErrorDecomposition(false);
+                OrdinaryFilter.Initializer initializer = sqr ? new DiffuseSquareRootInitializer(allpe[k])
+                        : new DurbinKoopmanInitializer(allpe[k]);
+                State state = new State(n);
+                pos[k] = initializer.initialize(state, ssf, cdata);
+                if (pos[k] >= 0) {
+                    if (state.getInfo() == StateInfo.Concurrent) {
+                        ssf.getDynamics().forecast(pos[k], state);
+                    }
+                    states[k] = state;
+                    start = Math.max(start, pos[k]);
+                    ++nok;
+                }
+            }
+            K = nok;
+            lanes = new int[K];
+            data = new ISsfData[K];
+            pe = new DiffusePredictionErrorDecomposition[K];
+            ISsf[] ssfs = new ISsf[K];
+            end = start;
+            for (int k = 0, l = 0; k < m; ++k) {
+                if (states[k] == null) {
+                    continue;
+                }
+                int i = items.get(k);
+                ISsf ssf = models.get(i);
+                State state = states[k];
+                if (pos[k] < start) {
+                    OrdinaryFilter filter = new OrdinaryFilter();
+                    filter.restore(ssf, pos[k], state);
+                    filter.resume(new SsfDataWindow(alldata.get(i), 0, start), allpe[k]);
+                    state = filter.getState();
+                }
+                states[l] = state;
+                lanes[l] = i;
+                data[l] = alldata.get(i);
+                pe[l] = allpe[k];
+                ssfs[l] = ssf;
+                end = Math.max(end, data[l].getLength());
+                ++l;
+            }
+            if (K == 0) {
+                return;
+            }
+            a = new double[n * K];
+            P = new double[n * n * K];
+            W = new double[n * n * K];
+            C = new double[n * K];
+            tmp = new double[n * K];
+            for (int k = 0; k < K; ++k) {
+                DataBlock sa = states[k].a();
+                Matrix sp = states[k].P();
+                for (int r = 0; r < n; ++r) {
+                    a[r * K + k] = sa.get(r);
+                }
+                for (int c = 0; c < n; ++c) {
+                    for (int r = 0; r < n; ++r) {
+                        P[(c * n + r) * K + k] = sp.get(r, c);
+                    }
+                }
+            }
+            system(ssfs);
+            y = new double[K];
+            e = new double[K];
+            f = new double[K];
+            w = new double[K];
+            obs = new boolean[K];
+        }
+
+        /**
+         * Materializes T, Z, V and H of the models, on the union of their
+         * sparsity patterns
+         *
+         * @param ssfs
+         */
+        private void system(ISsf[] ssfs) {
+            Matrix[] t = new Matrix[K], v = new Matrix[K];
+            DataBlock[] z = new DataBlock[K];
+            boolean[] tp = new boolean[n * n], vp = new boolean[n * n], zp = new boolean[n];
+            H = new double[K];
+            for (int k = 0; k < K; ++k) {
+                ISsfDynamics dyn = ssfs[k].getDynamics();
+                ISsfMeasurement m = ssfs[k].getMeasurement();
+                t[k] = Matrix.square(n);
+                t[k].diagonal().set(1);
+                dyn.TM(0, t[k].subMatrix());
+                v[k] = Matrix.square(n);
+                dyn.V(0, v[k].subMatrix());
+                z[k] = new DataBlock(n);
+                m.Z(0, z[k]);
+                if (m.hasErrors() && m.hasError(0)) {
+                    H[k] = m.errorVariance(0);
+                }
+                for (int r = 0; r < n; ++r) {
+                    if (z[k].get(r) != 0) {
+                        zp[r] = true;
+                    }
+                    for (int c = 0; c < n; ++c) {
+                        if (t[k].get(r, c) != 0) {
+                            tp[r * n + c] = true;
+                        }
+                        if (v[k].get(r, c) != 0) {
+                            vp[r * n + c] = true;
+                        }
+                    }
+                }
+            }
+            // T by rows
+            int nt = count(tp);
+            trows = new int[n + 1];
+            tcols = new int[nt];
+            T = new double[nt * K];
+            for (int r = 0, l = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    if (tp[r * n + c]) {
+                        tcols[l] = c;
+                        for (int k = 0; k < K; ++k) {
+                            T[l * K + k] = t[k].get(r, c);
+                        }
+                        ++l;
+                    }
+                }
+                trows[r + 1] = l;
+            }
+            int nz = count(zp);
+            zidx = new int[nz];
+            Z = new double[nz * K];
+            for (int r = 0, l = 0; r < n; ++r) {
+                if (zp[r]) {
+                    zidx[l] = r;
+                    for (int k = 0; k < K; ++k) {
+                        Z[l * K + k] = z[k].get(r);
+                    }
+                    ++l;
+                }
+            }
+            int nv = count(vp);
+            vrows = new int[nv];
+            vcols = new int[nv];
+            V = new double[nv * K];
+            for (int r = 0, l = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    if (vp[r * n + c]) {
+                        vrows[l] = r;
+                        vcols[l] = c;
+                        for (int k = 0; k < K; ++k) {
+                            V[l * K + k] = v[k].get(r, c);
+                        }
+                        ++l;
+                    }
+                }
+            }
+        }
+
+        private int count(boolean[] p) {
+            int c = 0;
+            for (int i = 0; i < p.length; ++i) {
+                if (p[i]) {
+                    ++c;
+                }
+            }
+            return c;
+        }
+
+        void run(ILikelihood[] rslts) {
+            if (K == 0) {
+                return;
+            }
+            PredictionError err = new PredictionError(n);
+            for (int t = start; t < end; ++t) {
+                error(t);
+                for (int k = 0; k < K; ++k) {
+                    if (obs[k]) {
+                        err.set(e[k]);
+                        err.setVariance(f[k]);
+                        pe[k].save(t, err);
+                    }
+                }
+                update();
+                pred();
+            }
+            for (int k = 0; k < K; ++k) {
+                rslts[lanes[k]] = pe[k].likelihood();
+            }
+        }
+
+        /**
+         * Computes C = P*Z', f = Z*P*Z'+H, e = y - Z*a for all the lanes
+         *
+         * @param t
+         */
+        private void error(int t) {
+            for (int k = 0; k < K; ++k) {
+                ISsfData cur = data[k];
+                obs[k] = t < cur.getLength() && !cur.isMissing(t);
+                y[k] = obs[k] ? cur.get(t) : 0;
+            }
+            Arrays.fill(C, 0);
+            for (int l = 0; l < zidx.length; ++l) {
+                int z0 = l * K, p0 = zidx[l] * n * K;
+                for (int i = 0, c0 = 0; i < n; ++i, c0 += K, p0 += K) {
+                    for (int k = 0; k < K; ++k) {
+                        C[c0 + k] += Z[z0 + k] * P[p0 + k];
+                    }
+                }
+            }
+            System.arraycopy(H, 0, f, 0, K);
+            System.arraycopy(y, 0, e, 0, K);
+            for (int l = 0; l < zidx.length; ++l) {
+                int z0 = l * K, i0 = zidx[l] * K;
+                for (int k = 0; k < K; ++k) {
+                    f[k] += Z[z0 + k] * C[i0 + k];
+                    e[k] -= Z[z0 + k] * a[i0 + k];
+                }
+            }
+        }
+
+        /**
+         * a = a + C*e/f, P = P - C*C'/f for the observed lanes
+         */
+        private void update() {
+            for (int k = 0; k < K; ++k) {
+                w[k] = obs[k] ? 1 / f[k] : 0;
+                e[k] *= w[k];
+            }
+            for (int i = 0, i0 = 0; i < n; ++i, i0 += K) {
+                for (int k = 0; k < K; ++k) {
+                    a[i0 + k] += C[i0 + k] * e[k];
+                }
+            }
+            for (int c = 0, p0 = 0; c < n; ++c) {
+                int c0 = c * K;
+                for (int r = 0, r0 = 0; r < n; ++r, r0 += K, p0 += K) {
+                    for (int k = 0; k < K; ++k) {
+                        P[p0 + k] -= C[r0 + k] * C[c0 + k] * w[k];
+                    }
+                }
+            }
+        }
+
+        /**
+         * a = T*a, P = T*P*T' + V
+         */
+        private void pred() {
+            Arrays.fill(tmp, 0);
+            for (int r = 0; r < n; ++r) {
+                int r0 = r * K;
+                for (int l = trows[r]; l < trows[r + 1]; ++l) {
+                    int l0 = l * K, a0 = tcols[l] * K;
+                    for (int k = 0; k < K; ++k) {
+                        tmp[r0 + k] += T[l0 + k] * a[a0 + k];
+                    }
+                }
+            }
+            System.arraycopy(tmp, 0, a, 0, a.length);
+            // W = T*P
+            Arrays.fill(W, 0);
+            for (int c = 0; c < n; ++c) {
+                int cn = c * n;
+                for (int r = 0; r < n; ++r) {
+                    int w0 = (cn + r) * K;
+                    for (int l = trows[r]; l < trows[r + 1]; ++l) {
+                        int l0 = l * K, p0 = (cn + tcols[l]) * K;
+                        for (int k = 0; k < K; ++k) {
+                            W[w0 + k] += T[l0 + k] * P[p0 + k];
+                        }
+                    }
+                }
+            }
+            // P = W*T'
+            Arrays.fill(P, 0);
+            for (int c = 0; c < n; ++c) {
+                for (int l = trows[c]; l < trows[c + 1]; ++l) {
+                    int l0 = l * K, w0 = tcols[l] * n * K;
+                    for (int r = 0, p0 = c * n * K; r < n; ++r, p0 += K, w0 += K) {
+                        for (int k = 0; k < K; ++k) {
+                            P[p0 + k] += T[l0 + k] * W[w0 + k];
+                        }
+                    }
+                }
+            }
+            for (int l = 0; l < vrows.length; ++l) {
+                int l0 = l * K, p0 = (vcols[l] * n + vrows[l]) * K;
+                for (int k = 0; k < K; ++k) {
+                    P[p0 + k] += V[l0 + k];
+                }
+            }
+        }
+    }
+}
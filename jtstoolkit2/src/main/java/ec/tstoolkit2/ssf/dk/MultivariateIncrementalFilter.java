@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.ILikelihood;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsf;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsfData;
+import ec.tstoolkit2.ssf.multivariate.M2uAdapter;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfData;
+
+/**
+ * Resumable diffuse filter for multivariate models. The model is handled
+ * through its univariate form (see M2uAdapter): it must have independent
+ * measurement errors and the same number of measurements at each period.
+ * New periods are appended as blocks of nvars observations (NaN for the
+ * missing values).
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class MultivariateIncrementalFilter {
+
+    private final ISsf ssf;
+    private final int nvars;
+    private final IncrementalFilter filter;
+
+    /**
+     *
+     * @param mssf The model
+     * @throws IllegalArgumentException when the model has no univariate form
+     * (correlated measurement errors, varying number of measurements)
+     */
+    public MultivariateIncrementalFilter(IMultivariateSsf mssf) {
+        ssf = M2uAdapter.of(mssf);
+        if (ssf == null) {
+            throw new IllegalArgumentException("The model should have independent errors and a fixed number of measurements");
+        }
+        nvars = mssf.getMeasurements().getMaxCount();
+        filter = new IncrementalFilter(ssf);
+    }
+
+    /**
+     *
+     * @return The number of observations by period
+     */
+    public int getVarsCount() {
+        return nvars;
+    }
+
+    /**
+     * Filters the history of the series. The diffuse initialization must be
+     * completed inside the history.
+     *
+     * @param history
+     * @return
+     */
+    public boolean initialize(IMultivariateSsfData history) {
+        ISsfData data = M2uAdapter.of(history);
+        if (data == null) {
+            return false;
+        }
+        return filter.initialize(data);
+    }
+
+    public boolean isInitialized() {
+        return filter.isInitialized();
+    }
+
+    /**
+     * Appends a new period
+     *
+     * @param y The observations of the period (NaN for missing values)
+     * @return
+     */
+    public boolean add(IReadDataBlock y) {
+        if (y.getLength() != nvars) {
+            return false;
+        }
+        return filter.add(y);
+    }
+
+    /**
+     *
+     * @return The number of processed periods
+     */
+    public int getPosition() {
+        return filter.getPosition() / nvars;
+    }
+
+    /**
+     *
+     * @return The current state, a(t|t-1), P(t|t-1) (t = getPosition())
+     */
+    public State getState() {
+        return filter.getState();
+    }
+
+    /**
+     * One-step-ahead forecast of a variable of the next period
+     *
+     * @param var The index of the variable
+     * @return
+     */
+    public double forecast(int var) {
+        return ssf.getMeasurement().ZX(filter.getPosition() + var, getState().a());
+    }
+
+    /**
+     * Diffuse likelihood of all the processed observations
+     *
+     * @return
+     */
+    public ILikelihood likelihood() {
+        return filter.likelihood();
+    }
+
+    /**
+     * Creates a checkpoint of the current position
+     *
+     * @return
+     */
+    public IncrementalFilter.Checkpoint checkpoint() {
+        return filter.checkpoint();
+    }
+
+    /**
+     * Restores the filter at a given checkpoint. The periods processed after
+     * the checkpoint are discarded.
+     *
+     * @param checkpoint
+     * @return
+     */
+    public boolean restore(IncrementalFilter.Checkpoint checkpoint) {
+        return filter.restore(checkpoint);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.random.IRandomNumberGenerator;
+import ec.tstoolkit.random.XorshiftRNG;
+
+/**
+ * Standard normal deviates generated from a given uniform generator (polar
+ * method of Marsaglia). An object of this class is not thread-safe: it should
+ * be used by one thread at a time. Independent streams are obtained through
+ * the static factories.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class NormalRandoms {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L, FAMILY_GAMMA = 0xd1b54a32d192ed03L;
+
+    /**
+     * SplitMix64 finalizer
+     *
+     * @param z
+     * @return
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Creates the index-th stream of a given seed. The streams of different
+     * indexes are statistically independent, and the same (seed, index) pair
+     * always gives the same sequence.
+     *
+     * @param seed
+     * @param index
+     * @return
+     */
+    public static NormalRandoms stream(long seed, long index) {
+        long s = mix64(seed + (index + 1) * GOLDEN_GAMMA);
+        if (s == 0) {
+            s = GOLDEN_GAMMA;
+        }
+        return new NormalRandoms(new XorshiftRNG(s));
+    }
+
+    /**
+     * Creates the index-th stream of a given family of a seed. The streams of
+     * different families don't overlap; the family 0 corresponds to
+     * stream(seed, index).
+     *
+     * @param seed
+     * @param family
+     * @param index
+     * @return
+     */
+    public static NormalRandoms stream(long seed, int family, long index) {
+        return stream(family == 0 ? seed : mix64(seed ^ (family * FAMILY_GAMMA)), index);
+    }
+
+    /**
+     * Uniform deviate in [0, 1) attached to the index-th stream of a given
+     * family of a seed. It is a deterministic function of (seed, family,
+     * index), which doesn't consume the deviates of the stream
+     *
+     * @param seed
+     * @param family
+     * @param index
+     * @return
+     */
+    public static double uniform(long seed, int family, long index) {
+        long s = family == 0 ? seed : mix64(seed ^ (family * FAMILY_GAMMA));
+        return (mix64(mix64(s + (index + 1) * GOLDEN_GAMMA) ^ FAMILY_GAMMA) >>> 11) * 0x1.0p-53;
+    }
+
+    public static NormalRandoms of(IRandomNumberGenerator rng) {
+        return new NormalRandoms(rng);
+    }
+
+    private final IRandomNumberGenerator rng;
+    private double next;
+    private boolean hasNext;
+
+    private NormalRandoms(IRandomNumberGenerator rng) {
+        this.rng = rng;
+    }
+
+    public IRandomNumberGenerator getGenerator() {
+        return rng;
+    }
+
+    /**
+     * Gets the next N(0,1) deviate
+     *
+     * @return
+     */
+    public double next() {
+        if (hasNext) {
+            hasNext = false;
+            return next;
+        }
+        double x, y, r;
+        do {
+            x = 2 * rng.nextDouble() - 1;
+            y = 2 * rng.nextDouble() - 1;
+            r = x * x + y * y;
+        } while (r >= 1 || r == 0);
+        double c = Math.sqrt(-2 * Math.log(r) / r);
+        next = y * c;
+        hasNext = true;
+        return x * c;
+    }
+
+    /**
+     * Fills a block with N(0,1) deviates
+     *
+     * @param u
+     */
+    public void fill(DataBlock u) {
+        double[] data = u.getData();
+        int beg = u.getStartPosition(), inc = u.getIncrement(), n = u.getLength();
+        for (int i = 0, j = beg; i < n; ++i, j += inc) {
+            data[j] = next();
+        }
+    }
+}
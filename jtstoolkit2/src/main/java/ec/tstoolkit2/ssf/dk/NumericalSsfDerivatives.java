@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.realfunctions.IParametricMapping;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
+
+/**
+ * Derivatives of the system matrices of time invariant models, computed by
+ * finite differences of the mapping. Only the system matrices are evaluated
+ * (no filtering), so that the cost is negligible. The parameters that modify
+ * T or Z (or the dimensions of the model) are not considered as variance
+ * parameters. The derivatives are exact when V, H and Pf0 are linear in the
+ * parameters (variances of structural models...).
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class NumericalSsfDerivatives implements ISsfDerivatives {
+
+    private static final double TOL = 1e-12;
+
+    private final int np;
+    private final boolean[] var;
+    private final Matrix[] dV, dPf0;
+    private final double[] dH;
+
+    /**
+     *
+     * @param <S>
+     * @param mapping
+     * @param p The parameters
+     */
+    public <S extends ISsf> NumericalSsfDerivatives(IParametricMapping<S> mapping, IReadDataBlock p) {
+        np = p.getLength();
+        var = new boolean[np];
+        dV = new Matrix[np];
+        dPf0 = new Matrix[np];
+        dH = new double[np];
+        ISsf ssf = mapping.map(p);
+        if (ssf == null || !ssf.isTimeInvariant()) {
+            return;
+        }
+        SystemMatrices s0 = new SystemMatrices(ssf);
+        DataBlock q = new DataBlock(p);
+        for (int i = 0; i < np; ++i) {
+            double x = p.get(i), eps = mapping.epsilon(p, i);
+            q.set(i, x + eps);
+            SystemMatrices sp = mapping.checkBoundaries(q) ? system(mapping, q) : null;
+            q.set(i, x - eps);
+            SystemMatrices sm = mapping.checkBoundaries(q) ? system(mapping, q) : null;
+            q.set(i, x);
+            double h;
+            SystemMatrices s1, s2;
+            if (sp != null && sm != null) {
+                s1 = sp;
+                s2 = sm;
+                h = 2 * eps;
+            } else if (sp != null) {
+                s1 = sp;
+                s2 = s0;
+                h = eps;
+            } else if (sm != null) {
+                s1 = s0;
+                s2 = sm;
+                h = eps;
+            } else {
+                continue;
+            }
+            if (!s0.sameStructure(s1) || !s0.sameStructure(s2)) {
+                continue;
+            }
+            var[i] = true;
+            dV[i] = diff(s1.V, s2.V, h);
+            dPf0[i] = diff(s1.Pf0, s2.Pf0, h);
+            dH[i] = (s1.h - s2.h) / h;
+        }
+    }
+
+    private static <S extends ISsf> SystemMatrices system(IParametricMapping<S> mapping, IReadDataBlock p) {
+        ISsf ssf = mapping.map(p);
+        if (ssf == null || !ssf.isTimeInvariant()) {
+            return null;
+        }
+        return new SystemMatrices(ssf);
+    }
+
+    private static Matrix diff(Matrix a, Matrix b, double h) {
+        int n = a.getRowsCount();
+        Matrix d = Matrix.square(n);
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                d.set(i, j, (a.get(i, j) - b.get(i, j)) / h);
+            }
+        }
+        return d;
+    }
+
+    @Override
+    public int getDim() {
+        return np;
+    }
+
+    @Override
+    public boolean isTimeInvariant() {
+        return true;
+    }
+
+    @Override
+    public boolean isVarianceParameter(int idx) {
+        return var[idx];
+    }
+
+    @Override
+    public void dV(int pos, int idx, SubMatrix dv) {
+        dv.copy(dV[idx].subMatrix());
+    }
+
+    @Override
+    public double dH(int pos, int idx) {
+        return dH[idx];
+    }
+
+    @Override
+    public void dPf0(int idx, SubMatrix dp) {
+        dp.copy(dPf0[idx].subMatrix());
+    }
+
+    /**
+     * SystemMatrices matrices of a time invariant model
+     */
+    private static class SystemMatrices {
+
+        final int dim, nd;
+        final Matrix T, V, Pf0;
+        final DataBlock Z;
+        final double h;
+
+        SystemMatrices(ISsf ssf) {
+            ISsfDynamics dynamics = ssf.getDynamics();
+            ISsfMeasurement measurement = ssf.getMeasurement();
+            dim = ssf.getStateDim();
+            nd = dynamics.getNonStationaryDim();
+            T = Matrix.square(dim);
+            dynamics.T(0, T.subMatrix());
+            V = Matrix.square(dim);
+            dynamics.V(0, V.subMatrix());
+            Pf0 = Matrix.square(dim);
+            dynamics.Pf0(Pf0.subMatrix(), StateInfo.Forecast);
+            Z = new DataBlock(dim);
+            measurement.Z(0, Z);
+            h = measurement.hasErrors() ? measurement.errorVariance(0) : 0;
+        }
+
+        boolean sameStructure(SystemMatrices other) {
+            if (dim != other.dim || nd != other.nd) {
+                return false;
+            }
+            for (int i = 0; i < dim; ++i) {
+                if (Math.abs(Z.get(i) - other.Z.get(i)) > TOL) {
+                    return false;
+                }
+                for (int j = 0; j < dim; ++j) {
+                    if (Math.abs(T.get(i, j) - other.T.get(i, j)) > TOL) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
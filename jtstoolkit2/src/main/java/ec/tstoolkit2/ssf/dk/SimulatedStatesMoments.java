@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit.design.Development;
+
+/**
+ * Means and variances of the simulated states, computed on the fly (Welford
+ * updates, Chan et al. for the merging of partial results).
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class SimulatedStatesMoments implements ISimulationAccumulator<SimulatedStatesMoments> {
+
+    private final int dim, n;
+    private final double[] mean, m2;
+    private final DataBlockStorage states;
+    private int count;
+
+    /**
+     *
+     * @param dim The dimension of the state vector
+     * @param n The length of the series
+     */
+    public SimulatedStatesMoments(int dim, int n) {
+        this.dim = dim;
+        this.n = n;
+        mean = new double[dim * n];
+        m2 = new double[dim * n];
+        states = new DataBlockStorage(dim, n);
+    }
+
+    @Override
+    public void add(DiffuseSimulationSmoother.Simulation simulation) {
+        simulation.fillSimulatedStates(states);
+        ++count;
+        for (int i = 0, k = 0; i < n; ++i) {
+            DataBlock a = states.block(i);
+            for (int j = 0; j < dim; ++j, ++k) {
+                double x = a.get(j);
+                double d = x - mean[k];
+                mean[k] += d / count;
+                m2[k] += d * (x - mean[k]);
+            }
+        }
+    }
+
+    @Override
+    public void merge(SimulatedStatesMoments other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            System.arraycopy(other.mean, 0, mean, 0, mean.length);
+            System.arraycopy(other.m2, 0, m2, 0, m2.length);
+            count = other.count;
+            return;
+        }
+        double na = count, nb = other.count, nt = na + nb;
+        for (int k = 0; k < mean.length; ++k) {
+            double d = other.mean[k] - mean[k];
+            mean[k] += d * nb / nt;
+            m2[k] += other.m2[k] + d * d * na * nb / nt;
+        }
+        count += other.count;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Means of a given component of the state vector
+     *
+     * @param cmp
+     * @return
+     */
+    public DataBlock mean(int cmp) {
+        return new DataBlock(mean, cmp, cmp + mean.length, dim).deepClone();
+    }
+
+    /**
+     * Variances (divided by count-1) of a given component of the state vector
+     *
+     * @param cmp
+     * @return
+     */
+    public DataBlock variance(int cmp) {
+        DataBlock v = new DataBlock(m2, cmp, cmp + m2.length, dim).deepClone();
+        if (count > 1) {
+            v.mul(1.0 / (count - 1));
+        } else {
+            v.set(Double.NaN);
+        }
+        return v;
+    }
+}
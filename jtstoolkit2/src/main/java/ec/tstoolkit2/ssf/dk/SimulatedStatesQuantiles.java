@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit.design.Development;
+import java.util.Arrays;
+
+/**
+ * Empirical quantiles of some components of the simulated states. Only the
+ * selected components are kept (n values by draw and by component), not the
+ * complete draws.
+ * The number of kept draws is bounded (DEF_MAXDRAWS by default): beyond that
+ * bound, the accumulator keeps the draws with the smallest sampling keys (see
+ * DiffuseSimulationSmoother.Simulation.getSamplingKey), which form a uniform
+ * random sample of all the draws, and the quantiles are estimated on that
+ * sample. The keys only depend on the seed of the smoother and on the random
+ * streams of the draws, so that the sample doesn't depend on the way the
+ * draws are distributed among threads and merged. The memory used by the
+ * accumulator is at most n * maxDraws doubles by selected component.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class SimulatedStatesQuantiles implements ISimulationAccumulator<SimulatedStatesQuantiles> {
+
+    public static final int DEF_MAXDRAWS = 10000;
+
+    private final int[] cmps;
+    private final int n, maxDraws;
+    private final DataBlockStorage states;
+    // values[c][i*capacity+k]: component cmps[c], period i, kept draw k
+    private double[][] values;
+    // keys[k]: sampling key of the kept draw k; heap: kept draws, by
+    // decreasing keys (max-heap)
+    private double[] keys;
+    private int[] heap;
+    // count: number of draws, size: number of kept draws
+    private int count, size, capacity;
+    // sorted copy of the values, computed on demand
+    private double[][] sorted;
+
+    /**
+     *
+     * @param dim The dimension of the state vector
+     * @param n The length of the series
+     * @param cmps The selected components of the state vector
+     */
+    public SimulatedStatesQuantiles(int dim, int n, int... cmps) {
+        this(DEF_MAXDRAWS, dim, n, cmps);
+    }
+
+    /**
+     *
+     * @param maxDraws The maximum number of kept draws
+     * @param dim The dimension of the state vector
+     * @param n The length of the series
+     * @param cmps The selected components of the state vector
+     */
+    public SimulatedStatesQuantiles(int maxDraws, int dim, int n, int... cmps) {
+        if (maxDraws <= 0) {
+            throw new IllegalArgumentException("The number of kept draws should be positive");
+        }
+        this.cmps = cmps.clone();
+        this.n = n;
+        this.maxDraws = maxDraws;
+        states = new DataBlockStorage(dim, n);
+        capacity = Math.min(16, maxDraws);
+        values = new double[cmps.length][n * capacity];
+        keys = new double[capacity];
+        heap = new int[capacity];
+    }
+
+    private void ensureCapacity(int ncapacity) {
+        if (ncapacity <= capacity) {
+            return;
+        }
+        ncapacity = Math.min(maxDraws, Math.max(ncapacity, capacity << 1));
+        for (int c = 0; c < cmps.length; ++c) {
+            double[] nvalues = new double[n * ncapacity];
+            for (int i = 0; i < n; ++i) {
+                System.arraycopy(values[c], i * capacity, nvalues, i * ncapacity, size);
+            }
+            values[c] = nvalues;
+        }
+        keys = Arrays.copyOf(keys, ncapacity);
+        heap = Arrays.copyOf(heap, ncapacity);
+        capacity = ncapacity;
+    }
+
+    @Override
+    public void add(DiffuseSimulationSmoother.Simulation simulation) {
+        double key = simulation.getSamplingKey();
+        int k;
+        if (size < maxDraws) {
+            ensureCapacity(size + 1);
+            k = size;
+            keys[k] = key;
+            heap[size++] = k;
+            siftUp(size - 1);
+        } else {
+            // the new draw replaces the kept draw with the largest key
+            k = heap[0];
+            if (key >= keys[k]) {
+                ++count;
+                return;
+            }
+            keys[k] = key;
+            siftDown(0);
+        }
+        simulation.fillSimulatedStates(states);
+        for (int c = 0; c < cmps.length; ++c) {
+            double[] v = values[c];
+            for (int i = 0; i < n; ++i) {
+                v[i * capacity + k] = states.block(i).get(cmps[c]);
+            }
+        }
+        ++count;
+        sorted = null;
+    }
+
+    @Override
+    public void merge(SimulatedStatesQuantiles other) {
+        if (size + other.size <= maxDraws) {
+            // all the draws are kept
+            ensureCapacity(size + other.size);
+            for (int c = 0; c < cmps.length; ++c) {
+                for (int i = 0; i < n; ++i) {
+                    System.arraycopy(other.values[c], i * other.capacity, values[c], i * capacity + size, other.size);
+                }
+            }
+            System.arraycopy(other.keys, 0, keys, size, other.size);
+            size += other.size;
+        } else {
+            // the maxDraws smallest keys of the union
+            int m = size + other.size;
+            double[] all = new double[m];
+            System.arraycopy(keys, 0, all, 0, size);
+            System.arraycopy(other.keys, 0, all, size, other.size);
+            double[] tmp = all.clone();
+            Arrays.sort(tmp);
+            double threshold = tmp[maxDraws - 1];
+            int nbelow = 0;
+            while (nbelow < maxDraws && tmp[nbelow] < threshold) {
+                ++nbelow;
+            }
+            int nties = maxDraws - nbelow;
+            int[] sel = new int[maxDraws];
+            for (int j = 0, l = 0; j < m && l < maxDraws; ++j) {
+                if (all[j] < threshold) {
+                    sel[l++] = j;
+                } else if (all[j] == threshold && nties > 0) {
+                    sel[l++] = j;
+                    --nties;
+                }
+            }
+            double[][] nvalues = new double[cmps.length][n * maxDraws];
+            for (int c = 0; c < cmps.length; ++c) {
+                double[] v = values[c], ov = other.values[c], nv = nvalues[c];
+                for (int i = 0; i < n; ++i) {
+                    int beg = i * maxDraws;
+                    for (int l = 0; l < maxDraws; ++l) {
+                        int j = sel[l];
+                        nv[beg + l] = j < size ? v[i * capacity + j] : ov[i * other.capacity + j - size];
+                    }
+                }
+            }
+            double[] nkeys = new double[maxDraws];
+            for (int l = 0; l < maxDraws; ++l) {
+                nkeys[l] = all[sel[l]];
+            }
+            values = nvalues;
+            keys = nkeys;
+            heap = new int[maxDraws];
+            capacity = maxDraws;
+            size = maxDraws;
+        }
+        // rebuilds the heap
+        for (int j = 0; j < size; ++j) {
+            heap[j] = j;
+        }
+        for (int j = size / 2 - 1; j >= 0; --j) {
+            siftDown(j);
+        }
+        count += other.count;
+        sorted = null;
+    }
+
+    private void siftUp(int j) {
+        int cur = heap[j];
+        while (j > 0) {
+            int parent = (j - 1) >> 1;
+            if (keys[heap[parent]] >= keys[cur]) {
+                break;
+            }
+            heap[j] = heap[parent];
+            j = parent;
+        }
+        heap[j] = cur;
+    }
+
+    private void siftDown(int j) {
+        int cur = heap[j];
+        int half = size >> 1;
+        while (j < half) {
+            int child = 2 * j + 1;
+            if (child + 1 < size && keys[heap[child + 1]] > keys[heap[child]]) {
+                ++child;
+            }
+            if (keys[cur] >= keys[heap[child]]) {
+                break;
+            }
+            heap[j] = heap[child];
+            j = child;
+        }
+        heap[j] = cur;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    private void sort() {
+        if (sorted != null) {
+            return;
+        }
+        sorted = new double[cmps.length][n * size];
+        for (int c = 0; c < cmps.length; ++c) {
+            for (int i = 0; i < n; ++i) {
+                System.arraycopy(values[c], i * capacity, sorted[c], i * size, size);
+                Arrays.sort(sorted[c], i * size, (i + 1) * size);
+            }
+        }
+    }
+
+    /**
+     * Number of kept draws (at most maxDraws)
+     *
+     * @return
+     */
+    public int getSampleSize() {
+        return size;
+    }
+
+    /**
+     * Quantiles (linear interpolation between order statistics of the kept
+     * draws)
+     *
+     * @param idx The index of the component in the selected components (not
+     * its position in the state vector)
+     * @param p The probability (in [0, 1])
+     * @return The quantiles for each period
+     */
+    public DataBlock quantile(int idx, double p) {
+        if (size == 0) {
+            return null;
+        }
+        sort();
+        double[] v = sorted[idx];
+        double h = p * (size - 1);
+        int l = (int) Math.floor(h);
+        int u = Math.min(l + 1, size - 1);
+        double w = h - l;
+        DataBlock q = new DataBlock(n);
+        for (int i = 0; i < n; ++i) {
+            int beg = i * size;
+            q.set(i, v[beg + l] + w * (v[beg + u] - v[beg + l]));
+        }
+        return q;
+    }
+
+    public DataBlock median(int idx) {
+        return quantile(idx, .5);
+    }
+}
@@ -19,6 +19,7 @@
 package ec.tstoolkit2.ssf.dk;
 
 import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.maths.realfunctions.IFunction;
 import ec.tstoolkit.maths.realfunctions.IFunctionDerivatives;
 import ec.tstoolkit.maths.realfunctions.IFunctionInstance;
@@ -31,6 +32,10 @@ import ec.tstoolkit.maths.realfunctions.NumericalDerivatives;
 import ec.tstoolkit.maths.realfunctions.SsqNumericalDerivatives;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -42,7 +47,10 @@ public class SsfFunction<S extends ISsf> implements IFunction, ISsqFunction {
     private final boolean mt, sym;
     final IParametricMapping<S> mapper;
     final ISsfData data;
-    boolean ml = true, log=false;
+    boolean ml = true, log=false, analytical=false, pooled=false;
+    // idle workers without residuals / with residuals
+    private final Queue<LikelihoodWorker> workers = new ConcurrentLinkedQueue<>(), rworkers = new ConcurrentLinkedQueue<>();
+    private ExecutorService executor;
 
     /**
      *
@@ -67,6 +75,98 @@ public class SsfFunction<S extends ISsf> implements IFunction, ISsqFunction {
         this.ml = ml;
     }
 
+    /**
+     * Analytical derivatives of the variance parameters, when the mapping
+     * provides the derivatives of the system matrices (see
+     * ISsfDerivativesMapping). Only used for maximum likelihood; the other
+     * derivatives are computed numerically.
+     *
+     * @return
+     */
+    public boolean isAnalyticalDerivatives() {
+        return analytical;
+    }
+
+    public void setAnalyticalDerivatives(boolean analytical) {
+        this.analytical = analytical;
+    }
+
+    /**
+     * Pooled evaluation: the filters, prediction error decompositions and
+     * buffers of residuals (allocation free filter) are borrowed from a pool
+     * of workers, which holds at most one worker by concurrent evaluation. The
+     * residuals are only computed when they are needed (sum of squares
+     * functions). In that case, the residuals of the likelihood of an instance
+     * are not available (getE should be used instead). The pool is kept until
+     * releaseWorkers is called or the function is garbage collected.
+     *
+     * @return
+     */
+    public boolean isPooledEvaluation() {
+        return pooled;
+    }
+
+    public void setPooledEvaluation(boolean pooled) {
+        this.pooled = pooled;
+        if (!pooled) {
+            releaseWorkers();
+        }
+    }
+
+    /**
+     * Drops the idle workers of the pooled evaluation
+     */
+    public void releaseWorkers() {
+        workers.clear();
+        rworkers.clear();
+    }
+
+    /**
+     * Executor used for the parallel numerical derivatives (multi-threaded
+     * functions).
+     *
+     * @return The executor. The common ForkJoinPool by default
+     */
+    public ExecutorService getExecutor() {
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Computes the likelihood with a worker of the pool
+     *
+     * @param ssf
+     * @param res True if the residuals are needed. They are copied out of the
+     * buffer of the worker before it goes back to the pool
+     * @return
+     */
+    ILikelihood pooledLikelihood(S ssf, boolean res) {
+        Queue<LikelihoodWorker> pool = res ? rworkers : workers;
+        LikelihoodWorker worker = pool.poll();
+        if (worker == null) {
+            worker = new LikelihoodWorker(true, true, 0, res);
+        }
+        try {
+            ILikelihood ll = worker.compute(ssf, data);
+            if (res && ll instanceof DkDiffuseLikelihood) {
+                double[] e = ll.getResiduals();
+                if (e != null) {
+                    ((DkDiffuseLikelihood) ll).setResiduals(e.clone());
+                }
+            }
+            return ll;
+        } finally {
+            pool.offer(worker);
+        }
+    }
+
+    boolean isMultiThreaded() {
+        return mt;
+    }
+
     public boolean isLog() {
         return log;
     }
@@ -77,11 +177,15 @@ public class SsfFunction<S extends ISsf> implements IFunction, ISsqFunction {
 
     @Override
     public IFunctionInstance evaluate(IReadDataBlock parameters) {
-        return new SsfFunctionInstance<>(this, parameters);
+        return new SsfFunctionInstance<>(this, parameters, false);
     }
 
     @Override
     public IFunctionDerivatives getDerivatives(IFunctionInstance point) {
+        if (analytical && ml && mapper instanceof ISsfDerivativesMapping
+                && point instanceof SsfFunctionInstance) {
+            return new SsfFunctionDerivatives<>(this, (SsfFunctionInstance<S>) point, sym, mt);
+        }
         return new NumericalDerivatives(this, point, sym, mt);
     }
 
@@ -101,6 +205,6 @@ public class SsfFunction<S extends ISsf> implements IFunction, ISsqFunction {
 
     @Override
     public ISsqFunctionInstance ssqEvaluate(IReadDataBlock parameters) {
-        return new SsfFunctionInstance<>(this, parameters);
+        return new SsfFunctionInstance<>(this, parameters, true);
     }
 }
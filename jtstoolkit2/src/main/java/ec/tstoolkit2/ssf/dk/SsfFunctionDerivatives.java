@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.dk;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.maths.realfunctions.NumericalDerivatives;
+import ec.tstoolkit2.ssf.SsfException;
+import ec.tstoolkit2.ssf.univariate.ISsf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Gradient of a likelihood function. The derivatives of the variance
+ * parameters are computed analytically (see DiffuseScoreComputer); the other
+ * ones by finite differences. The hessian is computed numerically.
+ *
+ * @author Jean Palate
+ * @param <S>
+ */
+class SsfFunctionDerivatives<S extends ISsf> extends NumericalDerivatives {
+
+    private final SsfFunction<S> fn;
+    private final SsfFunctionInstance<S> point;
+    private final boolean sym;
+    private DataBlock grad;
+
+    SsfFunctionDerivatives(SsfFunction<S> fn, SsfFunctionInstance<S> point, boolean sym, boolean mt) {
+        super(fn, point, sym, mt);
+        this.fn = fn;
+        this.point = point;
+        this.sym = sym;
+    }
+
+    @Override
+    public IReadDataBlock getGradient() {
+        if (grad == null) {
+            grad = computeGradient();
+            if (grad == null) {
+                return super.getGradient();
+            }
+        }
+        return grad;
+    }
+
+    private DataBlock computeGradient() {
+        IReadDataBlock p = point.getParameters();
+        double val = point.getValue();
+        if (!Double.isFinite(val)) {
+            return null;
+        }
+        ISsfDerivatives derivatives = ((ISsfDerivativesMapping<S>) fn.mapper).derivatives(p);
+        DiffuseScoreComputer computer = new DiffuseScoreComputer();
+        if (!computer.process(point.getSsf(), fn.data, derivatives)) {
+            return null;
+        }
+        double[] score = computer.getScore();
+        // value = -ll (log) or exp(-2*ll/m) * constant
+        double factor = fn.log ? -1 : -2 * val / computer.getObsCount();
+        DataBlock g = new DataBlock(score.length);
+        for (int i = 0; i < score.length; ++i) {
+            if (derivatives.isVarianceParameter(i)) {
+                if (!Double.isFinite(score[i])) {
+                    return null;
+                }
+                g.set(i, factor * score[i]);
+            }
+        }
+        // the other parameters, possibly in parallel (see SsfFunction.setExecutor)
+        int[] others = IntStream.range(0, score.length).filter(i -> !derivatives.isVarianceParameter(i)).toArray();
+        if (fn.isMultiThreaded() && others.length > 1) {
+            List<Callable<Void>> tasks = new ArrayList<>(others.length);
+            for (int i : others) {
+                tasks.add(() -> {
+                    g.set(i, numericalDerivative(p, i, val));
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> f : fn.getExecutor().invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SsfException("Derivatives interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw new SsfException("Derivatives failed", ex);
+            }
+        } else {
+            for (int i : others) {
+                g.set(i, numericalDerivative(p, i, val));
+            }
+        }
+        return g;
+    }
+
+    private double numericalDerivative(IReadDataBlock p, int i, double val) {
+        DataBlock q = new DataBlock(p);
+        double x = p.get(i), eps = fn.mapper.epsilon(p, i);
+        q.set(i, x + eps);
+        if (!fn.mapper.checkBoundaries(q)) {
+            eps = -eps;
+            q.set(i, x + eps);
+        }
+        double f1 = fn.evaluate(q).getValue();
+        if (sym) {
+            q.set(i, x - eps);
+            if (fn.mapper.checkBoundaries(q)) {
+                double f2 = fn.evaluate(q).getValue();
+                return (f1 - f2) / (2 * eps);
+            }
+        }
+        return (f1 - val) / eps;
+    }
+}
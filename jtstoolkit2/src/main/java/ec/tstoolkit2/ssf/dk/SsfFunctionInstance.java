@@ -46,6 +46,7 @@ public class SsfFunctionInstance<S extends ISsf> implements
     private final ILikelihood ll;
     private final DataBlock p;
     private final boolean ml, log;
+    private final SsfFunction<S> fn;
     private double[] E;
 
     /**
@@ -54,11 +55,49 @@ public class SsfFunctionInstance<S extends ISsf> implements
      * @param p
      */
     public SsfFunctionInstance(SsfFunction<S> fn, IReadDataBlock p) {
+        this(fn, p, true);
+    }
+
+    /**
+     *
+     * @param fn
+     * @param p
+     * @param res True if the residuals will be used (sum of squares
+     * functions)
+     */
+    SsfFunctionInstance(SsfFunction<S> fn, IReadDataBlock p, boolean res) {
+        this.fn = fn;
         this.p = new DataBlock(p);
         this.ml = fn.ml;
         this.log = fn.log;
         current = fn.mapper.map(p);
-        ll = likelihoodComputer(true, true).compute(current, fn.data);
+        if (!fn.pooled) {
+            ll = likelihoodComputer(true, true).compute(current, fn.data);
+        } else {
+            ll = fn.pooledLikelihood(current, res);
+            if (res && ll != null) {
+                // the residuals are only kept in E
+                E = residuals(ll);
+                if (ll instanceof DkDiffuseLikelihood) {
+                    ((DkDiffuseLikelihood) ll).setResiduals(null);
+                }
+            }
+        }
+    }
+
+    private double[] residuals(ILikelihood l) {
+        double[] res = l.getResiduals();
+        if (res == null) {
+            return null;
+        }
+        double[] e = Arrays2.compact(res);
+        if (ml) {
+            double factor = Math.sqrt(l.getFactor());
+            for (int i = 0; i < e.length; ++i) {
+                e[i] *= factor;
+            }
+        }
+        return e;
     }
 
     public S getSsf() {
@@ -67,17 +106,13 @@ public class SsfFunctionInstance<S extends ISsf> implements
 
     @Override
     public double[] getE() {
-        if (E == null) {
-            double[] res = ll.getResiduals();
-            if (res == null) {
-                return null;
-            } else {
-                E = Arrays2.compact(res);
-                if (ml) {
-                    double factor = Math.sqrt(ll.getFactor());
-                    for (int i = 0; i < E.length; ++i) {
-                        E[i] *= factor;
-                    }
+        if (E == null && ll != null) {
+            if (ll.getResiduals() != null) {
+                E = residuals(ll);
+            } else if (fn.pooled) {
+                ILikelihood rll = fn.pooledLikelihood(current, true);
+                if (rll != null) {
+                    E = residuals(rll);
                 }
             }
         }
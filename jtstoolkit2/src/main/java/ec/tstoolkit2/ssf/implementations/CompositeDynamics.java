@@ -19,6 +19,7 @@
 package ec.tstoolkit2.ssf.implementations;
 
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.utilities.Jdk6;
 import ec.tstoolkit2.ssf.ISsfDynamics;
@@ -34,9 +35,13 @@ import java.util.List;
  */
 public class CompositeDynamics implements ISsfDynamics {
 
+    // kinds of the transition matrices
+    private static final byte GENERAL = 0, IDENTITY = 1, ZERO = 2;
+
     private final ISsfDynamics[] dyn;
     private final int[] dim;
     private final int fdim;
+    private final byte[] tkind;
 
     public static CompositeDynamics of(ISsf... ssfs) {
         ISsfDynamics[] dyn = new ISsfDynamics[ssfs.length];
@@ -66,6 +71,41 @@ public class CompositeDynamics implements ISsfDynamics {
             tdim += dim[i];
         }
         fdim = tdim;
+        tkind = new byte[n];
+        for (int i = 0; i < n; ++i) {
+            tkind[i] = kind(ssfs[i], dim[i]);
+        }
+    }
+
+    /**
+     * Identifies the time invariant dynamics with an identity (fixed effects)
+     * or a null (white noises) transition matrix. The covariance propagation
+     * skips the corresponding blocks
+     *
+     * @param dyn
+     * @param n
+     * @return
+     */
+    private static byte kind(ISsfDynamics dyn, int n) {
+        if (n == 0 || !dyn.isTimeInvariant()) {
+            return GENERAL;
+        }
+        Matrix t = Matrix.square(n);
+        t.diagonal().set(1);
+        dyn.TM(0, t.subMatrix());
+        boolean id = true, zero = true;
+        for (int c = 0; c < n; ++c) {
+            for (int r = 0; r < n; ++r) {
+                double x = t.get(r, c);
+                if (x != 0) {
+                    zero = false;
+                }
+                if (x != (r == c ? 1 : 0)) {
+                    id = false;
+                }
+            }
+        }
+        return zero ? ZERO : id ? IDENTITY : GENERAL;
     }
 
     public CompositeDynamics(List<ISsfDynamics> ssfs) {
@@ -275,6 +315,16 @@ public class CompositeDynamics implements ISsfDynamics {
         }
     }
 
+    /**
+     * T V T' is computed block by block: the diagonal blocks through the TVT
+     * of the components, the cross blocks (below the diagonal) through the TM
+     * of the two components, the blocks above the diagonal by symmetry. The
+     * components with an identity transition are left unchanged and the
+     * components with a null transition are set to 0.
+     *
+     * @param pos
+     * @param v
+     */
     @Override
     public void TVT(int pos, SubMatrix v
     ) {
@@ -282,16 +332,31 @@ public class CompositeDynamics implements ISsfDynamics {
         for (int i = 0; i < dyn.length; ++i) {
             int ni = dim[i];
             D.next(ni, ni);
-            dyn[i].TVT(pos, D);
+            byte ki = tkind[i];
+            if (ki == ZERO) {
+                D.set(0);
+            } else if (ki == GENERAL) {
+                dyn[i].TVT(pos, D);
+            }
             SubMatrix C = D.clone(), R = D.clone();
             for (int j = i + 1; j < dyn.length; ++j) {
                 int nj = dim[j];
                 C.vnext(nj);
                 R.hnext(nj);
-                SubMatrix Ct = C.transpose();
-                dyn[j].TM(pos, C);
-                dyn[i].TM(pos, Ct);
-                R.copy(Ct);
+                byte kj = tkind[j];
+                if (ki == ZERO || kj == ZERO) {
+                    C.set(0);
+                    R.set(0);
+                } else if (ki == GENERAL || kj == GENERAL) {
+                    SubMatrix Ct = C.transpose();
+                    if (kj == GENERAL) {
+                        dyn[j].TM(pos, C);
+                    }
+                    if (ki == GENERAL) {
+                        dyn[i].TM(pos, Ct);
+                    }
+                    R.copy(Ct);
+                }
             }
         }
     }
@@ -302,7 +367,9 @@ public class CompositeDynamics implements ISsfDynamics {
         SubMatrix cur = p.topLeft();
         for (int i = 0; i < dyn.length; ++i) {
             cur.next(dim[i], dim[i]);
-            dyn[i].addV(pos, cur);
+            if (dyn[i].hasInnovations(pos)) {
+                dyn[i].addV(pos, cur);
+            }
         }
     }
 }
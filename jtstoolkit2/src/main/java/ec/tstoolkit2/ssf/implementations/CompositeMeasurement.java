@@ -70,7 +70,8 @@ public class CompositeMeasurement implements ISsfMeasurement {
     private final int[] dim;
     private final int fdim;
     private final double var;
-    private final DataBlock tmp;
+    // per thread: the model can be shared by parallel simulations
+    private final ThreadLocal<DataBlock> tmp;
 
     private CompositeMeasurement(final ISsfMeasurement[] ms, final int[] dim, double var) {
         this.measurements = ms;
@@ -82,7 +83,7 @@ public class CompositeMeasurement implements ISsfMeasurement {
         this.dim = dim;
         fdim = tdim;
         this.var = var;
-        tmp = new DataBlock(fdim);
+        tmp = ThreadLocal.withInitial(() -> new DataBlock(fdim));
     }
 
     @Override
@@ -133,11 +134,12 @@ public class CompositeMeasurement implements ISsfMeasurement {
     @Override
     public double ZVZ(int pos, SubMatrix v) {
         SubMatrix D = v.topLeft();
+        DataBlock zm = tmp.get();
         double x = 0;
         for (int i = 0; i < measurements.length; ++i) {
             int ni = dim[i];
-            tmp.set(0);
-            DataBlock buffer = tmp.start();
+            zm.set(0);
+            DataBlock buffer = zm.start();
             D.next(ni, ni);
             x += measurements[i].ZVZ(pos, D);
             SubMatrix C = D.clone();
@@ -154,14 +156,15 @@ public class CompositeMeasurement implements ISsfMeasurement {
 
     @Override
     public void VpZdZ(int pos, SubMatrix V, double d) {
-        tmp.set(0);
-        Z(pos, tmp);
+        DataBlock z = tmp.get();
+        z.set(0);
+        Z(pos, z);
         DataBlockIterator cols = V.columns();
         DataBlock col = cols.getData();
         do {
-            double cur = tmp.get(cols.getPosition());
+            double cur = z.get(cols.getPosition());
             if (cur != 0) {
-                col.addAY(d * cur, tmp);
+                col.addAY(d * cur, z);
             }
         } while (cols.next());
     }
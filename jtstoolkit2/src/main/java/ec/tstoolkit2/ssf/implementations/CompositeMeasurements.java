@@ -85,8 +85,9 @@ public class CompositeMeasurements implements ISsfMeasurements {
 
     private final ISsfMeasurement[] measurements;
     private final int[] cdim;
-    private final DataBlock tmp;
     private final Matrix corr, lcorr;
+    // per thread: the model can be shared by parallel simulations
+    private final ThreadLocal<DataBlock> tmp;
 
     /**
      * H = D C D, where D is the correlation matrix, D is the diagonal matrix
@@ -102,9 +103,9 @@ public class CompositeMeasurements implements ISsfMeasurements {
         this.measurements = ms;
         this.corr = corr;
         this.lcorr = lcorr;
-        int n = ms.length;
         this.cdim = cdim;
-        tmp = new DataBlock(cdim[n]);
+        int n = ms.length;
+        tmp = ThreadLocal.withInitial(() -> new DataBlock(cdim[n]));
     }
 
     @Override
@@ -253,7 +254,7 @@ public class CompositeMeasurements implements ISsfMeasurements {
         if (v == w) {
             return measurements[v].ZVZ(pos, Vvw);
         } else {
-            DataBlock zm = tmp.range(cdim[w], cdim[w + 1]);
+            DataBlock zm = tmp.get().range(cdim[w], cdim[w + 1]);
             zm.set(0);
             measurements[v].ZM(pos, Vvw, zm);
             return measurements[w].ZX(pos, zm);
@@ -266,7 +267,7 @@ public class CompositeMeasurements implements ISsfMeasurements {
         if (v == w) {
             measurements[v].VpZdZ(pos, Vvw, d);
         } else {
-            DataBlock zw = tmp.range(cdim[w], cdim[w + 1]);
+            DataBlock zw = tmp.get().range(cdim[w], cdim[w + 1]);
             zw.set(0);
             measurements[w].Z(pos, zw);
             DataBlockIterator cols = V.columns();
@@ -63,6 +63,21 @@ public class Measurements {
         return new Extension(measurements, var.deepClone());
     }
 
+    /**
+     * Measurements with correlated errors
+     *
+     * @param measurements The loadings of the measurements
+     * @param V The covariance matrix of the errors. It is copied
+     * @return
+     */
+    public static ISsfMeasurements create(ISsfMeasurements measurements, SubMatrix V) {
+        int n = measurements.getMaxCount();
+        if (V.getRowsCount() != n || V.getColumnsCount() != n || !measurements.isHomogeneous()) {
+            return null;
+        }
+        return new Extension(measurements, new Matrix(V));
+    }
+
     static ISsfMeasurements create(ISsfMeasurement[] m, int dim) {
         return new MeasurementsVector(m, dim);
     }
@@ -175,9 +190,9 @@ public class Measurements {
             se.sqrt();
         }
 
-        Extension(final ISsfMeasurements loadings, final SubMatrix V) {
+        Extension(final ISsfMeasurements loadings, final Matrix V) {
             this.details = loadings;
-            E = new Matrix(V);
+            E = V;
             R = E.clone();
             SymmetricMatrix.lcholesky(R, 1e-9);
             var = null;
@@ -194,7 +209,7 @@ public class Measurements {
 
         @Override
         public boolean hasErrors() {
-            return var == null && E == null;
+            return var != null || E != null;
         }
 
         @Override
@@ -378,11 +393,12 @@ public class Measurements {
     static class MeasurementsVector implements ISsfMeasurements {
 
         private final ISsfMeasurement[] ms;
-        private final DataBlock tmp;
+        // per thread: the model can be shared by parallel simulations
+        private final ThreadLocal<DataBlock> tmp;
 
         MeasurementsVector(ISsfMeasurement[] ms, int dim) {
             this.ms = ms;
-            tmp = new DataBlock(dim);
+            tmp = ThreadLocal.withInitial(() -> new DataBlock(dim));
         }
 
         @Override
@@ -469,9 +485,10 @@ public class Measurements {
             if (ivar == jvar) {
                 return ms[ivar].ZVZ(pos, V);
             } else {
-                tmp.set(0);
-                ms[ivar].ZM(pos, V, tmp);
-                return ms[jvar].ZX(pos, tmp);
+                DataBlock zm = tmp.get();
+                zm.set(0);
+                ms[ivar].ZM(pos, V, zm);
+                return ms[jvar].ZX(pos, zm);
             }
         }
 
@@ -491,12 +508,13 @@ public class Measurements {
             if (ivar == jvar) {
                 ms[ivar].VpZdZ(pos, V, d);
             } else {
-                tmp.set(0);
-                Z(pos, jvar, tmp);
+                DataBlock z = tmp.get();
+                z.set(0);
+                Z(pos, jvar, z);
                 DataBlockIterator columns = V.columns();
                 DataBlock data = columns.getData();
                 do {
-                    double c = tmp.get(columns.getPosition());
+                    double c = z.get(columns.getPosition());
                     if (c != 0) {
                         ms[ivar].XpZd(pos, data, c * d);
                     }
@@ -72,7 +72,6 @@ public class StochasticDifference extends Ssf {
         private final int[] dpos;
         private final double[] dw;
         private final int ddim, sdim, dim;
-        private final double[] tmp;
 
         Dynamics(final ISsfDynamics dyn, final ISsfMeasurement m,
                 final int[] dpos, final double[] dw, final int ddim) {
@@ -83,7 +82,6 @@ public class StochasticDifference extends Ssf {
             this.ddim = ddim;
             this.sdim = dyn.getStateDim();
             this.dim = ddim + sdim;
-            this.tmp = new double[dpos.length];
         }
 
         @Override
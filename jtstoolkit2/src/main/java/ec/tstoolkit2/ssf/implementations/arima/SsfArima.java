@@ -30,7 +30,6 @@ import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit.maths.polynomials.Polynomial;
 import ec.tstoolkit.maths.polynomials.RationalFunction;
-import ec.tstoolkit.maths.realfunctions.IParametricMapping;
 import ec.tstoolkit.maths.realfunctions.ParamValidation;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaSpecification;
@@ -40,6 +39,9 @@ import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.StateInfo;
 import ec.tstoolkit2.ssf.ckms.FastState;
 import ec.tstoolkit2.ssf.ckms.IFastInitializer;
+import ec.tstoolkit2.ssf.dk.ISsfDerivatives;
+import ec.tstoolkit2.ssf.dk.ISsfDerivativesMapping;
+import ec.tstoolkit2.ssf.dk.NumericalSsfDerivatives;
 import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
 import ec.tstoolkit2.ssf.univariate.Ssf;
 
@@ -50,7 +52,7 @@ import ec.tstoolkit2.ssf.univariate.Ssf;
 @Development(status = Development.Status.Alpha)
 public class SsfArima extends Ssf {
 
-    public static IParametricMapping<SsfArima> mapping(final SarimaSpecification spec) {
+    public static ISsfDerivativesMapping<SsfArima> mapping(final SarimaSpecification spec) {
         return new Mapping(spec);
     }
 
@@ -117,8 +119,9 @@ public class SsfArima extends Ssf {
 
         private final int dim_;
         private final double var_;
-        private final double[] phi_, acgf_, tmp_, psi_;
+        private final double[] phi_, acgf_, psi_;
         private transient Matrix V;
+        private transient SubMatrix Vs;
         private transient Matrix P0;
 
         public StDynamics(IArimaModel arima) {
@@ -134,12 +137,14 @@ public class SsfArima extends Ssf {
             dim_ = Math.max(p, theta.getDegree() + 1);
             psi_ = new RationalFunction(theta, phi).coefficients(dim_);
             acgf_ = arima.getAutoCovarianceFunction().values(dim_);
-            tmp_ = new double[dim_];
         }
 
-        private void init() {
-            P0 = p0(var_, acgf_, psi_);
-            V = v(var_, psi_);
+        private synchronized void init() {
+            if (Vs == null) {
+                P0 = p0(var_, acgf_, psi_);
+                V = v(var_, psi_);
+                Vs = V.subMatrix();
+            }
         }
 
         private static Matrix v(double var, double[] psi) {
@@ -206,21 +211,36 @@ public class SsfArima extends Ssf {
          */
         @Override
         public void TVT(final int pos, final SubMatrix vm) {
-            DataBlock tmp = new DataBlock(tmp_);
-            tmp.set(0);
-            DataBlockIterator cols = vm.columns();
-            DataBlock col = cols.getData();
-            cols.end();
-            for (int p = phi_.length - 1; p >= 0; --p) {
-                tmp.addAY(-phi_[p], col);
-                cols.previous();
+            // computed in place, without scratch buffer: the dynamics can be 
+            // shared by several threads
+            int n = dim_ - 1, j0 = dim_ - phi_.length;
+            double v0 = tv(vm, 0);
+            for (int i = 0; i < n; ++i) {
+                double v = tv(vm, i + 1);
+                for (int j = 0; j < n; ++j) {
+                    vm.set(i, j, vm.get(i + 1, j + 1));
+                }
+                vm.set(i, n, v);
+            }
+            double tlast = 0;
+            for (int i = 0, j = j0; i < phi_.length; ++i, ++j) {
+                tlast -= phi_[i] * (j == 0 ? v0 : vm.get(j - 1, n));
+            }
+            for (int j = 0; j < n; ++j) {
+                vm.set(n, j, vm.get(j, n));
+            }
+            vm.set(n, n, tlast);
+        }
+
+        /**
+         * Row r of V, multiplied by the last row of T
+         */
+        private double tv(final SubMatrix vm, final int r) {
+            double s = 0;
+            for (int i = 0, j = dim_ - phi_.length; i < phi_.length; ++i, ++j) {
+                s -= phi_[i] * vm.get(r, j);
             }
-            double tlast = -tmp.reverseDot(phi_);
-            vm.shift(-1);
-            tmp.bshift(DataBlock.ShiftOption.None);
-            tmp_[dim_ - 1] = tlast;
-            vm.column(dim_ - 1).copy(tmp);
-            vm.row(dim_ - 1).copy(tmp);
+            return s;
         }
 
         /**
@@ -380,10 +400,10 @@ public class SsfArima extends Ssf {
 
         @Override
         public void addV(int pos, SubMatrix p) {
-            if (V == null) {
+            if (Vs == null) {
                 init();
             }
-            p.add(V.subMatrix());
+            p.add(Vs);
         }
     }
 
@@ -391,9 +411,10 @@ public class SsfArima extends Ssf {
 
         private final int dim_;
         private final double var_;
-        private final double[] phi_, tmp_, psi_;
+        private final double[] phi_, psi_;
         private final DataBlock Phi_;
         private final Matrix V;
+        private final SubMatrix Vs;
         private final Matrix P0;
         private final double[] dif_;
         private final double[] stacgf_, stpsi_;
@@ -490,12 +511,12 @@ public class SsfArima extends Ssf {
             Polynomial stphi = arima.getStationaryAR().getPolynomial();
             stacgf_ = new AutoCovarianceFunction(theta, stphi, var_).values(dim_);
             stpsi_ = new RationalFunction(theta, stphi).coefficients(dim_);
-            tmp_ = new double[dim_];
             Matrix stvar = StDynamics.p0(var_, stacgf_, stpsi_);
             Matrix K = new Matrix(dim_, dim_);
             Ksi(K.subMatrix(), dif_);
             P0 = SymmetricMatrix.quadraticFormT(stvar, K);
             V = StDynamics.v(var_, psi_);
+            Vs = V.subMatrix();
         }
 
         /**
@@ -529,23 +550,37 @@ public class SsfArima extends Ssf {
          */
         @Override
         public void TVT(final int pos, final SubMatrix vm) {
-            DataBlock tmp = new DataBlock(tmp_);
-            tmp.set(0);
-            DataBlockIterator cols = vm.columns();
-            DataBlock col = cols.getData();
-            cols.end();
-            for (int p = 1; p < phi_.length; ++p) {
-                tmp.addAY(-phi_[p], col);
-                cols.previous();
+            // computed in place, without scratch buffer: the dynamics can be 
+            // shared by several threads
+            int n = dim_ - 1;
+            double v0 = tv(vm, 0);
+            for (int i = 0; i < n; ++i) {
+                double v = tv(vm, i + 1);
+                for (int j = 0; j < n; ++j) {
+                    vm.set(i, j, vm.get(i + 1, j + 1));
+                }
+                vm.set(i, n, v);
             }
+            double tlast = 0;
+            for (int i = 1; i < phi_.length; ++i) {
+                int j = dim_ - i;
+                tlast -= phi_[i] * (j == 0 ? v0 : vm.get(j - 1, n));
+            }
+            for (int j = 0; j < n; ++j) {
+                vm.set(n, j, vm.get(j, n));
+            }
+            vm.set(n, n, tlast);
+        }
 
-            double tlast = -Phi_.dotReverse(tmp);
-
-            vm.shift(-1);
-            tmp.bshift(DataBlock.ShiftOption.None);
-            tmp_[dim_ - 1] = tlast;
-            vm.column(dim_ - 1).copy(tmp);
-            vm.row(dim_ - 1).copy(tmp);
+        /**
+         * Row r of V, multiplied by the last row of T
+         */
+        private double tv(final SubMatrix vm, final int r) {
+            double s = 0;
+            for (int i = 1; i < phi_.length; ++i) {
+                s -= phi_[i] * vm.get(r, dim_ - i);
+            }
+            return s;
         }
 
         /**
@@ -661,7 +696,7 @@ public class SsfArima extends Ssf {
 
         @Override
         public void addV(int pos, SubMatrix p) {
-            p.add(V.subMatrix());
+            p.add(Vs);
         }
         
         @Override
@@ -684,7 +719,7 @@ public class SsfArima extends Ssf {
         
     }
 
-    static class Mapping implements IParametricMapping<SsfArima> {
+    static class Mapping implements ISsfDerivativesMapping<SsfArima> {
 
         private final SarimaMapping core;
 
@@ -703,6 +738,18 @@ public class SsfArima extends Ssf {
             return core.map(arima);
         }
 
+        /**
+         * The parameters that only modify the innovations (moving averages
+         * of differenced models) are handled analytically
+         *
+         * @param p
+         * @return
+         */
+        @Override
+        public ISsfDerivatives derivatives(IReadDataBlock p) {
+            return new NumericalSsfDerivatives(this, p);
+        }
+
         @Override
         public boolean checkBoundaries(IReadDataBlock inparams) {
             return core.checkBoundaries(inparams);
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.implementations.dfm;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.implementations.var.VarDescriptor;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsfData;
+import ec.tstoolkit2.ssf.multivariate.SequentialFilter;
+import ec.tstoolkit2.ssf.multivariate.SequentialFilteringResults;
+import ec.tstoolkit2.ssf.multivariate.SequentialSmoother;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * EM estimation of a dynamic factor model (Banbura-Modugno).
+ *
+ * The E-step is made by the sequential multivariate filter/smoother, which
+ * provides the smoothed states, their covariances and the lag-one
+ * cross-covariances. The M-step uses closed form solutions:
+ * <ul>
+ * <li>The VAR parameters and the covariance of the innovations are the
+ * solution of the regression of f(t) on f(t-1)...f(t-nlags), computed with
+ * the expected cross-products.</li>
+ * <li>The loadings of each indicator are the solution of the regression of
+ * the indicator on its (aggregated) factors. Only the used factors of the
+ * indicator are estimated and its type of measurement (level, cumulation,
+ * cumulated variations) is taken into account. The variance of the
+ * measurement error is the mean of the expected squared residuals. The
+ * indicators are handled in parallel.</li>
+ * </ul>
+ * The initial covariance of the state is the unconditional covariance of
+ * the VAR; it is not estimated separately.
+ *
+ * The algorithm stops when the relative change of the log-likelihood is
+ * smaller than the precision or after the maximum number of iterations.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class DfmEmEngine {
+
+    private static final double MINVAR = 1e-8;
+
+    private int maxIter = 100;
+    private double eps = 1e-6;
+    private boolean parallel = true;
+    private IResultsStorage storage = ResultsStorage.DEFAULT;
+
+    private VarDescriptor vdesc;
+    private MeasurementDescriptor[] mdesc;
+    private int nlx, iter;
+    private double[] ll;
+    private boolean converged;
+
+    /**
+     * Results of the filter used by the smoother and by the likelihood
+     */
+    private static class FilteringResults extends SequentialFilteringResults {
+
+        private final PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+
+        FilteringResults(IResultsStorage storage) {
+            super(storage);
+        }
+
+        @Override
+        public void save(int t, PredictionError err) {
+            super.save(t, err);
+            pe.save(t, err);
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            pe.clear();
+        }
+    }
+
+    public int getMaxIterations() {
+        return maxIter;
+    }
+
+    public void setMaxIterations(int maxIter) {
+        this.maxIter = maxIter;
+    }
+
+    public double getPrecision() {
+        return eps;
+    }
+
+    /**
+     * Relative change of the log-likelihood between two iterations that stops
+     * the algorithm (1e-6 by default)
+     *
+     * @param eps
+     */
+    public void setPrecision(double eps) {
+        this.eps = eps;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Parallel processing of the indicators in the M-step (true by default)
+     *
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public IResultsStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Storage of the results of the E-step (ResultsStorage.DEFAULT by
+     * default). Large models can use an off-heap storage (see
+     * OffHeapStorage). The storage must keep the complete covariance
+     * matrices (not ResultsStorage.VARIANCES)
+     *
+     * @param storage
+     */
+    public void setStorage(IResultsStorage storage) {
+        if (!storage.isCompleteSymmetricMatrices()) {
+            throw new IllegalArgumentException("The E-step needs the complete covariance matrices");
+        }
+        this.storage = storage;
+    }
+
+    /**
+     * Estimates the model, starting from the given descriptors (which are not
+     * modified)
+     *
+     * @param vdesc
+     * @param mdesc
+     * @param data
+     * @return False if the filtering/smoothing failed
+     */
+    public boolean estimate(final VarDescriptor vdesc, final MeasurementDescriptor[] mdesc, final IMultivariateSsfData data) {
+        this.vdesc = copy(vdesc);
+        this.mdesc = mdesc.clone();
+        nlx = vdesc.getLagsCount();
+        for (int i = 0; i < mdesc.length; ++i) {
+            nlx = Math.max(nlx, mdesc[i].getType().getLength());
+        }
+        ll = new double[maxIter + 1];
+        converged = false;
+        iter = 0;
+        // the results, the filter and the smoother are re-used by the
+        // successive iterations (the dimensions of the model don't change)
+        int n = data.getCount();
+        FilteringResults fresults = new FilteringResults(storage);
+        DefaultSmoothingResults sresults = DefaultSmoothingResults.full(storage, true);
+        SequentialFilter filter = new SequentialFilter();
+        SequentialSmoother smoother = new SequentialSmoother();
+        smoother.setCalcCrossCovariances(true);
+        while (true) {
+            SsfDfm ssf = SsfDfm.from(this.vdesc, this.mdesc, nlx);
+            int dim = ssf.getStateDim();
+            if (iter == 0) {
+                fresults.prepare(ssf, 0, n);
+                sresults.prepare(dim, 0, n);
+            } else {
+                fresults.pe.clear();
+            }
+            if (!filter.process(ssf, data, fresults)) {
+                return false;
+            }
+            ll[iter] = fresults.pe.likelihood().getLogLikelihood();
+            if (iter > 0) {
+                double prev = ll[iter - 1], cur = ll[iter];
+                if (Math.abs(cur - prev) <= eps * (Math.abs(cur) + Math.abs(prev)) / 2) {
+                    converged = true;
+                }
+            }
+            if (converged || iter == maxIter) {
+                return true;
+            }
+            if (!smoother.process(ssf, data, filter.getStartPosition(), n, fresults, sresults)) {
+                return false;
+            }
+            mvar(sresults, n);
+            mloadings(sresults, data);
+            ++iter;
+        }
+    }
+
+    /**
+     * M-step for the VAR parameters
+     *
+     * @param srslts
+     * @param n
+     */
+    private void mvar(DefaultSmoothingResults srslts, int n) {
+        int neq = vdesc.getEquationsCount(), nl = vdesc.getLagsCount(), nz = neq * nl;
+        // x(t) = f(t), z(t-1) = f(t-1)...f(t-nl)
+        int[] ix = new int[neq], iz = new int[nz];
+        for (int j = 0, k = 0; j < neq; ++j) {
+            ix[j] = j * nlx;
+            for (int l = 0; l < nl; ++l) {
+                iz[k++] = j * nlx + l;
+            }
+        }
+        Matrix sxx = Matrix.square(neq), sxz = new Matrix(neq, nz), szz = Matrix.square(nz);
+        SubMatrix P1 = srslts.P(0);
+        for (int t = 1; t < n; ++t) {
+            DataBlock a0 = srslts.a(t - 1), a1 = srslts.a(t);
+            // the covariances can be copies (compact storages): read once
+            SubMatrix P0 = P1;
+            P1 = srslts.P(t);
+            // C(t-1) = cov(a(t-1), a(t))
+            SubMatrix C = srslts.crossCovariance(t - 1);
+            for (int r = 0; r < neq; ++r) {
+                double xr = a1.get(ix[r]);
+                for (int c = 0; c < neq; ++c) {
+                    sxx.set(r, c, sxx.get(r, c) + xr * a1.get(ix[c]) + P1.get(ix[r], ix[c]));
+                }
+                for (int c = 0; c < nz; ++c) {
+                    sxz.set(r, c, sxz.get(r, c) + xr * a0.get(iz[c]) + C.get(iz[c], ix[r]));
+                }
+            }
+            for (int r = 0; r < nz; ++r) {
+                double zr = a0.get(iz[r]);
+                for (int c = 0; c < nz; ++c) {
+                    szz.set(r, c, szz.get(r, c) + zr * a0.get(iz[c]) + P0.get(iz[r], iz[c]));
+                }
+            }
+        }
+        // A = sxz * szz^-1 ; Q = (sxx - A sxz')/(n-1)
+        SymmetricMatrix.lcholesky(szz, State.ZERO);
+        Matrix A = new Matrix(neq, nz);
+        for (int r = 0; r < neq; ++r) {
+            DataBlock row = A.row(r);
+            row.copy(sxz.row(r));
+            LowerTriangularMatrix.rsolve(szz, row, State.ZERO);
+            LowerTriangularMatrix.lsolve(szz, row);
+        }
+        Matrix Q = Matrix.square(neq);
+        for (int r = 0; r < neq; ++r) {
+            for (int c = 0; c <= r; ++c) {
+                double q = (sxx.get(r, c) - A.row(r).dot(sxz.row(c))) / (n - 1);
+                Q.set(r, c, q);
+                Q.set(c, r, q);
+            }
+        }
+        VarDescriptor nvdesc = new VarDescriptor(neq, nl);
+        nvdesc.getVarMatrix().subMatrix().copy(A.subMatrix());
+        nvdesc.getInnovationsVariance().subMatrix().copy(Q.subMatrix());
+        vdesc = nvdesc;
+    }
+
+    /**
+     * M-step for the loadings and the variances of the measurement errors.
+     * The smoothed moments of the lagged factors are read once per period and
+     * shared by the indicators: the smoothed covariances can be copies of the
+     * stored data (compact storages)
+     *
+     * @param srslts
+     * @param data
+     */
+    private void mloadings(DefaultSmoothingResults srslts, IMultivariateSsfData data) {
+        int nf = vdesc.getEquationsCount(), n = data.getCount();
+        int len = 0;
+        for (int i = 0; i < mdesc.length; ++i) {
+            len = Math.max(len, mdesc[i].getType().getLength());
+        }
+        // positions in the state of the first len lags of each factor
+        int m = nf * len;
+        int[] idx = new int[m];
+        for (int j = 0, k = 0; j < nf; ++j) {
+            for (int l = 0; l < len; ++l) {
+                idx[k++] = j * nlx + l;
+            }
+        }
+        DataBlock[] fa = new DataBlock[n];
+        Matrix[] fP = new Matrix[n];
+        for (int t = 0; t < n; ++t) {
+            if (isMissing(data, t)) {
+                continue;
+            }
+            DataBlock a = srslts.a(t);
+            SubMatrix P = srslts.P(t);
+            DataBlock at = new DataBlock(m);
+            Matrix Pt = Matrix.square(m);
+            for (int r = 0; r < m; ++r) {
+                at.set(r, a.get(idx[r]));
+                for (int c = 0; c <= r; ++c) {
+                    double v = P.get(idx[r], idx[c]);
+                    Pt.set(r, c, v);
+                    Pt.set(c, r, v);
+                }
+            }
+            fa[t] = at;
+            fP[t] = Pt;
+        }
+        final int flen = len;
+        MeasurementDescriptor[] ndesc = new MeasurementDescriptor[mdesc.length];
+        IntStream indicators = IntStream.range(0, mdesc.length);
+        if (parallel) {
+            indicators = indicators.parallel();
+        }
+        indicators.forEach(i -> ndesc[i] = mloadings(i, fa, fP, flen, data));
+        mdesc = ndesc;
+    }
+
+    private boolean isMissing(IMultivariateSsfData data, int t) {
+        for (int v = 0; v < mdesc.length; ++v) {
+            if (!data.isMissing(t, v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param v The indicator
+     * @param fa The smoothed lagged factors (by blocks of flen lags)
+     * @param fP Their covariances
+     * @param flen The number of lags of each factor in fa and fP
+     * @param data
+     * @return
+     */
+    private MeasurementDescriptor mloadings(int v, DataBlock[] fa, Matrix[] fP, int flen, IMultivariateSsfData data) {
+        MeasurementDescriptor desc = mdesc[v];
+        IDfmMeasurement type = desc.getType();
+        int nf = vdesc.getEquationsCount(), len = type.getLength();
+        int[] used = new int[nf];
+        int k = 0;
+        for (int j = 0; j < nf; ++j) {
+            if (desc.isUsed(j)) {
+                used[k++] = j;
+            }
+        }
+        double[] coeff = new double[nf];
+        for (int j = 0; j < nf; ++j) {
+            coeff[j] = desc.getCoefficient(j);
+        }
+        if (k == 0) {
+            return desc;
+        }
+        DataBlock w = new DataBlock(len);
+        type.fill(w);
+        Matrix sgg = Matrix.square(k);
+        double[] syg = new double[k], g = new double[k];
+        double syy = 0;
+        int nobs = 0;
+        for (int t = 0; t < data.getCount(); ++t) {
+            if (data.isMissing(t, v)) {
+                continue;
+            }
+            double y = data.get(t, v);
+            DataBlock a = fa[t];
+            Matrix P = fP[t];
+            for (int r = 0; r < k; ++r) {
+                int start = used[r] * flen;
+                g[r] = w.dot(a.range(start, start + len));
+            }
+            for (int r = 0; r < k; ++r) {
+                int rstart = used[r] * flen;
+                syg[r] += y * g[r];
+                for (int c = 0; c <= r; ++c) {
+                    int cstart = used[c] * flen;
+                    double s = sgg.get(r, c) + g[r] * g[c] + quadraticForm(w, P, rstart, cstart);
+                    sgg.set(r, c, s);
+                    sgg.set(c, r, s);
+                }
+            }
+            syy += y * y;
+            ++nobs;
+        }
+        if (nobs == 0) {
+            return desc;
+        }
+        Matrix L = sgg.clone();
+        SymmetricMatrix.lcholesky(L, State.ZERO);
+        DataBlock lambda = new DataBlock(syg);
+        LowerTriangularMatrix.rsolve(L, lambda, State.ZERO);
+        LowerTriangularMatrix.lsolve(L, lambda);
+        // E(y - g lambda)^2 = syy - 2 lambda'syg + lambda' sgg lambda
+        double ssq = syy - 2 * lambda.dot(new DataBlock(syg));
+        for (int r = 0; r < k; ++r) {
+            ssq += lambda.get(r) * lambda.dot(sgg.row(r));
+            coeff[used[r]] = lambda.get(r);
+        }
+        return new MeasurementDescriptor(type, coeff, Math.max(ssq / nobs, MINVAR));
+    }
+
+    /**
+     *
+     * @param w
+     * @param M
+     * @param r0
+     * @param c0
+     * @return w*M(r0..., c0...)*w'
+     */
+    private static double quadraticForm(DataBlock w, Matrix M, int r0, int c0) {
+        double s = 0;
+        int n = w.getLength();
+        for (int r = 0; r < n; ++r) {
+            double wr = w.get(r);
+            if (wr != 0) {
+                for (int c = 0; c < n; ++c) {
+                    s += wr * w.get(c) * M.get(r0 + r, c0 + c);
+                }
+            }
+        }
+        return s;
+    }
+
+    private static VarDescriptor copy(VarDescriptor desc) {
+        VarDescriptor ndesc = new VarDescriptor(desc.getEquationsCount(), desc.getLagsCount());
+        ndesc.getVarMatrix().subMatrix().copy(desc.getVarMatrix().subMatrix());
+        ndesc.getInnovationsVariance().subMatrix().copy(desc.getInnovationsVariance().subMatrix());
+        return ndesc;
+    }
+
+    /**
+     *
+     * @return The estimated VAR
+     */
+    public VarDescriptor getVarDescriptor() {
+        return vdesc;
+    }
+
+    /**
+     *
+     * @return The estimated measurements
+     */
+    public MeasurementDescriptor[] getMeasurementDescriptors() {
+        return mdesc;
+    }
+
+    /**
+     *
+     * @return The model corresponding to the estimated parameters
+     */
+    public SsfDfm getModel() {
+        return vdesc == null ? null : SsfDfm.from(vdesc, mdesc, nlx);
+    }
+
+    /**
+     *
+     * @return The number of M-steps
+     */
+    public int getIterationsCount() {
+        return iter;
+    }
+
+    public boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     *
+     * @return The log-likelihood of the estimated model
+     */
+    public double getLogLikelihood() {
+        return ll == null ? Double.NaN : ll[iter];
+    }
+
+    /**
+     *
+     * @return The log-likelihoods of the successive iterations
+     */
+    public double[] getLogLikelihoods() {
+        return ll == null ? null : Arrays.copyOf(ll, iter + 1);
+    }
+}
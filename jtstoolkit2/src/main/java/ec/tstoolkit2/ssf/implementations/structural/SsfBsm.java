@@ -19,12 +19,20 @@
 package ec.tstoolkit2.ssf.implementations.structural;
 
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
+import ec.tstoolkit.data.IDataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
 import ec.tstoolkit.maths.matrices.Householder;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit.maths.realfunctions.ParamValidation;
 import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.dk.ISsfDerivatives;
+import ec.tstoolkit2.ssf.dk.ISsfDerivativesMapping;
+import ec.tstoolkit2.ssf.dk.NumericalSsfDerivatives;
 import ec.tstoolkit2.ssf.implementations.Measurement;
 import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
 import ec.tstoolkit2.ssf.univariate.Ssf;
@@ -39,6 +47,19 @@ public class SsfBsm extends Ssf {
         super(dynamics, measurement);
     }
 
+    /**
+     * Mapping on the free variances of a model (in the order level, slope,
+     * seasonal, cycle, noise). The other characteristics of the model (cycle)
+     * are fixed. The variances are linear in the parameters, so that the
+     * derivatives of the system matrices are exact.
+     *
+     * @param model The template model
+     * @return
+     */
+    public static ISsfDerivativesMapping<SsfBsm> mapping(BasicStructuralModel model) {
+        return new Mapping(model);
+    }
+
     public static int searchPosition(BasicStructuralModel model, Component type) {
         int n = 0;
         if (model.nVar > 0) {
@@ -693,6 +714,21 @@ public class SsfBsm extends Ssf {
 
         @Override
         public void TX(int pos, DataBlock x) {
+            int i0 = headTX(x);
+            if (seasVar >= 0) {
+                DataBlock ex = x.extract(i0, freq - 1, 1);
+                ex.bshift(DataBlock.ShiftOption.NegSum);
+            }
+        }
+
+        /**
+         * Applies the transition to the components that precede the seasonal
+         * component (noise, cycle, trend)
+         *
+         * @param x
+         * @return The position of the seasonal component
+         */
+        private int headTX(DataBlock x) {
             int i0 = 0;
             if (nVar > 0) {
                 x.set(0, 0);
@@ -712,10 +748,86 @@ public class SsfBsm extends Ssf {
                     ++i0;
                 }
             }
-            if (seasVar >= 0) {
-                DataBlock ex = x.extract(i0, freq - 1, 1);
-                ex.bshift(DataBlock.ShiftOption.NegSum);
+            return i0;
+        }
+
+        /**
+         * T is block diagonal: the small block of the noise, cycle and trend
+         * components, followed by the seasonal block (x(i) = x(i+1), x(last)=
+         * -sum(x)). T*V*T' is computed block by block on the lower triangle;
+         * the seasonal block is a shift of the packed columns, completed by
+         * the column sums of V
+         *
+         * @param pos
+         * @param vm
+         */
+        @Override
+        public void TVT(int pos, PackedSymmetricMatrix vm) {
+            int n = vm.getDim();
+            if (seasVar < 0) {
+                ISsfDynamics.super.TVT(pos, vm);
+                return;
+            }
+            int m = freq - 1, h = n - m;
+            double[] d = vm.getStorage();
+            // temporaries in the workspace of vm: head block in the columns
+            // [0, h), other buffers in the column h
+            Matrix ws = vm.workspace();
+            if (h > 0) {
+                // head block
+                SubMatrix vh = ws.subMatrix(0, h, 0, h);
+                for (int j = 0; j < h; ++j) {
+                    for (int i = j; i < h; ++i) {
+                        vh.set(i, j, d[vm.index(i, j)]);
+                        vh.set(j, i, d[vm.index(i, j)]);
+                    }
+                }
+                DataBlockIterator cols = vh.columns();
+                do {
+                    headTX(cols.getData());
+                } while (cols.next());
+                DataBlockIterator rows = vh.rows();
+                do {
+                    headTX(rows.getData());
+                } while (rows.next());
+                for (int j = 0; j < h; ++j) {
+                    for (int i = j; i < h; ++i) {
+                        d[vm.index(i, j)] = vh.get(i, j);
+                    }
+                }
+                // cross block (seasonal rows, head columns)
+                for (int j = 0; j < h; ++j) {
+                    vm.column(j).range(h - j, n - j).bshift(DataBlock.ShiftOption.NegSum);
+                }
+                DataBlock x = ws.column(h).range(0, h);
+                for (int i = h; i < n; ++i) {
+                    for (int j = 0; j < h; ++j) {
+                        x.set(j, d[vm.index(i, j)]);
+                    }
+                    headTX(x);
+                    for (int j = 0; j < h; ++j) {
+                        d[vm.index(i, j)] = x.get(j);
+                    }
+                }
             }
+            // seasonal block
+            DataBlock s = ws.column(h).range(h, n);
+            s.set(0);
+            for (int j = 0; j < m; ++j) {
+                int k = vm.index(h + j, h + j);
+                s.add(j, d[k++]);
+                for (int i = j + 1; i < m; ++i, ++k) {
+                    s.add(j, d[k]);
+                    s.add(i, d[k]);
+                }
+            }
+            double tot = s.sum();
+            for (int j = 0; j < m - 1; ++j) {
+                int dst = vm.index(h + j, h + j), src = vm.index(h + j + 1, h + j + 1);
+                System.arraycopy(d, src, d, dst, m - 1 - j);
+                d[dst + m - 1 - j] = -s.get(j + 1);
+            }
+            d[vm.index(n - 1, n - 1)] = tot;
         }
 
         @Override
@@ -785,5 +897,165 @@ public class SsfBsm extends Ssf {
 
         }
 
+        @Override
+        public void addV(int pos, PackedSymmetricMatrix p) {
+            int i = 0;
+            if (nVar > 0) {
+                p.add(i, i, nVar);
+                ++i;
+            }
+            if (cVar >= 0) {
+                p.add(i, i, cVar);
+                ++i;
+                p.add(i, i, cVar);
+                ++i;
+            }
+            if (lVar >= 0) {
+                if (lVar != 0) {
+                    p.add(i, i, lVar);
+                }
+                ++i;
+            }
+            if (sVar >= 0) {
+                if (sVar != 0) {
+                    p.add(i, i, sVar);
+                }
+                ++i;
+            }
+            if (seasVar > 0) {
+                if (seasModel == SeasonalModel.Dummy) {
+                    p.add(i, i, seasVar);
+                } else {
+                    int m = tsvar.getRowsCount();
+                    for (int c = 0; c < m; ++c) {
+                        for (int r = c; r < m; ++r) {
+                            p.add(i + r, i + c, tsvar.get(r, c));
+                        }
+                    }
+                }
+            }
+        }
+
+    }
+
+    static class Mapping implements ISsfDerivativesMapping<SsfBsm> {
+
+        private static final Component[] ALL = new Component[]{Component.Level, Component.Slope,
+            Component.Seasonal, Component.Cycle, Component.Noise};
+        private static final double EPS = 1e-9;
+
+        private final ModelSpecification spec;
+        private final int freq;
+        private final double cro, cperiod;
+        private final Component[] cmps;
+
+        Mapping(BasicStructuralModel model) {
+            spec = model.getSpecification();
+            freq = model.freq;
+            cro = model.cDump;
+            cperiod = model.cPeriod;
+            int n = 0;
+            for (Component cmp : ALL) {
+                if (model.getVariance(cmp) > 0) {
+                    ++n;
+                }
+            }
+            cmps = new Component[n];
+            n = 0;
+            for (Component cmp : ALL) {
+                if (model.getVariance(cmp) > 0) {
+                    cmps[n++] = cmp;
+                }
+            }
+        }
+
+        @Override
+        public SsfBsm map(IReadDataBlock p) {
+            BasicStructuralModel model = new BasicStructuralModel(spec, freq);
+            if (model.cVar >= 0) {
+                model.setCycle(cro, cperiod);
+            }
+            for (int i = 0; i < cmps.length; ++i) {
+                model.setVariance(cmps[i], p.get(i));
+            }
+            return SsfBsm.create(model);
+        }
+
+        @Override
+        public IReadDataBlock map(SsfBsm t) {
+            BsmDynamics dynamics = (BsmDynamics) t.getDynamics();
+            DataBlock p = new DataBlock(cmps.length);
+            for (int i = 0; i < cmps.length; ++i) {
+                switch (cmps[i]) {
+                    case Level:
+                        p.set(i, dynamics.lVar);
+                        break;
+                    case Slope:
+                        p.set(i, dynamics.sVar);
+                        break;
+                    case Seasonal:
+                        p.set(i, dynamics.seasVar);
+                        break;
+                    case Cycle:
+                        p.set(i, dynamics.cVar);
+                        break;
+                    default:
+                        p.set(i, dynamics.nVar);
+                }
+            }
+            return p;
+        }
+
+        @Override
+        public ISsfDerivatives derivatives(IReadDataBlock p) {
+            return new NumericalSsfDerivatives(this, p);
+        }
+
+        @Override
+        public boolean checkBoundaries(IReadDataBlock inparams) {
+            for (int i = 0; i < inparams.getLength(); ++i) {
+                if (inparams.get(i) <= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public double epsilon(IReadDataBlock inparams, int idx) {
+            return Math.max(EPS, Math.abs(inparams.get(idx)) * 1e-4);
+        }
+
+        @Override
+        public int getDim() {
+            return cmps.length;
+        }
+
+        @Override
+        public double lbound(int idx) {
+            return 0;
+        }
+
+        @Override
+        public double ubound(int idx) {
+            return Double.MAX_VALUE;
+        }
+
+        @Override
+        public ParamValidation validate(IDataBlock ioparams) {
+            ParamValidation rslt = ParamValidation.Valid;
+            for (int i = 0; i < ioparams.getLength(); ++i) {
+                if (ioparams.get(i) <= 0) {
+                    ioparams.set(i, EPS);
+                    rslt = ParamValidation.Changed;
+                }
+            }
+            return rslt;
+        }
+
+        @Override
+        public String getDescription(int idx) {
+            return cmps[idx].name() + " variance";
+        }
     }
 }
@@ -33,8 +33,9 @@ public class VarDynamics implements ISsfDynamics {
     private final VarDescriptor desc;
     private final Matrix V0;
     private final int neq, nl, nlx;
-    private final DataBlock ttmp, xtmp;
     private final StateInfo info;
+    // per thread: the model can be shared by parallel simulations
+    private final ThreadLocal<DataBlock> ttmp, xtmp;
 
     public static VarDynamics from(final VarDescriptor desc) {
         return new VarDynamics(desc, desc.getLagsCount());
@@ -71,10 +72,10 @@ public class VarDynamics implements ISsfDynamics {
         nl = desc.getLagsCount();
         this.nlx = nlx;
         neq = desc.getEquationsCount();
-        ttmp = new DataBlock(neq);
-        xtmp = new DataBlock(neq * nlx);
         V0 = initialCovariance();
         info = StateInfo.Undefined;
+        ttmp = ThreadLocal.withInitial(() -> new DataBlock(neq));
+        xtmp = ThreadLocal.withInitial(() -> new DataBlock(neq * nlx));
     }
 
     private VarDynamics(final VarDescriptor desc, final int nlx, final Matrix V0, final StateInfo info) {
@@ -87,10 +88,10 @@ public class VarDynamics implements ISsfDynamics {
         } else {
             this.V0 = null;
         }
-        ttmp = new DataBlock(neq);
-        xtmp = new DataBlock(neq * nlx);
 
         this.info = info;
+        ttmp = ThreadLocal.withInitial(() -> new DataBlock(neq));
+        xtmp = ThreadLocal.withInitial(() -> new DataBlock(neq * nlx));
     }
 
     public VarDescriptor getDescriptor() {
@@ -215,6 +216,7 @@ public class VarDynamics implements ISsfDynamics {
     @Override
     public void TX(int pos, DataBlock x) {
         Matrix v = desc.getVarMatrix();
+        DataBlock t = ttmp.get();
         // compute first the next item
         for (int i = 0; i < neq; ++i) {
             double r = 0;
@@ -227,29 +229,30 @@ public class VarDynamics implements ISsfDynamics {
                 }
                 r += p.dot(xb);
             }
-            ttmp.set(i, r);
+            t.set(i, r);
         }
         x.fshift(DataBlock.ShiftOption.Zero);
-        x.extract(0, -1, nlx).copy(ttmp);
+        x.extract(0, -1, nlx).copy(t);
     }
 
     @Override
     public void XT(int pos, DataBlock x) {
         Matrix v = desc.getVarMatrix();
+        DataBlock xt = xtmp.get();
         for (int i = 0, k = 0, l = 0; i < neq; ++i) {
             for (int j = 0; j < nl; ++j, ++k) {
                 double r = ((k + 1) % nl != 0) ? x.get(k + 1) : 0;
                 r += v.column(l++).dot(x.extract(0, neq, nl));
-                xtmp.set(k, r);
+                xt.set(k, r);
             }
             for (int j = nl; j < nl - 1; ++j, ++k) {
-                xtmp.set(k, x.get(k + 1));
+                xt.set(k, x.get(k + 1));
             }
             if (nlx > nl) {
-                xtmp.set(k++, 0);
+                xt.set(k++, 0);
             }
         }
-        x.copy(xtmp);
+        x.copy(xt);
     }
 
     @Override
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import java.util.Arrays;
+
+/**
+ * Filter on collapsed observations (Jungbacker-Koopman). At each period, the
+ * observations y are replaced by y* = Q'L^-1 y, where L is the Cholesky
+ * factor of H and the columns of Q are an orthonormal basis of the space
+ * spanned by the columns of L^-1 Z. The collapsed observations follow the
+ * measurement equation y* = Q'L^-1 Z a + u, u ~ N(0, I), and their number
+ * is the rank of Z (at most the state dimension), whatever the number of
+ * series. The part of the observations that is orthogonal to the state
+ * (sum of squares, log-determinant of H) is added separately to the
+ * likelihood, which is identical to the likelihood of the full model.
+ *
+ * The decomposition is computed once by pattern of missing values when the
+ * measurements are time invariant. The model must contain measurement
+ * errors with a positive definite covariance matrix.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class CollapsedFilter {
+
+    private static final double EPS = 1e-9;
+
+    /**
+     * Collapsing transformation for a given pattern of observations
+     */
+    private static class Collapse {
+
+        final int[] obs;
+        final Matrix L;
+        final Matrix Q, Z;
+        final double ldet;
+        final boolean diagonal;
+
+        Collapse(int[] obs, Matrix L, boolean diagonal, Matrix Q, Matrix Z, double ldet) {
+            this.obs = obs;
+            this.L = L;
+            this.diagonal = diagonal;
+            this.Q = Q;
+            this.Z = Z;
+            this.ldet = ldet;
+        }
+
+        int getRank() {
+            return Q == null ? 0 : Q.getRowsCount();
+        }
+
+        boolean isSamePattern(int[] cobs, int n) {
+            if (obs.length != n) {
+                return false;
+            }
+            for (int i = 0; i < n; ++i) {
+                if (obs[i] != cobs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final MultivariateOrdinaryFilter.Initializer initializer;
+    private State state;
+    private ISsfMeasurements measurements;
+    private ISsfDynamics dynamics;
+    private IMultivariateSsfData data;
+    private int pos, end, dim;
+    private boolean fixed;
+    private Collapse full, last;
+    private int[] obs;
+    private double[] y;
+    private DataBlock C;
+
+    /**
+     *
+     */
+    public CollapsedFilter() {
+        initializer = null;
+    }
+
+    /**
+     *
+     * @param initializer
+     */
+    public CollapsedFilter(final MultivariateOrdinaryFilter.Initializer initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public State getState() {
+        return state;
+    }
+
+    private boolean initialize(IMultivariateSsf ssf, IMultivariateSsfData data) {
+        this.data = data;
+        measurements = ssf.getMeasurements();
+        dynamics = ssf.getDynamics();
+        if (!measurements.hasErrors()) {
+            return false;
+        }
+        dim = dynamics.getStateDim();
+        fixed = measurements.isTimeInvariant();
+        full = null;
+        last = null;
+        int nvars = measurements.getMaxCount();
+        obs = new int[nvars];
+        y = new double[nvars];
+        C = new DataBlock(dim);
+        pos = 0;
+        end = data.getCount();
+        state = null;
+        if (initializer == null) {
+            state = State.of(dynamics, StateInfo.Forecast);
+        } else {
+            State initial = new State(dim);
+            pos = initializer.initialize(initial, ssf, data);
+            if (pos >= 0) {
+                state = initial;
+            }
+        }
+        return state != null;
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @param rslts
+     * @return False if the model can't be handled (no measurement errors,
+     * singular covariance of the errors...) or if the initialization failed
+     */
+    public boolean process(final IMultivariateSsf ssf, final IMultivariateSsfData data, final PredictionErrorsDecomposition rslts) {
+        if (!initialize(ssf, data)) {
+            return false;
+        }
+        if (rslts != null) {
+            rslts.open(ssf, data);
+        }
+        pred();
+        while (pos < end) {
+            if (!update(rslts)) {
+                return false;
+            }
+            pred();
+            ++pos;
+        }
+        if (rslts != null) {
+            rslts.close();
+        }
+        return true;
+    }
+
+    /**
+     * Computes a(t+1|t), P(t+1|t) from a(t|t), P(t|t)
+     */
+    private void pred() {
+        if (state.getInfo() != StateInfo.Forecast) {
+            state.setInfo(StateInfo.Forecast);
+            dynamics.TX(pos, state.a());
+            dynamics.TVT(pos, state.P().subMatrix());
+            dynamics.addV(pos, state.P().subMatrix());
+        }
+    }
+
+    private boolean update(PredictionErrorsDecomposition rslts) {
+        state.setInfo(StateInfo.Concurrent);
+        int nobs = 0, nm = measurements.getCount(pos);
+        for (int i = 0; i < nm; ++i) {
+            if (!data.isMissing(pos, i)) {
+                y[nobs] = data.get(pos, i);
+                obs[nobs++] = i;
+            }
+        }
+        if (nobs == 0) {
+            return true;
+        }
+        Collapse collapse = collapse(nobs);
+        if (collapse == null) {
+            return false;
+        }
+        // w = L^-1 y
+        DataBlock w = new DataBlock(y, 0, nobs, 1);
+        if (collapse.diagonal) {
+            for (int i = 0; i < nobs; ++i) {
+                y[i] /= collapse.L.get(i, i);
+            }
+        } else {
+            LowerTriangularMatrix.rsolve(collapse.L, w, State.ZERO);
+        }
+        double ssq = w.ssq();
+        int r = collapse.getRank();
+        DataBlock a = state.a();
+        Matrix P = state.P();
+        for (int k = 0; k < r; ++k) {
+            DataBlock qk = collapse.Q.row(k), zk = collapse.Z.row(k);
+            double yk = qk.dot(w);
+            ssq -= yk * yk;
+            // C = PZ', f = ZPZ' + 1
+            C.product(zk, P.columns());
+            double f = zk.dot(C) + 1;
+            double e = yk - zk.dot(a);
+            a.addAY(e / f, C);
+            P.addXaXt(-1 / f, C);
+            if (rslts != null) {
+                rslts.save(pos, e, f);
+            }
+        }
+        if (rslts != null) {
+            rslts.add(Math.max(ssq, 0), collapse.ldet, nobs - r);
+        }
+        return true;
+    }
+
+    private Collapse collapse(int nobs) {
+        if (fixed) {
+            if (full != null && full.isSamePattern(obs, nobs)) {
+                return full;
+            }
+            if (last != null && last.isSamePattern(obs, nobs)) {
+                return last;
+            }
+        }
+        Collapse collapse = compute(nobs);
+        if (collapse != null && fixed) {
+            if (nobs == measurements.getCount(pos)) {
+                full = collapse;
+            } else {
+                last = collapse;
+            }
+        }
+        return collapse;
+    }
+
+    /**
+     * Computes the collapsing transformation of the current pattern
+     *
+     * @param nobs
+     * @return
+     */
+    private Collapse compute(int nobs) {
+        int nm = measurements.getCount(pos);
+        Matrix H = Matrix.square(nm);
+        measurements.H(pos, H.subMatrix());
+        boolean diagonal = measurements.hasIndependentErrors();
+        Matrix L = Matrix.square(nobs);
+        for (int i = 0; i < nobs; ++i) {
+            L.set(i, i, H.get(obs[i], obs[i]));
+            if (!diagonal) {
+                for (int j = 0; j < i; ++j) {
+                    L.set(i, j, H.get(obs[i], obs[j]));
+                    L.set(j, i, H.get(obs[j], obs[i]));
+                }
+            }
+        }
+        if (diagonal) {
+            L.diagonal().sqrt();
+        } else {
+            SymmetricMatrix.lcholesky(L, State.ZERO);
+        }
+        DataBlock diag = L.diagonal();
+        double ldet = 0;
+        for (int i = 0; i < nobs; ++i) {
+            double l = diag.get(i);
+            if (!(l > State.ZERO)) {
+                return null;
+            }
+            ldet += 2 * Math.log(l);
+        }
+        // W = L^-1 Z
+        Matrix W = new Matrix(nobs, dim);
+        for (int i = 0; i < nobs; ++i) {
+            measurements.Z(pos, obs[i], W.row(i));
+        }
+        if (diagonal) {
+            for (int i = 0; i < nobs; ++i) {
+                W.row(i).mul(1 / diag.get(i));
+            }
+        } else {
+            LowerTriangularMatrix.rsolve(L, W.subMatrix(), State.ZERO);
+        }
+        // orthonormal basis of the columns of W (modified Gram-Schmidt, with
+        // re-orthogonalization)
+        double nmax = 0;
+        for (int j = 0; j < dim; ++j) {
+            nmax = Math.max(nmax, W.column(j).nrm2());
+        }
+        Matrix B = new Matrix(Math.min(nobs, dim), nobs);
+        int r = 0;
+        if (nmax > 0) {
+            for (int j = 0; j < dim && r < B.getRowsCount(); ++j) {
+                DataBlock v = B.row(r);
+                v.copy(W.column(j));
+                for (int pass = 0; pass < 2; ++pass) {
+                    for (int k = 0; k < r; ++k) {
+                        DataBlock qk = B.row(k);
+                        v.addAY(-qk.dot(v), qk);
+                    }
+                }
+                double nv = v.nrm2();
+                if (nv > EPS * nmax) {
+                    v.mul(1 / nv);
+                    ++r;
+                } else {
+                    v.set(0);
+                }
+            }
+        }
+        Matrix Q = null, Z = null;
+        if (r > 0) {
+            Q = new Matrix(r, nobs);
+            Q.subMatrix().copy(B.subMatrix(0, r, 0, nobs));
+            // Z* = Q'W
+            Z = new Matrix(r, dim);
+            for (int k = 0; k < r; ++k) {
+                Z.row(k).product(Q.row(k), W.columns());
+            }
+        }
+        return new Collapse(Arrays.copyOf(obs, nobs), L, diagonal, Q, Z, ldet);
+    }
+}
@@ -22,6 +22,7 @@ import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
@@ -40,6 +41,7 @@ public class MultivariateOrdinaryFilter {
     private final Initializer initializer;
     private State state;
     private TransformedPredictionErrors perrors;
+    private PredictionErrorsWorkspace<TransformedPredictionErrors> workspace;
     private ISsfMeasurements measurements;
     private ISsfDynamics dynamics;
     private IMultivariateSsfData data;
@@ -92,8 +94,7 @@ public class MultivariateOrdinaryFilter {
 
     private void addH(Matrix P) {
         int nm = measurements.getCount(pos);
-        Matrix H = Matrix.square(nm);
-        measurements.H(pos, H.subMatrix());
+        SubMatrix H = workspace.H(measurements, pos);
         for (int i = 0, r = 0; i < nm; ++i) {
             if (!data.isMissing(pos, i)) {
                 for (int j = 0, c = 0; j < i; ++j) {
@@ -136,7 +137,7 @@ public class MultivariateOrdinaryFilter {
         if (nobs == 0) {
             perrors = null;
         } else {
-            perrors = new TransformedPredictionErrors(dynamics.getStateDim(), nobs);
+            perrors = workspace.get(nobs);
             Matrix L = perrors.getCholeskyFactor();
             // K = PZ'(ZPZ'+H)^-1/2
             // computes (ZP)' in K'. Missing values are set to 0 
@@ -200,10 +201,24 @@ public class MultivariateOrdinaryFilter {
         return state;
     }
 
+    /**
+     * The buffers of the prediction errors are re-used when the filter is
+     * applied several times on models of the same size
+     */
+    private void prepareWorkspace() {
+        int dim = dynamics.getStateDim(), nm = measurements.getMaxCount();
+        if (workspace == null || !workspace.isCompatible(dim, nm)) {
+            workspace = PredictionErrorsWorkspace.of(dim, nm);
+        } else {
+            workspace.clear();
+        }
+    }
+
     private boolean initialize(IMultivariateSsf ssf, IMultivariateSsfData data) {
         this.data = data;
         measurements = ssf.getMeasurements();
         dynamics = ssf.getDynamics();
+        prepareWorkspace();
         pos = 0;
         end = data.getCount();
         if (initializer == null) {
@@ -232,7 +247,98 @@ public class MultivariateOrdinaryFilter {
         if (rslts != null) {
             rslts.open(ssf, this.data);
         }
-            pred();
+        pred();
+        iterate(rslts);
+        if (rslts != null) {
+            rslts.close();
+        }
+        return true;
+    }
+
+    /**
+     * Continues the filtering on new observations. The data should contain
+     * the observations already processed, followed by the new ones; only the
+     * new ones (from getPosition() to the end of the data) are handled. The
+     * results are not re-opened, so that their cumulators are preserved. The
+     * filter must have been initialized by a previous call to process or to
+     * restore.
+     *
+     * @param data
+     * @param rslts
+     * @return
+     */
+    public boolean resume(final IMultivariateSsfData data, final IMultivariateFilteringResults rslts) {
+        if (state == null || dynamics == null) {
+            return false;
+        }
+        this.data = data;
+        end = data.getCount();
+        iterate(rslts);
+        if (rslts != null) {
+            rslts.close();
+        }
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a given state. The next call to resume will
+     * process the observations starting from pos.
+     *
+     * @param ssf The model
+     * @param pos The position of the next observation
+     * @param fstate The state a(pos|pos-1), P(pos|pos-1)
+     * @return
+     */
+    public boolean restore(final IMultivariateSsf ssf, final int pos, final State fstate) {
+        measurements = ssf.getMeasurements();
+        dynamics = ssf.getDynamics();
+        int dim = dynamics.getStateDim();
+        if (fstate.getDim() != dim || fstate.getInfo() != StateInfo.Forecast) {
+            return false;
+        }
+        prepareWorkspace();
+        state = new State(dim);
+        state.copy(fstate);
+        this.pos = pos;
+        this.end = pos;
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a snapshot (without diffuse part). The
+     * cumulators of the likelihood must be restored separately in the results
+     * (see PredictionErrorsDecomposition.restore)
+     *
+     * @param ssf The model
+     * @param snapshot
+     * @return
+     */
+    public boolean restore(final IMultivariateSsf ssf, final FilterSnapshot snapshot) {
+        if (snapshot.isDiffuse()) {
+            return false;
+        }
+        return restore(ssf, snapshot.getPosition(), snapshot.getState());
+    }
+
+    /**
+     * Creates a snapshot of the current state of the filter
+     *
+     * @return
+     */
+    public FilterSnapshot snapshot() {
+        return state == null ? null : new FilterSnapshot(pos, state);
+    }
+
+    /**
+     * Position of the next observation that will be processed
+     *
+     * @return
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    private void iterate(final IMultivariateFilteringResults rslts) {
         while (pos < end) {
             if (rslts != null) {
                 rslts.save(pos, state);
@@ -246,12 +352,8 @@ public class MultivariateOrdinaryFilter {
                 rslts.save(pos, state);
             }
             pred();
-             ++pos;
+            ++pos;
         }
-        if (rslts != null) {
-            rslts.close();
-        }
-        return true;
     }
 
 }
@@ -31,6 +31,10 @@ public class MultivariateSsf implements IMultivariateSsf {
         return new MultivariateSsf(ssf.getDynamics(), Measurements.proxy(ssf.getMeasurement()));
     }
 
+    public static MultivariateSsf of(ISsfDynamics dynamics, ISsfMeasurements measurements){
+        return new MultivariateSsf(dynamics, measurements);
+    }
+
     protected final ISsfMeasurements measurements_;
     protected final ISsfDynamics dynamics_;
 
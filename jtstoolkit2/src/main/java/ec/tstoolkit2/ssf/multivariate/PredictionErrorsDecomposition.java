@@ -17,11 +17,12 @@
 package ec.tstoolkit2.ssf.multivariate;
 
 import ec.tstoolkit.data.DataBlock;
-import ec.tstoolkit.data.DataBlockStorage;
 import ec.tstoolkit.design.Development;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.eco.Likelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.utilities.DoubleList;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.IPredictionErrorDecomposition;
 import ec.tstoolkit2.ssf.ResidualsCumulator;
 import ec.tstoolkit2.ssf.State;
@@ -35,12 +36,14 @@ public class PredictionErrorsDecomposition implements
         IPredictionErrorDecomposition, IMultivariateFilteringResults {
 
     private final ResidualsCumulator cumulator=new ResidualsCumulator();
-    private DataBlockStorage res;
-    private boolean bres;
+    private DoubleList res;
+    private final boolean bres;
 
     /**
      *
-     * @param bres
+     * @param bres True if the standardized residuals are stored. They are
+     * only available for the filters that provide univariate or transformed
+     * prediction errors
      */
     public PredictionErrorsDecomposition(final boolean bres) {
         this.bres = bres;
@@ -61,8 +64,13 @@ public class PredictionErrorsDecomposition implements
         return bres;
     }
 
+    /**
+     *
+     * @return The standardized residuals, in the order of the filter, or null
+     * if they are not stored
+     */
     public double[] allResiduals() {
-        return res.storage();
+        return res == null ? null : res.toArray();
     }
 
     /**
@@ -73,6 +81,7 @@ public class PredictionErrorsDecomposition implements
     @Override
     public void open(final IMultivariateSsf ssf, final IMultivariateSsfData data) {
         cumulator.clear();
+        res = bres ? new DoubleList() : null;
     }
 
 //    /**
@@ -108,10 +117,61 @@ public class PredictionErrorsDecomposition implements
             double r = diag.get(i);
             if (r != 0) {
                 cumulator.addStd(err.get(i), r);
+                if (res != null) {
+                    res.add(err.get(i));
+                }
             }
         }
     }
 
+    /**
+     * Adds a univariate prediction error (filters that process the
+     * observations one by one)
+     *
+     * @param t
+     * @param e The prediction error
+     * @param f Its variance
+     */
+    public void save(final int t, final double e, final double f) {
+        cumulator.add(e, f);
+        if (res != null && f > State.ZERO) {
+            res.add(e / Math.sqrt(f));
+        }
+    }
+
+    /**
+     * Adds the aggregated contribution of observations that are not handled
+     * through prediction errors (see CollapsedFilter)
+     *
+     * @param ssq
+     * @param ldet
+     * @param n
+     */
+    public void add(final double ssq, final double ldet, final int n) {
+        cumulator.add(ssq, ldet, n);
+    }
+
+    /**
+     * Copies the cumulators of the likelihood in a snapshot
+     *
+     * @param snapshot
+     */
+    public void saveTo(FilterSnapshot snapshot) {
+        snapshot.setLikelihood(cumulator.getSsqErr(), cumulator.getLogDeterminant(), 0,
+                cumulator.getObsCount(), 0);
+    }
+
+    /**
+     * Re-starts the cumulators of the likelihood from a snapshot. The
+     * decomposition should not be re-opened before resuming the filter
+     *
+     * @param snapshot
+     */
+    public void restore(FilterSnapshot snapshot) {
+        cumulator.restore(snapshot.getSsqErr(), snapshot.getLogDeterminant(),
+                snapshot.getObsCount());
+    }
+
     @Override
     public ILikelihood likelihood() {
         Likelihood ll=new Likelihood();
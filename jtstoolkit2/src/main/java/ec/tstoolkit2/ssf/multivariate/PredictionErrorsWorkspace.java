@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import java.util.function.IntFunction;
+
+/**
+ * Buffers re-used by the multivariate filters from one period to the other.
+ * The prediction errors are allocated once by number of observations (the
+ * first time that number is met) and the covariance matrix of the
+ * measurement errors is a view on a buffer of the maximum size. The objects
+ * provided by the workspace are overwritten at each call: they shouldn't be
+ * kept by the results of the filters (which is the case of the current
+ * implementations, that consume them immediately).
+ *
+ * @author Jean Palate
+ * @param <T> Type of the prediction errors
+ */
+@Development(status = Development.Status.Alpha)
+public class PredictionErrorsWorkspace<T extends TransformedPredictionErrors> {
+
+    private final int dim, maxCount;
+    private final IntFunction<T> factory;
+    private final Object[] errors;
+    private final Matrix H;
+    private int hcount = -1;
+
+    /**
+     *
+     * @param dim The dimension of the state
+     * @param maxCount The maximum number of measurements by period
+     * @param factory Creates the prediction errors for a given number of
+     * observations
+     */
+    public PredictionErrorsWorkspace(final int dim, final int maxCount, final IntFunction<T> factory) {
+        this.dim = dim;
+        this.maxCount = maxCount;
+        this.factory = factory;
+        errors = new Object[maxCount + 1];
+        H = Matrix.square(maxCount);
+    }
+
+    public static PredictionErrorsWorkspace<TransformedPredictionErrors> of(final int dim, final int maxCount) {
+        return new PredictionErrorsWorkspace<>(dim, maxCount, n -> new TransformedPredictionErrors(dim, n));
+    }
+
+    /**
+     * Checks that the workspace can be used for a given model
+     *
+     * @param dim
+     * @param maxCount
+     * @return
+     */
+    public boolean isCompatible(final int dim, final int maxCount) {
+        return this.dim == dim && this.maxCount == maxCount;
+    }
+
+    /**
+     * Gets the prediction errors for a given number of observations. Their
+     * content is undefined.
+     *
+     * @param nobs
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final int nobs) {
+        T pe = (T) errors[nobs];
+        if (pe == null) {
+            pe = factory.apply(nobs);
+            errors[nobs] = pe;
+        }
+        return pe;
+    }
+
+    /**
+     * Gets the covariance matrix of the measurement errors at a given
+     * position. For time invariant measurements, it is only loaded the first
+     * time (until the next call to clear)
+     *
+     * @param measurements
+     * @param pos
+     * @return A view of size getCount(pos) x getCount(pos)
+     */
+    public SubMatrix H(final ISsfMeasurements measurements, final int pos) {
+        int nm = measurements.getCount(pos);
+        SubMatrix h = H.subMatrix(0, nm, 0, nm);
+        if (hcount != nm || !measurements.isTimeInvariant()) {
+            h.set(0);
+            measurements.H(pos, h);
+            hcount = nm;
+        }
+        return h;
+    }
+
+    /**
+     * Invalidates the covariance matrix of the measurement errors (the model
+     * has changed)
+     */
+    public void clear() {
+        hcount = -1;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+
+/**
+ * Multivariate filter based on the univariate treatment of the measurements
+ * (sequential processing): the available observations of a period are
+ * handled one by one by scalar updates and the transition is applied once by
+ * period. Each period may have its own pattern of missing values. Correlated
+ * measurement errors are handled through a L*D*L' decomposition of their
+ * covariance matrix (see SequentialMeasurements).
+ *
+ * The results are saved in univariate results, following the conventions of
+ * M2uAdapter: the prediction error of the variable i at the period t is saved
+ * at the position t*nvars+i (nvars = max number of measurements by period)
+ * and the state a(t|t-1), P(t|t-1) is saved at the position t*nvars. Missing
+ * values are saved as missing prediction errors. When the measurement errors
+ * are correlated, the prediction errors correspond to the transformed
+ * observations. SequentialFilteringResults store the states only once by
+ * period.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class SequentialFilter {
+
+    private final MultivariateOrdinaryFilter.Initializer initializer;
+    private State state;
+    private PredictionError pe;
+    private SequentialMeasurements measurements;
+    private ISsfDynamics dynamics;
+    private IMultivariateSsfData data;
+    private int pos, start, end, nvars;
+
+    /**
+     *
+     */
+    public SequentialFilter() {
+        initializer = null;
+    }
+
+    /**
+     *
+     * @param initializer
+     */
+    public SequentialFilter(final MultivariateOrdinaryFilter.Initializer initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * First period handled by the filter (after the initialization)
+     *
+     * @return
+     */
+    public int getStartPosition() {
+        return start;
+    }
+
+    /**
+     * Number of positions by period in the univariate results
+     *
+     * @return
+     */
+    public int getVarsCount() {
+        return nvars;
+    }
+
+    private boolean initialize(IMultivariateSsf ssf, IMultivariateSsfData data) {
+        this.data = data;
+        ISsfMeasurements m = ssf.getMeasurements();
+        dynamics = ssf.getDynamics();
+        nvars = m.getMaxCount();
+        measurements = new SequentialMeasurements(m, dynamics.getStateDim());
+        if (pe == null || pe.M().getLength() != dynamics.getStateDim()) {
+            pe = new PredictionError(dynamics.getStateDim());
+        }
+        pos = 0;
+        end = data.getCount();
+        state = null;
+        if (initializer == null) {
+            state = State.of(dynamics, StateInfo.Forecast);
+        } else {
+            State initial = new State(dynamics.getStateDim());
+            pos = initializer.initialize(initial, ssf, data);
+            if (pos >= 0) {
+                state = initial;
+            }
+        }
+        start = pos;
+        return state != null;
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @param rslts
+     * @return
+     */
+    public boolean process(final IMultivariateSsf ssf, final IMultivariateSsfData data, final IFilteringResults rslts) {
+        if (!initialize(ssf, data)) {
+            return false;
+        }
+        pred();
+        while (pos < end) {
+            if (rslts != null) {
+                rslts.save(pos * nvars, state);
+            }
+            update(rslts);
+            pred();
+            ++pos;
+        }
+        return true;
+    }
+
+    /**
+     * Computes a(t+1|t), P(t+1|t) from a(t|t), P(t|t)
+     */
+    private void pred() {
+        if (state.getInfo() != StateInfo.Forecast) {
+            state.setInfo(StateInfo.Forecast);
+            dynamics.TX(pos, state.a());
+            dynamics.TVT(pos, state.P().subMatrix());
+            dynamics.addV(pos, state.P().subMatrix());
+        }
+    }
+
+    /**
+     * Sequential processing of the observations of the current period
+     *
+     * @param rslts
+     */
+    private void update(final IFilteringResults rslts) {
+        state.setInfo(StateInfo.Concurrent);
+        int nobs = measurements.load(pos, data);
+        int nm = measurements.getCount();
+        DataBlock a = state.a();
+        Matrix P = state.P();
+        DataBlock C = pe.M();
+        for (int i = 0, k = 0; i < nm; ++i) {
+            if (k < nobs && measurements.var(k) == i) {
+                // C = PZ', f = ZPZ' + h
+                measurements.ZM(k, P, C);
+                double f = measurements.ZX(k, C) + measurements.errorVariance(k);
+                if (f < State.ZERO) {
+                    pe.setMissing();
+                } else {
+                    double e = measurements.y(k) - measurements.ZX(k, a);
+                    pe.set(e);
+                    pe.setVariance(f);
+                    a.addAY(e / f, C);
+                    P.addXaXt(-1 / f, C);
+                }
+                ++k;
+            } else {
+                pe.setMissing();
+            }
+            if (rslts != null) {
+                rslts.save(pos * nvars + i, pe);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.DataBlockResults;
+import ec.tstoolkit2.ssf.DataResults;
+import ec.tstoolkit2.ssf.MatrixResults;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+
+/**
+ * Results of the SequentialFilter. The positions follow the conventions of
+ * the filter (t*nvars+i), but the states a(t|t-1), P(t|t-1) are only stored
+ * once by period; the prediction errors, their variances and M = P*Z' are
+ * stored by observation.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class SequentialFilteringResults implements IFilteringResults {
+
+    private final DataBlockResults A; // state vector, by period
+    private final MatrixResults P;  // P, by period
+    private final DataBlockResults C; // C = P*Z', by observation
+    private final DataResults e, f; // errors, variances of the errors, by observation
+    private int nvars;
+
+    protected SequentialFilteringResults(IResultsStorage storage) {
+        A = new DataBlockResults(storage);
+        C = new DataBlockResults(storage);
+        P = new MatrixResults(storage, true);
+        e = new DataResults(storage);
+        f = new DataResults(storage);
+    }
+
+    public static SequentialFilteringResults full() {
+        return new SequentialFilteringResults(ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Results stored in a given back-end (see ResultsStorage). The storage
+     * must keep the complete covariance matrices, which are used by the
+     * smoother
+     *
+     * @param storage
+     * @return
+     */
+    public static SequentialFilteringResults full(IResultsStorage storage) {
+        if (!storage.isCompleteSymmetricMatrices()) {
+            throw new IllegalArgumentException("The smoother needs the complete covariance matrices of the filter");
+        }
+        return new SequentialFilteringResults(storage);
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param start The first period
+     * @param end The last period (excluded)
+     */
+    public void prepare(IMultivariateSsf ssf, final int start, final int end) {
+        prepare(ssf.getStateDim(), ssf.getMeasurements().getMaxCount(), start, end);
+    }
+
+    /**
+     *
+     * @param dim The dimension of the state
+     * @param nvars The (maximum) number of measurements by period
+     * @param start The first period
+     * @param end The last period (excluded)
+     */
+    public void prepare(final int dim, final int nvars, final int start, final int end) {
+        this.nvars = nvars;
+        A.prepare(dim, start, end);
+        P.prepare(dim, start, end);
+        C.prepare(dim, start * nvars, end * nvars);
+        e.prepare(start * nvars, end * nvars);
+        f.prepare(start * nvars, end * nvars);
+    }
+
+    /**
+     * Checks that the results can be re-used (without new allocations) for a
+     * given model
+     *
+     * @param dim
+     * @param nvars
+     * @return
+     */
+    public boolean isPrepared(final int dim, final int nvars) {
+        return A.isInitialized() && A.getDim() == dim && this.nvars == nvars;
+    }
+
+    public int getVarsCount() {
+        return nvars;
+    }
+
+    @Override
+    public void save(int t, PredictionError pe) {
+        e.save(t, pe.get());
+        f.save(t, pe.getVariance());
+        C.save(t, pe.M());
+    }
+
+    @Override
+    public void save(int t, State state) {
+        if (state.getInfo() != StateInfo.Forecast) {
+            return;
+        }
+        A.save(t / nvars, state.a());
+        P.save(t / nvars, state.P());
+    }
+
+    @Override
+    public double error(int pos) {
+        return e.get(pos);
+    }
+
+    @Override
+    public double errorVariance(int pos) {
+        return f.get(pos);
+    }
+
+    public IReadDataBlock errors() {
+        return e;
+    }
+
+    public IReadDataBlock errorVariances() {
+        return f;
+    }
+
+    /**
+     *
+     * @param pos The position of the first observation of the period
+     * (t*nvars)
+     * @return a(t|t-1)
+     */
+    @Override
+    public DataBlock a(int pos) {
+        return A.datablock(pos / nvars);
+    }
+
+    @Override
+    public DataBlock M(int pos) {
+        return C.datablock(pos);
+    }
+
+    /**
+     *
+     * @param pos The position of the first observation of the period
+     * (t*nvars)
+     * @return P(t|t-1)
+     */
+    @Override
+    public SubMatrix P(int pos) {
+        return P.subMatrix(pos / nvars);
+    }
+
+    @Override
+    public void clear() {
+        e.clear();
+        f.clear();
+        A.clear();
+        C.clear();
+        P.clear();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.State;
+
+/**
+ * Observed measurements of a period, seen as a sequence of univariate
+ * measurements with independent errors. When the errors of the model are
+ * correlated, the observed block of H is decomposed in L*D*L', with L unit
+ * lower triangular, and the observations and the loadings are replaced by
+ * L^-1*y, L^-1*Z. The determinant of L is 1, so that the likelihood is not
+ * modified. The decomposition is re-used as long as the pattern of the
+ * missing values doesn't change (for time invariant errors).
+ *
+ * @author Jean Palate
+ */
+final class SequentialMeasurements {
+
+    private final ISsfMeasurements measurements;
+    private final boolean errors, correlated, fixed;
+    private final int[] obs, fobs;
+    private final double[] y, d;
+    private final Matrix H, L, Z;
+    private int pos, count, nobs, nfobs = -1;
+
+    SequentialMeasurements(final ISsfMeasurements measurements, final int dim) {
+        this.measurements = measurements;
+        int nvars = measurements.getMaxCount();
+        errors = measurements.hasErrors();
+        correlated = errors && !measurements.hasIndependentErrors();
+        fixed = measurements.isTimeInvariant();
+        obs = new int[nvars];
+        fobs = new int[nvars];
+        y = new double[nvars];
+        d = new double[nvars];
+        H = errors ? Matrix.square(nvars) : null;
+        if (correlated) {
+            L = Matrix.square(nvars);
+            Z = new Matrix(nvars, dim);
+        } else {
+            L = null;
+            Z = null;
+        }
+        if (errors && fixed) {
+            measurements.H(0, H.subMatrix());
+        }
+    }
+
+    /**
+     * Loads the observations of a given period
+     *
+     * @param pos The period
+     * @param data
+     * @return The number of observations
+     */
+    int load(final int pos, final IMultivariateSsfData data) {
+        this.pos = pos;
+        nobs = 0;
+        int nm = measurements.getCount(pos);
+        count = nm;
+        for (int i = 0; i < nm; ++i) {
+            if (!data.isMissing(pos, i)) {
+                y[nobs] = data.get(pos, i);
+                obs[nobs++] = i;
+            }
+        }
+        if (nobs == 0) {
+            return 0;
+        }
+        if (errors && !fixed) {
+            SubMatrix h = H.subMatrix(0, nm, 0, nm);
+            h.set(0);
+            measurements.H(pos, h);
+            nfobs = -1;
+        }
+        if (!correlated) {
+            for (int k = 0; k < nobs; ++k) {
+                d[k] = errors ? H.get(obs[k], obs[k]) : 0;
+            }
+        } else {
+            if (!isSamePattern()) {
+                ldl();
+            }
+            transform();
+        }
+        return nobs;
+    }
+
+    private boolean isSamePattern() {
+        if (nfobs != nobs) {
+            return false;
+        }
+        for (int k = 0; k < nobs; ++k) {
+            if (fobs[k] != obs[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * L*D*L' decomposition of the observed block of H, computed from its
+     * Cholesky factor
+     */
+    private void ldl() {
+        Matrix C = Matrix.square(nobs);
+        for (int r = 0; r < nobs; ++r) {
+            for (int c = 0; c <= r; ++c) {
+                double h = H.get(obs[r], obs[c]);
+                C.set(r, c, h);
+                C.set(c, r, h);
+            }
+        }
+        SymmetricMatrix.lcholesky(C, State.ZERO);
+        for (int c = 0; c < nobs; ++c) {
+            double cc = C.get(c, c);
+            d[c] = cc * cc;
+            L.set(c, c, 1);
+            for (int r = c + 1; r < nobs; ++r) {
+                L.set(r, c, cc == 0 ? 0 : C.get(r, c) / cc);
+            }
+        }
+        System.arraycopy(obs, 0, fobs, 0, nobs);
+        nfobs = nobs;
+    }
+
+    /**
+     * Computes L^-1*y and L^-1*Z by forward substitution
+     */
+    private void transform() {
+        for (int k = 0; k < nobs; ++k) {
+            DataBlock zk = Z.row(k);
+            zk.set(0);
+            measurements.Z(pos, obs[k], zk);
+            double yk = y[k];
+            for (int j = 0; j < k; ++j) {
+                double l = L.get(k, j);
+                if (l != 0) {
+                    zk.addAY(-l, Z.row(j));
+                    yk -= l * y[j];
+                }
+            }
+            y[k] = yk;
+        }
+    }
+
+    /**
+     *
+     * @return The number of measurements of the current period (observed or
+     * not)
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @param k
+     * @return The (original) index of the k-th observed variable
+     */
+    int var(final int k) {
+        return obs[k];
+    }
+
+    /**
+     *
+     * @param k
+     * @return The k-th (transformed) observation
+     */
+    double y(final int k) {
+        return y[k];
+    }
+
+    /**
+     *
+     * @param k
+     * @return The variance of the k-th (transformed) error
+     */
+    double errorVariance(final int k) {
+        return d[k];
+    }
+
+    double ZX(final int k, final DataBlock x) {
+        return correlated ? Z.row(k).dot(x) : measurements.ZX(pos, obs[k], x);
+    }
+
+    /**
+     * zm = Z(k)*M
+     *
+     * @param k
+     * @param M
+     * @param zm
+     */
+    void ZM(final int k, final Matrix M, final DataBlock zm) {
+        if (correlated) {
+            zm.product(Z.row(k), M.columns());
+        } else {
+            measurements.ZM(pos, obs[k], M.subMatrix(), zm);
+        }
+    }
+
+    /**
+     * x = x + Z(k)*d
+     *
+     * @param k
+     * @param x
+     * @param d
+     */
+    void XpZd(final int k, final DataBlock x, final double d) {
+        if (correlated) {
+            x.addAY(d, Z.row(k));
+        } else {
+            measurements.XpZd(pos, obs[k], x, d);
+        }
+    }
+
+    /**
+     * V = V + Z'(k)*d*Z(k)
+     *
+     * @param k
+     * @param V
+     * @param d
+     */
+    void VpZdZ(final int k, final Matrix V, final double d) {
+        if (correlated) {
+            V.addXaXt(d, Z.row(k));
+        } else {
+            int v = obs[k];
+            measurements.VpZdZ(pos, v, v, V.subMatrix(), d);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.multivariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
+import ec.tstoolkit.data.DescriptiveStatistics;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
+import ec.tstoolkit2.ssf.univariate.ISmoothingResults;
+
+/**
+ * Smoother corresponding to the SequentialFilter. The backward recursions
+ * are applied on each observation of a period, and the transition once by
+ * period. The smoothed states are saved by period (position t in the
+ * smoothing results). The lag-one cross-covariances Cov(a(t), a(t+1)) may
+ * be computed in the same backward pass (see setCalcCrossCovariances).
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class SequentialSmoother {
+
+    private final MultivariateOrdinaryFilter.Initializer initializer;
+    private State state;
+    private ISsfDynamics dynamics;
+    private SequentialMeasurements measurements;
+    private ISsfMeasurements smeasurements;
+    private IMultivariateSsfData data;
+    private IFilteringResults frslts;
+    private ISmoothingResults srslts;
+
+    private DataBlock R, C;
+    private Matrix N;
+    // workspaces (P(t|t) T', I - N P, products)
+    private Matrix PT, G, X;
+    private boolean calcvar = true, calccross;
+    private int nvars;
+    private IResultsStorage storage = ResultsStorage.DEFAULT;
+
+    /**
+     *
+     */
+    public SequentialSmoother() {
+        initializer = null;
+    }
+
+    /**
+     *
+     * @param initializer
+     */
+    public SequentialSmoother(final MultivariateOrdinaryFilter.Initializer initializer) {
+        this.initializer = initializer;
+    }
+
+    public boolean process(IMultivariateSsf ssf, IMultivariateSsfData data) {
+        DefaultSmoothingResults sresults = calcvar
+                ? DefaultSmoothingResults.full(ResultsStorage.DEFAULT, calccross) : DefaultSmoothingResults.light();
+        sresults.prepare(ssf.getStateDim(), 0, data.getCount());
+        return process(ssf, data, sresults);
+    }
+
+    public boolean process(IMultivariateSsf ssf, IMultivariateSsfData data, ISmoothingResults sresults) {
+        SequentialFilter filter = new SequentialFilter(initializer);
+        SequentialFilteringResults fresults = SequentialFilteringResults.full(storage);
+        fresults.prepare(ssf, 0, data.getCount());
+        if (!filter.process(ssf, data, fresults)) {
+            return false;
+        }
+        return process(ssf, data, filter.getStartPosition(), data.getCount(), fresults, sresults);
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @param start
+     * @param end
+     * @param results Results of the SequentialFilter (typically
+     * SequentialFilteringResults)
+     * @param sresults
+     * @return
+     */
+    public boolean process(IMultivariateSsf ssf, IMultivariateSsfData data, final int start, final int end,
+            IFilteringResults results, ISmoothingResults sresults) {
+        frslts = results;
+        srslts = sresults;
+        initialize(ssf, data);
+        for (int pos = end - 1; pos >= start; --pos) {
+            iterate(pos);
+            if (smooth(pos)) {
+                srslts.save(pos, state);
+            }
+            if (pos > start) {
+                if (calcvar && calccross) {
+                    srslts.saveCrossCovariance(pos - 1, crossCovariance(pos - 1));
+                }
+                pred(pos - 1);
+            }
+        }
+        return true;
+    }
+
+    public ISmoothingResults getResults() {
+        return srslts;
+    }
+
+    public DataBlock getFinalR() {
+        return R;
+    }
+
+    public Matrix getFinalN() {
+        return N;
+    }
+
+    private void initialize(IMultivariateSsf ssf, IMultivariateSsfData data) {
+        this.data = data;
+        dynamics = ssf.getDynamics();
+        int dim = dynamics.getStateDim();
+        nvars = ssf.getMeasurements().getMaxCount();
+        smeasurements = ssf.getMeasurements();
+        measurements = new SequentialMeasurements(smeasurements, dim);
+        // the buffers are re-used when the smoother is applied several times
+        // on models of the same dimension (EM algorithm...)
+        if (state == null || state.getDim() != dim) {
+            state = new State(dim);
+            R = new DataBlock(dim);
+            C = new DataBlock(dim);
+            N = null;
+        } else {
+            R.set(0);
+        }
+        state.setInfo(StateInfo.Smoothed);
+        if (calcvar) {
+            if (N == null) {
+                N = Matrix.square(dim);
+                PT = Matrix.square(dim);
+                G = Matrix.square(dim);
+                X = Matrix.square(dim);
+            } else {
+                N.clear();
+            }
+        }
+    }
+
+    /**
+     * Backward recursions on the observations of a period (in reverse order)
+     *
+     * @param pos
+     */
+    private void iterate(int pos) {
+        int k = measurements.load(pos, data);
+        for (int i = measurements.getCount() - 1; i >= 0 && k > 0; --i) {
+            if (measurements.var(k - 1) != i) {
+                continue;
+            }
+            --k;
+            int cur = pos * nvars + i;
+            double e = frslts.error(cur);
+            if (!DescriptiveStatistics.isFinite(e)) {
+                continue;
+            }
+            double f = frslts.errorVariance(cur);
+            C.copy(frslts.M(cur));
+            if (calcvar) {
+                // N = Z'Z/f + L'NL, L = I - CZ/f
+                XL(k, N.rows(), f);
+                XL(k, N.columns(), f);
+                measurements.VpZdZ(k, N, 1 / f);
+                SymmetricMatrix.reinforceSymmetry(N);
+            }
+            // R = Z'(e - RC)/f + R
+            measurements.XpZd(k, R, (e - R.dot(C)) / f);
+        }
+    }
+
+    private void XL(int k, DataBlockIterator X, double f) {
+        DataBlock x = X.getData();
+        do {
+            measurements.XpZd(k, x, -x.dot(C) / f);
+        } while (X.next());
+    }
+
+    /**
+     * R = T'R, N = T'NT
+     *
+     * @param pos
+     */
+    private void pred(int pos) {
+        dynamics.XT(pos, R);
+        if (calcvar) {
+            DataBlockIterator columns = N.columns();
+            DataBlock col = columns.getData();
+            do {
+                dynamics.XT(pos, col);
+            } while (columns.next());
+            DataBlockIterator rows = N.rows();
+            DataBlock row = rows.getData();
+            do {
+                dynamics.XT(pos, row);
+            } while (rows.next());
+            SymmetricMatrix.reinforceSymmetry(N);
+        }
+    }
+
+    /**
+     * Cov(a(pos), a(pos+1)) = P(pos|pos) T' (I - N(pos+1) P(pos+1|pos)), where
+     * N(pos+1) is the current N (before its transformation by T). P(pos|pos)
+     * is retrieved from the results of the filter.
+     *
+     * @param pos
+     * @return
+     */
+    private SubMatrix crossCovariance(int pos) {
+        int cur = pos * nvars;
+        PT.subMatrix().copy(frslts.P(cur));
+        for (int i = 0; i < smeasurements.getCount(pos); ++i, ++cur) {
+            double e = frslts.error(cur);
+            if (DescriptiveStatistics.isFinite(e)) {
+                PT.addXaXt(-1 / frslts.errorVariance(cur), frslts.M(cur));
+            }
+        }
+        // P(pos|pos) T'
+        dynamics.TM(pos, PT.subMatrix().transpose());
+        G.subMatrix().product(N.subMatrix(), frslts.P((pos + 1) * nvars));
+        G.chs();
+        G.diagonal().add(1);
+        X.subMatrix().product(PT.subMatrix(), G.subMatrix());
+        return X.subMatrix();
+    }
+
+    private boolean smooth(int pos) {
+        int cur = pos * nvars;
+        DataBlock fa = frslts.a(cur);
+        SubMatrix fP = frslts.P(cur);
+        if (fa == null || fP == null) {
+            return false;
+        }
+        // a = a + P*R
+        DataBlock a = state.a();
+        a.copy(fa);
+        a.addProduct(R, fP.columns());
+        if (calcvar) {
+            // P = P-PNP
+            Matrix P = state.P();
+            P.subMatrix().copy(fP);
+            G.subMatrix().product(N.subMatrix(), P.subMatrix());
+            X.subMatrix().product(P.subMatrix(), G.subMatrix());
+            P.sub(X);
+            SymmetricMatrix.reinforceSymmetry(P);
+        }
+        return true;
+    }
+
+    public void setCalcVariances(boolean b) {
+        calcvar = b;
+    }
+
+    public boolean isCalcVariances() {
+        return calcvar;
+    }
+
+    /**
+     * Computes the lag-one cross-covariances of the smoothed states. They are
+     * saved in the smoothing results (see
+     * ISmoothingResults.saveCrossCovariance). Requires the computation of the
+     * variances
+     *
+     * @param b
+     */
+    public void setCalcCrossCovariances(boolean b) {
+        calccross = b;
+    }
+
+    public boolean isCalcCrossCovariances() {
+        return calccross;
+    }
+
+    /**
+     * Sets the storage of the filtering results used by process(ssf, data)
+     * (ResultsStorage.DEFAULT by default). Large factor models can use an
+     * off-heap storage (see OffHeapStorage). The storage must keep the
+     * complete covariance matrices (not ResultsStorage.VARIANCES)
+     *
+     * @param storage
+     */
+    public void setStorage(IResultsStorage storage) {
+        if (!storage.isCompleteSymmetricMatrices()) {
+            throw new IllegalArgumentException("The smoother needs the complete covariance matrices of the filter");
+        }
+        this.storage = storage;
+    }
+
+    public IResultsStorage getStorage() {
+        return storage;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Matrices stored contiguously in a flat array. The layout of a matrix is
+ * defined by the sub-classes: complete (column major), lower triangle of a
+ * symmetric matrix (column major) or diagonal. The matrices retrieved from
+ * the storage are copies
+ *
+ * @author Jean Palate
+ */
+abstract class ArrayMatrices implements IMatrixStorage {
+
+    final Values values;
+    final int nrows, ncols, msize;
+    private int nused;
+
+    ArrayMatrices(Values values, int nrows, int ncols, int msize) {
+        this.values = values;
+        this.nrows = nrows;
+        this.ncols = ncols;
+        this.msize = msize;
+    }
+
+    /**
+     * Position of a cell in a stored matrix
+     *
+     * @param row
+     * @param col
+     * @return -1 if the cell is not stored (it is then considered as 0)
+     */
+    abstract int index(int row, int col);
+
+    /**
+     * Checks that a cell must be saved
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    boolean isSaved(int row, int col) {
+        return index(row, col) >= 0;
+    }
+
+    @Override
+    public int getRowsCount() {
+        return nrows;
+    }
+
+    @Override
+    public int getColumnsCount() {
+        return ncols;
+    }
+
+    @Override
+    public int getCapacity() {
+        return msize == 0 ? 0 : (int) (values.getLength() / msize);
+    }
+
+    @Override
+    public void resize(int capacity) {
+        values.resize((long) capacity * msize);
+    }
+
+    @Override
+    public int getCurrentSize() {
+        return nused;
+    }
+
+    @Override
+    public void save(int pos, SubMatrix m) {
+        long start = (long) pos * msize;
+        for (int c = 0; c < ncols; ++c) {
+            for (int r = 0; r < nrows; ++r) {
+                if (isSaved(r, c)) {
+                    values.set(start + index(r, c), m.get(r, c));
+                }
+            }
+        }
+        if (pos >= nused) {
+            nused = pos + 1;
+        }
+    }
+
+    @Override
+    public SubMatrix matrix(int pos) {
+        Matrix m = new Matrix(nrows, ncols);
+        long start = (long) pos * msize;
+        for (int c = 0; c < ncols; ++c) {
+            for (int r = 0; r < nrows; ++r) {
+                int idx = index(r, c);
+                if (idx >= 0) {
+                    m.set(r, c, values.get(start + idx));
+                }
+            }
+        }
+        return m.subMatrix();
+    }
+
+    @Override
+    public DataBlock item(int row, int col) {
+        DataBlock x = new DataBlock(nused);
+        int idx = index(row, col);
+        if (idx >= 0) {
+            long j = idx;
+            for (int i = 0; i < nused; ++i, j += msize) {
+                x.set(i, values.get(j));
+            }
+        }
+        return x;
+    }
+
+    @Override
+    public void rescale(double factor) {
+        if (factor != 1) {
+            values.mul(factor);
+        }
+    }
+
+    static class Full extends ArrayMatrices {
+
+        Full(Values values, int nrows, int ncols) {
+            super(values, nrows, ncols, nrows * ncols);
+        }
+
+        @Override
+        int index(int row, int col) {
+            return col * nrows + row;
+        }
+    }
+
+    /**
+     * Lower triangle of symmetric matrices
+     */
+    static class Packed extends ArrayMatrices {
+
+        Packed(Values values, int dim) {
+            super(values, dim, dim, dim * (dim + 1) / 2);
+        }
+
+        @Override
+        int index(int row, int col) {
+            if (row < col) {
+                int tmp = row;
+                row = col;
+                col = tmp;
+            }
+            // columns 0...col-1 contain n + (n-1) + ... + (n-col+1) cells
+            return col * nrows - col * (col - 1) / 2 + row - col;
+        }
+
+        @Override
+        boolean isSaved(int row, int col) {
+            return row >= col;
+        }
+    }
+
+    /**
+     * Diagonal of square matrices. The other cells are considered as 0
+     */
+    static class Diagonal extends ArrayMatrices {
+
+        Diagonal(Values values, int dim) {
+            super(values, dim, dim, dim);
+        }
+
+        @Override
+        int index(int row, int col) {
+            return row == col ? row : -1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+
+/**
+ *
+ * @author Jean Palate
+ */
+class ArrayScalars implements IScalarsStorage {
+
+    private final Values values;
+
+    ArrayScalars(Values values) {
+        this.values = values;
+    }
+
+    @Override
+    public int getCapacity() {
+        return (int) Math.min(Integer.MAX_VALUE, values.getLength());
+    }
+
+    @Override
+    public void resize(int capacity) {
+        values.resize(capacity);
+    }
+
+    @Override
+    public double get(int pos) {
+        return values.get(pos);
+    }
+
+    @Override
+    public void set(int pos, double value) {
+        values.set(pos, value);
+    }
+
+    @Override
+    public DataBlock extract(int start, int length) {
+        if (values instanceof Values.Doubles) {
+            return new DataBlock(((Values.Doubles) values).data, start, start + length, 1);
+        }
+        DataBlock x = new DataBlock(length);
+        for (int i = 0; i < length; ++i) {
+            x.set(i, values.get(start + i));
+        }
+        return x;
+    }
+}
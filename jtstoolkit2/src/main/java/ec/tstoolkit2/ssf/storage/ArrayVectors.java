@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+
+/**
+ * Vectors stored contiguously in a flat array. The blocks are copies
+ *
+ * @author Jean Palate
+ */
+class ArrayVectors implements IVectorsStorage {
+
+    private final Values values;
+    private final int dim;
+    private int nused;
+
+    ArrayVectors(Values values, int dim) {
+        this.values = values;
+        this.dim = dim;
+    }
+
+    @Override
+    public int getDim() {
+        return dim;
+    }
+
+    @Override
+    public int getCapacity() {
+        return dim == 0 ? 0 : (int) (values.getLength() / dim);
+    }
+
+    @Override
+    public void resize(int capacity) {
+        values.resize((long) capacity * dim);
+    }
+
+    @Override
+    public int getCurrentSize() {
+        return nused;
+    }
+
+    @Override
+    public void save(int pos, DataBlock x) {
+        long j = (long) pos * dim;
+        for (int i = 0; i < dim; ++i, ++j) {
+            values.set(j, x.get(i));
+        }
+        if (pos >= nused) {
+            nused = pos + 1;
+        }
+    }
+
+    @Override
+    public DataBlock block(int pos) {
+        DataBlock x = new DataBlock(dim);
+        long j = (long) pos * dim;
+        for (int i = 0; i < dim; ++i, ++j) {
+            x.set(i, values.get(j));
+        }
+        return x;
+    }
+
+    @Override
+    public DataBlock item(int idx) {
+        DataBlock x = new DataBlock(nused);
+        long j = idx;
+        for (int i = 0; i < nused; ++i, j += dim) {
+            x.set(i, values.get(j));
+        }
+        return x;
+    }
+
+    @Override
+    public void rescale(double factor) {
+        if (factor != 1) {
+            values.mul(factor);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Flat array of numbers stored outside the heap, in byte buffers (direct or
+ * memory-mapped). Large arrays are split in chunks of 2^27 items, so that
+ * their size is not limited by the capacity of a byte buffer
+ *
+ * @author Jean Palate
+ */
+final class BufferValues extends Values {
+
+    static final int SHIFT = 27, CHUNK = 1 << SHIFT, MASK = CHUNK - 1;
+
+    /**
+     * Provides the buffers of the chunks
+     */
+    static interface Allocator {
+
+        /**
+         * Creates the buffer of a given chunk, which must contain the content
+         * of the previous buffer of the chunk (if any)
+         *
+         * @param chunk Index of the chunk
+         * @param old Previous buffer of the chunk (may be null)
+         * @param nbytes Size of the new buffer
+         * @return
+         * @throws IOException
+         */
+        ByteBuffer allocate(int chunk, ByteBuffer old, int nbytes) throws IOException;
+    }
+
+    static final Allocator DIRECT = (chunk, old, nbytes) -> {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(nbytes);
+        if (old != null) {
+            ByteBuffer src = old.duplicate();
+            src.clear();
+            buffer.put(src);
+            buffer.clear();
+        }
+        return buffer;
+    };
+
+    private final boolean single;
+    private final int isize;
+    private final Allocator allocator;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private long n;
+
+    BufferValues(boolean single, long n, Allocator allocator) {
+        this.single = single;
+        this.isize = single ? 4 : 8;
+        this.allocator = allocator;
+        resize(n);
+    }
+
+    @Override
+    long getLength() {
+        return n;
+    }
+
+    @Override
+    double get(long i) {
+        ByteBuffer buffer = chunks[(int) (i >>> SHIFT)];
+        int pos = (int) (i & MASK) * isize;
+        return single ? buffer.getFloat(pos) : buffer.getDouble(pos);
+    }
+
+    @Override
+    void set(long i, double x) {
+        ByteBuffer buffer = chunks[(int) (i >>> SHIFT)];
+        int pos = (int) (i & MASK) * isize;
+        if (single) {
+            buffer.putFloat(pos, (float) x);
+        } else {
+            buffer.putDouble(pos, x);
+        }
+    }
+
+    @Override
+    void resize(long m) {
+        if (m <= n) {
+            // the buffers are kept
+            n = m;
+            return;
+        }
+        int nchunks = (int) ((m + MASK) >>> SHIFT);
+        ByteBuffer[] nbuffers = Arrays.copyOf(chunks, nchunks);
+        try {
+            for (int i = 0; i < nchunks; ++i) {
+                int nbytes = (int) Math.min(CHUNK, m - ((long) i << SHIFT)) * isize;
+                ByteBuffer cur = nbuffers[i];
+                if (cur == null || cur.capacity() < nbytes) {
+                    nbuffers[i] = allocator.allocate(i, cur, nbytes).order(ByteOrder.nativeOrder());
+                }
+            }
+        } catch (IOException ex) {
+            throw new ec.tstoolkit2.ssf.SsfException("Off-heap storage unavailable", ex);
+        }
+        chunks = nbuffers;
+        n = m;
+    }
+}
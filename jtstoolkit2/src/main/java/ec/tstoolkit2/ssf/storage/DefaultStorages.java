@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit.maths.matrices.MatrixStorage;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Double precision storages of the toolkit. The blocks and the matrices are
+ * views on the storage
+ *
+ * @author Jean Palate
+ */
+class DefaultStorages {
+
+    private DefaultStorages() {
+    }
+
+    static class Vectors implements IVectorsStorage {
+
+        private final DataBlockStorage data;
+
+        Vectors(int dim, int capacity) {
+            data = new DataBlockStorage(dim, capacity);
+        }
+
+        @Override
+        public int getDim() {
+            return data.getDim();
+        }
+
+        @Override
+        public int getCapacity() {
+            return data.getCapacity();
+        }
+
+        @Override
+        public void resize(int capacity) {
+            data.resize(capacity);
+        }
+
+        @Override
+        public int getCurrentSize() {
+            return data.getCurrentSize();
+        }
+
+        @Override
+        public void save(int pos, DataBlock x) {
+            data.save(pos, x);
+        }
+
+        @Override
+        public DataBlock block(int pos) {
+            return data.block(pos);
+        }
+
+        @Override
+        public DataBlock item(int idx) {
+            return data.item(idx);
+        }
+
+        @Override
+        public void rescale(double factor) {
+            data.rescale(factor);
+        }
+    }
+
+    static class Matrices implements IMatrixStorage {
+
+        private final MatrixStorage data;
+        private final int nrows, ncols;
+
+        Matrices(int nrows, int ncols, int capacity) {
+            data = new MatrixStorage(nrows, ncols, capacity);
+            this.nrows = nrows;
+            this.ncols = ncols;
+        }
+
+        @Override
+        public int getRowsCount() {
+            return nrows;
+        }
+
+        @Override
+        public int getColumnsCount() {
+            return ncols;
+        }
+
+        @Override
+        public int getCapacity() {
+            return data.getCapacity();
+        }
+
+        @Override
+        public void resize(int capacity) {
+            data.resize(capacity);
+        }
+
+        @Override
+        public int getCurrentSize() {
+            return data.getCurrentSize();
+        }
+
+        @Override
+        public void save(int pos, SubMatrix m) {
+            data.save(pos, m);
+        }
+
+        @Override
+        public SubMatrix matrix(int pos) {
+            return data.matrix(pos);
+        }
+
+        @Override
+        public DataBlock item(int row, int col) {
+            return data.item(row, col);
+        }
+
+        @Override
+        public void rescale(double factor) {
+            data.rescale(factor);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Storage of matrices of the same dimensions
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public interface IMatrixStorage {
+
+    int getRowsCount();
+
+    int getColumnsCount();
+
+    int getCapacity();
+
+    /**
+     * Changes the capacity of the storage. The existing matrices are kept
+     *
+     * @param capacity
+     */
+    void resize(int capacity);
+
+    /**
+     *
+     * @return The position of the last saved matrix + 1
+     */
+    int getCurrentSize();
+
+    void save(int pos, SubMatrix m);
+
+    /**
+     * Gets the matrix at a given position. The result may be a view on the
+     * storage or a copy
+     *
+     * @param pos
+     * @return
+     */
+    SubMatrix matrix(int pos);
+
+    /**
+     * Gets the successive values of a given cell of the matrices. The result
+     * may be a view on the storage or a copy
+     *
+     * @param row
+     * @param col
+     * @return
+     */
+    DataBlock item(int row, int col);
+
+    void rescale(double factor);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.design.Development;
+
+/**
+ * Factory of the storages used by the results of the filters and of the
+ * smoothers (see DataResults, DataBlockResults and MatrixResults)
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public interface IResultsStorage {
+
+    /**
+     *
+     * @param capacity Initial number of items
+     * @return
+     */
+    IScalarsStorage scalars(int capacity);
+
+    /**
+     *
+     * @param dim Length of the vectors
+     * @param capacity Initial number of vectors
+     * @return
+     */
+    IVectorsStorage vectors(int dim, int capacity);
+
+    /**
+     *
+     * @param nrows
+     * @param ncols
+     * @param capacity Initial number of matrices
+     * @return
+     */
+    IMatrixStorage matrices(int nrows, int ncols, int capacity);
+
+    /**
+     * Storage of symmetric matrices (typically covariance matrices). Some
+     * implementations may store only a part of the matrices
+     *
+     * @param dim
+     * @param capacity Initial number of matrices
+     * @return
+     */
+    default IMatrixStorage symmetricMatrices(int dim, int capacity) {
+        return matrices(dim, dim, capacity);
+    }
+
+    /**
+     * Checks that the symmetric matrices are completely stored (possibly in a
+     * compact way). The smoothers need the complete covariance matrices of
+     * the filter
+     *
+     * @return
+     */
+    default boolean isCompleteSymmetricMatrices() {
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+
+/**
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public interface IScalarsStorage {
+
+    int getCapacity();
+
+    /**
+     * Changes the capacity of the storage. The existing items are kept
+     *
+     * @param capacity
+     */
+    void resize(int capacity);
+
+    double get(int pos);
+
+    void set(int pos, double value);
+
+    /**
+     * Gets a range of items. The result may be a view on the storage or a
+     * copy
+     *
+     * @param start
+     * @param length
+     * @return
+     */
+    DataBlock extract(int start, int length);
+}
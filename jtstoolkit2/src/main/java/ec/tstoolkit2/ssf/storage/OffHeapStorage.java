@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.design.Development;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storages of the results outside the heap, in direct byte buffers or in
+ * memory-mapped temporary files. They don't put pressure on the garbage
+ * collector and, for the memory-mapped files, their size is only limited by
+ * the disk space: the operating system pages the results in and out when
+ * they are used.
+ *
+ * A memory-mapped storage uses a single temporary file: the regions of the
+ * different results are appended to it (when a result grows, its content is
+ * copied in a new region). The file is deleted when the storage is closed;
+ * the results created by a closed storage should not be used anymore (a
+ * memory-mapped region stays valid until it is garbage collected, but new
+ * regions can't be created). Direct buffers don't need to be closed.
+ *
+ * The vectors and the matrices retrieved from the results are copies.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class OffHeapStorage implements IResultsStorage, Closeable {
+
+    /**
+     * Storage in direct byte buffers
+     *
+     * @param single Single precision
+     * @param layout Layout of the symmetric matrices
+     * @return
+     */
+    public static OffHeapStorage direct(boolean single, ResultsStorage.Layout layout) {
+        return new OffHeapStorage(single, layout, null, false);
+    }
+
+    /**
+     * Storage in a memory-mapped temporary file
+     *
+     * @param directory The directory of the temporary file (null for the
+     * default temporary directory)
+     * @param single Single precision
+     * @param layout Layout of the symmetric matrices
+     * @return
+     */
+    public static OffHeapStorage mapped(Path directory, boolean single, ResultsStorage.Layout layout) {
+        return new OffHeapStorage(single, layout, directory, true);
+    }
+
+    private final boolean single, mapped;
+    private final ResultsStorage.Layout layout;
+    private final Path directory;
+    private FileChannel channel;
+    private long size;
+    private boolean closed;
+
+    private OffHeapStorage(boolean single, ResultsStorage.Layout layout, Path directory, boolean mapped) {
+        this.single = single;
+        this.layout = layout;
+        this.directory = directory;
+        this.mapped = mapped;
+    }
+
+    public boolean isSinglePrecision() {
+        return single;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public ResultsStorage.Layout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public boolean isCompleteSymmetricMatrices() {
+        return layout != ResultsStorage.Layout.Diagonal;
+    }
+
+    private Values values(long n) {
+        return new BufferValues(single, n, mapped ? new FileAllocator() : BufferValues.DIRECT);
+    }
+
+    @Override
+    public IScalarsStorage scalars(int capacity) {
+        return new ArrayScalars(values(capacity));
+    }
+
+    @Override
+    public IVectorsStorage vectors(int dim, int capacity) {
+        return new ArrayVectors(values((long) dim * capacity), dim);
+    }
+
+    @Override
+    public IMatrixStorage matrices(int nrows, int ncols, int capacity) {
+        return new ArrayMatrices.Full(values((long) nrows * ncols * capacity), nrows, ncols);
+    }
+
+    @Override
+    public IMatrixStorage symmetricMatrices(int dim, int capacity) {
+        switch (layout) {
+            case Packed:
+                return new ArrayMatrices.Packed(values((long) (dim * (dim + 1) / 2) * capacity), dim);
+            case Diagonal:
+                return new ArrayMatrices.Diagonal(values((long) dim * capacity), dim);
+            default:
+                return matrices(dim, dim, capacity);
+        }
+    }
+
+    /**
+     * Closes the temporary file (which is then deleted)
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (channel != null) {
+            FileChannel cur = channel;
+            channel = null;
+            cur.close();
+        }
+    }
+
+    /**
+     * Maps a new region at the end of the temporary file (created at the
+     * first call)
+     *
+     * @param nbytes
+     * @return
+     * @throws IOException
+     */
+    private synchronized ByteBuffer map(int nbytes) throws IOException {
+        if (closed) {
+            throw new IOException("Storage closed");
+        }
+        if (channel == null) {
+            Path file = directory == null ? Files.createTempFile("ssf", ".bin")
+                    : Files.createTempFile(directory, "ssf", ".bin");
+            channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        long offset = size;
+        size += nbytes;
+        return channel.map(FileChannel.MapMode.READ_WRITE, offset, nbytes);
+    }
+
+    /**
+     * The chunks are regions of the temporary file of the storage
+     */
+    private class FileAllocator implements BufferValues.Allocator {
+
+        @Override
+        public ByteBuffer allocate(int chunk, ByteBuffer old, int nbytes) throws IOException {
+            ByteBuffer buffer = map(nbytes);
+            if (old != null) {
+                ByteBuffer src = old.duplicate();
+                src.clear();
+                buffer.put(src);
+                buffer.clear();
+            }
+            return buffer;
+        }
+    }
+}
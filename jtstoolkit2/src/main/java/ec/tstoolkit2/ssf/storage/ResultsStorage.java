@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import ec.tstoolkit.design.Development;
+
+/**
+ * In-memory storages of the results. The numbers can be stored in double
+ * precision (default) or in single precision, which halves the memory. The
+ * symmetric matrices (covariances) can be stored completely (default), by
+ * their lower triangle or by their diagonal. The diagonal layout is
+ * sufficient when only the variances of the components are needed (for
+ * instance for confidence intervals); it should not be used for filtering
+ * results that will be smoothed.
+ *
+ * Except for the default storage, the vectors and the matrices retrieved
+ * from the results are copies.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class ResultsStorage implements IResultsStorage {
+
+    public static enum Layout {
+
+        /**
+         * Complete matrices
+         */
+        Full,
+        /**
+         * Lower triangle of the symmetric matrices
+         */
+        Packed,
+        /**
+         * Diagonal of the symmetric matrices
+         */
+        Diagonal
+    }
+
+    /**
+     * Double precision, complete matrices
+     */
+    public static final ResultsStorage DEFAULT = new ResultsStorage(false, Layout.Full);
+    /**
+     * Single precision, lower triangle of the symmetric matrices
+     */
+    public static final ResultsStorage COMPACT = new ResultsStorage(true, Layout.Packed);
+    /**
+     * Single precision, diagonal of the symmetric matrices
+     */
+    public static final ResultsStorage VARIANCES = new ResultsStorage(true, Layout.Diagonal);
+
+    public static ResultsStorage of(boolean single, Layout layout) {
+        return new ResultsStorage(single, layout);
+    }
+
+    private final boolean single;
+    private final Layout layout;
+
+    private ResultsStorage(boolean single, Layout layout) {
+        this.single = single;
+        this.layout = layout;
+    }
+
+    public boolean isSinglePrecision() {
+        return single;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public boolean isCompleteSymmetricMatrices() {
+        return layout != Layout.Diagonal;
+    }
+
+    @Override
+    public IScalarsStorage scalars(int capacity) {
+        return new ArrayScalars(Values.of(single, capacity));
+    }
+
+    @Override
+    public IVectorsStorage vectors(int dim, int capacity) {
+        if (single) {
+            return new ArrayVectors(Values.of(true, (long) dim * capacity), dim);
+        } else {
+            return new DefaultStorages.Vectors(dim, capacity);
+        }
+    }
+
+    @Override
+    public IMatrixStorage matrices(int nrows, int ncols, int capacity) {
+        if (single) {
+            return new ArrayMatrices.Full(Values.of(true, (long) nrows * ncols * capacity), nrows, ncols);
+        } else {
+            return new DefaultStorages.Matrices(nrows, ncols, capacity);
+        }
+    }
+
+    @Override
+    public IMatrixStorage symmetricMatrices(int dim, int capacity) {
+        switch (layout) {
+            case Packed:
+                return new ArrayMatrices.Packed(Values.of(single, (long) (dim * (dim + 1) / 2) * capacity), dim);
+            case Diagonal:
+                return new ArrayMatrices.Diagonal(Values.of(single, (long) dim * capacity), dim);
+            default:
+                return matrices(dim, dim, capacity);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.storage;
+
+import java.util.Arrays;
+
+/**
+ * Flat array of numbers, in double or in single precision
+ *
+ * @author Jean Palate
+ */
+abstract class Values {
+
+    static Values of(boolean single, long n) {
+        return single ? new Floats(check(n)) : new Doubles(check(n));
+    }
+
+    static int check(long n) {
+        if (n > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Storage too large for the heap: " + n);
+        }
+        return (int) n;
+    }
+
+    abstract long getLength();
+
+    abstract double get(long i);
+
+    abstract void set(long i, double x);
+
+    /**
+     * Changes the length of the array. The existing values are kept
+     *
+     * @param n
+     */
+    abstract void resize(long n);
+
+    void mul(double factor) {
+        for (long i = 0; i < getLength(); ++i) {
+            set(i, get(i) * factor);
+        }
+    }
+
+    static final class Doubles extends Values {
+
+        double[] data;
+
+        Doubles(int n) {
+            data = new double[n];
+        }
+
+        @Override
+        long getLength() {
+            return data.length;
+        }
+
+        @Override
+        double get(long i) {
+            return data[(int) i];
+        }
+
+        @Override
+        void set(long i, double x) {
+            data[(int) i] = x;
+        }
+
+        @Override
+        void resize(long n) {
+            data = Arrays.copyOf(data, check(n));
+        }
+    }
+
+    static final class Floats extends Values {
+
+        float[] data;
+
+        Floats(int n) {
+            data = new float[n];
+        }
+
+        @Override
+        long getLength() {
+            return data.length;
+        }
+
+        @Override
+        double get(long i) {
+            return data[(int) i];
+        }
+
+        @Override
+        void set(long i, double x) {
+            data[(int) i] = (float) x;
+        }
+
+        @Override
+        void resize(long n) {
+            data = Arrays.copyOf(data, check(n));
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.univariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.MatrixStorage;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.DataResults;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filtering results with a bounded memory footprint, designed for the
+ * smoothing of very long series. Only the prediction errors and their
+ * variances are stored for each period. The predicted states, a(t|t-1) and
+ * P(t|t-1), are stored at regularly spaced checkpoints. The other quantities
+ * (a, P, M) of a given period are obtained by re-filtering the segment that
+ * contains it, starting from the previous checkpoint. The smoothers access
+ * the periods backward, so that each segment is re-computed once: the memory
+ * is O((n/k + k)·m²) instead of O(n·m²), for the cost of an additional
+ * forward pass (k is the length of the segments, m the dimension of the
+ * state).
+ *
+ * The results must be prepared with the model and the data before the
+ * filtering. The model and the data should not be modified until the results
+ * have been used.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public class CheckpointedFilteringResults implements IFilteringResults {
+
+    /**
+     * Segments of length ceil(sqrt(n)), which minimizes the memory footprint
+     */
+    public static final int AUTO = -1;
+
+    private final int interval;
+    private final DataResults e = new DataResults(), f = new DataResults();
+    private final List<State> checkpoints = new ArrayList<>();
+    private final Segment segment = new Segment();
+    private final OrdinaryFilter filter = new OrdinaryFilter();
+    private ISsf ssf;
+    private ISsfData data;
+    private int first, end, len, nloads;
+
+    /**
+     *
+     * @param interval The number of periods between two checkpoints (the
+     * length of the segments). AUTO (or any non positive value) for segments
+     * of length ceil(sqrt(n))
+     */
+    public CheckpointedFilteringResults(final int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Prepares the results
+     *
+     * @param ssf The model
+     * @param data The data. They are re-used to re-compute the segments
+     * @param start The first position of the filtering
+     * @param end The last position (excluded) of the filtering
+     */
+    public void prepare(final ISsf ssf, final ISsfData data, final int start, final int end) {
+        clear();
+        this.ssf = ssf;
+        this.data = data;
+        this.end = end;
+        len = interval > 0 ? interval : Math.max(1, (int) Math.ceil(Math.sqrt(end - start)));
+        e.prepare(start, end);
+        f.prepare(start, end);
+        first = start;
+    }
+
+    /**
+     * Sets the position of the first checkpoint. The states before that
+     * position are not handled by the checkpoints
+     *
+     * @param pos
+     */
+    protected void startCheckpoints(final int pos) {
+        first = pos;
+        checkpoints.clear();
+    }
+
+    protected int getCheckpointsStart() {
+        return first;
+    }
+
+    /**
+     *
+     * @return The length of the segments
+     */
+    public int getInterval() {
+        return len;
+    }
+
+    public int getCheckpointsCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     *
+     * @return The number of segments re-computed since the preparation
+     */
+    public int getRecomputationsCount() {
+        return nloads;
+    }
+
+    @Override
+    public void save(final int t, final PredictionError pe) {
+        e.save(t, pe.get());
+        f.save(t, pe.getVariance());
+    }
+
+    @Override
+    public void save(final int t, final State state) {
+        if (state.getInfo() != StateInfo.Forecast || t < first) {
+            return;
+        }
+        int k = t - first;
+        if (k % len == 0 && k / len == checkpoints.size()) {
+            State cp = new State(state.getDim());
+            cp.copy(state);
+            checkpoints.add(cp);
+        }
+    }
+
+    @Override
+    public double error(final int pos) {
+        return e.get(pos);
+    }
+
+    @Override
+    public double errorVariance(final int pos) {
+        return f.get(pos);
+    }
+
+    @Override
+    public DataBlock a(final int pos) {
+        return load(pos) ? segment.A.block(pos - segment.start) : null;
+    }
+
+    @Override
+    public DataBlock M(final int pos) {
+        return load(pos) ? segment.C.block(pos - segment.start) : null;
+    }
+
+    @Override
+    public SubMatrix P(final int pos) {
+        return load(pos) ? segment.P.matrix(pos - segment.start) : null;
+    }
+
+    @Override
+    public void clear() {
+        e.clear();
+        f.clear();
+        checkpoints.clear();
+        segment.clear();
+        nloads = 0;
+    }
+
+    /**
+     * Re-computes (if need be) the segment that contains a given position
+     *
+     * @param pos
+     * @return
+     */
+    private boolean load(final int pos) {
+        if (pos < first || pos >= end) {
+            return false;
+        }
+        if (segment.contains(pos)) {
+            return true;
+        }
+        int k = (pos - first) / len;
+        if (k >= checkpoints.size()) {
+            return false;
+        }
+        int start = first + k * len, stop = Math.min(end, start + len);
+        State cp = checkpoints.get(k);
+        segment.prepare(cp.getDim(), start, stop);
+        if (!filter.restore(ssf, start, cp) || !filter.resume(new Window(data, stop), segment)) {
+            segment.clear();
+            return false;
+        }
+        ++nloads;
+        return true;
+    }
+
+    /**
+     * Complete results of the current segment
+     */
+    private static class Segment implements IFilteringResults {
+
+        private DataBlockStorage A, C;
+        private MatrixStorage P;
+        private int start, end;
+
+        void prepare(int dim, int start, int end) {
+            int n = end - start;
+            if (A == null || A.getDim() != dim || A.getCapacity() < n) {
+                A = new DataBlockStorage(dim, n);
+                C = new DataBlockStorage(dim, n);
+                P = new MatrixStorage(dim, n);
+            }
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(int pos) {
+            return A != null && pos >= start && pos < end;
+        }
+
+        @Override
+        public void save(int t, PredictionError pe) {
+            C.save(t - start, pe.M());
+        }
+
+        @Override
+        public void save(int t, State state) {
+            if (state.getInfo() != StateInfo.Forecast) {
+                return;
+            }
+            A.save(t - start, state.a());
+            P.save(t - start, state.unpackedP());
+        }
+
+        @Override
+        public void clear() {
+            A = null;
+            C = null;
+            P = null;
+            start = 0;
+            end = 0;
+        }
+    }
+
+    /**
+     * Data truncated at a given position
+     */
+    private static class Window implements ISsfData {
+
+        private final ISsfData data;
+        private final int end;
+
+        Window(ISsfData data, int end) {
+            this.data = data;
+            this.end = end;
+        }
+
+        @Override
+        public double get(int pos) {
+            return data.get(pos);
+        }
+
+        @Override
+        public boolean isMissing(int pos) {
+            return data.isMissing(pos);
+        }
+
+        @Override
+        public boolean hasData() {
+            return data.hasData();
+        }
+
+        @Override
+        public int getLength() {
+            return end;
+        }
+    }
+}
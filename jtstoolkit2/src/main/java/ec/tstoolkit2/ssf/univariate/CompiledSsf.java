@@ -0,0 +1,706 @@
+/*
+ * Copyright 2015 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit2.ssf.univariate;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
+import ec.tstoolkit2.ssf.StateInfo;
+
+/**
+ * Compiled representation of a time invariant model. The system matrices are
+ * materialized once: T (dense, sparse or companion form), V (with its
+ * factor S) and Z (sparse). The forward and backward operations (TX, XT,
+ * addV, ZX, XpZd...) are then computed by specialized loops on the
+ * underlying arrays, without calls to the original model.
+ *
+ * The filters and the smoothers use automatically the compiled form of the
+ * time invariant models (see of). They keep it in a Cache, so that a model is
+ * compiled only once when it is processed several times by the same filter.
+ * A compiled model contains temporary buffers: it is not thread-safe and
+ * should be used by one filter at a time. The initialization and TVT on
+ * complete matrices (for companion forms, whose specific implementations are
+ * usually cheaper) are delegated to the original model. TVT on packed
+ * matrices is computed on the lower triangle for all the structures.
+ *
+ * @author Jean Palate
+ */
+@Development(status = Development.Status.Alpha)
+public final class CompiledSsf implements ISsf {
+
+    /**
+     * Compiles a model when it is time invariant
+     *
+     * @param ssf
+     * @return The compiled model or the original one if it is not time
+     * invariant (or already compiled)
+     */
+    public static ISsf of(ISsf ssf) {
+        if (ssf instanceof CompiledSsf || !ssf.isTimeInvariant() || ssf.getStateDim() == 0) {
+            return ssf;
+        }
+        return new CompiledSsf(ssf);
+    }
+
+    /**
+     * Compiled form of the last model that has been used. A cache should be
+     * used by one thread at a time
+     */
+    public static final class Cache {
+
+        private ISsf source, compiled;
+
+        /**
+         * Compiled form of a model (see CompiledSsf.of). The model is only
+         * compiled if it is not the model of the previous call
+         *
+         * @param ssf
+         * @return
+         */
+        public ISsf of(ISsf ssf) {
+            if (ssf != source) {
+                compiled = CompiledSsf.of(ssf);
+                source = ssf;
+            }
+            return compiled;
+        }
+
+        public void clear() {
+            source = null;
+            compiled = null;
+        }
+    }
+
+    private final ISsf ssf;
+    private final Dynamics dynamics;
+    private final Measurement measurement;
+
+    private CompiledSsf(ISsf ssf) {
+        this.ssf = ssf;
+        this.dynamics = new Dynamics(ssf.getDynamics());
+        this.measurement = new Measurement(ssf.getMeasurement(), ssf.getStateDim());
+    }
+
+    /**
+     * The original model
+     *
+     * @return
+     */
+    public ISsf getSource() {
+        return ssf;
+    }
+
+    @Override
+    public ISsfMeasurement getMeasurement() {
+        return measurement;
+    }
+
+    @Override
+    public ISsfDynamics getDynamics() {
+        return dynamics;
+    }
+
+    @Override
+    public int getStateDim() {
+        return dynamics.n;
+    }
+
+    @Override
+    public boolean isTimeInvariant() {
+        return true;
+    }
+
+    /**
+     * Compiled time invariant dynamics
+     */
+    public static final class Dynamics implements ISsfDynamics {
+
+        public static enum Structure {
+
+            /**
+             * Dense transition matrix
+             */
+            Dense,
+            /**
+             * Sparse transition matrix (compressed rows)
+             */
+            Sparse,
+            /**
+             * Companion form: x(i) = x(i+1) for i &lt; n-1, x(n-1) = t * x
+             */
+            Shift
+        }
+
+        private final ISsfDynamics dyn;
+        private final int n;
+        private final Structure structure;
+        private final Matrix T, V, S;
+        // dense T (by rows) or last row of T (shift)
+        private final double[] t;
+        // sparse T
+        private final int[] rows, cols;
+        private final double[] vals;
+        // non-zero elements of V
+        private final int[] vr, vc;
+        private final double[] vv;
+        private final double[] tmp;
+        // T*V for the packed TVT, allocated on the first use
+        private double[] work;
+
+        public Dynamics(ISsfDynamics dyn) {
+            this.dyn = dyn;
+            n = dyn.getStateDim();
+            tmp = new double[n];
+            // T is computed through TX, which defines the recursions
+            T = Matrix.square(n);
+            T.diagonal().set(1);
+            dyn.TM(0, T.subMatrix());
+            if (isShift(T)) {
+                structure = Structure.Shift;
+                t = new double[n];
+                for (int c = 0; c < n; ++c) {
+                    t[c] = T.get(n - 1, c);
+                }
+                rows = null;
+                cols = null;
+                vals = null;
+            } else {
+                int nnz = 0;
+                for (int r = 0; r < n; ++r) {
+                    for (int c = 0; c < n; ++c) {
+                        if (T.get(r, c) != 0) {
+                            ++nnz;
+                        }
+                    }
+                }
+                if (4 * nnz <= n * n) {
+                    structure = Structure.Sparse;
+                    t = null;
+                    rows = new int[n + 1];
+                    cols = new int[nnz];
+                    vals = new double[nnz];
+                    for (int r = 0, k = 0; r < n; ++r) {
+                        for (int c = 0; c < n; ++c) {
+                            double x = T.get(r, c);
+                            if (x != 0) {
+                                cols[k] = c;
+                                vals[k++] = x;
+                            }
+                        }
+                        rows[r + 1] = k;
+                    }
+                } else {
+                    structure = Structure.Dense;
+                    t = new double[n * n];
+                    for (int r = 0, k = 0; r < n; ++r) {
+                        for (int c = 0; c < n; ++c) {
+                            t[k++] = T.get(r, c);
+                        }
+                    }
+                    rows = null;
+                    cols = null;
+                    vals = null;
+                }
+            }
+            V = Matrix.square(n);
+            dyn.V(0, V.subMatrix());
+            int nv = 0;
+            for (int c = 0; c < n; ++c) {
+                for (int r = 0; r < n; ++r) {
+                    if (V.get(r, c) != 0) {
+                        ++nv;
+                    }
+                }
+            }
+            vr = new int[nv];
+            vc = new int[nv];
+            vv = new double[nv];
+            for (int c = 0, k = 0; c < n; ++c) {
+                for (int r = 0; r < n; ++r) {
+                    double x = V.get(r, c);
+                    if (x != 0) {
+                        vr[k] = r;
+                        vc[k] = c;
+                        vv[k++] = x;
+                    }
+                }
+            }
+            int ne = dyn.getInnovationsDim();
+            if (ne > 0) {
+                S = new Matrix(n, ne);
+                dyn.S(0, S.subMatrix());
+            } else {
+                S = null;
+            }
+        }
+
+        private static boolean isShift(Matrix T) {
+            int n = T.getRowsCount();
+            if (n < 2) {
+                return false;
+            }
+            for (int r = 0; r < n - 1; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    if (T.get(r, c) != (c == r + 1 ? 1 : 0)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        public Structure getStructure() {
+            return structure;
+        }
+
+        @Override
+        public int getStateDim() {
+            return n;
+        }
+
+        @Override
+        public boolean isTimeInvariant() {
+            return true;
+        }
+
+        @Override
+        public boolean isValid() {
+            return dyn.isValid();
+        }
+
+        @Override
+        public int getInnovationsDim() {
+            return S == null ? 0 : S.getColumnsCount();
+        }
+
+        @Override
+        public void V(int pos, SubMatrix qm) {
+            qm.copy(V.subMatrix());
+        }
+
+        @Override
+        public void S(int pos, SubMatrix cm) {
+            if (S != null) {
+                cm.copy(S.subMatrix());
+            }
+        }
+
+        @Override
+        public boolean hasInnovations(int pos) {
+            return dyn.hasInnovations(pos);
+        }
+
+        @Override
+        public void T(int pos, SubMatrix tr) {
+            tr.copy(T.subMatrix());
+        }
+
+        @Override
+        public boolean isDiffuse() {
+            return dyn.isDiffuse();
+        }
+
+        @Override
+        public int getNonStationaryDim() {
+            return dyn.getNonStationaryDim();
+        }
+
+        @Override
+        public void diffuseConstraints(SubMatrix b) {
+            dyn.diffuseConstraints(b);
+        }
+
+        @Override
+        public boolean a0(DataBlock a0, StateInfo info) {
+            return dyn.a0(a0, info);
+        }
+
+        @Override
+        public boolean Pf0(SubMatrix pf0, StateInfo info) {
+            return dyn.Pf0(pf0, info);
+        }
+
+        @Override
+        public void Pi0(SubMatrix pi0) {
+            dyn.Pi0(pi0);
+        }
+
+        @Override
+        public void TX(int pos, DataBlock x) {
+            double[] d = x.getData();
+            int beg = x.getStartPosition(), inc = x.getIncrement();
+            switch (structure) {
+                case Shift: {
+                    double s = 0;
+                    for (int j = 0, k = beg; j < n; ++j, k += inc) {
+                        s += t[j] * d[k];
+                    }
+                    int k = beg;
+                    for (int j = 1; j < n; ++j, k += inc) {
+                        d[k] = d[k + inc];
+                    }
+                    d[k] = s;
+                    break;
+                }
+                case Sparse: {
+                    for (int j = 0, k = beg; j < n; ++j, k += inc) {
+                        tmp[j] = d[k];
+                    }
+                    for (int r = 0, k = beg; r < n; ++r, k += inc) {
+                        double s = 0;
+                        for (int l = rows[r]; l < rows[r + 1]; ++l) {
+                            s += vals[l] * tmp[cols[l]];
+                        }
+                        d[k] = s;
+                    }
+                    break;
+                }
+                default: {
+                    for (int j = 0, k = beg; j < n; ++j, k += inc) {
+                        tmp[j] = d[k];
+                    }
+                    for (int r = 0, k = beg, l = 0; r < n; ++r, k += inc) {
+                        double s = 0;
+                        for (int c = 0; c < n; ++c) {
+                            s += t[l++] * tmp[c];
+                        }
+                        d[k] = s;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void XT(int pos, DataBlock x) {
+            double[] d = x.getData();
+            int beg = x.getStartPosition(), inc = x.getIncrement();
+            switch (structure) {
+                case Shift: {
+                    // y(c) = x(c-1) + x(n-1) * t(c)
+                    int k = beg + (n - 1) * inc;
+                    double last = d[k];
+                    for (int c = n - 1; c > 0; --c, k -= inc) {
+                        d[k] = d[k - inc] + last * t[c];
+                    }
+                    d[beg] = last * t[0];
+                    break;
+                }
+                case Sparse: {
+                    for (int j = 0, k = beg; j < n; ++j, k += inc) {
+                        tmp[j] = d[k];
+                        d[k] = 0;
+                    }
+                    for (int r = 0; r < n; ++r) {
+                        double xr = tmp[r];
+                        if (xr != 0) {
+                            for (int l = rows[r]; l < rows[r + 1]; ++l) {
+                                d[beg + cols[l] * inc] += vals[l] * xr;
+                            }
+                        }
+                    }
+                    break;
+                }
+                default: {
+                    for (int j = 0, k = beg; j < n; ++j, k += inc) {
+                        tmp[j] = d[k];
+                    }
+                    for (int c = 0, k = beg; c < n; ++c, k += inc) {
+                        double s = 0;
+                        for (int r = 0, l = c; r < n; ++r, l += n) {
+                            s += tmp[r] * t[l];
+                        }
+                        d[k] = s;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void XS(int pos, DataBlock x, DataBlock xs) {
+            if (S != null) {
+                xs.product(x, S.columns());
+            }
+        }
+
+        @Override
+        public void addSU(int pos, DataBlock x, DataBlock u) {
+            if (S != null) {
+                x.addProduct(S.rows(), u);
+            }
+        }
+
+        @Override
+        public void addV(int pos, SubMatrix p) {
+            for (int k = 0; k < vv.length; ++k) {
+                p.add(vr[k], vc[k], vv[k]);
+            }
+        }
+
+        @Override
+        public void TVT(int pos, SubMatrix vm) {
+            if (structure == Structure.Shift) {
+                dyn.TVT(pos, vm);
+            } else {
+                TM(pos, vm);
+                TM(pos, vm.transpose());
+            }
+        }
+
+        /**
+         * Lower triangle of T*V*T', computed on the packed storage. For the
+         * companion forms, it is a shift of V completed by the last row
+         * (O(n^2)). Otherwise, W = T*V is computed by columns in a workspace,
+         * and the lower triangle of W*T' is written back in V
+         *
+         * @param pos
+         * @param vm
+         */
+        @Override
+        public void TVT(int pos, PackedSymmetricMatrix vm) {
+            double[] p = vm.getStorage();
+            if (structure == Structure.Shift) {
+                // u = t*V, last row of T*V
+                for (int c = 0; c < n; ++c) {
+                    double s = 0;
+                    for (int k = 0; k < n; ++k) {
+                        s += t[k] * vm.get(k, c);
+                    }
+                    tmp[c] = s;
+                }
+                // (TVT')(i, j) = V(i+1, j+1) for i, j < n-1. The source
+                // elements are always after the target in the storage
+                for (int j = 0; j < n - 1; ++j) {
+                    int cj = vm.index(j, j), cnext = vm.index(j + 1, j + 1);
+                    for (int i = 0; i < n - 1 - j; ++i) {
+                        p[cj + i] = p[cnext + i];
+                    }
+                    p[cj + n - 1 - j] = tmp[j + 1];
+                }
+                double s = 0;
+                for (int c = 0; c < n; ++c) {
+                    s += tmp[c] * t[c];
+                }
+                p[p.length - 1] = s;
+                return;
+            }
+            if (work == null) {
+                work = new double[n * n];
+            }
+            // W = T*V, by rows
+            for (int c = 0; c < n; ++c) {
+                for (int k = 0; k < n; ++k) {
+                    tmp[k] = vm.get(k, c);
+                }
+                for (int r = 0; r < n; ++r) {
+                    double s = 0;
+                    if (structure == Structure.Sparse) {
+                        for (int l = rows[r]; l < rows[r + 1]; ++l) {
+                            s += vals[l] * tmp[cols[l]];
+                        }
+                    } else {
+                        for (int k = 0, l = r * n; k < n; ++k, ++l) {
+                            s += t[l] * tmp[k];
+                        }
+                    }
+                    work[r * n + c] = s;
+                }
+            }
+            // (W*T')(i, j), i >= j
+            for (int j = 0, k = 0; j < n; ++j) {
+                for (int i = j; i < n; ++i, ++k) {
+                    double s = 0;
+                    int wi = i * n;
+                    if (structure == Structure.Sparse) {
+                        for (int l = rows[j]; l < rows[j + 1]; ++l) {
+                            s += vals[l] * work[wi + cols[l]];
+                        }
+                    } else {
+                        for (int c = 0, l = j * n; c < n; ++c, ++l) {
+                            s += work[wi + c] * t[l];
+                        }
+                    }
+                    p[k] = s;
+                }
+            }
+        }
+
+        @Override
+        public void addV(int pos, PackedSymmetricMatrix p) {
+            for (int k = 0; k < vv.length; ++k) {
+                if (vr[k] >= vc[k]) {
+                    p.add(vr[k], vc[k], vv[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiled time invariant measurement
+     */
+    public static final class Measurement implements ISsfMeasurement {
+
+        private final boolean errors, error;
+        private final double h;
+        // non-zero elements of Z
+        private final int[] idx;
+        private final double[] z;
+
+        public Measurement(ISsfMeasurement m, int dim) {
+            DataBlock zm = new DataBlock(dim);
+            m.Z(0, zm);
+            int nz = 0;
+            for (int i = 0; i < dim; ++i) {
+                if (zm.get(i) != 0) {
+                    ++nz;
+                }
+            }
+            idx = new int[nz];
+            z = new double[nz];
+            for (int i = 0, k = 0; i < dim; ++i) {
+                double x = zm.get(i);
+                if (x != 0) {
+                    idx[k] = i;
+                    z[k++] = x;
+                }
+            }
+            errors = m.hasErrors();
+            error = errors && m.hasError(0);
+            h = error ? m.errorVariance(0) : 0;
+        }
+
+        @Override
+        public boolean isTimeInvariant() {
+            return true;
+        }
+
+        @Override
+        public void Z(int pos, DataBlock zm) {
+            zm.set(0);
+            for (int k = 0; k < idx.length; ++k) {
+                zm.set(idx[k], z[k]);
+            }
+        }
+
+        @Override
+        public boolean hasErrors() {
+            return errors;
+        }
+
+        @Override
+        public boolean hasError(int pos) {
+            return error;
+        }
+
+        @Override
+        public double errorVariance(int pos) {
+            return h;
+        }
+
+        @Override
+        public double ZX(int pos, DataBlock x) {
+            double[] d = x.getData();
+            int beg = x.getStartPosition(), inc = x.getIncrement();
+            double s = 0;
+            for (int k = 0; k < idx.length; ++k) {
+                s += z[k] * d[beg + idx[k] * inc];
+            }
+            return s;
+        }
+
+        @Override
+        public double ZVZ(int pos, SubMatrix V) {
+            double s = 0;
+            for (int k = 0; k < idx.length; ++k) {
+                int ik = idx[k];
+                double zk = z[k];
+                s += zk * zk * V.get(ik, ik);
+                for (int l = 0; l < k; ++l) {
+                    s += 2 * zk * z[l] * V.get(ik, idx[l]);
+                }
+            }
+            return s;
+        }
+
+        @Override
+        public double ZVZ(int pos, PackedSymmetricMatrix V) {
+            double s = 0;
+            for (int k = 0; k < idx.length; ++k) {
+                int ik = idx[k];
+                double zk = z[k];
+                s += zk * zk * V.get(ik, ik);
+                for (int l = 0; l < k; ++l) {
+                    s += 2 * zk * z[l] * V.get(ik, idx[l]);
+                }
+            }
+            return s;
+        }
+
+        @Override
+        public void ZM(int pos, PackedSymmetricMatrix V, DataBlock zm) {
+            int n = V.getDim();
+            for (int i = 0; i < n; ++i) {
+                double s = 0;
+                for (int k = 0; k < idx.length; ++k) {
+                    s += z[k] * V.get(i, idx[k]);
+                }
+                zm.set(i, s);
+            }
+        }
+
+        @Override
+        public void VpZdZ(int pos, PackedSymmetricMatrix V, double d) {
+            if (d == 0) {
+                return;
+            }
+            // idx is increasing: (idx[k], idx[l]) is in the lower triangle
+            for (int k = 0; k < idx.length; ++k) {
+                double dzk = d * z[k];
+                for (int l = 0; l <= k; ++l) {
+                    V.add(idx[k], idx[l], dzk * z[l]);
+                }
+            }
+        }
+
+        @Override
+        public void VpZdZ(int pos, SubMatrix V, double d) {
+            if (d == 0) {
+                return;
+            }
+            for (int k = 0; k < idx.length; ++k) {
+                double dzk = d * z[k];
+                for (int l = 0; l < idx.length; ++l) {
+                    V.add(idx[k], idx[l], dzk * z[l]);
+                }
+            }
+        }
+
+        @Override
+        public void XpZd(int pos, DataBlock x, double d) {
+            if (d == 0) {
+                return;
+            }
+            double[] data = x.getData();
+            int beg = x.getStartPosition(), inc = x.getIncrement();
+            for (int k = 0; k < idx.length; ++k) {
+                data[beg + idx[k] * inc] += d * z[k];
+            }
+        }
+    }
+}
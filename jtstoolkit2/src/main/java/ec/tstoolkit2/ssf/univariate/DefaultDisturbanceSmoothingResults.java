@@ -25,6 +25,8 @@ import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.MatrixResults;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -36,13 +38,13 @@ public class DefaultDisturbanceSmoothingResults implements IDisturbanceSmoothing
     private final MatrixResults UVar;
     private final DataResults e, evar;
 
-    private DefaultDisturbanceSmoothingResults(final boolean cov, final boolean err) {
-        U = new DataBlockResults();
-        UVar = cov ? new MatrixResults() : null;
+    private DefaultDisturbanceSmoothingResults(final boolean cov, final boolean err, final IResultsStorage storage) {
+        U = new DataBlockResults(storage);
+        UVar = cov ? new MatrixResults(storage, true) : null;
         if (err) {
-            e = new DataResults();
+            e = new DataResults(storage);
             if (cov) {
-                evar = new DataResults();
+                evar = new DataResults(storage);
             } else {
                 evar = null;
             }
@@ -53,11 +55,26 @@ public class DefaultDisturbanceSmoothingResults implements IDisturbanceSmoothing
     }
 
     public static DefaultDisturbanceSmoothingResults full(boolean err) {
-        return new DefaultDisturbanceSmoothingResults(true, err);
+        return new DefaultDisturbanceSmoothingResults(true, err, ResultsStorage.DEFAULT);
     }
 
     public static DefaultDisturbanceSmoothingResults light(boolean err) {
-        return new DefaultDisturbanceSmoothingResults(false, err);
+        return new DefaultDisturbanceSmoothingResults(false, err, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Results stored in a given back-end (see ResultsStorage)
+     *
+     * @param err
+     * @param storage
+     * @return
+     */
+    public static DefaultDisturbanceSmoothingResults full(boolean err, IResultsStorage storage) {
+        return new DefaultDisturbanceSmoothingResults(true, err, storage);
+    }
+
+    public static DefaultDisturbanceSmoothingResults light(boolean err, IResultsStorage storage) {
+        return new DefaultDisturbanceSmoothingResults(false, err, storage);
     }
 
     @Override
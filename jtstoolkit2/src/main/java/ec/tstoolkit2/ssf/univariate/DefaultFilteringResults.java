@@ -28,6 +28,8 @@ import ec.tstoolkit2.ssf.MatrixResults;
 import ec.tstoolkit2.ssf.ResultsRange;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -42,11 +44,15 @@ public class DefaultFilteringResults implements IFilteringResults, IStateResults
     private final ResultsRange range=new ResultsRange();
 
     protected DefaultFilteringResults(boolean cov) {
-        A = new DataBlockResults();
-        C = new DataBlockResults();
-        P = cov ? new MatrixResults() : null;
-        e = new DataResults();
-        f = new DataResults();
+        this(cov, ResultsStorage.DEFAULT);
+    }
+
+    protected DefaultFilteringResults(boolean cov, IResultsStorage storage) {
+        A = new DataBlockResults(storage);
+        C = new DataBlockResults(storage);
+        P = cov ? new MatrixResults(storage, true) : null;
+        e = new DataResults(storage);
+        f = new DataResults(storage);
     }
 
     public boolean isInitialized(){
@@ -65,9 +71,33 @@ public class DefaultFilteringResults implements IFilteringResults, IStateResults
         return new DefaultFilteringResults(false);
     }
 
-    public void prepare(ISsf ssf, final int start, final int end) {
-        int dim = ssf.getStateDim();
+    /**
+     * Results stored in a given back-end (see ResultsStorage)
+     *
+     * @param storage
+     * @return
+     */
+    public static DefaultFilteringResults full(IResultsStorage storage) {
+        return new DefaultFilteringResults(true, storage);
+    }
 
+    public static DefaultFilteringResults light(IResultsStorage storage) {
+        return new DefaultFilteringResults(false, storage);
+    }
+
+    public void prepare(ISsf ssf, final int start, final int end) {
+        prepare(ssf.getStateDim(), start, end);
+    }
+
+    /**
+     * Prepares the results for a state of a given dimension (used by filters
+     * that don't work on a univariate model)
+     *
+     * @param dim The dimension of the state
+     * @param start
+     * @param end
+     */
+    public void prepare(final int dim, final int start, final int end) {
         A.prepare(dim, start, end);
         C.prepare(dim, start, end);
         e.prepare(start, end);
@@ -91,7 +121,7 @@ public class DefaultFilteringResults implements IFilteringResults, IStateResults
         }
         A.save(t, state.a());
         if (P != null) {
-            P.save(t, state.P());
+            P.save(t, state.unpackedP());
         }
         range.add(t);
     }
@@ -24,6 +24,8 @@ import ec.tstoolkit2.ssf.DataResults;
 import ec.tstoolkit2.ssf.MatrixResults;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.IResultsStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -32,15 +34,20 @@ import ec.tstoolkit2.ssf.StateInfo;
 public class DefaultSmoothingResults implements ISmoothingResults {
 
     private final DataBlockResults A;
-    private final MatrixResults P;
+    private final MatrixResults P, C;
     private final DataResults e, f;
 
-    private DefaultSmoothingResults(final boolean cov, final boolean err) {
-        A = new DataBlockResults();
-        P = cov ? new MatrixResults() : null;
+    private DefaultSmoothingResults(final boolean cov, final boolean err, final IResultsStorage storage) {
+        this(cov, err, false, storage);
+    }
+
+    private DefaultSmoothingResults(final boolean cov, final boolean err, final boolean cross, final IResultsStorage storage) {
+        A = new DataBlockResults(storage);
+        P = cov ? new MatrixResults(storage, true) : null;
+        C = cross ? new MatrixResults(storage, false) : null;
         if (err) {
-            e = new DataResults();
-            f = new DataResults();
+            e = new DataResults(storage);
+            f = new DataResults(storage);
         } else {
             e = null;
             f = null;
@@ -48,11 +55,38 @@ public class DefaultSmoothingResults implements ISmoothingResults {
     }
 
     public static DefaultSmoothingResults full() {
-        return new DefaultSmoothingResults(true, true);
+        return new DefaultSmoothingResults(true, true, ResultsStorage.DEFAULT);
     }
 
     public static DefaultSmoothingResults light() {
-        return new DefaultSmoothingResults(false, false);
+        return new DefaultSmoothingResults(false, false, ResultsStorage.DEFAULT);
+    }
+
+    /**
+     * Results stored in a given back-end (see ResultsStorage). ResultsStorage.VARIANCES
+     * keeps only the variances of the components in single precision
+     *
+     * @param storage
+     * @return
+     */
+    public static DefaultSmoothingResults full(IResultsStorage storage) {
+        return new DefaultSmoothingResults(true, true, storage);
+    }
+
+    /**
+     * Full results, with the lag-one cross-covariances of the states
+     * (Cov(a(t), a(t+1))) if cross is true
+     *
+     * @param storage
+     * @param cross
+     * @return
+     */
+    public static DefaultSmoothingResults full(IResultsStorage storage, boolean cross) {
+        return new DefaultSmoothingResults(true, true, cross, storage);
+    }
+
+    public static DefaultSmoothingResults light(IResultsStorage storage) {
+        return new DefaultSmoothingResults(false, false, storage);
     }
 
     @Override
@@ -63,7 +97,7 @@ public class DefaultSmoothingResults implements ISmoothingResults {
         A.save(t, state.a());
 
         if (P != null) {
-            P.save(t, state.P());
+            P.save(t, state.unpackedP());
         }
     }
 
@@ -101,6 +135,26 @@ public class DefaultSmoothingResults implements ISmoothingResults {
         return P == null ? null : P.subMatrix(pos);
     }
 
+    /**
+     *
+     * @return True if the lag-one cross-covariances are stored
+     */
+    public boolean hasCrossCovariances() {
+        return C != null;
+    }
+
+    @Override
+    public void saveCrossCovariance(int t, SubMatrix c) {
+        if (C != null) {
+            C.save(t, c);
+        }
+    }
+
+    @Override
+    public SubMatrix crossCovariance(int pos) {
+        return C == null ? null : C.subMatrix(pos);
+    }
+
     public int getStart() {
         return A.getStartSaving();
     }
@@ -116,12 +170,36 @@ public class DefaultSmoothingResults implements ISmoothingResults {
         if (P != null) {
             P.prepare(dim, start, end);
         }
+        if (C != null) {
+            C.prepare(dim, start, end);
+        }
+    }
+
+    /**
+     * Prepares the smoothed states of a given dimension. The smoothed errors
+     * are not stored
+     *
+     * @param dim The dimension of the state
+     * @param start
+     * @param end
+     */
+    public void prepare(int dim, int start, int end) {
+        A.prepare(dim, start, end);
+        if (P != null) {
+            P.prepare(dim, start, end);
+        }
+        if (C != null) {
+            C.prepare(dim, start, end);
+        }
     }
 
     public void rescaleVariances(double factor){
         if (P != null){
             P.rescale(factor);
         }
+        if (C != null){
+            C.rescale(factor);
+        }
         if (f != null)
             f.rescale(factor);
     }
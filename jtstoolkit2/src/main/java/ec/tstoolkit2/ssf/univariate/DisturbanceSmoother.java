@@ -23,6 +23,7 @@ public class DisturbanceSmoother {
 
     private ISsfDynamics dynamics;
     private ISsfMeasurement measurement;
+    private final CompiledSsf.Cache compiled = new CompiledSsf.Cache();
     private IDisturbanceSmoothingResults srslts;
     private IFilteringResults frslts;
 
@@ -30,7 +31,7 @@ public class DisturbanceSmoother {
     private DataBlock K, R, U;
     private Matrix N, UVar, S;
     private boolean missing, res, calcvar = true;
-    private int pos, stop;
+    private int pos, stop, checkpointInterval;
     // temporary
     private DataBlock tmp;
     private double c, v;
@@ -40,7 +41,7 @@ public class DisturbanceSmoother {
             return false;
         }
         OrdinaryFilter filter = new OrdinaryFilter();
-        DefaultFilteringResults fresults = DefaultFilteringResults.light();
+        IFilteringResults fresults = filteringResults(ssf, data);
         if (!filter.process(ssf, data, fresults)) {
             return false;
         }
@@ -69,13 +70,23 @@ public class DisturbanceSmoother {
 
     public boolean process(ISsf ssf, ISsfData data, IDisturbanceSmoothingResults sresults, final int stop) {
         OrdinaryFilter filter = new OrdinaryFilter();
-        DefaultFilteringResults fresults = DefaultFilteringResults.light();
+        IFilteringResults fresults = filteringResults(ssf, data);
         if (!filter.process(ssf, data, fresults)) {
             return false;
         }
         return process(ssf, stop, data.getLength(), fresults);
     }
 
+    private IFilteringResults filteringResults(ISsf ssf, ISsfData data) {
+        if (checkpointInterval != 0) {
+            CheckpointedFilteringResults cresults = new CheckpointedFilteringResults(checkpointInterval);
+            cresults.prepare(ssf, data, 0, data.getLength());
+            return cresults;
+        } else {
+            return DefaultFilteringResults.light();
+        }
+    }
+
     public boolean process(ISsf ssf, final int start, final int end, IFilteringResults results, IDisturbanceSmoothingResults sresults) {
         frslts = results;
         srslts = sresults;
@@ -226,8 +237,9 @@ public class DisturbanceSmoother {
     }
 
     private void initFilter(ISsf ssf) {
-        dynamics = ssf.getDynamics();
-        measurement = ssf.getMeasurement();
+        ISsf cssf = compiled.of(ssf);
+        dynamics = cssf.getDynamics();
+        measurement = cssf.getMeasurement();
         res = measurement.hasErrors();
     }
 
@@ -239,6 +251,24 @@ public class DisturbanceSmoother {
         return calcvar;
     }
 
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results used by process(ssf, data). When it is 0 (default), all the
+     * filtering results are stored. Otherwise, only the states at the
+     * checkpoints are stored and the other ones are re-computed during the
+     * backward pass (see CheckpointedFilteringResults.AUTO for the optimal
+     * memory footprint)
+     *
+     * @param interval
+     */
+    public void setCheckpointInterval(int interval) {
+        checkpointInterval = interval;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
     private void tvt(Matrix N) {
         DataBlockIterator columns = N.columns();
         DataBlock col = columns.getData();
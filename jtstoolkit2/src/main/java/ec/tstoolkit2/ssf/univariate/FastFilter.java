@@ -82,15 +82,19 @@ public class FastFilter {
             }
             // update the states
             DataBlock C = frslts.M(i);
-            // process by column
+            // process by column (update and transition in the same pass)
             scols.begin();
             int j = 0;
             do {
                 scol.addAY(row.get(j++) / f, C);
+                dynamics.TX(i, scol);
+            } while (scols.next());
+        } else {
+            scols.begin();
+            do {
+                dynamics.TX(i, scol);
             } while (scols.next());
         }
-        dynamics.TM(i, states);
-        //  
     }
 
     /**
@@ -35,4 +35,23 @@ public interface ISmoothingResults extends IStateResults{
     default SubMatrix P(int pos) {
         return null;
     }
+
+    /**
+     * Saves the lag-one cross-covariance Cov(a(t), a(t+1)) of the smoothed
+     * states. Ignored by default
+     *
+     * @param t
+     * @param c
+     */
+    default void saveCrossCovariance(int t, SubMatrix c) {
+    }
+
+    /**
+     *
+     * @param pos
+     * @return Cov(a(pos), a(pos+1)) or null if it is not available
+     */
+    default SubMatrix crossCovariance(int pos) {
+        return null;
+    }
 }
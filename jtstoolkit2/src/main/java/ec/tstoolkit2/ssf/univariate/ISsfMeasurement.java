@@ -19,6 +19,7 @@ package ec.tstoolkit2.ssf.univariate;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
 
 /**
  *
@@ -97,6 +98,34 @@ public interface ISsfMeasurement {
      */
     double ZVZ(int pos, SubMatrix V);
 
+    /**
+     * Computes Z(pos) * V * Z'(pos) for a packed symmetric matrix
+     *
+     * @param pos
+     * @param V
+     * @return
+     */
+    default double ZVZ(int pos, PackedSymmetricMatrix V) {
+        DataBlock z = V.workspace().column(0);
+        z.set(0);
+        Z(pos, z);
+        return V.quadraticForm(z);
+    }
+
+    /**
+     * Computes V * Z'(pos) for a packed symmetric matrix
+     *
+     * @param pos
+     * @param V
+     * @param zm
+     */
+    default void ZM(int pos, PackedSymmetricMatrix V, DataBlock zm) {
+        DataBlock z = V.workspace().column(0);
+        z.set(0);
+        Z(pos, z);
+        V.product(z, zm);
+    }
+
 //</editor-fold>    
 
 //<editor-fold defaultstate="collapsed" desc="backward operations">
@@ -108,6 +137,21 @@ public interface ISsfMeasurement {
      */
     void VpZdZ(int pos, SubMatrix V, double d);
 
+    /**
+     * Computes V = V + Z'(pos) * d * Z(pos) for a packed symmetric matrix
+     * (lower triangle only)
+     *
+     * @param pos
+     * @param V
+     * @param d
+     */
+    default void VpZdZ(int pos, PackedSymmetricMatrix V, double d) {
+        DataBlock z = V.workspace().column(0);
+        z.set(0);
+        Z(pos, z);
+        V.addXaXt(d, z);
+    }
+
 
     /**
      * Computes x = x + Z * D
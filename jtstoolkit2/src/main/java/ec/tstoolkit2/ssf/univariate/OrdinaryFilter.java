@@ -17,10 +17,13 @@
 package ec.tstoolkit2.ssf.univariate;
 
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
 
@@ -41,8 +44,25 @@ public class OrdinaryFilter {
     private PredictionError pe;
     private ISsfMeasurement measurement;
     private ISsfDynamics dynamics;
+    private final CompiledSsf.Cache compiled = new CompiledSsf.Cache();
     private int pos, end;
     private boolean missing;
+    // allocation-free mode
+    private boolean allocationFree;
+    private SubMatrix Pv;
+    private DataBlockIterator pcols, prows;
+    // packed covariance
+    private boolean packed;
+    // steady state
+    private double steadyEps;
+    private boolean monitor, steady;
+    private int steadypos = -1;
+    private DataBlock Mprev;
+    private double fprev;
+    // a(t|t) and frozen P(t|t) in the steady state
+    private State cstate;
+    private Matrix Pc;
+    private PackedSymmetricMatrix Ppc;
 
     /**
      *
@@ -56,27 +76,134 @@ public class OrdinaryFilter {
         this.initializer = null;
     }
 
+    /**
+     * In the allocation-free mode, all the temporaries used in the recursions
+     * (views on the covariance matrix, iterators, prediction error) are
+     * created once in the initialization and re-used at each step. They are
+     * also re-used between successive calls to process, when the state
+     * dimension doesn't change. TVT, ZM and the update of P are then computed
+     * column by column through TX and ZX, so that the specific implementations
+     * of the models are bypassed (they generally allocate temporary objects).
+     * The models should provide allocation-free TX, ZX and addV.
+     *
+     * @param allocationFree
+     */
+    public void setAllocationFree(boolean allocationFree) {
+        this.allocationFree = allocationFree;
+    }
+
+    public boolean isAllocationFree() {
+        return allocationFree;
+    }
+
+    /**
+     * In the packed mode, the covariance of the state is stored in packed
+     * form (lower triangle only, see State.packed) after the initialization.
+     * TVT, addV, ZM and the update of P are then computed through their
+     * packed versions, which only handle the lower triangle. The packed mode
+     * has priority on the allocation-free mode. The time invariant models are
+     * compiled (see CompiledSsf), which provides packed TVT, addV, ZM and
+     * VpZdZ on the lower triangle; SsfBsm has also its own packed operations.
+     * For the other models, the default packed operations unpack the
+     * covariance in a complete matrix (see PackedSymmetricMatrix.unpack) and
+     * pack it again, which is more expensive than the unpacked mode: the
+     * packed mode should not be used for them.
+     *
+     * @param packed
+     */
+    public void setPackedCovariance(boolean packed) {
+        this.packed = packed;
+    }
+
+    public boolean isPackedCovariance() {
+        return packed;
+    }
+
+    /**
+     * Sets the tolerance used to detect the convergence of the filter (only
+     * for time invariant models). When the gain (M) and the variance of the
+     * prediction error don't change anymore (relative changes smaller than
+     * eps), P is frozen and only the state vector is propagated. The complete
+     * recursions are re-activated as soon as a missing value is encountered.
+     * The monitoring is disabled when eps is 0 (default)
+     *
+     * @param eps
+     */
+    public void setSteadyStateEpsilon(double eps) {
+        steadyEps = eps;
+    }
+
+    public double getSteadyStateEpsilon() {
+        return steadyEps;
+    }
+
+    /**
+     * Position of the last switch to the steady state recursions
+     *
+     * @return -1 if the filter didn't reach a steady state
+     */
+    public int getSteadyStatePosition() {
+        return steadypos;
+    }
+
     /**
      * Computes a(t+1|t), P(t+1|t) from a(t|t), P(t|t)
      */
     protected void pred() {
         if (state.getInfo() != StateInfo.Forecast) {
-            SubMatrix P = state.P().subMatrix();
             DataBlock a = state.a();
             dynamics.TX(pos, a);
-            dynamics.TVT(pos, P);
-            dynamics.addV(pos, P);
+            if (steady) {
+                // P is unchanged
+            } else if (packed) {
+                PackedSymmetricMatrix P = state.packedP();
+                dynamics.TVT(pos, P);
+                dynamics.addV(pos, P);
+            } else if (allocationFree) {
+                // T*P*T' = T*(T*P)'
+                TM(pcols);
+                TM(prows);
+                dynamics.addV(pos, Pv);
+            } else {
+                SubMatrix P = state.P().subMatrix();
+                dynamics.TVT(pos, P);
+                dynamics.addV(pos, P);
+            }
             state.setInfo(StateInfo.Forecast);
         }
     }
 
+    private void TM(DataBlockIterator iter) {
+        iter.begin();
+        DataBlock cur = iter.getData();
+        do {
+            dynamics.TX(pos, cur);
+        } while (iter.next());
+    }
+
+    private void ZM(DataBlock zm) {
+        pcols.begin();
+        DataBlock col = pcols.getData();
+        int i = 0;
+        do {
+            zm.set(i++, measurement.ZX(pos, col));
+        } while (pcols.next());
+    }
+
 
     protected boolean error(ISsfData data) {
         missing = data.isMissing(pos);
         if (missing) {
             // pe_ = null;
+            if (steady) {
+                leaveSteadyState();
+            }
             pe.setMissing();
             return false;
+        } else if (steady) {
+            // M and f are unchanged
+            pe.set(data.get(pos) - measurement.ZX(pos, state.a()));
+            return true;
         } else {
             // pe_ = new PredictionError(ssf_.getStateDim(), 1);
             // K = PZ'/f
@@ -85,7 +212,13 @@ public class OrdinaryFilter {
             DataBlock C = pe.M();
             // computes ZPZ'; results in pe_.L
             //measurement.ZVZ(pos_, state_.P.subMatrix(), F);
-            measurement.ZM(pos, state.P().subMatrix(), C);
+            if (packed) {
+                measurement.ZM(pos, state.packedP(), C);
+            } else if (allocationFree) {
+                ZM(C);
+            } else {
+                measurement.ZM(pos, state.P().subMatrix(), C);
+            }
             double v = measurement.ZX(pos, C);
             if (measurement.hasErrors()) {
                 v += measurement.errorVariance(pos);
@@ -113,7 +246,15 @@ public class OrdinaryFilter {
         // PZ'(LL')^-1 ZP' =PZ'L'^-1*L^-1*ZP'
         // A = a + (M)* F^-1 * v
         state.a().addAY(e / v, C);
-        update(state.P(), v, C);//, state_.K.column(i));
+        if (steady) {
+            // P is unchanged
+        } else if (packed) {
+            state.packedP().addXaXt(-1 / v, C);
+        } else if (allocationFree) {
+            update(v, C);
+        } else {
+            update(state.P(), v, C);//, state_.K.column(i));
+        }
     }
 
     /**
@@ -126,10 +267,14 @@ public class OrdinaryFilter {
     }
 
     private boolean initialize(ISsf ssf, ISsfData data) {
-        measurement = ssf.getMeasurement();
-        dynamics = ssf.getDynamics();
+        ISsf cssf = compiled.of(ssf);
+        measurement = cssf.getMeasurement();
+        dynamics = cssf.getDynamics();
         pos = 0;
         end = data.getLength();
+        if (allocationFree && !packed) {
+            return initializeWorkspace(ssf, data);
+        }
         pe = new PredictionError(dynamics.getStateDim());
         if (initializer == null) {
             state = State.of(dynamics, StateInfo.Forecast);
@@ -140,7 +285,118 @@ public class OrdinaryFilter {
                 state = initial;
             }
         }
-        return state != null;
+        if (state == null) {
+            return false;
+        }
+        if (packed) {
+            State pstate = State.packed(state.getDim());
+            pstate.copy(state);
+            state = pstate;
+        }
+        initializeSteadyState(ssf);
+        return true;
+    }
+
+    /**
+     * Initialization in the allocation-free mode. The existing state and
+     * prediction error are re-used when possible
+     *
+     * @param ssf
+     * @param data
+     * @return
+     */
+    private boolean initializeWorkspace(ISsf ssf, ISsfData data) {
+        int dim = dynamics.getStateDim();
+        if (state == null || state.getDim() != dim || state.isPacked()) {
+            state = new State(dim);
+            pe = new PredictionError(dim);
+            Pv = state.P().subMatrix();
+            pcols = Pv.columns();
+            prows = Pv.rows();
+        } else {
+            state.a().set(0);
+            state.P().clear();
+            state.setInfo(StateInfo.Undefined);
+        }
+        if (initializer == null) {
+            if (!dynamics.a0(state.a(), StateInfo.Forecast)) {
+                return false;
+            }
+            if (!dynamics.Pf0(Pv, StateInfo.Forecast)) {
+                return false;
+            }
+            state.setInfo(StateInfo.Forecast);
+        } else {
+            pos = initializer.initialize(state, ssf, data);
+            if (pos < 0) {
+                return false;
+            }
+        }
+        initializeSteadyState(ssf);
+        return true;
+    }
+
+    private void initializeSteadyState(ISsf ssf) {
+        steady = false;
+        steadypos = -1;
+        monitor = steadyEps > 0 && ssf.isTimeInvariant();
+        if (monitor) {
+            int dim = dynamics.getStateDim();
+            if (Mprev == null || Mprev.getLength() != dim) {
+                Mprev = new DataBlock(dim);
+            }
+            fprev = Double.NaN;
+        }
+    }
+
+    private void checkSteadyState() {
+        DataBlock M = pe.M();
+        double f = pe.getVariance();
+        if (Math.abs(f - fprev) <= steadyEps * f
+                && M.distance(Mprev) <= steadyEps * M.nrm2()) {
+            // P(pos+1|pos) is computed. The next steps will re-use it
+            steady = true;
+            steadypos = pos + 1;
+            freezeConcurrentState();
+        } else {
+            Mprev.copy(M);
+            fprev = f;
+        }
+    }
+
+    /**
+     * In the steady state, P is kept at P(t|t-1). The concurrent states are
+     * saved through a state that shares a(t|t) and contains the frozen
+     * P(t|t) = P(t|t-1) - M*M'/f
+     */
+    private void freezeConcurrentState() {
+        DataBlock M = pe.M();
+        double v = pe.getVariance();
+        int dim = state.getDim();
+        if (packed) {
+            if (Ppc == null || Ppc.getDim() != dim) {
+                Ppc = new PackedSymmetricMatrix(dim);
+                cstate = null;
+            }
+            Ppc.copy(state.packedP());
+            Ppc.addXaXt(-1 / v, M);
+        } else {
+            if (Pc == null || Pc.getRowsCount() != dim) {
+                Pc = Matrix.square(dim);
+                cstate = null;
+            }
+            Pc.copy(state.P());
+            SymmetricMatrix.addXaXt(Pc, -1 / v, M);
+        }
+        if (cstate == null || cstate.a() != state.a() || cstate.isPacked() != packed) {
+            cstate = packed ? new State(state.a(), Ppc, StateInfo.Concurrent)
+                    : new State(state.a(), Pc, StateInfo.Concurrent);
+        }
+    }
+
+    private void leaveSteadyState() {
+        steady = false;
+        fprev = Double.NaN;
     }
 
     /**
@@ -156,6 +412,100 @@ public class OrdinaryFilter {
             return false;
         }
         pred();
+        iterate(data, rslts);
+        return true;
+    }
+
+    /**
+     * Continues the filtering on new observations. The data should contain
+     * the observations already processed, followed by the new ones; only the
+     * new ones (from getPosition() to the end of the data) are handled, so
+     * that the cost is proportional to the number of new observations. The
+     * filter must have been initialized by a previous call to process or to
+     * restore.
+     *
+     * @param data
+     * @param rslts
+     * @return
+     */
+    public boolean resume(final ISsfData data, final IFilteringResults rslts) {
+        if (state == null || dynamics == null) {
+            return false;
+        }
+        end = data.getLength();
+        iterate(data, rslts);
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a given state. The next call to resume will
+     * process the observations starting from pos.
+     *
+     * @param ssf The model
+     * @param pos The position of the next observation
+     * @param fstate The state a(pos|pos-1), P(pos|pos-1)
+     * @return
+     */
+    public boolean restore(final ISsf ssf, final int pos, final State fstate) {
+        ISsf cssf = compiled.of(ssf);
+        measurement = cssf.getMeasurement();
+        dynamics = cssf.getDynamics();
+        int dim = dynamics.getStateDim();
+        if (fstate.getDim() != dim || fstate.getInfo() != StateInfo.Forecast) {
+            return false;
+        }
+        if (state == null || state.getDim() != dim || state.isPacked() != packed) {
+            state = packed ? State.packed(dim) : new State(dim);
+            pe = new PredictionError(dim);
+        }
+        if (!packed) {
+            Pv = state.P().subMatrix();
+            pcols = Pv.columns();
+            prows = Pv.rows();
+        }
+        state.copy(fstate);
+        this.pos = pos;
+        this.end = pos;
+        initializeSteadyState(ssf);
+        return true;
+    }
+
+    /**
+     * Restarts the filter from a snapshot. The snapshot should not contain a
+     * diffuse part (the diffuse initialization must be completed). The
+     * cumulators of the likelihood must be restored separately in the
+     * results (see PredictionErrorDecomposition.restore)
+     *
+     * @param ssf The model
+     * @param snapshot
+     * @return
+     */
+    public boolean restore(final ISsf ssf, final FilterSnapshot snapshot) {
+        if (snapshot.isDiffuse()) {
+            return false;
+        }
+        return restore(ssf, snapshot.getPosition(), snapshot.getState());
+    }
+
+    /**
+     * Creates a snapshot of the current state of the filter
+     *
+     * @return
+     */
+    public FilterSnapshot snapshot() {
+        return state == null ? null : new FilterSnapshot(pos, state);
+    }
+
+    /**
+     * Position of the next observation that will be processed
+     *
+     * @return
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    private void iterate(final ISsfData data, final IFilteringResults rslts) {
         while (pos < end) {
             rslts.save(pos, state);
             if (error(data)) {
@@ -165,11 +515,13 @@ public class OrdinaryFilter {
                 rslts.save(pos, pe);
                 state.setInfo(StateInfo.Concurrent);
             }
-            rslts.save(pos, state);
+            rslts.save(pos, steady ? cstate : state);
             pred();
+            if (monitor && !steady && !missing) {
+                checkSteadyState();
+            }
             ++pos;
         }
-        return true;
     }
 
     // P -= c*r
@@ -177,4 +529,17 @@ public class OrdinaryFilter {
         SymmetricMatrix.addXaXt(P, -1 / v, C);
     }
 
+    // P -= c*c'/v, column by column
+    private void update(double v, DataBlock C) {
+        pcols.begin();
+        DataBlock col = pcols.getData();
+        int i = 0;
+        do {
+            double c = C.get(i++);
+            if (c != 0) {
+                col.addAY(-c / v, C);
+            }
+        } while (pcols.next());
+    }
+
 }
@@ -28,6 +28,7 @@ import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.ResultsRange;
 import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 
 /**
  *
@@ -38,21 +39,29 @@ public class OrdinarySmoother {
     private State state;
     private ISsfDynamics dynamics;
     private ISsfMeasurement measurement;
+    private final CompiledSsf.Cache compiled = new CompiledSsf.Cache();
     private ISmoothingResults srslts;
     private IFilteringResults frslts;
 
     private double err, errVariance;
     private DataBlock M, R;
     private Matrix N;
-    private boolean missing, calcvar = true;
-    private int pos, stop;
+    private boolean missing, calcvar = true, calccross;
+    private int pos, stop, checkpointInterval;
 
     public boolean process(ISsf ssf, ISsfData data) {
         if (ssf.getDynamics().isDiffuse()) {
             return false;
         }
         OrdinaryFilter filter = new OrdinaryFilter();
-        DefaultFilteringResults fresults = DefaultFilteringResults.full();
+        IFilteringResults fresults;
+        if (checkpointInterval != 0) {
+            CheckpointedFilteringResults cresults = new CheckpointedFilteringResults(checkpointInterval);
+            cresults.prepare(ssf, data, 0, data.getLength());
+            fresults = cresults;
+        } else {
+            fresults = DefaultFilteringResults.full();
+        }
         if (!filter.process(ssf, data, fresults)) {
             return false;
         }
@@ -70,7 +79,7 @@ public class OrdinarySmoother {
     public boolean process(ISsf ssf, int start, int end, IFilteringResults results) {
         ISmoothingResults sresults;
         if (calcvar) {
-            sresults = DefaultSmoothingResults.full();
+            sresults = DefaultSmoothingResults.full(ResultsStorage.DEFAULT, calccross);
         } else {
             sresults = DefaultSmoothingResults.light();
         }
@@ -141,7 +150,11 @@ public class OrdinarySmoother {
 
     private boolean iterate() {
         iterateR();
+        Matrix PLN = null;
         if (calcvar) {
+            if (calccross) {
+                PLN = PLN();
+            }
             iterateN();
         }
         DataBlock fa = frslts.a(pos);
@@ -159,9 +172,55 @@ public class OrdinarySmoother {
             P.subMatrix().copy(fP);
             Matrix V = SymmetricMatrix.quadraticForm(N, P);
             P.sub(V);
+            if (PLN != null) {
+                srslts.saveCrossCovariance(pos, crossCovariance(P, PLN));
+            }
         }
         return true;
     }
+
+    /**
+     * Computes P(t)*L'(t)*N(t). Should be called before the update of N
+     *
+     * @return
+     */
+    private Matrix PLN() {
+        SubMatrix fP = frslts.P(pos);
+        if (fP == null) {
+            return null;
+        }
+        // NL = N(t)*L(t)
+        Matrix NL = N.clone();
+        if (!missing && errVariance != 0) {
+            XL(NL.rows());
+        } else {
+            DataBlockIterator rows = NL.rows();
+            DataBlock row = rows.getData();
+            do {
+                dynamics.XT(pos, row);
+            } while (rows.next());
+        }
+        Matrix PLN = Matrix.square(NL.getRowsCount());
+        PLN.subMatrix().product(fP, NL.subMatrix().transpose());
+        return PLN;
+    }
+
+    /**
+     * Lag-one cross-covariance of the smoothed states
+     * cov(a(t), a(t+1)) = V(t)*T'(t) - P(t)*L'(t)*N(t)*Q(t)
+     *
+     * @param V The smoothed covariance V(t)
+     * @param PLN P(t)*L'(t)*N(t)
+     * @return
+     */
+    private SubMatrix crossCovariance(Matrix V, Matrix PLN) {
+        Matrix C = V.clone();
+        dynamics.TM(pos, C.subMatrix().transpose());
+        Matrix Q = Matrix.square(C.getRowsCount());
+        dynamics.V(pos, Q.subMatrix());
+        C.sub(PLN.times(Q));
+        return C.subMatrix();
+    }
     // 
 
     private void xL(DataBlock x) {
@@ -241,8 +300,9 @@ public class OrdinarySmoother {
     }
 
     private void initFilter(ISsf ssf) {
-        dynamics = ssf.getDynamics();
-        measurement = ssf.getMeasurement();
+        ISsf cssf = compiled.of(ssf);
+        dynamics = cssf.getDynamics();
+        measurement = cssf.getMeasurement();
     }
 
     public void setCalcVariances(boolean b) {
@@ -253,4 +313,38 @@ public class OrdinarySmoother {
         return calcvar;
     }
 
+    /**
+     * Computes the lag-one cross-covariances of the smoothed states
+     * (cov(a(t), a(t+1))) in the backward pass. They are saved in the
+     * smoothing results (see ISmoothingResults.saveCrossCovariance). Requires
+     * the computation of the variances
+     *
+     * @param b
+     */
+    public void setCalcCrossCovariances(boolean b) {
+        calccross = b;
+    }
+
+    public boolean isCalcCrossCovariances() {
+        return calccross;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results used by process(ssf, data). When it is 0 (default), all the
+     * filtering results are stored. Otherwise, only the states at the
+     * checkpoints are stored and the other ones are re-computed during the
+     * backward pass (see CheckpointedFilteringResults.AUTO for the optimal
+     * memory footprint)
+     *
+     * @param interval
+     */
+    public void setCheckpointInterval(int interval) {
+        checkpointInterval = interval;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
 }
@@ -20,6 +20,7 @@ import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.design.Development;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.eco.Likelihood;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.IPredictionErrorDecomposition;
 import ec.tstoolkit2.ssf.ResidualsCumulator;
 import ec.tstoolkit2.ssf.State;
@@ -102,6 +103,27 @@ public class PredictionErrorDecomposition implements
         res=null;
     }
 
+    /**
+     * Copies the cumulators of the likelihood in a snapshot
+     *
+     * @param snapshot
+     */
+    public void saveTo(FilterSnapshot snapshot) {
+        snapshot.setLikelihood(cumulator.getSsqErr(), cumulator.getLogDeterminant(), 0,
+                cumulator.getObsCount(), 0);
+    }
+
+    /**
+     * Re-starts the cumulators of the likelihood from a snapshot. The
+     * residuals (if any) are not restored
+     *
+     * @param snapshot
+     */
+    public void restore(FilterSnapshot snapshot) {
+        cumulator.restore(snapshot.getSsqErr(), snapshot.getLogDeterminant(),
+                snapshot.getObsCount() - snapshot.getDiffuseCount());
+    }
+
     @Override
     public ILikelihood likelihood(){
         Likelihood ll=new Likelihood();
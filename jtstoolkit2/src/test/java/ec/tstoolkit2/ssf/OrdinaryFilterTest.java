@@ -35,7 +35,9 @@ import ec.tstoolkit2.ssf.multivariate.MultivariateSsf;
 import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
 import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
 import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.lang.management.ManagementFactory;
 import static org.junit.Assert.assertTrue;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -136,6 +138,57 @@ public class OrdinaryFilterTest {
         assertTrue(Math.abs(Det - ll.getLogDeterminant()) < 1e-9);
     }
 
+    @Test
+    public void testAllocationFree() {
+        OrdinaryFilter filter = new OrdinaryFilter();
+        filter.setAllocationFree(true);
+        SsfArima ssf = SsfArima.create(model);
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        filter.process(ssf, new SsfData(M.column(0)), pe);
+        ILikelihood ll = pe.likelihood();
+        assertTrue(Math.abs(Err - ll.getSsqErr()) / Err < 1e-9);
+        assertTrue(Math.abs(Det - ll.getLogDeterminant()) < 1e-9);
+    }
+
+    @Test
+    public void testAllocations() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean tbean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(tbean.isThreadAllocatedMemorySupported());
+        tbean.setThreadAllocatedMemoryEnabled(true);
+
+        SsfArima ssf = SsfArima.create(model);
+        SsfData small = new SsfData(M.column(0));
+        Matrix L = new Matrix(12000, 1);
+        L.randomize(1);
+        SsfData large = new SsfData(L.column(0));
+        OrdinaryFilter filter = new OrdinaryFilter();
+        filter.setAllocationFree(true);
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        // warm-up (lazy initializations); the allocation-free path doesn't
+        // rely on the elimination of allocations by the JIT
+        for (int i = 0; i < 5; ++i) {
+            pe.clear();
+            filter.process(ssf, small, pe);
+            pe.clear();
+            filter.process(ssf, large, pe);
+        }
+        long tid = Thread.currentThread().getId();
+        pe.clear();
+        long b0 = tbean.getThreadAllocatedBytes(tid);
+        filter.process(ssf, small, pe);
+        long b1 = tbean.getThreadAllocatedBytes(tid);
+        pe.clear();
+        filter.process(ssf, large, pe);
+        long b2 = tbean.getThreadAllocatedBytes(tid);
+        // the allocations don't depend on the length of the series
+        double perObs = (double) ((b2 - b1) - (b1 - b0)) / (large.getLength() - small.getLength());
+        assertTrue(perObs < 1);
+        // and they are bounded (a few small objects by call)
+        assertTrue(b2 - b1 < 64 * 1024);
+    }
+
     @Ignore
     @Test
     public void stressTest1() {
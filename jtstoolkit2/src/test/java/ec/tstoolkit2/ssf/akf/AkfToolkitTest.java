@@ -25,8 +25,10 @@ import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit.timeseries.simplets.AverageInterpolator;
 import ec.tstoolkit.utilities.IntList;
+import ec.tstoolkit2.ssf.FilterSnapshot;
 import ec.tstoolkit2.ssf.implementations.arima.SsfArima;
 import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.Arrays;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
@@ -108,6 +110,51 @@ public class AkfToolkitTest {
         assertTrue(Math.abs(ll.getLogLikelihood() - StLl) < 1e-6);
     }
     
+    @Test
+    public void testSteadyState() {
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        SarimaModel airline = builder.createAirlineModel(12, -.6, -.8);
+        ArimaModelBuilder gbuilder = new ArimaModelBuilder();
+        double[] x = gbuilder.generate(airline, 1200);
+        x[1000] = Double.NaN;
+        SsfArima ssf = SsfArima.create(airline);
+        SsfData ssfData = new SsfData(x);
+        ILikelihood ll = AkfToolkit.likelihoodComputer(false).compute(ssf, ssfData);
+        ILikelihood sll = AkfToolkit.likelihoodComputer(false, 1e-10).compute(ssf, ssfData);
+        assertEquals(ll.getLogLikelihood(), sll.getLogLikelihood(), 1e-6);
+        AugmentedFilter akf = new AugmentedFilter();
+        akf.setSteadyStateEpsilon(1e-10);
+        AugmentedPredictionErrorDecomposition pe = new AugmentedPredictionErrorDecomposition(false);
+        pe.prepare(ssf, x.length);
+        assertTrue(akf.process(ssf, ssfData, pe));
+        assertTrue(akf.getSteadyStatePosition() >= 0);
+        assertEquals(ll.getLogLikelihood(), pe.likelihood().getLogLikelihood(), 1e-6);
+    }
+
+    @Test
+    public void testSnapshot() throws java.io.IOException {
+        SsfArima ssf = SsfArima.create(model);
+        int n0 = 120;
+        AugmentedFilter akf = new AugmentedFilter();
+        AugmentedPredictionErrorDecomposition pe = new AugmentedPredictionErrorDecomposition(false);
+        pe.prepare(ssf, n0);
+        assertTrue(akf.process(ssf, new SsfData(Arrays.copyOf(data, n0)), pe));
+        FilterSnapshot snapshot = akf.snapshot();
+        pe.saveTo(snapshot);
+        byte[] bytes = snapshot.toByteArray();
+        // warm start in a new filter
+        FilterSnapshot nsnapshot = FilterSnapshot.fromByteArray(bytes, AugmentedState.SNAPSHOT_READER);
+        assertEquals(n0, nsnapshot.getPosition());
+        AugmentedFilter nakf = new AugmentedFilter();
+        AugmentedPredictionErrorDecomposition npe = new AugmentedPredictionErrorDecomposition(false);
+        npe.prepare(ssf, data.length);
+        npe.restore(nsnapshot);
+        assertTrue(nakf.restore(ssf, nsnapshot));
+        assertTrue(nakf.resume(new SsfData(data), npe));
+        ILikelihood ll = AkfToolkit.likelihoodComputer(false).compute(ssf, new SsfData(data));
+        assertEquals(ll.getLogLikelihood(), npe.likelihood().getLogLikelihood(), 1e-9);
+    }
+
     @Ignore
     @Test
     public void testStressLikelihood() {
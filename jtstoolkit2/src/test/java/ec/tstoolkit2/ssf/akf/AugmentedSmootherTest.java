@@ -7,6 +7,7 @@ package ec.tstoolkit2.ssf.akf;
 
 import data.Data;
 import ec.tstoolkit.arima.ArimaModel;
+import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit.timeseries.simplets.TsData;
@@ -14,8 +15,10 @@ import ec.tstoolkit.ucarima.ModelDecomposer;
 import ec.tstoolkit.ucarima.SeasonalSelector;
 import ec.tstoolkit.ucarima.TrendCycleSelector;
 import ec.tstoolkit.ucarima.UcarimaModel;
+import ec.tstoolkit2.ssf.dk.DiffuseSmoother;
 import ec.tstoolkit2.ssf.dk.DkToolkit;
 import ec.tstoolkit2.ssf.implementations.arima.SsfUcarima;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
 import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
 import ec.tstoolkit2.ssf.univariate.SsfData;
 import java.util.Random;
@@ -71,6 +74,25 @@ public class AugmentedSmootherTest {
         assertTrue(srslts.getComponent(0).distance(srslts2.getComponent(0)) < 1e-6);
     }
 
+    @Test
+    public void testCrossCovariances() {
+        SsfUcarima ssf = SsfUcarima.create(ucm);
+        DiffuseSmoother dsmoother = new DiffuseSmoother();
+        dsmoother.setCalcCrossCovariances(true);
+        DefaultSmoothingResults drslts = DefaultSmoothingResults.full(ResultsStorage.DEFAULT, true);
+        drslts.prepare(ssf, 0, data.getLength());
+        assertTrue(dsmoother.process(ssf, data, drslts));
+        AugmentedSmoother asmoother = new AugmentedSmoother();
+        asmoother.setCalcCrossCovariances(true);
+        DefaultSmoothingResults arslts = DefaultSmoothingResults.full(ResultsStorage.DEFAULT, true);
+        arslts.prepare(ssf, 0, data.getLength());
+        assertTrue(asmoother.process(ssf, data, arslts));
+        // the diffuse part is included
+        for (int t = 0; t < data.getLength() - 1; ++t) {
+            assertTrue(new Matrix(drslts.crossCovariance(t)).distance(new Matrix(arslts.crossCovariance(t))) < 1e-6);
+        }
+    }
+
     @Test
     @Ignore
     public void stressTestSmoother() {
@@ -17,9 +17,11 @@
 package ec.tstoolkit2.ssf.dk;
 
 import data.Data;
+import data.Models;
 import ec.tstoolkit.arima.ArimaModel;
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DataBlockStorage;
+import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit.ssf.SmoothingResults;
@@ -128,4 +130,77 @@ public class DiffuseDisturbanceSmootherTest {
         System.out.println("SQRT DK smoother");
         System.out.println(t1 - t0);
     }
+
+    @Test
+    public void testOutlierScan() {
+        ISsf ssf = Models.ssfUcarima;
+        SsfData y = Models.ssfXRandom;
+        int n = y.getLength();
+        DiffuseOutlierScanner scanner = new DiffuseOutlierScanner(ssf, y);
+        int nd = scanner.getStartPosition();
+        int[] pos = new int[]{nd + 3, n / 2, n - 1};
+        for (DiffuseOutlierScanner.Type type : DiffuseOutlierScanner.Type.values()) {
+            double[] stats = scanner.tstats(type);
+            for (int t : pos) {
+                assertEquals(tstat(ssf, y, scanner, null, outlier(type, t, n, scanner)), stats[t], 1e-6);
+            }
+        }
+        double[] ls = scanner.tstats(DiffuseOutlierScanner.Type.LS);
+        // iterative add/remove
+        assertTrue(scanner.add(DiffuseOutlierScanner.Type.LS, n / 3));
+        assertFalse(scanner.add(DiffuseOutlierScanner.Type.LS, n / 3));
+        // the smoothations are only available after the diffuse part
+        if (nd > 0) {
+            assertFalse(scanner.add(DiffuseOutlierScanner.Type.AO, nd - 1));
+        }
+        assertEquals(1, scanner.getOutliersCount());
+        DataBlock x0 = outlier(DiffuseOutlierScanner.Type.LS, n / 3, n, scanner);
+        for (DiffuseOutlierScanner.Type type : DiffuseOutlierScanner.Type.values()) {
+            double[] stats = scanner.tstats(type);
+            for (int t : pos) {
+                assertEquals(tstat(ssf, y, scanner, x0, outlier(type, t, n, scanner)), stats[t], 1e-6);
+            }
+        }
+        assertTrue(Double.isNaN(scanner.tstats(DiffuseOutlierScanner.Type.LS)[n / 3]));
+        assertTrue(scanner.remove(DiffuseOutlierScanner.Type.LS, n / 3));
+        assertArrayEquals(ls, scanner.tstats(DiffuseOutlierScanner.Type.LS), 1e-9);
+    }
+
+    private static DataBlock outlier(DiffuseOutlierScanner.Type type, int pos, int n, DiffuseOutlierScanner scanner) {
+        DataBlock x = new DataBlock(n);
+        double rho = type == DiffuseOutlierScanner.Type.AO ? 0 : type == DiffuseOutlierScanner.Type.LS ? 1 : scanner.getTcRate();
+        double cur = 1;
+        for (int t = pos; t < n; ++t) {
+            x.set(t, cur);
+            cur *= rho;
+        }
+        return x;
+    }
+
+    /**
+     * t-stat of z in the regression of y on (x0, z), with sigma estimated
+     * without z
+     */
+    private static double tstat(ISsf ssf, SsfData y, DiffuseOutlierScanner scanner, DataBlock x0, DataBlock z) {
+        int n = y.getLength();
+        Matrix x = new Matrix(n, 2);
+        if (x0 != null) {
+            x.column(0).copy(x0);
+        }
+        x.column(1).copy(z);
+        DiffuseRegressionFilter filter = new DiffuseRegressionFilter();
+        assertTrue(filter.process(ssf, y, x0 == null ? x.subMatrix(0, n, 1, 2) : x.subMatrix()));
+        Matrix xx = filter.getXtX();
+        DataBlock xy = filter.getXty();
+        double yy = filter.getYtY();
+        if (x0 == null) {
+            double sig = Math.sqrt(yy / scanner.getObsCount());
+            assertEquals(sig, scanner.getSigma(), 1e-9);
+            return xy.get(0) / Math.sqrt(xx.get(0, 0)) / sig;
+        }
+        double a = xx.get(0, 0), b = xx.get(0, 1), c = xx.get(1, 1);
+        double sig = Math.sqrt((yy - xy.get(0) * xy.get(0) / a) / (scanner.getObsCount() - 1));
+        assertEquals(sig, scanner.getSigma(), 1e-9);
+        return (xy.get(1) - b * xy.get(0) / a) / Math.sqrt(c - b * b / a) / sig;
+    }
 }
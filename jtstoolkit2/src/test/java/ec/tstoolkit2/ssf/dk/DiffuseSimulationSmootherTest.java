@@ -11,8 +11,10 @@ import ec.tstoolkit.data.DataBlockStorage;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Ignore;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -36,6 +38,89 @@ public class DiffuseSimulationSmootherTest {
 //        System.out.println(simul.getSimulatedStates().item(0));
     }
 
+    @Test
+    public void testReproducibility() {
+        DiffuseSimulationSmoother s1 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 12345);
+        DiffuseSimulationSmoother s2 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 12345);
+        for (int i = 0; i < 3; ++i) {
+            DataBlockStorage x1 = s1.newSimulation().getSimulatedStates();
+            DataBlockStorage x2 = s2.newSimulation().getSimulatedStates();
+            assertEquals(0, x1.item(0).distance(x2.item(0)), 1e-12);
+        }
+        // the index-th stream doesn't depend on the previous calls
+        DataBlockStorage y1 = s1.newSimulation(7).getSimulatedStates();
+        DataBlockStorage y2 = s2.newSimulation(7).getSimulatedStates();
+        assertEquals(0, y1.item(0).distance(y2.item(0)), 1e-12);
+        DataBlockStorage z = s2.newSimulation(8).getSimulatedStates();
+        assertTrue(y1.item(0).distance(z.item(0)) > 1e-6);
+        // the indexed streams are not those of the counter
+        DiffuseSimulationSmoother s3 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 12345);
+        DataBlockStorage c0 = s3.newSimulation().getSimulatedStates();
+        DataBlockStorage i0 = s3.newSimulation(0).getSimulatedStates();
+        assertTrue(c0.item(0).distance(i0.item(0)) > 1e-6);
+    }
+
+    @Test
+    public void testParallelDraws() {
+        int n = Models.ssfX.getLength(), dim = Models.ssfUcarima.getStateDim();
+        DiffuseSimulationSmoother s1 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+        DiffuseSimulationSmoother s2 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+        DataBlockStorage[] draws = new DataBlockStorage[20];
+        for (int i = 0; i < draws.length; ++i) {
+            draws[i] = new DataBlockStorage(dim, n);
+        }
+        s1.simulateStates(draws);
+        DataBlock m = new DataBlock(n);
+        for (int i = 0; i < draws.length; ++i) {
+            DataBlockStorage x = s2.newSimulation().getSimulatedStates();
+            assertEquals(0, x.item(0).distance(draws[i].item(0)), 1e-12);
+            m.add(x.item(0));
+        }
+        m.mul(1.0 / draws.length);
+        // the same draws, reduced on the fly
+        DiffuseSimulationSmoother s3 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+        SimulatedStatesMoments moments = s3.simulate(draws.length, () -> new SimulatedStatesMoments(dim, n));
+        assertEquals(draws.length, moments.getCount());
+        assertEquals(0, moments.mean(0).distance(m), 1e-9);
+        SimulatedStatesQuantiles q = s1.simulate(11, () -> new SimulatedStatesQuantiles(dim, n, 0));
+        assertEquals(11, q.getCount());
+        DataBlock q1 = q.quantile(0, .1), q9 = q.quantile(0, .9);
+        for (int i = 0; i < n; ++i) {
+            assertTrue(q1.get(i) <= q9.get(i));
+        }
+        // bounded number of kept draws
+        SimulatedStatesQuantiles bq = s1.simulate(11, () -> new SimulatedStatesQuantiles(5, dim, n, 0));
+        assertEquals(11, bq.getCount());
+        assertEquals(5, bq.getSampleSize());
+        q1 = bq.quantile(0, .1);
+        q9 = bq.quantile(0, .9);
+        for (int i = 0; i < n; ++i) {
+            assertTrue(q1.get(i) <= q9.get(i));
+        }
+        // the kept draws don't depend on the number of threads
+        ForkJoinPool pool1 = new ForkJoinPool(1), pool3 = new ForkJoinPool(3);
+        try {
+            DiffuseSimulationSmoother t1 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+            t1.setExecutor(pool1);
+            DiffuseSimulationSmoother t3 = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+            t3.setExecutor(pool3);
+            SimulatedStatesQuantiles bq1 = t1.simulate(30, () -> new SimulatedStatesQuantiles(5, dim, n, 0));
+            SimulatedStatesQuantiles bq3 = t3.simulate(30, () -> new SimulatedStatesQuantiles(5, dim, n, 0));
+            DiffuseSimulationSmoother ts = new DiffuseSimulationSmoother(Models.ssfUcarima, Models.ssfX, 6789);
+            SimulatedStatesQuantiles bqs = new SimulatedStatesQuantiles(5, dim, n, 0);
+            for (int i = 0; i < 30; ++i) {
+                bqs.add(ts.newSimulation());
+            }
+            for (double p : new double[]{0, .3, 1}) {
+                assertEquals(0, bq1.quantile(0, p).distance(bq3.quantile(0, p)), 1e-12);
+                assertEquals(0, bq1.quantile(0, p).distance(bqs.quantile(0, p)), 1e-12);
+            }
+        } finally {
+            pool1.shutdown();
+            pool3.shutdown();
+        }
+    }
+
     @Test
     //@Ignore
     public void stressTestGenerate() {
@@ -19,6 +19,7 @@ package ec.tstoolkit2.ssf.dk;
 import data.Data;
 import ec.tstoolkit.arima.ArimaModel;
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit.timeseries.simplets.TsData;
@@ -28,7 +29,11 @@ import ec.tstoolkit.ucarima.TrendCycleSelector;
 import ec.tstoolkit.ucarima.UcarimaModel;
 import ec.tstoolkit2.ssf.akf.AkfToolkit;
 import ec.tstoolkit2.ssf.implementations.arima.SsfUcarima;
+import ec.tstoolkit2.ssf.storage.OffHeapStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.CheckpointedFilteringResults;
 import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
 import ec.tstoolkit2.ssf.univariate.SsfData;
 import java.util.Random;
 import org.junit.Test;
@@ -101,6 +106,86 @@ public class DiffuseSmootherTest {
         assertTrue(srslts.getComponent(3).distance(new DataBlock(osrslts.component(3))) < 1e-6);
     }
 
+    @Test
+    public void testCheckpointedSmoothing() {
+        SsfUcarima ssf = SsfUcarima.create(ucm);
+        DefaultSmoothingResults srslts = DkToolkit.smooth(ssf, data, true);
+        for (int interval : new int[]{CheckpointedFilteringResults.AUTO, 1, 7, 1000}) {
+            DefaultSmoothingResults crslts = DkToolkit.smooth(ssf, data, true, interval);
+            for (int i = 0; i < 4; ++i) {
+                assertTrue(srslts.getComponent(i).distance(crslts.getComponent(i)) < 1e-9);
+                assertTrue(srslts.getComponentVariance(i).distance(crslts.getComponentVariance(i)) < 1e-9);
+            }
+        }
+        // each segment is re-computed once
+        CheckpointedDiffuseFilteringResults frslts = DkToolkit.checkpointedFilter(ssf, data, CheckpointedFilteringResults.AUTO);
+        DiffuseSmoother smoother = new DiffuseSmoother();
+        DefaultSmoothingResults sresults = DefaultSmoothingResults.full();
+        sresults.prepare(ssf, 0, data.getLength());
+        assertTrue(smoother.process(ssf, data.getLength(), frslts, sresults));
+        assertEquals(frslts.getCheckpointsCount(), frslts.getRecomputationsCount());
+    }
+
+    @Test
+    public void testCompactStorage() {
+        SsfUcarima ssf = SsfUcarima.create(ucm);
+        int n = data.getLength();
+        DiffuseSmoother smoother = new DiffuseSmoother();
+        DefaultSmoothingResults srslts = DefaultSmoothingResults.full();
+        srslts.prepare(ssf, 0, n);
+        assertTrue(smoother.process(ssf, data, srslts));
+        // compact filtering results, variances only in the smoothing results
+        DefaultDiffuseFilteringResults frslts = DefaultDiffuseFilteringResults.full(ResultsStorage.COMPACT);
+        frslts.prepare(ssf, 0, n);
+        OrdinaryFilter filter = new OrdinaryFilter(new DurbinKoopmanInitializer(frslts));
+        assertTrue(filter.process(ssf, data, frslts));
+        DefaultSmoothingResults crslts = DefaultSmoothingResults.full(ResultsStorage.VARIANCES);
+        crslts.prepare(ssf, 0, n);
+        assertTrue(new DiffuseSmoother().process(ssf, n, frslts, crslts));
+        for (int i = 0; i < 4; ++i) {
+            DataBlock c = srslts.getComponent(i), cc = crslts.getComponent(i);
+            assertTrue(c.distance(cc) <= 1e-4 * c.nrm2());
+            DataBlock v = srslts.getComponentVariance(i), cv = crslts.getComponentVariance(i);
+            assertTrue(v.distance(cv) <= 1e-4 * v.nrm2());
+        }
+        // packed double precision storage is exact
+        DefaultSmoothingResults prslts = DefaultSmoothingResults.full(ResultsStorage.of(false, ResultsStorage.Layout.Packed));
+        prslts.prepare(ssf, 0, n);
+        assertTrue(new DiffuseSmoother().process(ssf, data, prslts));
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(srslts.getComponentVariance(i).distance(prslts.getComponentVariance(i)) < 1e-12);
+        }
+        assertTrue(new Matrix(srslts.P(n / 2)).distance(new Matrix(prslts.P(n / 2))) < 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariancesStorage() {
+        // the smoother needs the complete covariances of the filter
+        new DiffuseSmoother().setStorage(ResultsStorage.VARIANCES);
+    }
+
+    @Test
+    public void testOffHeapStorage() throws java.io.IOException {
+        SsfUcarima ssf = SsfUcarima.create(ucm);
+        int n = data.getLength();
+        DefaultSmoothingResults srslts = DkToolkit.smooth(ssf, data, true);
+        try (OffHeapStorage direct = OffHeapStorage.direct(false, ResultsStorage.Layout.Full);
+                OffHeapStorage mapped = OffHeapStorage.mapped(null, false, ResultsStorage.Layout.Packed)) {
+            for (OffHeapStorage storage : new OffHeapStorage[]{direct, mapped}) {
+                DiffuseSmoother smoother = new DiffuseSmoother();
+                smoother.setStorage(storage);
+                DefaultSmoothingResults orslts = DefaultSmoothingResults.full(storage);
+                orslts.prepare(ssf, 0, n);
+                assertTrue(smoother.process(ssf, data, orslts));
+                orslts.rescaleVariances(DkToolkit.var(n, smoother.getFilteringResults()));
+                for (int i = 0; i < 4; ++i) {
+                    assertTrue(srslts.getComponent(i).distance(orslts.getComponent(i)) < 1e-9);
+                    assertTrue(srslts.getComponentVariance(i).distance(orslts.getComponentVariance(i)) < 1e-9);
+                }
+            }
+        }
+    }
+
     @Test
     //@Ignore
     public void stressTestSmoothing() {
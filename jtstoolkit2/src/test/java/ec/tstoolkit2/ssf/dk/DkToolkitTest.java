@@ -19,6 +19,7 @@ package ec.tstoolkit2.ssf.dk;
 import data.Data;
 import ec.tstoolkit.arima.estimation.RegArimaModel;
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.realfunctions.IParametricMapping;
@@ -30,11 +31,31 @@ import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit.timeseries.simplets.AverageInterpolator;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.utilities.IntList;
+import ec.tstoolkit2.ssf.FilterSnapshot;
+import ec.tstoolkit2.ssf.State;
 import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.ckms.FastArrayFilter;
+import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
 import ec.tstoolkit2.ssf.implementations.TimeInvariantSsf;
 import ec.tstoolkit2.ssf.implementations.arima.SsfArima;
+import ec.tstoolkit2.ssf.implementations.structural.BasicStructuralModel;
+import ec.tstoolkit2.ssf.implementations.structural.Component;
+import ec.tstoolkit2.ssf.implementations.structural.ComponentUse;
+import ec.tstoolkit2.ssf.implementations.structural.ModelSpecification;
+import ec.tstoolkit2.ssf.implementations.structural.SeasonalModel;
+import ec.tstoolkit2.ssf.implementations.structural.SsfBsm;
+import ec.tstoolkit2.ssf.univariate.IFilteringResults;
 import ec.tstoolkit2.ssf.univariate.ISsf;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.PredictionError;
+import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
 import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
@@ -108,6 +129,363 @@ public class DkToolkitTest {
         assertTrue(Math.abs(Ll - DLl + 0.5 * ll.getD() * Math.log(2 * Math.PI)) < 1e-9);
     }
 
+    @Test
+    public void testSteadyState() {
+        SsfArima ssf = SsfArima.create(model);
+        SsfData ssfData = new SsfData(data);
+        ILikelihood ll = DkToolkit.likelihoodComputer(false, false).compute(ssf, ssfData);
+        ILikelihood sll = DkToolkit.likelihoodComputer(false, false, 1e-12).compute(ssf, ssfData);
+        assertEquals(ll.getLogLikelihood(), sll.getLogLikelihood(), 1e-6);
+        ILikelihood qll = DkToolkit.likelihoodComputer(true, false, 1e-12).compute(ssf, ssfData);
+        assertEquals(ll.getLogLikelihood(), qll.getLogLikelihood(), 1e-6);
+        // long series, with missing values after convergence
+        double[] ldata = new double[data.length * 10];
+        for (int i = 0; i < 10; ++i) {
+            System.arraycopy(data, 0, ldata, i * data.length, data.length);
+        }
+        ldata[1500] = Double.NaN;
+        SsfData lssfData = new SsfData(ldata);
+        ll = DkToolkit.likelihoodComputer(false, false).compute(ssf, lssfData);
+        sll = DkToolkit.likelihoodComputer(false, false, 1e-12).compute(ssf, lssfData);
+        assertEquals(ll.getLogLikelihood(), sll.getLogLikelihood(), 1e-6);
+        // long series without missing values: the steady state must be
+        // reached and the frozen P(t|t) must be the usual one
+        double[] cdata = new double[data.length * 20];
+        for (int i = 0; i < cdata.length; ++i) {
+            double x = data[i % data.length];
+            cdata[i] = Double.isFinite(x) ? x : cdata[i - 1];
+        }
+        SsfData cssfData = new SsfData(cdata);
+        int t = cdata.length - 1;
+        ConcurrentP rslts = new ConcurrentP(t), srslts = new ConcurrentP(t);
+        OrdinaryFilter filter = new OrdinaryFilter(new DurbinKoopmanInitializer());
+        assertTrue(filter.process(ssf, cssfData, rslts));
+        OrdinaryFilter sfilter = new OrdinaryFilter(new DurbinKoopmanInitializer());
+        sfilter.setSteadyStateEpsilon(1e-9);
+        assertTrue(sfilter.process(ssf, cssfData, srslts));
+        assertTrue(sfilter.getSteadyStatePosition() >= 0);
+        assertTrue(sfilter.getSteadyStatePosition() < t);
+        for (int i = 0; i < rslts.P.getRowsCount(); ++i) {
+            for (int j = 0; j < rslts.P.getColumnsCount(); ++j) {
+                assertEquals(rslts.P.get(i, j), srslts.P.get(i, j), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * Keeps P(t|t) at a given position
+     */
+    private static class ConcurrentP implements IFilteringResults {
+
+        private final int t;
+        private Matrix P;
+
+        ConcurrentP(int t) {
+            this.t = t;
+        }
+
+        @Override
+        public void save(int pos, State state) {
+            if (pos == t && state.getInfo() == StateInfo.Concurrent) {
+                P = state.P().clone();
+            }
+        }
+
+        @Override
+        public void save(int pos, PredictionError pe) {
+        }
+
+        @Override
+        public void clear() {
+        }
+    }
+
+    @Test
+    public void testCkms() {
+        // diffuse models, missing values inside and at the end of the series
+        double[] ldata = Arrays.copyOf(data, data.length + 12);
+        Arrays.fill(ldata, data.length, ldata.length, Double.NaN);
+        ModelSpecification spec = new ModelSpecification();
+        spec.useLevel(ComponentUse.Free);
+        spec.useSlope(ComponentUse.Free);
+        spec.useNoise(ComponentUse.Free);
+        spec.setSeasonalModel(SeasonalModel.Trigonometric);
+        BasicStructuralModel bsm = new BasicStructuralModel(spec, 12);
+        bsm.setVariance(Component.Level, .5);
+        bsm.setVariance(Component.Slope, .01);
+        bsm.setVariance(Component.Seasonal, .2);
+        bsm.setVariance(Component.Noise, 1);
+        ISsf[] models = new ISsf[]{SsfArima.create(model), SsfBsm.create(bsm)};
+        // filter re-used for all the models (of different dimensions)
+        DiffusePredictionErrorDecomposition rpe = new DiffusePredictionErrorDecomposition(false);
+        FastArrayFilter rfilter = new FastArrayFilter(new DurbinKoopmanInitializer(rpe));
+        for (ISsf ssf : models) {
+            for (double[] cur : new double[][]{data, ldata}) {
+                SsfData ssfData = new SsfData(cur);
+                for (int k = 0; k < 2; ++k) {
+                    DiffusePredictionErrorDecomposition pe = new DiffusePredictionErrorDecomposition(false);
+                    OrdinaryFilter.Initializer initializer = k == 0 ? new DurbinKoopmanInitializer(pe)
+                            : new DiffuseSquareRootInitializer(pe);
+                    new OrdinaryFilter(initializer).process(ssf, ssfData, pe);
+                    ILikelihood ll = pe.likelihood();
+                    DiffusePredictionErrorDecomposition fpe = new DiffusePredictionErrorDecomposition(false);
+                    OrdinaryFilter.Initializer finitializer = k == 0 ? new DurbinKoopmanInitializer(fpe)
+                            : new DiffuseSquareRootInitializer(fpe);
+                    FastArrayFilter filter = new FastArrayFilter(finitializer);
+                    assertTrue(filter.process(ssf, ssfData, fpe));
+                    ILikelihood fll = fpe.likelihood();
+                    assertEquals(ll.getN(), fll.getN());
+                    assertEquals(ll.getLogLikelihood(), fll.getLogLikelihood(), 1e-8);
+                    assertEquals(ll.getLogLikelihood(), DkToolkit.likelihoodComputer(k == 1, false).compute(ssf, ssfData).getLogLikelihood(), 1e-8);
+                    rpe.clear();
+                    assertTrue(rfilter.process(ssf, ssfData, rpe));
+                    assertEquals(ll.getLogLikelihood(), rpe.likelihood().getLogLikelihood(), 1e-8);
+                }
+            }
+        }
+        // stationary model
+        SarimaModel arma = new SarimaModelBuilder().createArimaModel(12, 3, 0, 1, 1, 0, 1);
+        arma.setParameters(new DataBlock(new double[]{-.3, .1, -.2, -.6, -.4, -.8}));
+        SsfArima ssf = SsfArima.create(arma);
+        double[] w = new double[data.length - 13];
+        for (int i = 0; i < w.length; ++i) {
+            w[i] = data[i + 13] - data[i + 12] - data[i + 1] + data[i];
+            if (!Double.isFinite(w[i])) {
+                w[i] = 0;
+            }
+        }
+        PredictionErrorDecomposition pe = new PredictionErrorDecomposition(false);
+        new OrdinaryFilter().process(ssf, new SsfData(w), pe);
+        PredictionErrorDecomposition fpe = new PredictionErrorDecomposition(false);
+        FastArrayFilter filter = new FastArrayFilter();
+        assertTrue(filter.process(ssf, new SsfData(w), fpe));
+        assertEquals(pe.likelihood().getLogLikelihood(), fpe.likelihood().getLogLikelihood(), 1e-8);
+        assertTrue(filter.getSteadyStatePosition() > 0);
+        // scattered missing values, up to the end of the series: the array
+        // state is re-initialized after each stretch of missing values
+        double[] wm = w.clone();
+        int n = wm.length;
+        for (int i : new int[]{5, 6, n / 3, n / 2, n / 2 + 1, n / 2 + 2, n - 3}) {
+            wm[i] = Double.NaN;
+        }
+        pe = new PredictionErrorDecomposition(false);
+        new OrdinaryFilter().process(ssf, new SsfData(wm), pe);
+        fpe = new PredictionErrorDecomposition(false);
+        assertTrue(filter.process(ssf, new SsfData(wm), fpe));
+        assertEquals(pe.likelihood().getN(), fpe.likelihood().getN());
+        assertEquals(pe.likelihood().getLogLikelihood(), fpe.likelihood().getLogLikelihood(), 1e-8);
+    }
+
+    @Test
+    public void testBatch() {
+        int n = 50;
+        List<SsfData> series = new ArrayList<>();
+        List<SsfArima> models = new ArrayList<>();
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        for (int i = 0; i < n; ++i) {
+            double[] cur = data.clone();
+            cur[i] = Double.NaN;
+            series.add(new SsfData(cur));
+            SarimaModel m = builder.createArimaModel(12, 3, 1, 1, 0, 1, 1);
+            m.setParameters(new DataBlock(new double[]{-.3, -.3, -.3, -.5 + .005 * i, -.9}));
+            models.add(SsfArima.create(m));
+        }
+        BatchLikelihoodComputer batch = new BatchLikelihoodComputer();
+        batch.setChunkSize(7);
+        List<BatchLikelihoodComputer.Result> rslts = batch.compute(models, series);
+        assertEquals(n, rslts.size());
+        for (int i = 0; i < n; ++i) {
+            BatchLikelihoodComputer.Result rslt = rslts.get(i);
+            assertTrue(rslt.isSuccessful());
+            assertTrue(rslt.getDuration() > 0);
+            ILikelihood ll = DkToolkit.likelihoodComputer(true, false).compute(models.get(i), series.get(i));
+            assertEquals(ll.getLogLikelihood(), rslt.getLikelihood().getLogLikelihood(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testLockstep() {
+        int n = 21;
+        List<SsfData> series = new ArrayList<>();
+        List<ISsf> models = new ArrayList<>();
+        SarimaModelBuilder builder = new SarimaModelBuilder();
+        ModelSpecification spec = new ModelSpecification();
+        spec.useLevel(ComponentUse.Free);
+        spec.useSlope(ComponentUse.Free);
+        spec.useNoise(ComponentUse.Free);
+        spec.setSeasonalModel(SeasonalModel.Dummy);
+        for (int i = 0; i < n; ++i) {
+            double[] cur = Arrays.copyOf(data, data.length - i);
+            cur[i] = Double.NaN;
+            cur[2 * i + 20] = Double.NaN;
+            series.add(new SsfData(cur));
+            if (i % 3 == 2) {
+                BasicStructuralModel bsm = new BasicStructuralModel(spec, 12);
+                bsm.setVariance(Component.Level, .1 * i);
+                bsm.setVariance(Component.Slope, .01);
+                bsm.setVariance(Component.Seasonal, .5);
+                bsm.setVariance(Component.Noise, 1);
+                models.add(SsfBsm.create(bsm));
+            } else {
+                SarimaModel m = builder.createArimaModel(12, 3, 1, 1, 0, 1, 1);
+                m.setParameters(new DataBlock(new double[]{-.3, -.3, -.3, -.5 + .005 * i, -.9}));
+                models.add(SsfArima.create(m));
+            }
+        }
+        LockstepLikelihoodComputer lockstep = new LockstepLikelihoodComputer();
+        lockstep.setLanesCount(4);
+        for (int k = 0; k < 2; ++k) {
+            lockstep.setSquareRoot(k == 0);
+            List<ILikelihood> rslts = lockstep.compute(models, series);
+            assertEquals(n, rslts.size());
+            for (int i = 0; i < n; ++i) {
+                ILikelihood ll = DkToolkit.likelihoodComputer(k == 0, false).compute(models.get(i), series.get(i));
+                assertEquals(ll.getLogLikelihood(), rslts.get(i).getLogLikelihood(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testAnalyticalGradient() {
+        SsfData ssfData = new SsfData(data);
+        // structural model: all the parameters are variances
+        ModelSpecification spec = new ModelSpecification();
+        spec.useLevel(ComponentUse.Free);
+        spec.useSlope(ComponentUse.Free);
+        spec.useNoise(ComponentUse.Free);
+        spec.setSeasonalModel(SeasonalModel.Dummy);
+        BasicStructuralModel bsm = new BasicStructuralModel(spec, 12);
+        bsm.setVariance(Component.Level, .5);
+        bsm.setVariance(Component.Slope, .01);
+        bsm.setVariance(Component.Seasonal, .2);
+        bsm.setVariance(Component.Noise, 1);
+        ISsfDerivativesMapping<SsfBsm> bmapping = SsfBsm.mapping(bsm);
+        compareGradients(ssfData, bmapping, bmapping.map(SsfBsm.create(bsm)));
+        // arima model: analytical derivatives for the moving averages only
+        ISsfDerivativesMapping<SsfArima> amapping = SsfArima.mapping(model.getSpecification());
+        IReadDataBlock p = amapping.map(SsfArima.create(model));
+        ISsfDerivatives derivatives = amapping.derivatives(p);
+        assertFalse(derivatives.isVarianceParameter(0));
+        assertTrue(derivatives.isVarianceParameter(p.getLength() - 1));
+        compareGradients(ssfData, amapping, p);
+    }
+
+    private static <S extends ISsf> void compareGradients(SsfData ssfData, ISsfDerivativesMapping<S> mapping, IReadDataBlock p) {
+        for (boolean log : new boolean[]{true, false}) {
+            SsfFunction<S> afn = new SsfFunction<>(ssfData, mapping, true, false);
+            afn.setLog(log);
+            afn.setAnalyticalDerivatives(true);
+            SsfFunction<S> nfn = new SsfFunction<>(ssfData, mapping, true, false);
+            nfn.setLog(log);
+            IReadDataBlock ag = afn.getDerivatives(afn.evaluate(p)).getGradient();
+            IReadDataBlock ng = nfn.getDerivatives(nfn.evaluate(p)).getGradient();
+            for (int i = 0; i < p.getLength(); ++i) {
+                double scale = Math.max(1, Math.abs(ng.get(i)));
+                assertEquals(ng.get(i) / scale, ag.get(i) / scale, 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testPooledEvaluation() {
+        SsfData ssfData = new SsfData(data);
+        IParametricMapping<SsfArima> mapping = SsfArima.mapping(model.getSpecification());
+        IReadDataBlock p = mapping.map(SsfArima.create(model));
+        SsfFunction<SsfArima> fn = new SsfFunction<>(ssfData, mapping, true, false);
+        SsfFunction<SsfArima> pfn = new SsfFunction<>(ssfData, mapping, true, true);
+        pfn.setPooledEvaluation(true);
+        for (int k = 0; k < 3; ++k) {
+            SsfFunctionInstance<SsfArima> cur = (SsfFunctionInstance<SsfArima>) fn.ssqEvaluate(p);
+            SsfFunctionInstance<SsfArima> pcur = (SsfFunctionInstance<SsfArima>) pfn.ssqEvaluate(p);
+            assertEquals(cur.getValue(), pcur.getValue(), 1e-9 * Math.abs(cur.getValue()));
+            assertArrayEquals(cur.getE(), pcur.getE(), 1e-9);
+            // residuals computed on demand
+            SsfFunctionInstance<SsfArima> qcur = (SsfFunctionInstance<SsfArima>) pfn.evaluate(p);
+            assertArrayEquals(cur.getE(), qcur.getE(), 1e-9);
+        }
+        IReadDataBlock g = fn.getDerivatives(fn.evaluate(p)).getGradient();
+        IReadDataBlock pg = pfn.getDerivatives(pfn.evaluate(p)).getGradient();
+        assertEquals(0, new DataBlock(g).distance(new DataBlock(pg)), 1e-6);
+        pfn.releaseWorkers();
+        assertEquals(fn.evaluate(p).getValue(), pfn.evaluate(p).getValue(), 1e-9 * Math.abs(fn.evaluate(p).getValue()));
+    }
+
+    @Test
+    public void testDerivativesExecutor() throws InterruptedException {
+        SsfData ssfData = new SsfData(data);
+        ISsfDerivativesMapping<SsfArima> mapping = SsfArima.mapping(model.getSpecification());
+        IReadDataBlock p = mapping.map(SsfArima.create(model));
+        SsfFunction<SsfArima> fn = new SsfFunction<>(ssfData, mapping, true, false);
+        fn.setAnalyticalDerivatives(true);
+        SsfFunction<SsfArima> pfn = new SsfFunction<>(ssfData, mapping, true, true);
+        pfn.setAnalyticalDerivatives(true);
+        pfn.setPooledEvaluation(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            pfn.setExecutor(executor);
+            assertSame(executor, pfn.getExecutor());
+            IReadDataBlock g = fn.getDerivatives(fn.evaluate(p)).getGradient();
+            IReadDataBlock pg = pfn.getDerivatives(pfn.evaluate(p)).getGradient();
+            assertEquals(0, new DataBlock(g).distance(new DataBlock(pg)), 1e-9);
+        } finally {
+            executor.shutdown();
+        }
+        pfn.setExecutor(null);
+        assertSame(ForkJoinPool.commonPool(), pfn.getExecutor());
+    }
+
+    @Test
+    public void testIncremental() {
+        SsfArima ssf = SsfArima.create(model);
+        ILikelihood ll = DkToolkit.likelihoodComputer(false, false).compute(ssf, new SsfData(data));
+        int n0 = 100, n1 = 150;
+        IncrementalFilter filter = new IncrementalFilter(ssf);
+        assertTrue(filter.initialize(new SsfData(Arrays.copyOf(data, n0))));
+        for (int i = n0; i < n1; ++i) {
+            assertTrue(filter.add(data[i]));
+        }
+        IncrementalFilter.Checkpoint checkpoint = filter.checkpoint();
+        assertEquals(n1, checkpoint.getPosition());
+        DataBlock rest = new DataBlock(data, n1, data.length, 1);
+        assertTrue(filter.add(rest));
+        assertEquals(data.length, filter.getPosition());
+        assertEquals(ll.getLogLikelihood(), filter.likelihood().getLogLikelihood(), 1e-6);
+        // new vintage of the last observations
+        assertTrue(filter.restore(checkpoint));
+        assertTrue(filter.add(rest));
+        assertEquals(ll.getLogLikelihood(), filter.likelihood().getLogLikelihood(), 1e-6);
+        // the history must complete the diffuse initialization
+        assertFalse(new IncrementalFilter(ssf).initialize(new SsfData(Arrays.copyOf(data, 3))));
+    }
+
+    @Test
+    public void testSnapshot() throws java.io.IOException {
+        SsfArima ssf = SsfArima.create(model);
+        ILikelihood ll = DkToolkit.likelihoodComputer(false, false).compute(ssf, new SsfData(data));
+        int n0 = 100;
+        IncrementalFilter filter = new IncrementalFilter(ssf);
+        assertTrue(filter.initialize(new SsfData(Arrays.copyOf(data, n0))));
+        byte[] bytes = filter.snapshot().toByteArray();
+        // warm start in a new filter, without the history
+        FilterSnapshot snapshot = FilterSnapshot.fromByteArray(bytes);
+        IncrementalFilter nfilter = new IncrementalFilter(ssf);
+        assertTrue(nfilter.initialize(snapshot));
+        assertEquals(n0, nfilter.getPosition());
+        assertTrue(nfilter.add(new DataBlock(data, n0, data.length, 1)));
+        assertEquals(ll.getLogLikelihood(), nfilter.likelihood().getLogLikelihood(), 1e-6);
+        // the binary image is stable
+        assertArrayEquals(bytes, snapshot.toByteArray());
+        // invalid sizes are rejected before any allocation
+        byte[] corrupted = bytes.clone();
+        // dimension (after magic, version, kind, info and position)
+        java.nio.ByteBuffer.wrap(corrupted).putInt(11, Integer.MAX_VALUE);
+        try {
+            FilterSnapshot.fromByteArray(corrupted);
+            fail();
+        } catch (java.io.IOException err) {
+        }
+    }
+
     @Test
     @Ignore
     public void testEstimation() {
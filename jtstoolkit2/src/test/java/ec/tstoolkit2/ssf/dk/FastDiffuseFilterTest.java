@@ -65,4 +65,49 @@ public class FastDiffuseFilterTest {
         filter.filter(x.subMatrix());
         assertTrue(new DataBlock(fresults.errors()).distance(x.column(0))<1e-9);
     }
+
+    @Test
+    public void testRegression() {
+        ISsf ssf = Models.ssfUcarima;
+        SsfData data = Models.ssfXRandom;
+        int n = data.getLength(), nx = 11;
+        Matrix x = new Matrix(n, nx);
+        x.randomize();
+        // reference: y and X filtered with the stored results
+        DefaultDiffuseFilteringResults fresults = DkToolkit.filter(ssf, data, false);
+        Matrix e = new Matrix(n, nx + 1);
+        e.column(0).copy(data);
+        e.subMatrix(0, n, 1, nx + 1).copy(x.subMatrix());
+        new FastDiffuseFilter(ssf, fresults, new ResultsRange(0, n)).filter(e.subMatrix());
+        Matrix xx = new Matrix(nx + 1, nx + 1);
+        for (int t = 0; t < n; ++t) {
+            if (!Double.isFinite(fresults.error(t))) {
+                continue;
+            }
+            if (t < fresults.getEndDiffusePosition() && fresults.diffuseNorm2(t) != 0) {
+                continue;
+            }
+            double f = fresults.errorVariance(t);
+            for (int i = 0; i <= nx; ++i) {
+                for (int j = 0; j <= nx; ++j) {
+                    xx.set(i, j, xx.get(i, j) + e.get(t, i) * e.get(t, j) / f);
+                }
+            }
+        }
+        for (int k = 0; k < 2; ++k) {
+            DiffuseRegressionFilter filter = new DiffuseRegressionFilter();
+            filter.setSquareRoot(k == 0);
+            filter.setTileSize(4);
+            filter.setBlockLength(7);
+            assertTrue(filter.process(ssf, data, x.subMatrix()));
+            assertEquals(xx.get(0, 0), filter.getYtY(), 1e-6);
+            assertEquals(filter.getLikelihood().getSsqErr(), filter.getYtY(), 1e-6);
+            for (int i = 0; i < nx; ++i) {
+                assertEquals(xx.get(i + 1, 0), filter.getXty().get(i), 1e-6);
+                for (int j = 0; j < nx; ++j) {
+                    assertEquals(xx.get(i + 1, j + 1), filter.getXtX().get(i, j), 1e-6);
+                }
+            }
+        }
+    }
 }
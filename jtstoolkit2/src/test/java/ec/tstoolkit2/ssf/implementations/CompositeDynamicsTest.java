@@ -18,6 +18,12 @@
  */
 package ec.tstoolkit2.ssf.implementations;
 
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit2.ssf.implementations.arima.SsfAr1;
+import ec.tstoolkit2.ssf.implementations.structural.LocalLinearTrend;
+import ec.tstoolkit2.ssf.implementations.structural.SeasonalComponent;
+import ec.tstoolkit2.ssf.implementations.structural.SeasonalModel;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -33,5 +39,23 @@ public class CompositeDynamicsTest {
     @Test
     public void testSomeMethod() {
     }
+
+    @Test
+    public void testTVT() {
+        CompositeDynamics dyn = new CompositeDynamics(new LocalLinearTrend.Dynamics(.1, .2),
+                new ConstantDynamics(2), new SsfAr1.Dynamics(0, 1, false),
+                SeasonalComponent.create(SeasonalModel.Crude, 2.0, 12).getDynamics(),
+                new SsfAr1.Dynamics(.7, 1, false));
+        int n = dyn.getStateDim();
+        Matrix T = Matrix.square(n);
+        T.diagonal().set(1);
+        dyn.TM(0, T.subMatrix());
+        Matrix V = new Matrix(n, n);
+        V.randomize();
+        V = SymmetricMatrix.XXt(V);
+        Matrix TVT = T.times(V).times(T.transpose());
+        dyn.TVT(0, V.subMatrix());
+        assertTrue(TVT.distance(V) < 1e-9);
+    }
     
 }
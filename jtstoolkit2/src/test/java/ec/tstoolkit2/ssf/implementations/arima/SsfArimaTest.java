@@ -22,7 +22,9 @@ import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaSpecification;
 import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
 import ec.tstoolkit2.ssf.implementations.TimeInvariantSsf;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
 import org.junit.Test;
@@ -76,6 +78,31 @@ public class SsfArimaTest {
         assertTrue(M1.distance(M2) < 1e-9);
     }
 
+    @Test
+    public void testStationaryTVT() {
+        // T*V*T' is computed in place, for the stationary and non stationary
+        // forms
+        SarimaSpecification spec = new SarimaSpecification(4);
+        spec.setP(3);
+        spec.setQ(1);
+        spec.setBP(1);
+        SarimaModel arma = new SarimaModel(spec);
+        arma.setDefault(-.2, -.4);
+        for (SarimaModel cur : new SarimaModel[]{arma, model}) {
+            SsfArima arima = SsfArima.create(cur);
+            ISsfDynamics dyn = arima.getDynamics();
+            int dim = arima.getStateDim();
+            Matrix M1 = new Matrix(dim, dim);
+            M1.randomize();
+            M1 = SymmetricMatrix.XXt(M1);
+            Matrix M2 = M1.clone();
+            dyn.TVT(0, M1.subMatrix());
+            dyn.TM(0, M2.subMatrix());
+            dyn.TM(0, M2.subMatrix().transpose());
+            assertTrue(M1.distance(M2) < 1e-9);
+        }
+    }
+
     @Test
     public void testMeasurement() {
         SsfArima arima = SsfArima.create(model);
@@ -103,4 +130,62 @@ public class SsfArimaTest {
         assertTrue(x1.distance(x2) < 1e-9);
     }
 
+    @Test
+    public void testCompiled() {
+        SsfArima arima = SsfArima.create(model);
+        ISsf compiled = CompiledSsf.of(arima);
+        assertEquals(CompiledSsf.Dynamics.Structure.Shift, ((CompiledSsf.Dynamics) compiled.getDynamics()).getStructure());
+        int dim = arima.getStateDim();
+        Matrix M1 = new Matrix(dim, dim);
+        M1.randomize();
+        M1 = SymmetricMatrix.XXt(M1);
+        Matrix M2 = M1.clone();
+        DataBlock x1 = new DataBlock(dim);
+        x1.randomize();
+        DataBlock x2 = x1.deepClone();
+        ISsfDynamics dynref = arima.getDynamics();
+        ISsfDynamics dyn = compiled.getDynamics();
+        dynref.TX(0, x1);
+        dyn.TX(0, x2);
+        assertTrue(x1.distance(x2) < 1e-9);
+        dynref.XT(0, x1);
+        dyn.XT(0, x2);
+        assertTrue(x1.distance(x2) < 1e-9);
+        dynref.TVT(0, M1.subMatrix());
+        dynref.addV(0, M1.subMatrix());
+        dyn.TVT(0, M2.subMatrix());
+        dyn.addV(0, M2.subMatrix());
+        assertTrue(M1.distance(M2) < 1e-9);
+        // packed TVT (shift of the lower triangle)
+        PackedSymmetricMatrix P2 = PackedSymmetricMatrix.of(M2.subMatrix());
+        dynref.TVT(0, M1.subMatrix());
+        dyn.TVT(0, P2);
+        assertTrue(M1.distance(P2.toMatrix()) < 1e-9);
+        M2.copy(M1);
+        ISsfMeasurement mref = arima.getMeasurement();
+        ISsfMeasurement m = compiled.getMeasurement();
+        assertEquals(mref.ZX(0, x1), m.ZX(0, x2), 1e-9);
+        assertEquals(mref.ZVZ(0, M1.subMatrix()), m.ZVZ(0, M2.subMatrix()), 1e-9);
+        mref.VpZdZ(0, M1.subMatrix(), 5);
+        m.VpZdZ(0, M2.subMatrix(), 5);
+        assertTrue(M1.distance(M2) < 1e-9);
+        mref.XpZd(0, x1, 5);
+        m.XpZd(0, x2, 5);
+        assertTrue(x1.distance(x2) < 1e-9);
+        // packed covariance
+        PackedSymmetricMatrix P = PackedSymmetricMatrix.of(M1.subMatrix());
+        assertEquals(mref.ZVZ(0, M1.subMatrix()), m.ZVZ(0, P), 1e-9);
+        mref.ZM(0, M1.subMatrix(), x1);
+        m.ZM(0, P, x2);
+        assertTrue(x1.distance(x2) < 1e-9);
+        mref.VpZdZ(0, M1.subMatrix(), 5);
+        m.VpZdZ(0, P, 5);
+        assertTrue(M1.distance(P.toMatrix()) < 1e-9);
+        // the cache compiles the model once
+        CompiledSsf.Cache cache = new CompiledSsf.Cache();
+        ISsf c = cache.of(arima);
+        assertTrue(c instanceof CompiledSsf);
+        assertSame(c, cache.of(arima));
+        assertNotSame(c, cache.of(SsfArima.create(model)));
+    }
 }
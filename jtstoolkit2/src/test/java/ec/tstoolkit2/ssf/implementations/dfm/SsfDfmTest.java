@@ -16,18 +16,36 @@
  */
 package ec.tstoolkit2.ssf.implementations.dfm;
 
+import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.eco.ILikelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit2.ssf.array.MultivariateArrayFilter;
+import ec.tstoolkit2.ssf.dk.IncrementalFilter;
+import ec.tstoolkit2.ssf.dk.MultivariateIncrementalFilter;
+import ec.tstoolkit2.ssf.implementations.Measurements;
 import ec.tstoolkit2.ssf.implementations.var.VarDescriptor;
+import ec.tstoolkit2.ssf.multivariate.CollapsedFilter;
+import ec.tstoolkit2.ssf.multivariate.IMultivariateSsf;
 import ec.tstoolkit2.ssf.multivariate.M2uAdapter;
 import ec.tstoolkit2.ssf.multivariate.MultivariateOrdinaryFilter;
+import ec.tstoolkit2.ssf.multivariate.MultivariateSsf;
 import ec.tstoolkit2.ssf.multivariate.PredictionErrorsDecomposition;
+import ec.tstoolkit2.ssf.multivariate.SequentialFilter;
+import ec.tstoolkit2.ssf.multivariate.SequentialFilteringResults;
+import ec.tstoolkit2.ssf.multivariate.SequentialSmoother;
 import ec.tstoolkit2.ssf.multivariate.SsfMatrix;
+import ec.tstoolkit2.ssf.storage.OffHeapStorage;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.ISmoothingResults;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfData;
 import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.univariate.OrdinarySmoother;
 import ec.tstoolkit2.ssf.univariate.PredictionErrorDecomposition;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
@@ -81,6 +99,280 @@ public class SsfDfmTest {
         assertEquals(decomp.likelihood().getLogLikelihood(), udecomp.likelihood().getLogLikelihood(), 1e-6);
     }
 
+    /**
+     * Data with a ragged edge and a few other missing values
+     *
+     * @return
+     */
+    private static SsfMatrix raggedData() {
+        Matrix m = data.clone();
+        int n = m.getRowsCount();
+        for (int i = 0; i < m.getColumnsCount(); ++i) {
+            for (int j = n - i % 6; j < n; ++j) {
+                m.set(j, i, Double.NaN);
+            }
+        }
+        m.set(10, 3, Double.NaN);
+        m.set(10, 25, Double.NaN);
+        m.set(50, 0, Double.NaN);
+        return new SsfMatrix(m);
+    }
+
+    @Test
+    public void testSequential() {
+        SsfMatrix ssfdata = raggedData();
+        MultivariateOrdinaryFilter mfilter = new MultivariateOrdinaryFilter();
+        PredictionErrorsDecomposition decomp = new PredictionErrorsDecomposition(false);
+        mfilter.process(dfm, ssfdata, decomp);
+        SequentialFilter sfilter = new SequentialFilter();
+        PredictionErrorDecomposition sdecomp = new PredictionErrorDecomposition(false);
+        assertTrue(sfilter.process(dfm, ssfdata, sdecomp));
+        assertEquals(decomp.likelihood().getLogLikelihood(), sdecomp.likelihood().getLogLikelihood(), 1e-6);
+
+        SequentialSmoother smoother = new SequentialSmoother();
+        assertTrue(smoother.process(dfm, ssfdata));
+        OrdinarySmoother usmoother = new OrdinarySmoother();
+        assertTrue(usmoother.process(M2uAdapter.of(dfm), M2uAdapter.of(ssfdata)));
+        ISmoothingResults srslts = smoother.getResults(), urslts = usmoother.getResults();
+        int nvars = data.getColumnsCount();
+        for (int t = 0; t < data.getRowsCount(); t += 10) {
+            assertTrue(srslts.a(t).distance(urslts.a(t * nvars)) < 1e-6);
+            assertTrue(srslts.P(t).diagonal().distance(urslts.P(t * nvars).diagonal()) < 1e-6);
+        }
+        // the smoother re-uses its buffers
+        assertTrue(smoother.process(dfm, ssfdata));
+        ISmoothingResults rrslts = smoother.getResults();
+        for (int t = 0; t < data.getRowsCount(); t += 10) {
+            assertTrue(srslts.a(t).distance(rrslts.a(t)) < 1e-12);
+            assertTrue(srslts.P(t).diagonal().distance(rrslts.P(t).diagonal()) < 1e-12);
+        }
+    }
+
+    @Test
+    public void testOffHeapStorage() throws java.io.IOException {
+        SsfMatrix ssfdata = raggedData();
+        SequentialSmoother smoother = new SequentialSmoother();
+        assertTrue(smoother.process(dfm, ssfdata));
+        ISmoothingResults srslts = smoother.getResults();
+        Path dir = Files.createTempDirectory("ssf");
+        try {
+            try (OffHeapStorage storage = OffHeapStorage.mapped(dir, false, ResultsStorage.Layout.Packed)) {
+                SequentialSmoother osmoother = new SequentialSmoother();
+                osmoother.setStorage(storage);
+                assertTrue(osmoother.process(dfm, ssfdata));
+                // a single temporary file for all the results
+                try (Stream<Path> files = Files.list(dir)) {
+                    assertEquals(1, files.count());
+                }
+                ISmoothingResults orslts = osmoother.getResults();
+                for (int t = 0; t < data.getRowsCount(); t += 10) {
+                    assertTrue(srslts.a(t).distance(orslts.a(t)) < 1e-9);
+                    assertTrue(srslts.P(t).diagonal().distance(orslts.P(t).diagonal()) < 1e-9);
+                }
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testSequentialWithCorrelatedErrors() {
+        int nvars = data.getColumnsCount();
+        Matrix V = Matrix.square(nvars);
+        for (int i = 0; i < nvars; ++i) {
+            for (int j = 0; j < nvars; ++j) {
+                V.set(i, j, Math.pow(.5, Math.abs(i - j)));
+            }
+        }
+        IMultivariateSsf mssf = MultivariateSsf.of(dfm.getDynamics(), Measurements.create(dfm.getMeasurements(), V.subMatrix()));
+        SsfMatrix ssfdata = raggedData();
+        MultivariateOrdinaryFilter mfilter = new MultivariateOrdinaryFilter();
+        PredictionErrorsDecomposition decomp = new PredictionErrorsDecomposition(false);
+        mfilter.process(mssf, ssfdata, decomp);
+        SequentialFilter sfilter = new SequentialFilter();
+        PredictionErrorDecomposition sdecomp = new PredictionErrorDecomposition(false);
+        assertTrue(sfilter.process(mssf, ssfdata, sdecomp));
+        assertEquals(decomp.likelihood().getLogLikelihood(), sdecomp.likelihood().getLogLikelihood(), 1e-6);
+        // the covariance matrix is copied by the measurements
+        V.set(0, 1, 0);
+        V.set(1, 0, 0);
+        PredictionErrorDecomposition vdecomp = new PredictionErrorDecomposition(false);
+        assertTrue(new SequentialFilter().process(mssf, ssfdata, vdecomp));
+        assertEquals(sdecomp.likelihood().getLogLikelihood(), vdecomp.likelihood().getLogLikelihood(), 1e-12);
+
+        // smoother: the smoothed variances are bounded by the predicted ones
+        SequentialFilteringResults fresults = SequentialFilteringResults.full();
+        fresults.prepare(mssf, 0, ssfdata.getCount());
+        assertTrue(sfilter.process(mssf, ssfdata, fresults));
+        SequentialSmoother smoother = new SequentialSmoother();
+        assertTrue(smoother.process(mssf, ssfdata));
+        ISmoothingResults srslts = smoother.getResults();
+        for (int t = 0; t < data.getRowsCount(); ++t) {
+            DataBlock a = srslts.a(t), v = srslts.P(t).diagonal(), pv = fresults.P(t * nvars).diagonal();
+            for (int i = 0; i < a.getLength(); ++i) {
+                assertTrue(Double.isFinite(a.get(i)));
+                assertTrue(v.get(i) >= -1e-9 && v.get(i) <= pv.get(i) + 1e-9);
+            }
+        }
+
+        // diagonal covariance matrix: same results as independent errors
+        Matrix D = Matrix.square(nvars);
+        DataBlock var = new DataBlock(nvars);
+        for (int i = 0; i < nvars; ++i) {
+            D.set(i, i, 1 + i % 3);
+            var.set(i, 1 + i % 3);
+        }
+        IMultivariateSsf dssf = MultivariateSsf.of(dfm.getDynamics(), Measurements.create(dfm.getMeasurements(), D.subMatrix()));
+        IMultivariateSsf issf = MultivariateSsf.of(dfm.getDynamics(), Measurements.create(dfm.getMeasurements(), var));
+        SequentialSmoother dsmoother = new SequentialSmoother(), ismoother = new SequentialSmoother();
+        assertTrue(dsmoother.process(dssf, ssfdata));
+        assertTrue(ismoother.process(issf, ssfdata));
+        ISmoothingResults drslts = dsmoother.getResults(), irslts = ismoother.getResults();
+        for (int t = 0; t < data.getRowsCount(); t += 10) {
+            assertTrue(drslts.a(t).distance(irslts.a(t)) < 1e-6);
+            assertTrue(drslts.P(t).diagonal().distance(irslts.P(t).diagonal()) < 1e-6);
+        }
+    }
+
+    @Test
+    public void testCollapsed() {
+        SsfMatrix[] all = new SsfMatrix[]{new SsfMatrix(data), raggedData()};
+        for (SsfMatrix ssfdata : all) {
+            MultivariateOrdinaryFilter mfilter = new MultivariateOrdinaryFilter();
+            PredictionErrorsDecomposition decomp = new PredictionErrorsDecomposition(false);
+            mfilter.process(dfm, ssfdata, decomp);
+            CollapsedFilter cfilter = new CollapsedFilter();
+            PredictionErrorsDecomposition cdecomp = new PredictionErrorsDecomposition(false);
+            assertTrue(cfilter.process(dfm, ssfdata, cdecomp));
+            assertEquals(decomp.likelihood().getLogLikelihood(), cdecomp.likelihood().getLogLikelihood(), 1e-6);
+            assertNull(cdecomp.allResiduals());
+            // standardized residuals of the collapsed observations
+            PredictionErrorsDecomposition rdecomp = new PredictionErrorsDecomposition(true);
+            assertTrue(cfilter.process(dfm, ssfdata, rdecomp));
+            double[] res = rdecomp.allResiduals();
+            assertTrue(res.length > 0);
+            double ssq = 0;
+            for (int i = 0; i < res.length; ++i) {
+                assertTrue(Double.isFinite(res[i]));
+                ssq += res[i] * res[i];
+            }
+            assertTrue(ssq <= rdecomp.likelihood().getSsqErr() * (1 + 1e-9));
+        }
+    }
+
+    @Test
+    public void testReusedFilter() {
+        SsfMatrix ragged = raggedData(), full = new SsfMatrix(data);
+        MultivariateOrdinaryFilter mfilter = new MultivariateOrdinaryFilter();
+        PredictionErrorsDecomposition decomp = new PredictionErrorsDecomposition(false);
+        mfilter.process(dfm, ragged, decomp);
+        double ll0 = decomp.likelihood().getLogLikelihood();
+        mfilter.process(dfm, full, decomp);
+        double ll1 = decomp.likelihood().getLogLikelihood();
+        mfilter.process(dfm, ragged, decomp);
+        assertEquals(ll0, decomp.likelihood().getLogLikelihood(), 1e-9);
+        PredictionErrorsDecomposition ndecomp = new PredictionErrorsDecomposition(false);
+        new MultivariateOrdinaryFilter().process(dfm, full, ndecomp);
+        assertEquals(ll1, ndecomp.likelihood().getLogLikelihood(), 1e-9);
+    }
+
+    @Test
+    public void testIncremental() {
+        int n = data.getRowsCount(), nvars = data.getColumnsCount();
+        MultivariateIncrementalFilter all = new MultivariateIncrementalFilter(dfm);
+        assertTrue(all.initialize(new SsfMatrix(data)));
+        MultivariateIncrementalFilter ifilter = new MultivariateIncrementalFilter(dfm);
+        assertTrue(ifilter.initialize(new SsfMatrix(new Matrix(data.subMatrix(0, 200, 0, nvars)))));
+        IncrementalFilter.Checkpoint checkpoint = ifilter.checkpoint();
+        for (int t = 200; t < n; ++t) {
+            assertTrue(ifilter.add(data.row(t)));
+        }
+        assertEquals(n, ifilter.getPosition());
+        assertEquals(all.likelihood().getLogLikelihood(), ifilter.likelihood().getLogLikelihood(), 1e-9);
+        // the filter is restored without re-processing the history
+        assertTrue(ifilter.restore(checkpoint));
+        assertEquals(200, ifilter.getPosition());
+        for (int t = 200; t < n; ++t) {
+            assertTrue(ifilter.add(data.row(t)));
+        }
+        assertEquals(all.likelihood().getLogLikelihood(), ifilter.likelihood().getLogLikelihood(), 1e-9);
+    }
+
+    @Test
+    public void testEM() {
+        VarDescriptor vdesc = new VarDescriptor(2, 2);
+        MeasurementDescriptor[] mdesc = new MeasurementDescriptor[10];
+        for (int i = 0; i < mdesc.length; ++i) {
+            double[] c = new double[2];
+            if (i % 3 == 2) {
+                c[1] = Double.NaN;
+            }
+            mdesc[i] = new MeasurementDescriptor(i < 5 ? LevelMeasurement.ML : CumulMeasurement.MC4, c, 1);
+            mdesc[i].seDefaultCoefficients();
+        }
+        Matrix m = new Matrix(data.subMatrix(0, 120, 0, mdesc.length));
+        m.set(119, 0, Double.NaN);
+        m.set(60, 7, Double.NaN);
+        DfmEmEngine engine = new DfmEmEngine();
+        engine.setMaxIterations(10);
+        assertTrue(engine.estimate(vdesc, mdesc, new SsfMatrix(m)));
+        double[] ll = engine.getLogLikelihoods();
+        assertEquals(engine.getIterationsCount() + 1, ll.length);
+        assertTrue(ll[ll.length - 1] > ll[0]);
+        // EM increases the likelihood (up to the initialization of the
+        // state, which is not estimated)
+        for (int i = 1; i < ll.length; ++i) {
+            assertTrue(ll[i] >= ll[i - 1] - 1e-6 * Math.abs(ll[i - 1]));
+        }
+        // unused factors stay unused
+        for (int i = 2; i < mdesc.length; i += 3) {
+            assertFalse(engine.getMeasurementDescriptors()[i].isUsed(1));
+        }
+        // the descriptors of the caller are not modified
+        assertEquals(VarDescriptor.AR_DEF, vdesc.getVarMatrix().get(0, 0), 0);
+    }
+
+    @Test
+    public void testEMRecovery() {
+        // one factor, f(t) = .7 f(t-1) + u(t), var(u) = 1
+        // y(i,t) = (1 + .25*i) f(t) + e(i,t), var(e) = .5
+        int n = 500, nvars = 8;
+        double ar = .7, evar = .5;
+        Random rnd = new Random(12345);
+        Matrix m = new Matrix(n, nvars);
+        double f = rnd.nextGaussian() / Math.sqrt(1 - ar * ar);
+        for (int t = 0; t < n; ++t) {
+            f = ar * f + rnd.nextGaussian();
+            for (int i = 0; i < nvars; ++i) {
+                m.set(t, i, (1 + .25 * i) * f + Math.sqrt(evar) * rnd.nextGaussian());
+            }
+        }
+        m.set(n - 1, 0, Double.NaN);
+        VarDescriptor vdesc = new VarDescriptor(1, 1);
+        MeasurementDescriptor[] mdesc = new MeasurementDescriptor[nvars];
+        for (int i = 0; i < nvars; ++i) {
+            mdesc[i] = new MeasurementDescriptor(LevelMeasurement.ML, new double[1], 1);
+            mdesc[i].seDefaultCoefficients();
+        }
+        DfmEmEngine engine = new DfmEmEngine();
+        engine.setMaxIterations(500);
+        engine.setPrecision(1e-9);
+        assertTrue(engine.estimate(vdesc, mdesc, new SsfMatrix(m)));
+        assertEquals(ar, engine.getVarDescriptor().getVarMatrix().get(0, 0), .1);
+        // the loadings are identified up to the scale of the factor
+        MeasurementDescriptor[] edesc = engine.getMeasurementDescriptors();
+        double l0 = edesc[0].getCoefficient(0);
+        double q = engine.getVarDescriptor().getInnovationsVariance().get(0, 0);
+        assertEquals(1, l0 * l0 * q, .2);
+        for (int i = 0; i < nvars; ++i) {
+            assertEquals(1 + .25 * i, edesc[i].getCoefficient(0) / l0, .1 * (1 + .25 * i));
+            assertEquals(evar, edesc[i].getVar(), .15);
+        }
+    }
+
     int M = 200;
 
     @Test
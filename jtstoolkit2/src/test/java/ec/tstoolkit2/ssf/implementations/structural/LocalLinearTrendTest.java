@@ -17,15 +17,21 @@
 package ec.tstoolkit2.ssf.implementations.structural;
 
 import ec.tstoolkit.arima.ArimaModelBuilder;
+import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.dk.DiffuseSmoother;
 import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
 import static ec.tstoolkit2.ssf.implementations.structural.SsfBsmTest.data;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import ec.tstoolkit2.ssf.univariate.DefaultSmoothingResults;
 import ec.tstoolkit2.ssf.univariate.FilteringErrors;
 import ec.tstoolkit2.ssf.univariate.Ssf;
 import ec.tstoolkit2.ssf.univariate.SsfData;
+import java.util.Random;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Ignore;
@@ -82,6 +88,131 @@ public class LocalLinearTrendTest {
         assertTrue(state.a().range(1, 3).distance(lstate.a()) < 1e-9);
     }
 
+    @Test
+    public void testSmoothedCovariances() {
+        // diffuse model with missing values, compared with the exact
+        // posterior of the stacked states (information form)
+        LocalLinearTrend llt = new LocalLinearTrend(.1, .2, 1);
+        int n = 15, dim = llt.getStateDim(), N = n * dim;
+        double[] y = new double[n];
+        Random rnd = new Random(0);
+        for (int t = 0; t < n; ++t) {
+            y[t] = rnd.nextGaussian();
+        }
+        y[1] = Double.NaN;
+        y[6] = Double.NaN;
+        y[7] = Double.NaN;
+        DiffuseSmoother smoother = new DiffuseSmoother();
+        smoother.setCalcCrossCovariances(true);
+        DefaultSmoothingResults srslts = DefaultSmoothingResults.full(ResultsStorage.DEFAULT, true);
+        srslts.prepare(llt, 0, n);
+        assertTrue(smoother.process(llt, new SsfData(y), srslts));
+
+        Matrix T = Matrix.square(dim), V = Matrix.square(dim);
+        llt.getDynamics().T(0, T.subMatrix());
+        llt.getDynamics().V(0, V.subMatrix());
+        DataBlock z = new DataBlock(dim);
+        llt.getMeasurement().Z(0, z);
+        double h = llt.getMeasurement().errorVariance(0);
+        double[][] Vi = new double[dim][dim];
+        for (int i = 0; i < dim; ++i) {
+            for (int j = 0; j < dim; ++j) {
+                Vi[i][j] = V.get(i, j);
+            }
+        }
+        Vi = invert(Vi);
+        // precision of the states: sum of (a(t+1)-Ta(t))'V^-1(a(t+1)-Ta(t))
+        // and of the observations; no information on a(0)
+        double[][] O = new double[N][N];
+        for (int t = 0; t < n; ++t) {
+            int c0 = t * dim, c1 = c0 + dim;
+            if (t < n - 1) {
+                for (int i = 0; i < dim; ++i) {
+                    for (int j = 0; j < dim; ++j) {
+                        O[c1 + i][c1 + j] += Vi[i][j];
+                        double tv = 0, tvt = 0;
+                        for (int k = 0; k < dim; ++k) {
+                            // (T'V^-1)(i,j)
+                            tv += T.get(k, i) * Vi[k][j];
+                            for (int l = 0; l < dim; ++l) {
+                                tvt += T.get(k, i) * Vi[k][l] * T.get(l, j);
+                            }
+                        }
+                        O[c0 + i][c1 + j] -= tv;
+                        O[c1 + j][c0 + i] -= tv;
+                        O[c0 + i][c0 + j] += tvt;
+                    }
+                }
+            }
+            if (Double.isFinite(y[t])) {
+                for (int i = 0; i < dim; ++i) {
+                    for (int j = 0; j < dim; ++j) {
+                        O[c0 + i][c0 + j] += z.get(i) * z.get(j) / h;
+                    }
+                }
+            }
+        }
+        double[][] post = invert(O);
+        for (int t = 0; t < n; ++t) {
+            SubMatrix P = srslts.P(t);
+            for (int i = 0; i < dim; ++i) {
+                for (int j = 0; j < dim; ++j) {
+                    assertEquals(post[t * dim + i][t * dim + j], P.get(i, j), 1e-7);
+                }
+            }
+            if (t < n - 1) {
+                // cov(a(t), a(t+1))
+                SubMatrix C = srslts.crossCovariance(t);
+                for (int i = 0; i < dim; ++i) {
+                    for (int j = 0; j < dim; ++j) {
+                        assertEquals(post[t * dim + i][(t + 1) * dim + j], C.get(i, j), 1e-7);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gauss-Jordan inversion (with partial pivoting)
+     */
+    private static double[][] invert(double[][] A) {
+        int n = A.length;
+        double[][] a = new double[n][], b = new double[n][n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = A[i].clone();
+            b[i][i] = 1;
+        }
+        for (int c = 0; c < n; ++c) {
+            int p = c;
+            for (int r = c + 1; r < n; ++r) {
+                if (Math.abs(a[r][c]) > Math.abs(a[p][c])) {
+                    p = r;
+                }
+            }
+            double[] tmp = a[c];
+            a[c] = a[p];
+            a[p] = tmp;
+            tmp = b[c];
+            b[c] = b[p];
+            b[p] = tmp;
+            double d = a[c][c];
+            for (int j = 0; j < n; ++j) {
+                a[c][j] /= d;
+                b[c][j] /= d;
+            }
+            for (int r = 0; r < n; ++r) {
+                if (r != c && a[r][c] != 0) {
+                    double x = a[r][c];
+                    for (int j = 0; j < n; ++j) {
+                        a[r][j] -= x * a[c][j];
+                        b[r][j] -= x * b[c][j];
+                    }
+                }
+            }
+        }
+        return b;
+    }
+
     @Ignore
     @Test
     public void stressTest_LL_Bsm() {
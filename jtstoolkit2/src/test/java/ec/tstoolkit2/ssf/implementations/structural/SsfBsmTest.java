@@ -25,6 +25,9 @@ import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaModelBuilder;
 import ec.tstoolkit2.ssf.ISsfDynamics;
 import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.univariate.OrdinaryFilter;
+import ec.tstoolkit2.ssf.dk.DefaultDiffuseFilteringResults;
+import ec.tstoolkit2.ssf.PackedSymmetricMatrix;
 import ec.tstoolkit2.ssf.akf.AkfToolkit;
 import ec.tstoolkit2.ssf.akf.AugmentedFilter;
 import ec.tstoolkit2.ssf.akf.AugmentedPredictionErrorDecomposition;
@@ -35,6 +38,7 @@ import ec.tstoolkit2.ssf.dk.sqrt.DiffuseSquareRootInitializer;
 import ec.tstoolkit2.ssf.dk.DurbinKoopmanInitializer;
 import ec.tstoolkit2.ssf.dk.DkToolkit;
 import ec.tstoolkit2.ssf.implementations.TimeInvariantSsf;
+import ec.tstoolkit2.ssf.univariate.CompiledSsf;
 import ec.tstoolkit2.ssf.univariate.ISsf;
 import ec.tstoolkit2.ssf.univariate.ISsfMeasurement;
 import ec.tstoolkit2.ssf.univariate.FilteringErrors;
@@ -213,6 +217,64 @@ public class SsfBsmTest {
         assertTrue(x1.distance(x2) < 1e-9);
     }
 
+    @Test
+    public void testPackedCovariance() {
+        ModelSpecification nspec = model.getSpecification().clone();
+        for (SeasonalModel smodel : SeasonalModel.values()) {
+            nspec.setSeasonalModel(smodel);
+            SsfBsm bsm = SsfBsm.create(new BasicStructuralModel(nspec, 12));
+            ISsfDynamics dyn = bsm.getDynamics();
+            ISsfMeasurement m = bsm.getMeasurement();
+            int dim = bsm.getStateDim();
+            Matrix M = new Matrix(dim, dim);
+            M.randomize();
+            M = SymmetricMatrix.XXt(M);
+            PackedSymmetricMatrix pm = PackedSymmetricMatrix.of(M.subMatrix());
+            assertEquals(m.ZVZ(0, M.subMatrix()), m.ZVZ(0, pm), 1e-9);
+            DataBlock zm = new DataBlock(dim), pzm = new DataBlock(dim);
+            m.ZM(0, M.subMatrix(), zm);
+            m.ZM(0, pm, pzm);
+            assertTrue(zm.distance(pzm) < 1e-9);
+            dyn.TVT(0, M.subMatrix());
+            dyn.addV(0, M.subMatrix());
+            dyn.TVT(0, pm);
+            dyn.addV(0, pm);
+            assertTrue(M.distance(pm.toMatrix()) < 1e-9);
+            // lower triangle computed by the compiled model
+            ISsfDynamics cdyn = CompiledSsf.of(bsm).getDynamics();
+            PackedSymmetricMatrix cpm = PackedSymmetricMatrix.of(M.subMatrix());
+            Matrix CM = M.clone();
+            cdyn.TVT(0, CM.subMatrix());
+            cdyn.TVT(0, cpm);
+            assertTrue(CM.distance(cpm.toMatrix()) < 1e-9);
+            m.VpZdZ(0, M.subMatrix(), .5);
+            m.VpZdZ(0, pm, .5);
+            assertTrue(M.distance(pm.toMatrix()) < 1e-9);
+        }
+        Ssf ssf = SsfBsm.create(model);
+        SsfData ssfData = new SsfData(data);
+        DefaultDiffuseFilteringResults fref = DkToolkit.filter(ssf, ssfData, true);
+        DefaultDiffuseFilteringResults frslts = DefaultDiffuseFilteringResults.full();
+        frslts.prepare(ssf, 0, data.length);
+        OrdinaryFilter filter = new OrdinaryFilter(new DurbinKoopmanInitializer(frslts));
+        filter.setPackedCovariance(true);
+        assertTrue(filter.process(ssf, ssfData, frslts));
+        assertTrue(filter.getState().isPacked());
+        try {
+            filter.getState().P();
+            fail("P() should not be available for a packed state");
+        } catch (IllegalStateException err) {
+        }
+        assertEquals(ssf.getStateDim(), filter.getState().unpackedP().getRowsCount());
+        for (int i = 0; i < data.length; ++i) {
+            if (!Double.isNaN(data[i])) {
+                assertEquals(fref.error(i), frslts.error(i), 1e-9);
+                assertEquals(fref.errorVariance(i), frslts.errorVariance(i), 1e-9);
+            }
+        }
+        assertTrue(new Matrix(fref.P(data.length - 1)).distance(new Matrix(frslts.P(data.length - 1))) < 1e-9);
+    }
+
     @Test
     public void testDkLikelihood() {
         Ssf ssf = SsfBsm.create(model);
@@ -18,14 +18,25 @@ package ec.tstoolkit2.ssf.univariate;
 
 import data.Data;
 import ec.tstoolkit.arima.ArimaModel;
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.sarima.SarimaModel;
 import ec.tstoolkit.sarima.SarimaSpecification;
 import ec.tstoolkit.ssf.Smoother;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.ucarima.UcarimaModel;
+import ec.tstoolkit2.ssf.ISsfDynamics;
+import ec.tstoolkit2.ssf.State;
+import ec.tstoolkit2.ssf.StateInfo;
+import ec.tstoolkit2.ssf.implementations.arima.SsfArima;
 import ec.tstoolkit2.ssf.implementations.arima.SsfUcarima;
+import ec.tstoolkit2.ssf.storage.ResultsStorage;
+import java.util.Random;
+import java.util.stream.IntStream;
 import org.junit.Ignore;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -58,6 +69,184 @@ public class OrdinarySmootherTest {
 
     int N = 10000;
 
+    @Test
+    public void testCrossCovariances() {
+        // stationary ARMA(2,1) with missing values, compared with the exact
+        // posterior covariance of the stacked states
+        SarimaSpecification spec = new SarimaSpecification(1);
+        spec.setP(2);
+        spec.setQ(1);
+        SarimaModel arma = new SarimaModel(spec);
+        arma.setPhi(1, -.5);
+        arma.setPhi(2, .3);
+        arma.setTheta(1, .4);
+        SsfArima ssf = SsfArima.create(arma);
+        int n = 12, dim = ssf.getStateDim();
+        double[] y = new double[n];
+        Random rnd = new Random(0);
+        for (int t = 0; t < n; ++t) {
+            y[t] = rnd.nextGaussian();
+        }
+        y[3] = Double.NaN;
+        y[7] = Double.NaN;
+        SsfData ssfdata = new SsfData(y);
+
+        OrdinaryFilter filter = new OrdinaryFilter();
+        DefaultFilteringResults frslts = DefaultFilteringResults.full();
+        assertTrue(filter.process(ssf, ssfdata, frslts));
+        OrdinarySmoother smoother = new OrdinarySmoother();
+        smoother.setCalcCrossCovariances(true);
+        DefaultSmoothingResults srslts = DefaultSmoothingResults.full(ResultsStorage.DEFAULT, true);
+        srslts.prepare(ssf, 0, n);
+        assertTrue(smoother.process(ssf, 0, n, frslts, srslts));
+
+        double[][] post = posterior(ssf, y);
+        for (int t = 0; t < n; ++t) {
+            SubMatrix P = srslts.P(t);
+            for (int i = 0; i < dim; ++i) {
+                for (int j = 0; j < dim; ++j) {
+                    assertEquals(post[t * dim + i][t * dim + j], P.get(i, j), 1e-9);
+                }
+            }
+            if (t < n - 1) {
+                // cov(a(t), a(t+1))
+                SubMatrix C = srslts.crossCovariance(t);
+                for (int i = 0; i < dim; ++i) {
+                    for (int j = 0; j < dim; ++j) {
+                        assertEquals(post[t * dim + i][(t + 1) * dim + j], C.get(i, j), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Posterior covariance of the stacked states (a(0)...a(n-1)) of a
+     * stationary model: S - S Z'(Z S Z' + H)^-1 Z S, where S is the prior
+     * covariance and Z the measurements of the observed periods
+     */
+    private static double[][] posterior(ISsf ssf, double[] y) {
+        ISsfDynamics dyn = ssf.getDynamics();
+        ISsfMeasurement m = ssf.getMeasurement();
+        int n = y.length, dim = dyn.getStateDim(), N = n * dim;
+        Matrix T = Matrix.square(dim), V = Matrix.square(dim);
+        dyn.T(0, T.subMatrix());
+        dyn.V(0, V.subMatrix());
+        Matrix P0 = State.of(dyn, StateInfo.Forecast).P();
+        DataBlock z = new DataBlock(dim);
+        m.Z(0, z);
+        double h = m.hasErrors() ? m.errorVariance(0) : 0;
+        // prior covariance
+        double[][] S = new double[N][N];
+        for (int i = 0; i < dim; ++i) {
+            for (int j = 0; j < dim; ++j) {
+                S[i][j] = P0.get(i, j);
+            }
+        }
+        for (int t = 0; t < n - 1; ++t) {
+            int c0 = t * dim, c1 = c0 + dim;
+            // cov(a(t+1), a(s)) = T cov(a(t), a(s)), s <= t
+            for (int s = 0; s < c1; ++s) {
+                for (int i = 0; i < dim; ++i) {
+                    double x = 0;
+                    for (int k = 0; k < dim; ++k) {
+                        x += T.get(i, k) * S[c0 + k][s];
+                    }
+                    S[c1 + i][s] = x;
+                    S[s][c1 + i] = x;
+                }
+            }
+            // var(a(t+1)) = T var(a(t)) T' + V
+            for (int i = 0; i < dim; ++i) {
+                for (int j = 0; j < dim; ++j) {
+                    double x = V.get(i, j);
+                    for (int k = 0; k < dim; ++k) {
+                        x += S[c1 + i][c0 + k] * T.get(j, k);
+                    }
+                    S[c1 + i][c1 + j] = x;
+                }
+            }
+        }
+        int[] obs = IntStream.range(0, n).filter(t -> Double.isFinite(y[t])).toArray();
+        int nobs = obs.length;
+        // ZS (nobs x N), F = ZSZ' + H
+        double[][] ZS = new double[nobs][N], F = new double[nobs][nobs];
+        for (int r = 0; r < nobs; ++r) {
+            int c0 = obs[r] * dim;
+            for (int s = 0; s < N; ++s) {
+                double x = 0;
+                for (int k = 0; k < dim; ++k) {
+                    x += z.get(k) * S[c0 + k][s];
+                }
+                ZS[r][s] = x;
+            }
+        }
+        for (int r = 0; r < nobs; ++r) {
+            int c0 = obs[r] * dim;
+            for (int c = 0; c < nobs; ++c) {
+                double x = r == c ? h : 0;
+                for (int k = 0; k < dim; ++k) {
+                    x += ZS[r][obs[c] * dim + k] * z.get(k);
+                }
+                F[r][c] = x;
+            }
+        }
+        double[][] Fi = invert(F);
+        for (int i = 0; i < N; ++i) {
+            for (int j = 0; j < N; ++j) {
+                double x = 0;
+                for (int r = 0; r < nobs; ++r) {
+                    for (int c = 0; c < nobs; ++c) {
+                        x += ZS[r][i] * Fi[r][c] * ZS[c][j];
+                    }
+                }
+                S[i][j] -= x;
+            }
+        }
+        return S;
+    }
+
+    /**
+     * Gauss-Jordan inversion (with partial pivoting)
+     */
+    private static double[][] invert(double[][] A) {
+        int n = A.length;
+        double[][] a = new double[n][], b = new double[n][n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = A[i].clone();
+            b[i][i] = 1;
+        }
+        for (int c = 0; c < n; ++c) {
+            int p = c;
+            for (int r = c + 1; r < n; ++r) {
+                if (Math.abs(a[r][c]) > Math.abs(a[p][c])) {
+                    p = r;
+                }
+            }
+            double[] tmp = a[c];
+            a[c] = a[p];
+            a[p] = tmp;
+            tmp = b[c];
+            b[c] = b[p];
+            b[p] = tmp;
+            double d = a[c][c];
+            for (int j = 0; j < n; ++j) {
+                a[c][j] /= d;
+                b[c][j] /= d;
+            }
+            for (int r = 0; r < n; ++r) {
+                if (r != c && a[r][c] != 0) {
+                    double x = a[r][c];
+                    for (int j = 0; j < n; ++j) {
+                        a[r][j] -= x * a[c][j];
+                        b[r][j] -= x * b[c][j];
+                    }
+                }
+            }
+        }
+        return b;
+    }
+
     @Test
     @Ignore
     public void testSmoother() {